@@ -0,0 +1,67 @@
+package org.zstack.benchmark;
+
+import org.zstack.core.aspect.ThreadAspect;
+import org.zstack.core.jmx.JmxFacade;
+import org.zstack.core.thread.ThreadFacadeImpl;
+import org.zstack.core.thread.ThreadGlobalProperty;
+import org.zstack.core.timeout.Timer;
+import org.zstack.header.exception.CloudRuntimeException;
+
+import java.lang.reflect.Field;
+
+/**
+ * helpers to run components out of the Spring container, benchmarks
+ * wire the few dependencies a component needs by hand
+ */
+public class BenchmarkUtils {
+    public static void setField(Object target, String name, Object value) {
+        Class clz = target.getClass();
+        while (clz != null) {
+            try {
+                Field f = clz.getDeclaredField(name);
+                f.setAccessible(true);
+                f.set(target, value);
+                return;
+            } catch (NoSuchFieldException e) {
+                clz = clz.getSuperclass();
+            } catch (IllegalAccessException e) {
+                throw new CloudRuntimeException(e);
+            }
+        }
+
+        throw new CloudRuntimeException(String.format("no field[%s] on %s", name, target.getClass()));
+    }
+
+    public static Object getField(Object target, String name) {
+        Class clz = target.getClass();
+        while (clz != null) {
+            try {
+                Field f = clz.getDeclaredField(name);
+                f.setAccessible(true);
+                return f.get(target);
+            } catch (NoSuchFieldException e) {
+                clz = clz.getSuperclass();
+            } catch (IllegalAccessException e) {
+                throw new CloudRuntimeException(e);
+            }
+        }
+
+        throw new CloudRuntimeException(String.format("no field[%s] on %s", name, target.getClass()));
+    }
+
+    /**
+     * a ThreadFacadeImpl with its DispatchQueue, also used by @AsyncThread methods
+     */
+    public static ThreadFacadeImpl newThreadFacade(int threadNum) {
+        ThreadGlobalProperty.MAX_THREAD_NUM = threadNum;
+        ThreadFacadeImpl thdf = new ThreadFacadeImpl();
+        setField(thdf, "jmxf", (JmxFacade) (name, bean) -> {});
+        thdf.init();
+
+        Object dpq = getField(thdf, "dpq");
+        setField(dpq, "_threadFacade", thdf);
+        setField(dpq, "zTimer", (Timer) System::currentTimeMillis);
+        setField(ThreadAspect.aspectOf(), "thread", thdf);
+        return thdf;
+    }
+}
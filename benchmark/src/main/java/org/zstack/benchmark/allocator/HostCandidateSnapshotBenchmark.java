@@ -0,0 +1,91 @@
+package org.zstack.benchmark.allocator;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.zstack.compute.allocator.HostCandidateSnapshot;
+import org.zstack.header.allocator.HostCapacityVO;
+import org.zstack.header.host.HostState;
+import org.zstack.header.host.HostStatus;
+import org.zstack.header.host.HostVO;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * latency of filtering candidate hosts by state, hypervisor type and capacity,
+ * the HostVO way of HostStateAndHypervisorAllocatorFlow + HostCapacityAllocatorFlow
+ * against the columnar HostCandidateSnapshot
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HostCandidateSnapshotBenchmark {
+    private static final long GB = 1024L * 1024 * 1024;
+    private static final String KVM = "KVM";
+
+    @Param({"1000", "5000", "20000"})
+    public int hosts;
+
+    private List<HostVO> vos;
+    private HostCandidateSnapshot snapshot;
+
+    private final long cpu = 8;
+    private final long memory = 16 * GB;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(7);
+        vos = new ArrayList<>(hosts);
+        HostCandidateSnapshot.Builder builder = new HostCandidateSnapshot.Builder();
+        for (int i = 0; i < hosts; i++) {
+            HostVO vo = new HostVO();
+            vo.setUuid(UUID.randomUUID().toString().replace("-", ""));
+            vo.setClusterUuid(String.format("cluster-%s", i % 50));
+            vo.setHypervisorType(i % 10 == 0 ? "ESX" : KVM);
+            vo.setState(random.nextInt(20) == 0 ? HostState.Disabled : HostState.Enabled);
+            vo.setStatus(random.nextInt(20) == 0 ? HostStatus.Disconnected : HostStatus.Connected);
+
+            HostCapacityVO cap = new HostCapacityVO();
+            cap.setUuid(vo.getUuid());
+            cap.setTotalCpu(128);
+            cap.setAvailableCpu(random.nextInt(129));
+            cap.setTotalMemory(256 * GB);
+            cap.setAvailableMemory(random.nextInt(257) * GB);
+            cap.setTotalPhysicalMemory(256 * GB);
+            cap.setAvailablePhysicalMemory(cap.getAvailableMemory());
+            vo.setCapacity(cap);
+            vos.add(vo);
+
+            builder.add(vo.getUuid(), vo.getState(), vo.getStatus(), vo.getHypervisorType(), vo.getClusterUuid(),
+                    cap.getAvailableCpu(), cap.getAvailableMemory(), cap.getTotalPhysicalMemory());
+        }
+
+        snapshot = builder.build();
+    }
+
+    @Benchmark
+    public void hostVOFlows(Blackhole bh) {
+        List<HostVO> ret = new ArrayList<>(vos.size());
+        for (HostVO vo : vos) {
+            if (KVM.equals(vo.getHypervisorType()) && vo.getState() == HostState.Enabled && vo.getStatus() == HostStatus.Connected) {
+                ret.add(vo);
+            }
+        }
+
+        ret = ret.stream().filter(vo -> vo.getCapacity().getAvailableCpu() >= cpu
+                && memory < vo.getCapacity().getTotalPhysicalMemory()
+                && vo.getCapacity().getAvailableMemory() >= memory).collect(Collectors.toList());
+
+        bh.consume(ret.stream().map(HostVO::getUuid).collect(Collectors.toList()));
+    }
+
+    @Benchmark
+    public void columnarSnapshot(Blackhole bh) {
+        BitSet mask = snapshot.select(KVM, null, cpu, memory, 0, true);
+        bh.consume(snapshot.getUuids(mask));
+    }
+}
@@ -0,0 +1,64 @@
+package org.zstack.benchmark.hash;
+
+import org.openjdk.jmh.annotations.*;
+import org.zstack.utils.hash.ApacheHash;
+import org.zstack.utils.hash.ConsistentHash;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * lookups per second of the management node ring under concurrent readers,
+ * run with -t to change the number of reader threads
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class ConsistentHashBenchmark {
+    private static final int RESOURCES = 100000;
+
+    @Param({"3", "10"})
+    public int managementNodes;
+
+    private ConsistentHash<String> ring;
+    private LegacyConsistentHash<String> legacyRing;
+    private String[] resourceUuids;
+
+    @Setup
+    public void setup() {
+        List<String> nodes = new ArrayList<>();
+        for (int i = 0; i < managementNodes; i++) {
+            nodes.add(UUID.randomUUID().toString().replace("-", ""));
+        }
+
+        // same as ResourceDestinationMakerImpl
+        ring = new ConsistentHash<>(new ApacheHash(), 500, nodes);
+        legacyRing = new LegacyConsistentHash<>(new ApacheHash(), 500, nodes);
+
+        resourceUuids = new String[RESOURCES];
+        for (int i = 0; i < RESOURCES; i++) {
+            resourceUuids[i] = UUID.randomUUID().toString().replace("-", "");
+        }
+    }
+
+    private String nextUuid() {
+        return resourceUuids[ThreadLocalRandom.current().nextInt(RESOURCES)];
+    }
+
+    @Benchmark
+    public String copyOnWriteRing() {
+        return ring.get(nextUuid());
+    }
+
+    @Benchmark
+    public String synchronizedTreeMap() {
+        return legacyRing.get(nextUuid());
+    }
+}
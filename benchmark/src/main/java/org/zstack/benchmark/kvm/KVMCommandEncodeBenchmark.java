@@ -0,0 +1,114 @@
+package org.zstack.benchmark.kvm;
+
+import org.openjdk.jmh.annotations.*;
+import org.zstack.kvm.KVMAgentCommands.NicTO;
+import org.zstack.kvm.KVMAgentCommands.StartVmCmd;
+import org.zstack.kvm.KVMCommandEncoder;
+import org.zstack.kvm.KVMConstant;
+import org.zstack.kvm.VolumeTO;
+import org.zstack.utils.gson.JSONObjectUtil;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * encodes a StartVmCmd with kvmHostAddons as KVMHost.Http does, with the
+ * single serialization and lazy command map, and with the serialize, parse
+ * and regex splice it replaced
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KVMCommandEncodeBenchmark {
+    @Param({"4", "64"})
+    private int volumes;
+    @Param({"2", "16"})
+    private int nics;
+
+    private StartVmCmd cmd;
+    private LinkedHashMap addons;
+
+    private static String uuid() {
+        return UUID.randomUUID().toString().replace("-", "");
+    }
+
+    private static VolumeTO volume(int deviceId) {
+        VolumeTO to = new VolumeTO();
+        to.setVolumeUuid(uuid());
+        to.setInstallPath(String.format("/zstack_ps/dataVolumes/acct-%s/vol-%s/%s.qcow2", uuid(), uuid(), uuid()));
+        to.setDeviceId(deviceId);
+        to.setDeviceType(VolumeTO.FILE);
+        to.setFormat("qcow2");
+        to.setCacheMode("none");
+        to.setUseVirtio(true);
+        to.setWwn(String.format("0x%016x", deviceId));
+        return to;
+    }
+
+    private static NicTO nic(int deviceId) {
+        NicTO to = new NicTO();
+        to.setUuid(uuid());
+        to.setMac(String.format("fa:16:3e:00:00:%02x", deviceId));
+        to.setIps(Arrays.asList(String.format("192.168.%d.10", deviceId)));
+        to.setBridgeName(String.format("br_eth0_%d", 100 + deviceId));
+        to.setPhysicalInterface("eth0");
+        to.setDeviceId(deviceId);
+        to.setNicInternalName(String.format("vnic1.%d", deviceId));
+        to.setUseVirtio(true);
+        return to;
+    }
+
+    @Setup
+    public void setup() {
+        cmd = new StartVmCmd();
+        cmd.setVmInstanceUuid(uuid());
+        cmd.setVmName("benchmark-vm");
+        cmd.setMemory(8L * 1024 * 1024 * 1024);
+        cmd.setCpuNum(8);
+        cmd.setSocketNum(1);
+        cmd.setCpuOnSocket(8);
+        cmd.setBootDev(Arrays.asList("hd", "cdrom"));
+        cmd.setRootVolume(volume(0));
+
+        List<VolumeTO> dataVolumes = new ArrayList<>();
+        for (int i = 1; i <= volumes; i++) {
+            dataVolumes.add(volume(i));
+        }
+        cmd.setDataVolumes(dataVolumes);
+
+        List<NicTO> nicTOs = new ArrayList<>();
+        for (int i = 0; i < nics; i++) {
+            nicTOs.add(nic(i));
+        }
+        cmd.setNics(nicTOs);
+
+        addons = new LinkedHashMap();
+        addons.put("hostUuid", uuid());
+    }
+
+    @Benchmark
+    public String singlePass() {
+        String json = JSONObjectUtil.toJsonString(cmd);
+        KVMCommandEncoder.lazyCommandMap(json);
+        return KVMCommandEncoder.appendHostAddons(json, addons);
+    }
+
+    @Benchmark
+    public String singlePassExtensionReading() {
+        String json = JSONObjectUtil.toJsonString(cmd);
+        Map commandMap = KVMCommandEncoder.lazyCommandMap(json);
+        commandMap.get("vmInstanceUuid");
+        return KVMCommandEncoder.appendHostAddons(json, addons);
+    }
+
+    @Benchmark
+    public String legacy() {
+        String json = JSONObjectUtil.toJsonString(cmd);
+        JSONObjectUtil.toObject(json, LinkedHashMap.class);
+        return json.replaceAll("\\}$",
+                String.format(",\"%s\":%s}", KVMConstant.KVM_HOST_ADDONS, JSONObjectUtil.toJsonString(addons)));
+    }
+}
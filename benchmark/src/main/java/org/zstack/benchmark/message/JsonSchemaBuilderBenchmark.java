@@ -0,0 +1,118 @@
+package org.zstack.benchmark.message;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.zstack.header.allocator.AllocationScene;
+import org.zstack.header.host.HostInventory;
+import org.zstack.header.message.JsonSchemaBuilder;
+import org.zstack.header.message.Message;
+import org.zstack.header.vm.*;
+import org.zstack.header.volume.VolumeInventory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * compares the cached per-class schema plan of JsonSchemaBuilder with the
+ * reflection based builder it replaced, on messages sent across management nodes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonSchemaBuilderBenchmark {
+    @Param({"startVmInstance", "startVmOnHypervisor"})
+    public String message;
+
+    // number of nics and volumes carried by the VmInstanceSpec
+    @Param({"4", "32"})
+    public int devices;
+
+    private Message msg;
+
+    private static String uuid() {
+        return UUID.randomUUID().toString().replace("-", "");
+    }
+
+    private VmInstanceSpec makeSpec() {
+        VmInstanceInventory vm = new VmInstanceInventory();
+        vm.setUuid(uuid());
+        vm.setName("benchmark-vm");
+        vm.setCpuNum(8);
+        vm.setMemorySize(8L * 1024 * 1024 * 1024);
+
+        List<VmNicInventory> nics = new ArrayList<>();
+        List<VolumeInventory> volumes = new ArrayList<>();
+        for (int i = 0; i < devices; i++) {
+            VmNicInventory nic = new VmNicInventory();
+            nic.setUuid(uuid());
+            nic.setVmInstanceUuid(vm.getUuid());
+            nic.setL3NetworkUuid(uuid());
+            nic.setIp(String.format("10.0.%s.%s", i / 250, i % 250 + 2));
+            nic.setMac(String.format("fa:16:3e:00:%02x:%02x", i / 256, i % 256));
+            nic.setDeviceId(i);
+            nics.add(nic);
+
+            VolumeInventory vol = new VolumeInventory();
+            vol.setUuid(uuid());
+            vol.setName(String.format("volume-%s", i));
+            vol.setVmInstanceUuid(vm.getUuid());
+            vol.setPrimaryStorageUuid(uuid());
+            volumes.add(vol);
+        }
+        vm.setVmNics(nics);
+        vm.setAllVolumes(volumes);
+
+        HostInventory host = new HostInventory();
+        host.setUuid(uuid());
+        host.setManagementIp("192.168.0.10");
+
+        VmInstanceSpec spec = new VmInstanceSpec();
+        spec.setVmInventory(vm);
+        spec.setDestHost(host);
+        spec.setDestNics(nics);
+        spec.setDestRootVolume(volumes.get(0));
+        spec.setDestDataVolumes(volumes.subList(1, volumes.size()));
+        for (int i = 0; i < devices; i++) {
+            VmInstanceSpec.VolumeSpec vspec = new VmInstanceSpec.VolumeSpec();
+            vspec.setType(i == 0 ? "Root" : "Data");
+            vspec.setSize(1024L * 1024 * 1024);
+            spec.getVolumeSpecs().add(vspec);
+        }
+
+        return spec;
+    }
+
+    @Setup
+    public void setup() {
+        if ("startVmInstance".equals(message)) {
+            StartVmInstanceMsg smsg = new StartVmInstanceMsg();
+            smsg.setVmInstanceUuid(uuid());
+            smsg.setAccountUuid(uuid());
+            smsg.setHostUuid(uuid());
+            smsg.setAllocationScene(AllocationScene.Auto);
+            msg = smsg;
+        } else {
+            StartVmOnHypervisorMsg smsg = new StartVmOnHypervisorMsg();
+            smsg.setVmSpec(makeSpec());
+            msg = smsg;
+        }
+    }
+
+    @Benchmark
+    public void cachedPlan(Blackhole bh) {
+        Map<String, String> schema = new JsonSchemaBuilder(msg).build();
+        bh.consume(schema);
+    }
+
+    @Benchmark
+    public void reflection(Blackhole bh) {
+        Map<String, String> schema = new LegacyJsonSchemaBuilder(msg).build();
+        bh.consume(schema);
+    }
+}
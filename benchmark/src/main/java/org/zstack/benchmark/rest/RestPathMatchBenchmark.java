@@ -0,0 +1,97 @@
+package org.zstack.benchmark.rest;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.util.AntPathMatcher;
+import org.zstack.header.rest.RestRequest;
+import org.zstack.utils.BeanUtils;
+import org.zstack.utils.path.PathTrie;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * matches request URLs against the REST API table, built the same way as
+ * RestServer.build() from all @RestRequest classes on the classpath, with the
+ * segment trie and with the exact lookup plus AntPathMatcher scan it replaced
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RestPathMatchBenchmark {
+    // same as RestConstants.API_VERSION
+    private static final String API_VERSION = "/v1";
+    private static final int URLS = 10000;
+
+    private final AntPathMatcher matcher = new AntPathMatcher();
+    private Map<String, Object> apis = new HashMap<>();
+    private PathTrie<Object> routes = new PathTrie<>();
+    private String[] urls;
+
+    // same as RestServer.normalizePath()
+    private static String normalizePath(String path) {
+        List<String> names = PathTrie.getVariableNames(path);
+        for (int i = 0; i < names.size(); i++) {
+            path = path.replace(String.format("{%s}", names.get(i)), String.format("{%s}", i));
+        }
+        return path;
+    }
+
+    @Setup
+    public void setup() {
+        for (Class<?> clz : BeanUtils.reflections.getTypesAnnotatedWith(RestRequest.class)) {
+            RestRequest at = clz.getAnnotation(RestRequest.class);
+            if (at == null) {
+                continue;
+            }
+
+            List<String> paths = new ArrayList<>();
+            if (!"null".equals(at.path())) {
+                paths.add(API_VERSION + at.path());
+            }
+            Arrays.stream(at.optionalPaths()).forEach(p -> paths.add(API_VERSION + p));
+            paths.forEach(p -> apis.put(normalizePath(p), clz));
+        }
+        apis.forEach((path, api) -> routes.add(path, api));
+
+        // requests mostly carry resource uuids
+        List<String> patterns = new ArrayList<>(apis.keySet());
+        urls = new String[URLS];
+        for (int i = 0; i < URLS; i++) {
+            String url = patterns.get(ThreadLocalRandom.current().nextInt(patterns.size()));
+            for (int j = 0; url.contains("{"); j++) {
+                url = url.replace(String.format("{%s}", j), UUID.randomUUID().toString().replace("-", ""));
+            }
+            urls[i] = url;
+        }
+    }
+
+    private String nextUrl() {
+        return urls[ThreadLocalRandom.current().nextInt(URLS)];
+    }
+
+    @Benchmark
+    public Object trie() {
+        PathTrie.Match<Object> m = routes.match(nextUrl());
+        return m == null ? null : m.getVariables();
+    }
+
+    @Benchmark
+    public Object antPathScan() {
+        String url = nextUrl();
+        if (apis.containsKey(url)) {
+            return url;
+        }
+
+        for (String p : apis.keySet()) {
+            if (matcher.match(p, url)) {
+                return matcher.extractUriTemplateVariables(p, url);
+            }
+        }
+
+        return null;
+    }
+}
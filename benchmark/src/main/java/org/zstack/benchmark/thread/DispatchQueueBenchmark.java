@@ -0,0 +1,128 @@
+package org.zstack.benchmark.thread;
+
+import org.openjdk.jmh.annotations.*;
+import org.zstack.benchmark.BenchmarkUtils;
+import org.zstack.core.thread.ChainTask;
+import org.zstack.core.thread.SyncTask;
+import org.zstack.core.thread.SyncTaskChain;
+import org.zstack.core.thread.ThreadFacadeImpl;
+
+import java.util.concurrent.*;
+
+/**
+ * submit/complete throughput of chain and sync tasks over many distinct signatures,
+ * tasks are submitted concurrently by SUBMITTERS threads like messages of different
+ * hosts/vms arriving at the same time
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class DispatchQueueBenchmark {
+    private static final int TASKS_PER_OP = 100000;
+    private static final int SUBMITTERS = 8;
+
+    @Param({"1000", "10000", "100000"})
+    public int signatures;
+
+    @Param({"1", "10"})
+    public int syncLevel;
+
+    private ThreadFacadeImpl thdf;
+    private ExecutorService submitters;
+    private String[] names;
+
+    @Setup
+    public void setup() {
+        thdf = BenchmarkUtils.newThreadFacade(Runtime.getRuntime().availableProcessors() * 8);
+        submitters = Executors.newFixedThreadPool(SUBMITTERS);
+        names = new String[signatures];
+        for (int i = 0; i < signatures; i++) {
+            names[i] = String.format("vm-%s", i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        submitters.shutdownNow();
+        thdf.destroy();
+    }
+
+    private void submitAll(CountDownLatch latch, Submitter submitter) throws InterruptedException {
+        int share = TASKS_PER_OP / SUBMITTERS;
+        for (int s = 0; s < SUBMITTERS; s++) {
+            final int start = s * share;
+            submitters.execute(() -> {
+                for (int i = start; i < start + share; i++) {
+                    submitter.submit(names[i % signatures], latch);
+                }
+            });
+        }
+
+        if (!latch.await(10, TimeUnit.MINUTES)) {
+            throw new IllegalStateException(String.format("%s tasks are not done", latch.getCount()));
+        }
+    }
+
+    private interface Submitter {
+        void submit(String signature, CountDownLatch latch);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TASKS_PER_OP)
+    public void chainSubmit() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(TASKS_PER_OP / SUBMITTERS * SUBMITTERS);
+        submitAll(latch, (signature, l) -> thdf.chainSubmit(new ChainTask(null) {
+            @Override
+            public String getSyncSignature() {
+                return signature;
+            }
+
+            @Override
+            public void run(SyncTaskChain chain) {
+                l.countDown();
+                chain.next();
+            }
+
+            @Override
+            protected int getSyncLevel() {
+                return syncLevel;
+            }
+
+            @Override
+            public String getName() {
+                return signature;
+            }
+        }));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TASKS_PER_OP)
+    public void syncSubmit() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(TASKS_PER_OP / SUBMITTERS * SUBMITTERS);
+        submitAll(latch, (signature, l) -> thdf.syncSubmit(new SyncTask<Void>() {
+            @Override
+            public String getSyncSignature() {
+                return signature;
+            }
+
+            @Override
+            public int getSyncLevel() {
+                return syncLevel;
+            }
+
+            @Override
+            public String getName() {
+                return signature;
+            }
+
+            @Override
+            public Void call() {
+                l.countDown();
+                return null;
+            }
+        }));
+    }
+}
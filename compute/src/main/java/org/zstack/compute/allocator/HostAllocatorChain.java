@@ -220,7 +220,28 @@ public class HostAllocatorChain implements HostAllocatorTrigger, HostAllocatorSt
         return flows.indexOf(flow) == skipCounter;
     }
 
+    // hosts selected on the candidate snapshot are all filtered out, the snapshot may miss
+    // hosts added, reconnected or freed since it's built, start over on the database
+    private boolean startOverWithoutSnapshot(ErrorCode errorCode) {
+        Map<Object, Object> extraData = allocationSpec.getExtraData();
+        if (extraData.remove(HostCandidateSnapshotManager.SNAPSHOT_USED) == null
+                || !HostAllocatorError.NO_AVAILABLE_HOST.toString().equals(errorCode.getCode())) {
+            return false;
+        }
+
+        logger.debug(String.format("[Host Allocation]: flow[%s] found no host in candidates of the host candidate snapshot," +
+                " will start over allocation without the snapshot; failure details: %s",
+                lastFlow.getClass().getName(), errorCode.getDetails()));
+        extraData.put(HostCandidateSnapshotManager.SNAPSHOT_SKIPPED, true);
+        startOver();
+        return true;
+    }
+
     private void fail(ErrorCode errorCode) {
+        if (startOverWithoutSnapshot(errorCode)) {
+            return;
+        }
+
         result = null;
         if (seriesErrorWhenPagination.isEmpty()) {
             logger.debug(String.format("[Host Allocation] flow[%s] failed to allocate host; %s",
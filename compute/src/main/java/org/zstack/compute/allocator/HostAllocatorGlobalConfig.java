@@ -28,4 +28,16 @@ public class HostAllocatorGlobalConfig {
     public static GlobalConfig HOST_ALLOCATOR_CONCURRENT_LEVEL = new GlobalConfig(CATEGORY, "hostAllocator.concurrent.level");
     @GlobalConfigValidation
     public static GlobalConfig HOST_ALLOCATOR_MAX_MEMORY = new GlobalConfig(CATEGORY, "hostAllocator.checkHostMem");
+    @GlobalConfigValidation
+    @GlobalConfigDef(defaultValue = "false", type = Boolean.class, description = "keep capacities of hosts managed by this management node in memory, and flush capacity changes to database in batches")
+    public static GlobalConfig HOST_CAPACITY_LEDGER = new GlobalConfig(CATEGORY, "hostCapacityLedger");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    @GlobalConfigDef(defaultValue = "1", type = Long.class, description = "the interval in seconds the host capacity ledger flushes capacity changes to database")
+    public static GlobalConfig HOST_CAPACITY_LEDGER_FLUSH_INTERVAL = new GlobalConfig(CATEGORY, "hostCapacityLedger.flushInterval");
+    @GlobalConfigValidation
+    @GlobalConfigDef(defaultValue = "false", type = Boolean.class, description = "pre-filter candidate hosts on a periodically refreshed in-memory snapshot, only hosts passing the filter are loaded from database")
+    public static GlobalConfig HOST_CANDIDATE_SNAPSHOT = new GlobalConfig(CATEGORY, "candidateSnapshot");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    @GlobalConfigDef(defaultValue = "5", type = Long.class, description = "the interval in seconds the host candidate snapshot is refreshed")
+    public static GlobalConfig HOST_CANDIDATE_SNAPSHOT_REFRESH_INTERVAL = new GlobalConfig(CATEGORY, "candidateSnapshot.refreshInterval");
 }
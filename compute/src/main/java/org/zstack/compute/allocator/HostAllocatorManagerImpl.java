@@ -75,6 +75,8 @@ public class HostAllocatorManagerImpl extends AbstractService implements HostAll
     @Autowired
     private HostCpuOverProvisioningManager cpuRatioMgr;
     @Autowired
+    private HostCapacityLedger ledger;
+    @Autowired
     private ErrorFacade errf;
     @Autowired
     private ThreadFacade thdf;
@@ -234,7 +236,7 @@ public class HostAllocatorManagerImpl extends AbstractService implements HostAll
         });
 
         for (final HostUsedCpuMem s : hostUsedCpuMemList) {
-            new HostCapacityUpdater(s.hostUuid).run(new HostCapacityUpdaterRunnable() {
+            new HostCapacityUpdater(s.hostUuid).runInDatabase(new HostCapacityUpdaterRunnable() {
                 @Override
                 public HostCapacityVO call(HostCapacityVO cap) {
                     long before = cap.getAvailableMemory();
@@ -274,6 +276,7 @@ public class HostAllocatorManagerImpl extends AbstractService implements HostAll
         long availCpu = totalCpu - msg.getUsedCpu();
         availCpu = availCpu > 0 ? availCpu : 0;
 
+        ledger.evict(msg.getHostUuid());
         HostCapacityVO vo = dbf.findByUuid(msg.getHostUuid(), HostCapacityVO.class);
         if (vo == null) {
             vo = new HostCapacityVO();
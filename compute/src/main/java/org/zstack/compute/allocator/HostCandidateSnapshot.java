@@ -0,0 +1,131 @@
+package org.zstack.compute.allocator;
+
+import org.zstack.header.host.HostState;
+import org.zstack.header.host.HostStatus;
+
+import java.util.*;
+
+/**
+ * a columnar, immutable snapshot of the host attributes the allocator filters on.
+ *
+ * every host is a row index, attributes are kept in primitive arrays and
+ * low-cardinality attributes (hypervisor type, cluster) as one bitset per
+ * value, so a filter is a few bitset operations and a loop over the arrays,
+ * without touching any HostVO.
+ */
+public class HostCandidateSnapshot {
+    private final long createTime = System.currentTimeMillis();
+
+    private final String[] uuids;
+    private final long[] availableCpu;
+    // available memory calculated by the over provisioning ratio of the host
+    private final long[] availableMemory;
+    private final long[] totalPhysicalMemory;
+    // hosts of state Enabled and status Connected
+    private final BitSet usable;
+    private final Map<String, BitSet> hypervisorTypes;
+    private final Map<String, BitSet> clusters;
+
+    public static class Builder {
+        private final List<String> uuids = new ArrayList<>();
+        private long[] availableCpu = new long[16];
+        private long[] availableMemory = new long[16];
+        private long[] totalPhysicalMemory = new long[16];
+        private final BitSet usable = new BitSet();
+        private final Map<String, BitSet> hypervisorTypes = new HashMap<>();
+        private final Map<String, BitSet> clusters = new HashMap<>();
+
+        public Builder add(String uuid, HostState state, HostStatus status, String hypervisorType, String clusterUuid,
+                           long availableCpu, long availableMemory, long totalPhysicalMemory) {
+            int i = uuids.size();
+            if (i == this.availableCpu.length) {
+                this.availableCpu = Arrays.copyOf(this.availableCpu, i * 2);
+                this.availableMemory = Arrays.copyOf(this.availableMemory, i * 2);
+                this.totalPhysicalMemory = Arrays.copyOf(this.totalPhysicalMemory, i * 2);
+            }
+
+            uuids.add(uuid);
+            this.availableCpu[i] = availableCpu;
+            this.availableMemory[i] = availableMemory;
+            this.totalPhysicalMemory[i] = totalPhysicalMemory;
+            if (state == HostState.Enabled && status == HostStatus.Connected) {
+                usable.set(i);
+            }
+            hypervisorTypes.computeIfAbsent(hypervisorType, k -> new BitSet()).set(i);
+            clusters.computeIfAbsent(clusterUuid, k -> new BitSet()).set(i);
+            return this;
+        }
+
+        public HostCandidateSnapshot build() {
+            return new HostCandidateSnapshot(this);
+        }
+    }
+
+    private HostCandidateSnapshot(Builder b) {
+        int size = b.uuids.size();
+        uuids = b.uuids.toArray(new String[0]);
+        availableCpu = Arrays.copyOf(b.availableCpu, size);
+        availableMemory = Arrays.copyOf(b.availableMemory, size);
+        totalPhysicalMemory = Arrays.copyOf(b.totalPhysicalMemory, size);
+        usable = b.usable;
+        hypervisorTypes = b.hypervisorTypes;
+        clusters = b.clusters;
+    }
+
+    public long getCreateTime() {
+        return createTime;
+    }
+
+    public int size() {
+        return uuids.length;
+    }
+
+    /**
+     * Enabled and Connected hosts of the hypervisor type (any if null), optionally
+     * in the clusters (any if null), having the cpu and memory, following the same
+     * rules as HostStateAndHypervisorAllocatorFlow and HostCapacityAllocatorFlow
+     */
+    public BitSet select(String hypervisorType, Collection<String> clusterUuids, long cpu, long memory, long oldMemory, boolean checkPhysicalMemory) {
+        BitSet mask = (BitSet) usable.clone();
+        if (hypervisorType != null) {
+            BitSet hv = hypervisorTypes.get(hypervisorType);
+            if (hv == null) {
+                return new BitSet();
+            }
+            mask.and(hv);
+        }
+
+        if (clusterUuids != null) {
+            BitSet cs = new BitSet();
+            clusterUuids.forEach(cuuid -> {
+                BitSet c = clusters.get(cuuid);
+                if (c != null) {
+                    cs.or(c);
+                }
+            });
+            mask.and(cs);
+        }
+
+        if (cpu == 0 && memory == 0) {
+            return mask;
+        }
+
+        for (int i = mask.nextSetBit(0); i >= 0; i = mask.nextSetBit(i + 1)) {
+            if (cpu != 0 && availableCpu[i] < cpu) {
+                mask.clear(i);
+            } else if (memory != 0 && ((checkPhysicalMemory && memory + oldMemory >= totalPhysicalMemory[i]) || availableMemory[i] < memory)) {
+                mask.clear(i);
+            }
+        }
+
+        return mask;
+    }
+
+    public List<String> getUuids(BitSet mask) {
+        List<String> ret = new ArrayList<>(mask.cardinality());
+        for (int i = mask.nextSetBit(0); i >= 0; i = mask.nextSetBit(i + 1)) {
+            ret.add(uuids[i]);
+        }
+        return ret;
+    }
+}
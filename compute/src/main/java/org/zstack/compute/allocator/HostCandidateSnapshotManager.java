@@ -0,0 +1,16 @@
+package org.zstack.compute.allocator;
+
+/**
+ */
+public interface HostCandidateSnapshotManager {
+    // keys of HostAllocatorSpec.extraData, set when the first flow selected hosts on the snapshot,
+    // and when the allocation starts over without it as the selected hosts are filtered out
+    String SNAPSHOT_USED = "HostCandidateSnapshot.used";
+    String SNAPSHOT_SKIPPED = "HostCandidateSnapshot.skipped";
+
+    /**
+     * @return the latest snapshot, or null if snapshot allocation is disabled, no snapshot is built yet
+     * or the snapshot isn't refreshed in two intervals
+     */
+    HostCandidateSnapshot getSnapshot();
+}
@@ -0,0 +1,126 @@
+package org.zstack.compute.allocator;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.annotation.Transactional;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.thread.PeriodicTask;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.Component;
+import org.zstack.header.allocator.HostCapacityOverProvisioningManager;
+import org.zstack.header.host.HostState;
+import org.zstack.header.host.HostStatus;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import javax.persistence.Tuple;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * rebuilds the host candidate snapshot every hostAllocator.candidateSnapshot.refreshInterval
+ * seconds with one query, when hostAllocator.candidateSnapshot is enabled
+ */
+public class HostCandidateSnapshotManagerImpl implements HostCandidateSnapshotManager, Component {
+    private static final CLogger logger = Utils.getLogger(HostCandidateSnapshotManagerImpl.class);
+
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private ThreadFacade thdf;
+    @Autowired
+    private HostCapacityOverProvisioningManager ratioMgr;
+
+    private volatile HostCandidateSnapshot snapshot;
+    private Future<Void> refreshTask;
+
+    @Override
+    public HostCandidateSnapshot getSnapshot() {
+        HostCandidateSnapshot s = snapshot;
+        if (s == null || !HostAllocatorGlobalConfig.HOST_CANDIDATE_SNAPSHOT.value(Boolean.class)) {
+            return null;
+        }
+
+        // refreshing keeps failing, e.g. the database is slow
+        long maxAge = TimeUnit.SECONDS.toMillis(HostAllocatorGlobalConfig.HOST_CANDIDATE_SNAPSHOT_REFRESH_INTERVAL.value(Long.class) * 2);
+        return System.currentTimeMillis() - s.getCreateTime() > maxAge ? null : s;
+    }
+
+    @Transactional(readOnly = true)
+    protected HostCandidateSnapshot buildSnapshot() {
+        String sql = "select h.uuid, h.state, h.status, h.hypervisorType, h.clusterUuid," +
+                " cap.availableCpu, cap.availableMemory, cap.totalPhysicalMemory" +
+                " from HostVO h, HostCapacityVO cap where h.uuid = cap.uuid";
+        List<Tuple> ts = dbf.getEntityManager().createQuery(sql, Tuple.class).getResultList();
+
+        HostCandidateSnapshot.Builder builder = new HostCandidateSnapshot.Builder();
+        for (Tuple t : ts) {
+            String uuid = t.get(0, String.class);
+            builder.add(uuid, t.get(1, HostState.class), t.get(2, HostStatus.class), t.get(3, String.class), t.get(4, String.class),
+                    t.get(5, Long.class), ratioMgr.calculateHostAvailableMemoryByRatio(uuid, t.get(6, Long.class)), t.get(7, Long.class));
+        }
+
+        return builder.build();
+    }
+
+    private void refresh() {
+        if (!HostAllocatorGlobalConfig.HOST_CANDIDATE_SNAPSHOT.value(Boolean.class)) {
+            snapshot = null;
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        snapshot = buildSnapshot();
+        if (logger.isTraceEnabled()) {
+            logger.trace(String.format("[Host Allocation]: built candidate snapshot of %s hosts in %sms",
+                    snapshot.size(), System.currentTimeMillis() - start));
+        }
+    }
+
+    private void startRefreshTask() {
+        if (refreshTask != null) {
+            refreshTask.cancel(true);
+        }
+
+        refreshTask = thdf.submitPeriodicTask(new PeriodicTask() {
+            @Override
+            public TimeUnit getTimeUnit() {
+                return TimeUnit.SECONDS;
+            }
+
+            @Override
+            public long getInterval() {
+                return HostAllocatorGlobalConfig.HOST_CANDIDATE_SNAPSHOT_REFRESH_INTERVAL.value(Long.class);
+            }
+
+            @Override
+            public String getName() {
+                return "host-candidate-snapshot-refresh";
+            }
+
+            @Override
+            public void run() {
+                try {
+                    refresh();
+                } catch (Throwable t) {
+                    logger.warn("[Host Allocation]: failed to build the host candidate snapshot", t);
+                }
+            }
+        });
+    }
+
+    @Override
+    public boolean start() {
+        HostAllocatorGlobalConfig.HOST_CANDIDATE_SNAPSHOT_REFRESH_INTERVAL.installUpdateExtension((oldConfig, newConfig) -> startRefreshTask());
+        startRefreshTask();
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        if (refreshTask != null) {
+            refreshTask.cancel(true);
+        }
+        return true;
+    }
+}
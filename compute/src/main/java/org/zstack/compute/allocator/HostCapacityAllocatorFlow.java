@@ -6,6 +6,7 @@ import org.springframework.beans.factory.annotation.Configurable;
 import org.zstack.core.Platform;
 import org.zstack.core.db.DatabaseFacade;
 import org.zstack.header.allocator.AbstractHostAllocatorFlow;
+import org.zstack.header.allocator.HostCapacityVO;
 import org.zstack.header.allocator.HostCapacityOverProvisioningManager;
 import org.zstack.header.allocator.HostCpuOverProvisioningManager;
 import org.zstack.header.exception.CloudRuntimeException;
@@ -28,32 +29,43 @@ public class HostCapacityAllocatorFlow extends AbstractHostAllocatorFlow {
     private HostCapacityOverProvisioningManager ratioMgr;
     @Autowired
     private HostCpuOverProvisioningManager cpuRatioMgr;
+    @Autowired
+    private HostCapacityLedger ledger;
+
+    // capacity from the ledger if the host is kept there, which is more up to date than the database
+    private HostCapacityVO getCapacity(HostVO hvo) {
+        HostCapacityVO cap = ledger.isEnabled() ? ledger.getCapacity(hvo.getUuid()) : null;
+        return cap != null ? cap : hvo.getCapacity();
+    }
 
-    private boolean memoryCheck(long vmMemSize, long oldMemory, HostVO hvo) {
+    private boolean memoryCheck(long vmMemSize, long oldMemory, HostVO hvo, HostCapacityVO cap) {
         if (HostAllocatorGlobalConfig.HOST_ALLOCATOR_MAX_MEMORY.value(Boolean.class)) {
-            if ((vmMemSize + oldMemory) >= hvo.getCapacity().getTotalPhysicalMemory()) {
+            if ((vmMemSize + oldMemory) >= cap.getTotalPhysicalMemory()) {
                 return false;
             }
         }
 
-        return ratioMgr.calculateHostAvailableMemoryByRatio(hvo.getUuid(), hvo.getCapacity().getAvailableMemory()) >= vmMemSize;
+        return ratioMgr.calculateHostAvailableMemoryByRatio(hvo.getUuid(), cap.getAvailableMemory()) >= vmMemSize;
     }
 
 
     private List<HostVO> allocate(List<HostVO> vos, long cpu, long memory, long oldMemory) {
         List<HostVO> ret = vos.stream()
-                .filter(hvo -> (cpu == 0 || hvo.getCapacity().getAvailableCpu() >= cpu)
-                        && (memory == 0 || memoryCheck(memory, oldMemory, hvo))).collect(Collectors.toList());
+                .filter(hvo -> {
+                    HostCapacityVO cap = getCapacity(hvo);
+                    return (cpu == 0 || cap.getAvailableCpu() >= cpu)
+                            && (memory == 0 || memoryCheck(memory, oldMemory, hvo, cap));
+                }).collect(Collectors.toList());
 
         return ret;
     }
 
     private boolean isNoCpu(int cpu) {
-        return !candidates.stream().anyMatch(vo -> vo.getCapacity().getCpuNum() >= cpu);
+        return !candidates.stream().anyMatch(vo -> getCapacity(vo).getCpuNum() >= cpu);
     }
 
     private boolean isNoMemory(long mem) {
-        return !candidates.stream().anyMatch(vo -> ratioMgr.calculateHostAvailableMemoryByRatio(vo.getUuid(), vo.getCapacity().getAvailableMemory()) >= mem);
+        return !candidates.stream().anyMatch(vo -> ratioMgr.calculateHostAvailableMemoryByRatio(vo.getUuid(), getCapacity(vo).getAvailableMemory()) >= mem);
     }
 
     @Override
@@ -0,0 +1,29 @@
+package org.zstack.compute.allocator;
+
+import org.zstack.header.allocator.HostCapacityVO;
+
+/**
+ * an in-memory ledger of capacities of hosts managed by this management node,
+ * reservations are applied in memory and flushed to database as coalesced deltas
+ */
+public interface HostCapacityLedger {
+    boolean isEnabled();
+
+    /**
+     * @return a copy of the capacity of the host, or null if the host is not kept in the ledger
+     */
+    HostCapacityVO getCapacity(String hostUuid);
+
+    /**
+     * @return null if the ledger can't apply the update, the caller must update the database instead
+     */
+    Boolean update(String hostUuid, HostCapacityUpdaterRunnable runnable);
+
+    /**
+     * flush pending deltas of the host and drop it from the ledger, must be called
+     * before updating HostCapacityVO of the host without going through the ledger
+     */
+    void evict(String hostUuid);
+
+    void evictAll();
+}
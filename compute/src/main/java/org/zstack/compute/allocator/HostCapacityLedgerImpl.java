@@ -0,0 +1,461 @@
+package org.zstack.compute.allocator;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.cloudbus.ResourceDestinationMaker;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.Q;
+import org.zstack.core.db.SQLBatch;
+import org.zstack.core.thread.PeriodicTask;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.Component;
+import org.zstack.header.allocator.HostAllocatorConstant;
+import org.zstack.header.allocator.HostCapacityVO;
+import org.zstack.header.allocator.HostCapacityVO_;
+import org.zstack.header.host.HostVO;
+import org.zstack.header.host.HostVO_;
+import org.zstack.header.host.RecalculateHostCapacityMsg;
+import org.zstack.header.managementnode.ManagementNodeChangeListener;
+import org.zstack.header.managementnode.ManagementNodeInventory;
+import org.zstack.header.managementnode.ManagementNodeReadyExtensionPoint;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+/**
+ * keeps capacities of hosts managed by this node, see ResourceDestinationMaker.
+ *
+ * Reservations and releases are applied to an immutable entry by compare-and-set,
+ * the change of available cpu/memory is accumulated in the entry as a pending delta.
+ * Every hostAllocator.hostCapacityLedger.flushInterval seconds, pending deltas of all
+ * hosts are written to database in one transaction as relative updates, so they
+ * compose with updates of other nodes, and all entries are refreshed from database.
+ * A delta is only written if it leaves available capacity non-negative, a delta
+ * conflicting with reservations of other nodes evicts the host and recalculates it.
+ *
+ * An entry only sees reservations made by other nodes after the next refresh, so the
+ * ledger never rejects an update on its own: an update the runnable refuses, or one
+ * raising available capacity up to the total, evicts the host and is decided again
+ * under the row lock. Updates setting the capacity regardless of the current value,
+ * like recalculation, must use HostCapacityUpdater.runInDatabase().
+ *
+ * Pending deltas are lost if the node crashes, so capacities of hosts managed by
+ * this node are recalculated when a node leaves and when this node boots.
+ */
+public class HostCapacityLedgerImpl implements HostCapacityLedger, Component, ManagementNodeChangeListener, ManagementNodeReadyExtensionPoint {
+    private static final CLogger logger = Utils.getLogger(HostCapacityLedgerImpl.class);
+
+    // entries are reloaded from database after this time even if there are no changes
+    private static final long ENTRY_TTL = TimeUnit.MINUTES.toMillis(1);
+
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private ResourceDestinationMaker destMaker;
+    @Autowired
+    private ThreadFacade thdf;
+    @Autowired
+    private CloudBus bus;
+
+    private static class Entry {
+        // never modified once the entry is published
+        final HostCapacityVO capacity;
+        final long pendingCpu;
+        final long pendingMemory;
+        final long loadTime;
+        // a sealed entry is evicted, no more update can be applied to it
+        final boolean sealed;
+
+        Entry(HostCapacityVO capacity, long pendingCpu, long pendingMemory, long loadTime, boolean sealed) {
+            this.capacity = capacity;
+            this.pendingCpu = pendingCpu;
+            this.pendingMemory = pendingMemory;
+            this.loadTime = loadTime;
+            this.sealed = sealed;
+        }
+
+        boolean hasPending() {
+            return pendingCpu != 0 || pendingMemory != 0;
+        }
+    }
+
+    private static class Delta {
+        final String hostUuid;
+        final long cpu;
+        final long memory;
+
+        Delta(String hostUuid, long cpu, long memory) {
+            this.hostUuid = hostUuid;
+            this.cpu = cpu;
+            this.memory = memory;
+        }
+    }
+
+    private final Map<String, AtomicReference<Entry>> entries = new ConcurrentHashMap<>();
+    private Future<Void> flushTask;
+
+    private static HostCapacityVO copy(HostCapacityVO vo) {
+        HostCapacityVO c = new HostCapacityVO();
+        c.setUuid(vo.getUuid());
+        c.setTotalCpu(vo.getTotalCpu());
+        c.setAvailableCpu(vo.getAvailableCpu());
+        c.setTotalMemory(vo.getTotalMemory());
+        c.setAvailableMemory(vo.getAvailableMemory());
+        c.setTotalPhysicalMemory(vo.getTotalPhysicalMemory());
+        c.setAvailablePhysicalMemory(vo.getAvailablePhysicalMemory());
+        c.setCpuNum(vo.getCpuNum());
+        c.setCpuSockets(vo.getCpuSockets());
+        return c;
+    }
+
+    private static boolean onlyAvailableCapacityChanged(HostCapacityVO o, HostCapacityVO n) {
+        return o.getTotalCpu() == n.getTotalCpu() && o.getTotalMemory() == n.getTotalMemory()
+                && o.getTotalPhysicalMemory() == n.getTotalPhysicalMemory()
+                && o.getAvailablePhysicalMemory() == n.getAvailablePhysicalMemory()
+                && o.getCpuNum() == n.getCpuNum() && o.getCpuSockets() == n.getCpuSockets();
+    }
+
+    // a release reaching the total may have been clamped on a base missing reservations of other nodes
+    private static boolean reachesTotal(HostCapacityVO o, HostCapacityVO n) {
+        return (n.getAvailableCpu() > o.getAvailableCpu() && n.getAvailableCpu() >= n.getTotalCpu())
+                || (n.getAvailableMemory() > o.getAvailableMemory() && n.getAvailableMemory() >= n.getTotalMemory());
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return HostAllocatorGlobalConfig.HOST_CAPACITY_LEDGER.value(Boolean.class);
+    }
+
+    private AtomicReference<Entry> getEntry(String hostUuid) {
+        if (!isEnabled() || !destMaker.isManagedByUs(hostUuid)) {
+            return null;
+        }
+
+        AtomicReference<Entry> ref = entries.get(hostUuid);
+        if (ref != null) {
+            return ref;
+        }
+
+        // load out of the map, not to block updates of other hosts on the database
+        HostCapacityVO vo = dbf.findByUuid(hostUuid, HostCapacityVO.class);
+        if (vo == null) {
+            return null;
+        }
+
+        ref = new AtomicReference<>(new Entry(copy(vo), 0, 0, System.currentTimeMillis(), false));
+        AtomicReference<Entry> old = entries.putIfAbsent(hostUuid, ref);
+        return old == null ? ref : old;
+    }
+
+    @Override
+    public HostCapacityVO getCapacity(String hostUuid) {
+        AtomicReference<Entry> ref = getEntry(hostUuid);
+        if (ref == null) {
+            return null;
+        }
+
+        Entry e = ref.get();
+        return e.sealed ? null : copy(e.capacity);
+    }
+
+    @Override
+    public Boolean update(String hostUuid, HostCapacityUpdaterRunnable runnable) {
+        AtomicReference<Entry> ref = getEntry(hostUuid);
+        if (ref == null) {
+            return null;
+        }
+
+        while (true) {
+            Entry e = ref.get();
+            if (e.sealed) {
+                return null;
+            }
+
+            HostCapacityVO cap;
+            try {
+                cap = runnable.call(copy(e.capacity));
+            } catch (Throwable t) {
+                // the entry may miss releases of other nodes, decide again on the database
+                evict(hostUuid);
+                return null;
+            }
+
+            if (cap == null || !onlyAvailableCapacityChanged(e.capacity, cap) || reachesTotal(e.capacity, cap)) {
+                // not a plain reservation or release, or decided on a stale base,
+                // let the caller update the database
+                evict(hostUuid);
+                return null;
+            }
+
+            long cpu = cap.getAvailableCpu() - e.capacity.getAvailableCpu();
+            long memory = cap.getAvailableMemory() - e.capacity.getAvailableMemory();
+            Entry n = new Entry(copy(cap), e.pendingCpu + cpu, e.pendingMemory + memory, e.loadTime, false);
+            if (ref.compareAndSet(e, n)) {
+                if (logger.isTraceEnabled()) {
+                    logger.trace(String.format("[Host Capacity Ledger] host[uuid:%s] available cpu: %s --> %s, available memory: %s --> %s",
+                            hostUuid, e.capacity.getAvailableCpu(), cap.getAvailableCpu(), e.capacity.getAvailableMemory(), cap.getAvailableMemory()));
+                }
+                return true;
+            }
+        }
+    }
+
+    // seal the entry and return its pending delta
+    private Delta seal(String hostUuid, AtomicReference<Entry> ref) {
+        while (true) {
+            Entry e = ref.get();
+            if (e.sealed) {
+                return null;
+            }
+
+            if (ref.compareAndSet(e, new Entry(e.capacity, 0, 0, e.loadTime, true))) {
+                return e.hasPending() ? new Delta(hostUuid, e.pendingCpu, e.pendingMemory) : null;
+            }
+        }
+    }
+
+    // take the pending delta of the entry
+    private Delta take(String hostUuid, AtomicReference<Entry> ref) {
+        while (true) {
+            Entry e = ref.get();
+            if (e.sealed || !e.hasPending()) {
+                return null;
+            }
+
+            if (ref.compareAndSet(e, new Entry(e.capacity, 0, 0, e.loadTime, false))) {
+                return new Delta(hostUuid, e.pendingCpu, e.pendingMemory);
+            }
+        }
+    }
+
+    private void write(List<Delta> deltas) {
+        List<String> conflicts = new ArrayList<>();
+        try {
+            new SQLBatch() {
+                @Override
+                protected void scripts() {
+                    deltas.forEach(d -> {
+                        // reservations of other nodes on the row are not seen by the ledger
+                        int count = sql("update HostCapacityVO cap set cap.availableCpu = cap.availableCpu + :cpu," +
+                                " cap.availableMemory = cap.availableMemory + :memory where cap.uuid = :uuid" +
+                                " and cap.availableCpu + :cpu >= 0 and cap.availableMemory + :memory >= 0")
+                                .param("cpu", d.cpu)
+                                .param("memory", d.memory)
+                                .param("uuid", d.hostUuid)
+                                .execute();
+                        if (count == 0) {
+                            conflicts.add(d.hostUuid);
+                        }
+                    });
+                }
+            }.execute();
+        } catch (Throwable t) {
+            List<String> hostUuids = deltas.stream().map(d -> d.hostUuid).collect(Collectors.toList());
+            logger.warn(String.format("[Host Capacity Ledger] failed to flush capacity changes of hosts%s, recalculate their capacities", hostUuids), t);
+            sealAndRecalculate(hostUuids);
+            return;
+        }
+
+        if (!conflicts.isEmpty()) {
+            logger.warn(String.format("[Host Capacity Ledger] capacity changes of hosts%s conflict with reservations" +
+                    " made by other management nodes, recalculate their capacities", conflicts));
+            sealAndRecalculate(conflicts);
+        }
+    }
+
+    private void sealAndRecalculate(List<String> hostUuids) {
+        hostUuids.forEach(huuid -> {
+            AtomicReference<Entry> ref = entries.remove(huuid);
+            if (ref != null) {
+                seal(huuid, ref);
+            }
+        });
+        recalculate(hostUuids);
+    }
+
+    @Override
+    public void evict(String hostUuid) {
+        AtomicReference<Entry> ref = entries.remove(hostUuid);
+        if (ref == null) {
+            return;
+        }
+
+        Delta d = seal(hostUuid, ref);
+        if (d != null) {
+            write(Collections.singletonList(d));
+        }
+    }
+
+    @Override
+    public void evictAll() {
+        List<Delta> deltas = new ArrayList<>();
+        new ArrayList<>(entries.keySet()).forEach(huuid -> {
+            AtomicReference<Entry> ref = entries.remove(huuid);
+            Delta d = ref == null ? null : seal(huuid, ref);
+            if (d != null) {
+                deltas.add(d);
+            }
+        });
+
+        if (!deltas.isEmpty()) {
+            write(deltas);
+        }
+    }
+
+    private void flush() {
+        long now = System.currentTimeMillis();
+        List<Delta> deltas = new ArrayList<>();
+        entries.forEach((huuid, ref) -> {
+            if (now - ref.get().loadTime > ENTRY_TTL || !destMaker.isManagedByUs(huuid)) {
+                evict(huuid);
+                return;
+            }
+
+            Delta d = take(huuid, ref);
+            if (d != null) {
+                deltas.add(d);
+            }
+        });
+
+        if (!deltas.isEmpty()) {
+            write(deltas);
+        }
+
+        // refresh all entries with changes made by other nodes
+        Map<String, AtomicReference<Entry>> refs = new HashMap<>(entries);
+        if (refs.isEmpty()) {
+            return;
+        }
+
+        List<HostCapacityVO> vos = Q.New(HostCapacityVO.class).in(HostCapacityVO_.uuid, refs.keySet()).list();
+        for (HostCapacityVO vo : vos) {
+            AtomicReference<Entry> ref = refs.get(vo.getUuid());
+            while (true) {
+                Entry e = ref.get();
+                if (e.sealed) {
+                    break;
+                }
+
+                HostCapacityVO cap = copy(vo);
+                cap.setAvailableCpu(vo.getAvailableCpu() + e.pendingCpu);
+                cap.setAvailableMemory(vo.getAvailableMemory() + e.pendingMemory);
+                if (ref.compareAndSet(e, new Entry(cap, e.pendingCpu, e.pendingMemory, e.loadTime, false))) {
+                    break;
+                }
+            }
+        }
+
+        if (logger.isTraceEnabled() && !deltas.isEmpty()) {
+            logger.trace(String.format("[Host Capacity Ledger] flushed capacity changes of %s hosts", deltas.size()));
+        }
+    }
+
+    private void recalculate(Collection<String> hostUuids) {
+        List<RecalculateHostCapacityMsg> msgs = hostUuids.stream().map(huuid -> {
+            RecalculateHostCapacityMsg msg = new RecalculateHostCapacityMsg();
+            msg.setHostUuid(huuid);
+            bus.makeLocalServiceId(msg, HostAllocatorConstant.SERVICE_ID);
+            return msg;
+        }).collect(Collectors.toList());
+
+        if (!msgs.isEmpty()) {
+            bus.send(msgs);
+        }
+    }
+
+    // capacity changes pending on a crashed node are lost, recalculate hosts managed by us
+    private void recalculateHostsManagedByUs() {
+        if (!isEnabled()) {
+            return;
+        }
+
+        List<String> hostUuids = Q.New(HostVO.class).select(HostVO_.uuid).listValues();
+        recalculate(hostUuids.stream().filter(destMaker::isManagedByUs).collect(Collectors.toList()));
+    }
+
+    private void startFlushTask() {
+        if (flushTask != null) {
+            flushTask.cancel(true);
+        }
+
+        flushTask = thdf.submitPeriodicTask(new PeriodicTask() {
+            @Override
+            public TimeUnit getTimeUnit() {
+                return TimeUnit.SECONDS;
+            }
+
+            @Override
+            public long getInterval() {
+                return HostAllocatorGlobalConfig.HOST_CAPACITY_LEDGER_FLUSH_INTERVAL.value(Long.class);
+            }
+
+            @Override
+            public String getName() {
+                return "host-capacity-ledger-flush";
+            }
+
+            @Override
+            public void run() {
+                if (entries.isEmpty()) {
+                    return;
+                }
+
+                try {
+                    flush();
+                } catch (Throwable t) {
+                    logger.warn("[Host Capacity Ledger] unhandled exception when flushing capacity changes", t);
+                }
+            }
+        });
+    }
+
+    @Override
+    public boolean start() {
+        HostAllocatorGlobalConfig.HOST_CAPACITY_LEDGER.installUpdateExtension((oldConfig, newConfig) -> {
+            if (!newConfig.value(Boolean.class)) {
+                evictAll();
+            }
+        });
+        HostAllocatorGlobalConfig.HOST_CAPACITY_LEDGER_FLUSH_INTERVAL.installUpdateExtension((oldConfig, newConfig) -> startFlushTask());
+        startFlushTask();
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        if (flushTask != null) {
+            flushTask.cancel(true);
+        }
+        evictAll();
+        return true;
+    }
+
+    @Override
+    public void managementNodeReady() {
+        recalculateHostsManagedByUs();
+    }
+
+    @Override
+    public void nodeJoin(ManagementNodeInventory inv) {
+        // hosts taken over by the new node are evicted by the next flush
+    }
+
+    @Override
+    public void nodeLeft(ManagementNodeInventory inv) {
+        recalculateHostsManagedByUs();
+    }
+
+    @Override
+    public void iAmDead(ManagementNodeInventory inv) {
+    }
+
+    @Override
+    public void iJoin(ManagementNodeInventory inv) {
+    }
+}
@@ -23,6 +23,8 @@ public class HostCapacityUpdater {
 
     @Autowired
     private DatabaseFacade dbf;
+    @Autowired
+    private HostCapacityLedger ledger;
 
     private String hostUuid;
     private TypedQuery<HostCapacityVO> query;
@@ -115,7 +117,26 @@ public class HostCapacityUpdater {
 
     @DeadlockAutoRestart
     public boolean run(HostCapacityUpdaterRunnable runnable) {
+        if (hostUuid != null && ledger.isEnabled()) {
+            Boolean ret = ledger.update(hostUuid, runnable);
+            if (ret != null) {
+                return ret;
+            }
+        }
+
         return _run(runnable);
     }
 
+    /**
+     * updates the database under the row lock even if the host is kept in the ledger,
+     * for updates setting the capacity regardless of the current value, e.g. recalculation
+     */
+    @DeadlockAutoRestart
+    public boolean runInDatabase(HostCapacityUpdaterRunnable runnable) {
+        if (hostUuid != null) {
+            ledger.evict(hostUuid);
+        }
+
+        return _run(runnable);
+    }
 }
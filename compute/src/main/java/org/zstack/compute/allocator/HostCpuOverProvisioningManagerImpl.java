@@ -33,11 +33,14 @@ public class HostCpuOverProvisioningManagerImpl implements HostCpuOverProvisioni
     private CloudBus bus;
     @Autowired
     private ResourceConfigFacade rcf;
+    @Autowired
+    private HostCapacityLedger ledger;
 
     @Override
     public void setGlobalRatio(int ratio) {
         globalRatio = ratio;
 
+        ledger.evictAll();
         updateHostsCpuCapacity(ratio);
         recalculateAllHostCapacity();
     }
@@ -87,6 +90,7 @@ public class HostCpuOverProvisioningManagerImpl implements HostCpuOverProvisioni
     @Override
     public void setRatio(String hostUuid, int ratio) {
         ratios.put(hostUuid, ratio);
+        ledger.evict(hostUuid);
         updateHostCpuCapacityByUuid(hostUuid, ratio);
         recalculateHostCapacityByUuid(hostUuid);
     }
@@ -102,6 +106,7 @@ public class HostCpuOverProvisioningManagerImpl implements HostCpuOverProvisioni
     @Override
     public void deleteRatio(String hostUuid) {
         ratios.remove(hostUuid);
+        ledger.evict(hostUuid);
         updateHostCpuCapacityByUuid(hostUuid, getGlobalRatio());
         recalculateHostCapacityByUuid(hostUuid);
     }
@@ -5,9 +5,11 @@ import org.springframework.beans.factory.annotation.Autowire;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Configurable;
 import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.Q;
 import org.zstack.core.db.SimpleQuery;
 import org.zstack.core.db.SimpleQuery.Op;
 import org.zstack.header.allocator.AbstractHostAllocatorFlow;
+import org.zstack.header.allocator.HostAllocatorConstant;
 import org.zstack.header.errorcode.ErrorCode;
 import org.zstack.header.host.HostState;
 import org.zstack.header.host.HostStatus;
@@ -17,6 +19,8 @@ import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.List;
 
 import static org.zstack.core.Platform.operr;
@@ -27,8 +31,53 @@ public class HostStateAndHypervisorAllocatorFlow extends AbstractHostAllocatorFl
 
     @Autowired
     private DatabaseFacade dbf;
+    @Autowired
+    private HostCandidateSnapshotManager snapshotMgr;
+
+    // hosts passing the state, hypervisor, cluster and capacity filters on the snapshot,
+    // only they are loaded from database. The snapshot may be a few seconds old, the flows
+    // after still check the loaded hosts, an empty result falls back to the query here and
+    // HostAllocatorChain starts over without the snapshot if the flows after find no host.
+    // Listing all candidates, e.g. by a dry run, always queries, as the snapshot misses
+    // hosts added, reconnected or freed since it's built
+    private List<HostVO> allocateFromSnapshot(String hypervisorType) {
+        if (usePagination() || spec.isListAllHosts() || spec.isDryRun()
+                || spec.getExtraData().containsKey(HostCandidateSnapshotManager.SNAPSHOT_SKIPPED)) {
+            return null;
+        }
+
+        HostCandidateSnapshot snapshot = snapshotMgr.getSnapshot();
+        if (snapshot == null) {
+            return null;
+        }
+
+        String clusterUuid = (String) spec.getExtraData().get(HostAllocatorConstant.LocationSelector.cluster);
+        BitSet mask = snapshot.select(hypervisorType, clusterUuid == null ? null : Collections.singletonList(clusterUuid),
+                spec.getCpuCapacity(), spec.getMemoryCapacity(), spec.getOldMemoryCapacity(),
+                HostAllocatorGlobalConfig.HOST_ALLOCATOR_MAX_MEMORY.value(Boolean.class));
+        if (mask.isEmpty()) {
+            return null;
+        }
+
+        List<HostVO> vos = Q.New(HostVO.class)
+                .in(HostVO_.uuid, snapshot.getUuids(mask))
+                .eq(HostVO_.state, HostState.Enabled)
+                .eq(HostVO_.status, HostStatus.Connected)
+                .list();
+        if (vos.isEmpty()) {
+            return null;
+        }
+
+        spec.getExtraData().put(HostCandidateSnapshotManager.SNAPSHOT_USED, true);
+        return vos;
+    }
 
     private List<HostVO> allocate(String hypervisorType) {
+        List<HostVO> fromSnapshot = allocateFromSnapshot(hypervisorType);
+        if (fromSnapshot != null) {
+            return fromSnapshot;
+        }
+
         SimpleQuery<HostVO> query = dbf.createQuery(HostVO.class);
         query.add(HostVO_.state, Op.EQ, HostState.Enabled);
         query.add(HostVO_.status, Op.EQ, HostStatus.Connected);
@@ -903,7 +903,7 @@ public abstract class HostBase extends AbstractHost {
                 .eq(SystemTagVO_.resourceUuid, self.getUuid())
                 .eq(SystemTagVO_.resourceType, HostVO.class.getSimpleName())
                 .like(SystemTagVO_.tag, "ConnectedTime::%")
-                .hardDelete();
+                .delete();
         }
     }
 
@@ -0,0 +1,56 @@
+package org.zstack.compute.host;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * statistic of one bucket of the batched host ping wheel
+ */
+public class HostPingBucketStatistic {
+    private int bucketIndex;
+    private int trackedHostNum;
+    private int pingedHostNum;
+    private long lastLatency;
+    private long maxLatency;
+    private long totalRounds;
+    private long lastRunTime;
+
+    @ConstructorProperties({"bucketIndex", "trackedHostNum", "pingedHostNum", "lastLatency", "maxLatency", "totalRounds", "lastRunTime"})
+    public HostPingBucketStatistic(int bucketIndex, int trackedHostNum, int pingedHostNum, long lastLatency, long maxLatency, long totalRounds, long lastRunTime) {
+        this.bucketIndex = bucketIndex;
+        this.trackedHostNum = trackedHostNum;
+        this.pingedHostNum = pingedHostNum;
+        this.lastLatency = lastLatency;
+        this.maxLatency = maxLatency;
+        this.totalRounds = totalRounds;
+        this.lastRunTime = lastRunTime;
+    }
+
+    public int getBucketIndex() {
+        return bucketIndex;
+    }
+
+    public int getTrackedHostNum() {
+        return trackedHostNum;
+    }
+
+    public int getPingedHostNum() {
+        return pingedHostNum;
+    }
+
+    // in milliseconds, from loading host states to the last ping reply of the round
+    public long getLastLatency() {
+        return lastLatency;
+    }
+
+    public long getMaxLatency() {
+        return maxLatency;
+    }
+
+    public long getTotalRounds() {
+        return totalRounds;
+    }
+
+    public long getLastRunTime() {
+        return lastRunTime;
+    }
+}
@@ -3,17 +3,22 @@ package org.zstack.compute.host;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.zstack.core.CoreGlobalProperty;
 import org.zstack.core.cloudbus.*;
+import org.zstack.core.asyncbatch.While;
 import org.zstack.core.componentloader.PluginRegistry;
 import org.zstack.core.db.DatabaseFacade;
 import org.zstack.core.db.Q;
 import org.zstack.core.db.SQLBatch;
+import org.zstack.core.jmx.JmxFacade;
 import org.zstack.core.thread.AsyncThread;
 import org.zstack.core.thread.AsyncTimer;
+import org.zstack.core.thread.PeriodicTask;
 import org.zstack.core.thread.ThreadFacade;
 import org.zstack.header.Component;
 import org.zstack.header.core.Completion;
 import org.zstack.header.core.NoErrorCompletion;
+import org.zstack.header.core.WhileDoneCompletion;
 import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.header.errorcode.ErrorCodeList;
 import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.host.*;
 import org.zstack.header.managementnode.ManagementNodeChangeListener;
@@ -23,17 +28,23 @@ import org.zstack.header.message.MessageReply;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 
+import javax.management.MXBean;
 import javax.persistence.Tuple;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
-public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener, Component, ManagementNodeReadyExtensionPoint {
+@MXBean
+public class HostTrackImpl implements HostTracker, HostTrackerMXBean, ManagementNodeChangeListener, Component, ManagementNodeReadyExtensionPoint {
     private final static CLogger logger = Utils.getLogger(HostTrackImpl.class);
 
     private Map<String, Tracker> trackers = new HashMap<>();
+    private final Map<String, BatchedTracker> batchedTrackers = new ConcurrentHashMap<>();
+    private volatile PingWheel pingWheel;
 
     @Autowired
     private DatabaseFacade dbf;
@@ -47,6 +58,8 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
     private PluginRegistry pluginRgty;
     @Autowired
     protected EventFacade evtf;
+    @Autowired
+    private JmxFacade jmxf;
 
     private static Map<String, HostReconnectTaskFactory> hostReconnectTaskFactories = new HashMap<>();
 
@@ -81,109 +94,88 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
         });
     }
 
-    private class Tracker extends AsyncTimer {
-        private final CLogger logger = Utils.getLogger(HostTrackImpl.class);
-
-        private String uuid;
-        private String hypervisorType;
+    // ping and reconnect logic shared by the per-host timer and the batched ping wheel
+    private abstract class HostPinger {
+        protected final String uuid;
+        protected final String hypervisorType;
         private HostReconnectTask reconnectTask;
 
-        Tracker(String uuid) {
-            super(TimeUnit.SECONDS, HostGlobalConfig.PING_HOST_INTERVAL.value(Long.class));
+        HostPinger(String uuid, String hypervisorType) {
             this.uuid = uuid;
-            hypervisorType = Q.New(HostVO.class).select(HostVO_.hypervisorType)
-                    .eq(HostVO_.uuid, uuid).findValue();
-            if (hypervisorType == null) {
-                throw new CloudRuntimeException(String.format("host[uuid:%s] is deleted, why you submit a tracker for it???", uuid));
-            }
-
-
-            __name__ = String.format("host-tracker-%s-hypervisor-%s", uuid, hypervisorType);
+            this.hypervisorType = hypervisorType;
         }
 
-        @Override
-        protected void execute() {
-            track();
-        }
-
-        private void track()  {
-            Tuple t = Q.New(HostVO.class).select(HostVO_.state, HostVO_.status)
-                    .eq(HostVO_.uuid, uuid).findTuple();
+        // schedule the next ping of this host
+        abstract void continueToTrack();
 
-            if (t == null) {
-                logger.debug(String.format("host[uuid:%s] seems to be deleted, stop tracking it", uuid));
-                return;
-            }
-
-            HostState state = t.get(0, HostState.class);
+        abstract void stopTracking();
 
-            if (state == HostState.PreMaintenance || state == HostState.Maintenance) {
-                logger.debug(String.format("host[uuid:%s] is in state of %s, not tracking it this time", uuid, state));
-                continueToRunThisTimer();
-                return;
-            }
+        abstract boolean isStopped();
 
+        // completion is called once the ping reply arrives, before any reconnect happens
+        void ping(NoErrorCompletion completion) {
             PingHostMsg msg = new PingHostMsg();
             msg.setHostUuid(uuid);
             bus.makeLocalServiceId(msg, HostConstant.SERVICE_ID);
-            bus.send(msg, new CloudBusCallBack(null) {
+            bus.send(msg, new CloudBusCallBack(completion) {
                 @Override
                 public void run(MessageReply reply) {
+                    completion.done();
                     decideWhatToDoNext(makeReconnectDecision(reply));
                 }
+            });
+        }
 
-                private ReconnectDecision makeReconnectDecision(MessageReply reply) {
-                    if (!reply.isSuccess()) {
-                        logger.warn(String.format("[Host Tracker]: unable track host[uuid:%s], %s", uuid, reply.getError()));
-                        return ReconnectDecision.DoNothing;
-                    }
-
-                    PingHostReply r = reply.castReply();
-                    if (r.isNoReconnect()) {
-                        return ReconnectDecision.DoNothing;
-                    }
+        private ReconnectDecision makeReconnectDecision(MessageReply reply) {
+            if (!reply.isSuccess()) {
+                logger.warn(String.format("[Host Tracker]: unable track host[uuid:%s], %s", uuid, reply.getError()));
+                return ReconnectDecision.DoNothing;
+            }
 
-                    AtomicInteger disconnectCount = hostDisconnectCount.get(uuid);
-                    int threshold = HostGlobalConfig.AUTO_RECONNECT_ON_ERROR_MAX_ATTEMPT_NUM.value(Integer.class);
-                    if (threshold > 0 && disconnectCount != null && disconnectCount.get() >= threshold) {
-                        logger.warn(String.format("stop pinging host[uuid:%s, hypervisorType:%s] because it fail to reconnect too many times", uuid, hypervisorType));
-                        return ReconnectDecision.StopPing;
-                    }
+            PingHostReply r = reply.castReply();
+            if (r.isNoReconnect()) {
+                return ReconnectDecision.DoNothing;
+            }
 
-                    boolean autoReconnect = HostGlobalConfig.AUTO_RECONNECT_ON_ERROR.value(Boolean.class);
-                    if (!r.isConnected() && autoReconnect) {
-                        return ReconnectDecision.SubmitReconnectTask;
-                    }
+            AtomicInteger disconnectCount = hostDisconnectCount.get(uuid);
+            int threshold = HostGlobalConfig.AUTO_RECONNECT_ON_ERROR_MAX_ATTEMPT_NUM.value(Integer.class);
+            if (threshold > 0 && disconnectCount != null && disconnectCount.get() >= threshold) {
+                logger.warn(String.format("stop pinging host[uuid:%s, hypervisorType:%s] because it fail to reconnect too many times", uuid, hypervisorType));
+                return ReconnectDecision.StopPing;
+            }
 
-                    // host can be successfully pinged
-                    if (r.getCurrentHostStatus().equals(HostStatus.Disconnected.toString())) {
-                        if (autoReconnect) {
-                            return ReconnectDecision.ReconnectNow;
-                        } else {
-                            logger.warn(String.format("stop pinging host[uuid:%s, hypervisorType:%s] because it's disconnected and connection.autoReconnectOnError is false", uuid, hypervisorType));
-                            return ReconnectDecision.StopPing;
-                        }
-                    }
+            boolean autoReconnect = HostGlobalConfig.AUTO_RECONNECT_ON_ERROR.value(Boolean.class);
+            if (!r.isConnected() && autoReconnect) {
+                return ReconnectDecision.SubmitReconnectTask;
+            }
 
-                    // host can be pinged and the current status is Connected
-                    return ReconnectDecision.DoNothing;
+            // host can be successfully pinged
+            if (r.getCurrentHostStatus().equals(HostStatus.Disconnected.toString())) {
+                if (autoReconnect) {
+                    return ReconnectDecision.ReconnectNow;
+                } else {
+                    logger.warn(String.format("stop pinging host[uuid:%s, hypervisorType:%s] because it's disconnected and connection.autoReconnectOnError is false", uuid, hypervisorType));
+                    return ReconnectDecision.StopPing;
                 }
-            });
+            }
+
+            // host can be pinged and the current status is Connected
+            return ReconnectDecision.DoNothing;
         }
 
         private void decideWhatToDoNext(ReconnectDecision decision) {
             if (decision == ReconnectDecision.DoNothing) {
-                continueToRunThisTimer();
+                continueToTrack();
             } else if (decision == ReconnectDecision.ReconnectNow) {
                 reconnectNow(uuid, new Completion(new NoErrorCompletion() {
                     @Override
                     public void done() {
-                        continueToRunThisTimer();
+                        continueToTrack();
                     }
                 }) {
                     @Override
                     public void success() {
-                        continueToRunThisTimer();
+                        continueToTrack();
                     }
 
                     @Override
@@ -192,7 +184,7 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
                     }
                 });
             } else if (decision == ReconnectDecision.StopPing) {
-                cancel();
+                stopTracking();
             } else if (decision == ReconnectDecision.SubmitReconnectTask) {
                 submitReconnectTask();
             } else {
@@ -201,7 +193,7 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
         }
 
         private void submitReconnectTask() {
-            if (isCanceled()) {
+            if (isStopped()) {
                 return;
             }
 
@@ -212,18 +204,92 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
             reconnectTask = getHostReconnectTaskFactory(hypervisorType).createTask(uuid, new NoErrorCompletion() {
                 @Override
                 public void done() {
-                    continueToRunThisTimer();
+                    continueToTrack();
                 }
             });
 
             reconnectTask.start();
         }
 
-        @Override
-        public void cancel() {
+        void cancelReconnectTask() {
             if (reconnectTask != null) {
                 reconnectTask.cancel();
             }
+        }
+    }
+
+    private static String findHypervisorType(String uuid) {
+        String hypervisorType = Q.New(HostVO.class).select(HostVO_.hypervisorType)
+                .eq(HostVO_.uuid, uuid).findValue();
+        if (hypervisorType == null) {
+            throw new CloudRuntimeException(String.format("host[uuid:%s] is deleted, why you submit a tracker for it???", uuid));
+        }
+
+        return hypervisorType;
+    }
+
+    private class Tracker extends AsyncTimer {
+        private final CLogger logger = Utils.getLogger(HostTrackImpl.class);
+
+        private String uuid;
+        private HostPinger pinger;
+
+        Tracker(String uuid) {
+            super(TimeUnit.SECONDS, HostGlobalConfig.PING_HOST_INTERVAL.value(Long.class));
+            this.uuid = uuid;
+            String hypervisorType = findHypervisorType(uuid);
+            pinger = new HostPinger(uuid, hypervisorType) {
+                @Override
+                void continueToTrack() {
+                    continueToRunThisTimer();
+                }
+
+                @Override
+                void stopTracking() {
+                    Tracker.this.cancel();
+                }
+
+                @Override
+                boolean isStopped() {
+                    return isCanceled();
+                }
+            };
+
+            __name__ = String.format("host-tracker-%s-hypervisor-%s", uuid, hypervisorType);
+        }
+
+        @Override
+        protected void execute() {
+            track();
+        }
+
+        private void track()  {
+            Tuple t = Q.New(HostVO.class).select(HostVO_.state, HostVO_.status)
+                    .eq(HostVO_.uuid, uuid).findTuple();
+
+            if (t == null) {
+                logger.debug(String.format("host[uuid:%s] seems to be deleted, stop tracking it", uuid));
+                return;
+            }
+
+            HostState state = t.get(0, HostState.class);
+
+            if (state == HostState.PreMaintenance || state == HostState.Maintenance) {
+                logger.debug(String.format("host[uuid:%s] is in state of %s, not tracking it this time", uuid, state));
+                continueToRunThisTimer();
+                return;
+            }
+
+            pinger.ping(new NoErrorCompletion() {
+                @Override
+                public void done() {
+                }
+            });
+        }
+
+        @Override
+        public void cancel() {
+            pinger.cancelReconnectTask();
 
             super.cancel();
 
@@ -231,8 +297,222 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
         }
     }
 
+    private class BatchedTracker extends HostPinger {
+        // true from the moment the host is picked up by its bucket until the
+        // ping and the reconnect it may trigger are done, the bucket skips it
+        // meanwhile, the same as a per-host timer not being rescheduled
+        private final AtomicBoolean inFlight = new AtomicBoolean(false);
+        private volatile boolean stopped;
+        private final PingWheel wheel;
+        private final int bucket;
+
+        BatchedTracker(String uuid, String hypervisorType, PingWheel wheel) {
+            super(uuid, hypervisorType);
+            this.wheel = wheel;
+            this.bucket = wheel.bucketOf(uuid);
+        }
+
+        @Override
+        void continueToTrack() {
+            inFlight.set(false);
+        }
+
+        @Override
+        void stopTracking() {
+            stopped = true;
+            cancelReconnectTask();
+            wheel.remove(this);
+            batchedTrackers.remove(uuid, this);
+        }
+
+        @Override
+        boolean isStopped() {
+            return stopped;
+        }
+    }
+
+    /**
+     * spreads the hosts managed by this node into one bucket per second of
+     * PING_HOST_INTERVAL, every second a bucket loads the states of all its
+     * hosts in one query and pings them with HOST_TRACK_PARALLELISM_DEGREE
+     * in parallel.
+     */
+    private class PingWheel implements PeriodicTask {
+        private final int bucketNum;
+        private final List<Map<String, BatchedTracker>> buckets = new ArrayList<>();
+        private final Map<String, HostPingBucketStatistic> statistics = new ConcurrentHashMap<>();
+        private int tick;
+        private Future<Void> future;
+
+        PingWheel(int interval) {
+            bucketNum = interval;
+            for (int i = 0; i < bucketNum; i++) {
+                buckets.add(new ConcurrentHashMap<>());
+            }
+        }
+
+        int bucketOf(String uuid) {
+            return Math.floorMod(uuid.hashCode(), bucketNum);
+        }
+
+        void add(BatchedTracker t) {
+            buckets.get(t.bucket).put(t.uuid, t);
+        }
+
+        void remove(BatchedTracker t) {
+            buckets.get(t.bucket).remove(t.uuid, t);
+        }
+
+        void start() {
+            future = thdf.submitPeriodicTask(this);
+        }
+
+        void stop() {
+            if (future != null) {
+                future.cancel(true);
+            }
+        }
+
+        @Override
+        public TimeUnit getTimeUnit() {
+            return TimeUnit.SECONDS;
+        }
+
+        @Override
+        public long getInterval() {
+            return 1;
+        }
+
+        @Override
+        public String getName() {
+            return "host-ping-wheel";
+        }
+
+        @Override
+        public void run() {
+            int index = tick;
+            tick = (tick + 1) % bucketNum;
+
+            try {
+                pingBucket(index);
+            } catch (Throwable t) {
+                logger.warn(String.format("unhandled exception when pinging hosts in bucket[%s]", index), t);
+            }
+        }
+
+        private void pingBucket(int index) {
+            Map<String, BatchedTracker> bucket = buckets.get(index);
+            List<String> uuids = bucket.values().stream()
+                    .filter(t -> !t.inFlight.get())
+                    .map(t -> t.uuid)
+                    .collect(Collectors.toList());
+            if (uuids.isEmpty()) {
+                return;
+            }
+
+            long startTime = System.currentTimeMillis();
+            Map<String, HostState> states = new HashMap<>();
+            List<Tuple> ts = Q.New(HostVO.class).select(HostVO_.uuid, HostVO_.state)
+                    .in(HostVO_.uuid, uuids).listTuple();
+            ts.forEach(t -> states.put(t.get(0, String.class), t.get(1, HostState.class)));
+
+            List<BatchedTracker> toPing = new ArrayList<>();
+            for (String uuid : uuids) {
+                BatchedTracker t = bucket.get(uuid);
+                if (t == null || t.isStopped()) {
+                    continue;
+                }
+
+                HostState state = states.get(uuid);
+                if (state == null) {
+                    logger.debug(String.format("host[uuid:%s] seems to be deleted, stop tracking it", uuid));
+                    t.stopTracking();
+                    continue;
+                }
+
+                if (state == HostState.PreMaintenance || state == HostState.Maintenance) {
+                    logger.debug(String.format("host[uuid:%s] is in state of %s, not tracking it this time", uuid, state));
+                    continue;
+                }
+
+                if (t.inFlight.compareAndSet(false, true)) {
+                    toPing.add(t);
+                }
+            }
+
+            int parallel = HostGlobalConfig.HOST_TRACK_PARALLELISM_DEGREE.value(Integer.class);
+            new While<>(toPing).step((t, completion) -> t.ping(completion), parallel).run(new WhileDoneCompletion(null) {
+                @Override
+                public void done(ErrorCodeList errorCodeList) {
+                    report(index, bucket.size(), toPing.size(), System.currentTimeMillis() - startTime);
+                }
+            });
+        }
+
+        private void report(int index, int trackedNum, int pingedNum, long latency) {
+            String key = String.valueOf(index);
+            HostPingBucketStatistic old = statistics.get(key);
+            long maxLatency = old == null ? latency : Math.max(old.getMaxLatency(), latency);
+            long rounds = old == null ? 1 : old.getTotalRounds() + 1;
+            statistics.put(key, new HostPingBucketStatistic(index, trackedNum, pingedNum, latency, maxLatency, rounds, System.currentTimeMillis()));
+
+            if (latency > TimeUnit.SECONDS.toMillis(bucketNum)) {
+                logger.warn(String.format("[Host Tracker]: pinging %s hosts in bucket[%s] took %sms, longer than %s seconds of %s",
+                        pingedNum, index, latency, bucketNum, HostGlobalConfig.PING_HOST_INTERVAL.getCanonicalName()));
+            } else if (logger.isTraceEnabled()) {
+                logger.trace(String.format("[Host Tracker]: pinged %s hosts in bucket[%s] in %sms", pingedNum, index, latency));
+            }
+        }
+    }
+
+    private PingWheel getPingWheel() {
+        synchronized (batchedTrackers) {
+            if (pingWheel == null) {
+                pingWheel = new PingWheel(HostGlobalConfig.PING_HOST_INTERVAL.value(Integer.class));
+                pingWheel.start();
+            }
+
+            return pingWheel;
+        }
+    }
+
+    private void trackHostInBatch(String hostUuid) {
+        BatchedTracker old = batchedTrackers.get(hostUuid);
+        if (old != null) {
+            old.stopTracking();
+        }
+
+        PingWheel wheel = getPingWheel();
+        BatchedTracker t = new BatchedTracker(hostUuid, findHypervisorType(hostUuid), wheel);
+        batchedTrackers.put(hostUuid, t);
+        wheel.add(t);
+
+        logger.debug(String.format("starting tracking hosts[uuid:%s] in ping bucket[%s]", hostUuid, t.bucket));
+    }
+
+    private void stopPingWheel() {
+        new HashSet<>(batchedTrackers.values()).forEach(BatchedTracker::stopTracking);
+
+        synchronized (batchedTrackers) {
+            if (pingWheel != null) {
+                pingWheel.stop();
+                pingWheel = null;
+            }
+        }
+    }
+
+    @Override
+    public Map<String, HostPingBucketStatistic> getPingBucketStatistics() {
+        PingWheel wheel = pingWheel;
+        return wheel == null ? new HashMap<>() : new HashMap<>(wheel.statistics);
+    }
 
     public void trackHost(String hostUuid) {
+        if (HostGlobalConfig.PING_HOST_BATCH_MODE.value(Boolean.class)) {
+            trackHostInBatch(hostUuid);
+            return;
+        }
+
         Tracker t = trackers.get(hostUuid);
         if (t != null) {
             t.cancel();
@@ -257,6 +537,11 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
             t.cancel();
         }
         trackers.remove(huuid);
+
+        BatchedTracker bt = batchedTrackers.get(huuid);
+        if (bt != null) {
+            bt.stopTracking();
+        }
         logger.debug(String.format("stop tracking host[uuid:%s]", huuid));
     }
 
@@ -277,6 +562,7 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
     private void reScanHost(boolean skipExisting) {
         if (!skipExisting) {
             new HashSet<>(trackers.values()).forEach(Tracker::cancel);
+            stopPingWheel();
         }
 
         new SQLBatch() {
@@ -286,7 +572,7 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
                 sql("select h.uuid from HostVO h", String.class).limit(1000).paginate(count, (List<String> hostUuids) -> {
                     List<String> byUs = hostUuids.stream().filter(huuid -> {
                         if (skipExisting) {
-                            return destMaker.isManagedByUs(huuid) && !trackers.containsKey(huuid);
+                            return destMaker.isManagedByUs(huuid) && !trackers.containsKey(huuid) && !batchedTrackers.containsKey(huuid);
                         } else {
                             return destMaker.isManagedByUs(huuid);
                         }
@@ -339,6 +625,12 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
             reScanHost();
         });
 
+        HostGlobalConfig.PING_HOST_BATCH_MODE.installUpdateExtension((oldConfig, newConfig) -> {
+            logger.debug(String.format("%s change from %s to %s, restart host trackers",
+                    oldConfig.getCanonicalName(), oldConfig.value(), newConfig.value()));
+            reScanHost();
+        });
+
         HostGlobalConfig.AUTO_RECONNECT_ON_ERROR.installUpdateExtension((oc, nc)-> {
             if (nc.value(Boolean.class)) {
                 logger.debug(String.format("%s change from %s to %s, restart host trackers",
@@ -347,6 +639,8 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
             }
         });
 
+        jmxf.registerBean("HostTracker", this);
+
         return true;
     }
 
@@ -379,6 +673,7 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
 
     @Override
     public boolean stop() {
+        stopPingWheel();
         return true;
     }
 }
@@ -109,4 +109,7 @@ public class VmGlobalConfig {
 
     @GlobalConfigValidation(validValues = {"true", "false"})
     public static GlobalConfig ENABLE_VM_DEVICE_ADDRESS_RECORDING = new GlobalConfig(CATEGORY, "enable.vm.address.recording");
+
+    @GlobalConfigValidation(numberGreaterThan = -1)
+    public static GlobalConfig VM_TRACER_STATE_INDEX_FULL_RESYNC_INTERVAL = new GlobalConfig(CATEGORY, "tracer.stateIndex.fullResyncInterval");
 }
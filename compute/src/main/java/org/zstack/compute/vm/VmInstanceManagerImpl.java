@@ -549,7 +549,7 @@ public class VmInstanceManagerImpl extends AbstractService implements
             }
         }
 
-        List<String> l3sFromAccount = acntMgr.getResourceUuidsCanAccessByAccount(accountUuid, L3NetworkVO.class);
+        CompactUuidSet l3sFromAccount = acntMgr.getResourceUuidSetCanAccessByAccount(accountUuid, L3NetworkVO.class);
         if (l3sFromAccount == null) {
             return L3NetworkInventory.valueOf(l3s);
         }
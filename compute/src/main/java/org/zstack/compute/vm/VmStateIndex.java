@@ -0,0 +1,28 @@
+package org.zstack.compute.vm;
+
+import org.zstack.header.vm.VmInstanceState;
+
+import java.util.Map;
+
+/**
+ * an in-memory index of management server side vm states per host, used by
+ * VmTracer instead of querying all vms of a host on every vm state report
+ */
+public interface VmStateIndex {
+    boolean isEnabled();
+
+    /**
+     * @return a copy of vm states of the host, or null if the host is not indexed
+     * or is due for a full resync from database
+     */
+    Map<String, VmInstanceState> getVmStates(String hostUuid);
+
+    void loadVmStates(String hostUuid, Map<String, VmInstanceState> states);
+
+    void updateVm(String vmUuid, String hostUuid, String lastHostUuid, VmInstanceState state, String type);
+
+    void removeVm(String vmUuid);
+
+    // increased every time vm states of the host change, -1 if the host is not indexed
+    long getVersion(String hostUuid);
+}
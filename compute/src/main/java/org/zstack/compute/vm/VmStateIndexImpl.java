@@ -0,0 +1,236 @@
+package org.zstack.compute.vm;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.cloudbus.EventCallback;
+import org.zstack.core.cloudbus.EventFacade;
+import org.zstack.core.cloudbus.ResourceDestinationMaker;
+import org.zstack.header.Component;
+import org.zstack.header.host.HostCanonicalEvents;
+import org.zstack.header.managementnode.ManagementNodeChangeListener;
+import org.zstack.header.managementnode.ManagementNodeInventory;
+import org.zstack.header.vm.VmCanonicalEvents;
+import org.zstack.header.vm.VmInstanceInventory;
+import org.zstack.header.vm.VmInstanceState;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * vm states are loaded from database the first time a host is traced, then kept
+ * up to date by VM_FULL_STATE_CHANGED_PATH events fired by any management node.
+ * A host is reloaded from database every vm.tracer.stateIndex.fullResyncInterval
+ * seconds as a safety net for lost events or vms changed without firing one.
+ * A host is dropped when it's deleted or taken over by another management node.
+ */
+public class VmStateIndexImpl implements VmStateIndex, Component, ManagementNodeChangeListener {
+    private static final CLogger logger = Utils.getLogger(VmStateIndexImpl.class);
+
+    @Autowired
+    private EventFacade evtf;
+    @Autowired
+    private VmTracerHelper vmTracerHelper;
+    @Autowired
+    private ResourceDestinationMaker destMaker;
+
+    private static class HostVmStates {
+        final Map<String, VmInstanceState> states;
+        final long loadedAt = System.currentTimeMillis();
+        long version;
+
+        HostVmStates(Map<String, VmInstanceState> states, long version) {
+            this.states = states;
+            this.version = version;
+        }
+    }
+
+    // all guarded by synchronized(this)
+    private final Map<String, HostVmStates> hosts = new HashMap<>();
+    // vm uuid -> uuid of the indexed host the vm is traced on
+    private final Map<String, String> vmHosts = new HashMap<>();
+
+    /**
+     * the host a vm is traced on, the same as the query of VmTracer.buildManagementServerSideVmStates()
+     */
+    static String getTracedHostUuid(String hostUuid, String lastHostUuid, VmInstanceState state, String type, Set<String> unsupportedTypes) {
+        if (hostUuid != null) {
+            return hostUuid;
+        }
+
+        if (lastHostUuid == null || state == VmInstanceState.Destroyed || state == VmInstanceState.Destroying) {
+            return null;
+        }
+
+        return unsupportedTypes.contains(type) ? null : lastHostUuid;
+    }
+
+    private long getFullResyncInterval() {
+        return TimeUnit.SECONDS.toMillis(VmGlobalConfig.VM_TRACER_STATE_INDEX_FULL_RESYNC_INTERVAL.value(Long.class));
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return getFullResyncInterval() > 0;
+    }
+
+    @Override
+    public synchronized Map<String, VmInstanceState> getVmStates(String hostUuid) {
+        HostVmStates h = hosts.get(hostUuid);
+        if (h == null || !isEnabled()) {
+            return null;
+        }
+
+        if (System.currentTimeMillis() - h.loadedAt > getFullResyncInterval()) {
+            return null;
+        }
+
+        return new HashMap<>(h.states);
+    }
+
+    @Override
+    public synchronized void loadVmStates(String hostUuid, Map<String, VmInstanceState> states) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        HostVmStates old = hosts.get(hostUuid);
+        if (old != null) {
+            old.states.keySet().forEach(vmUuid -> vmHosts.remove(vmUuid, hostUuid));
+        }
+
+        HostVmStates h = new HostVmStates(new HashMap<>(states), old == null ? 0 : old.version + 1);
+        hosts.put(hostUuid, h);
+        h.states.keySet().forEach(vmUuid -> {
+            String oldHostUuid = vmHosts.put(vmUuid, hostUuid);
+            if (oldHostUuid != null && !oldHostUuid.equals(hostUuid)) {
+                removeFromHost(vmUuid, oldHostUuid);
+            }
+        });
+    }
+
+    private void removeFromHost(String vmUuid, String hostUuid) {
+        HostVmStates h = hosts.get(hostUuid);
+        if (h != null && h.states.remove(vmUuid) != null) {
+            h.version++;
+        }
+    }
+
+    @Override
+    public synchronized void updateVm(String vmUuid, String hostUuid, String lastHostUuid, VmInstanceState state, String type) {
+        String tracedHostUuid = getTracedHostUuid(hostUuid, lastHostUuid, state, type, vmTracerHelper.getVmTracerUnsupportedVmInstanceTypeSet());
+
+        String oldHostUuid = vmHosts.remove(vmUuid);
+        if (oldHostUuid != null && !oldHostUuid.equals(tracedHostUuid)) {
+            removeFromHost(vmUuid, oldHostUuid);
+        }
+
+        HostVmStates h = tracedHostUuid == null ? null : hosts.get(tracedHostUuid);
+        if (h == null) {
+            return;
+        }
+
+        if (h.states.put(vmUuid, state) != state) {
+            h.version++;
+        }
+        vmHosts.put(vmUuid, tracedHostUuid);
+    }
+
+    @Override
+    public synchronized void removeVm(String vmUuid) {
+        String hostUuid = vmHosts.remove(vmUuid);
+        if (hostUuid != null) {
+            removeFromHost(vmUuid, hostUuid);
+        }
+    }
+
+    @Override
+    public synchronized long getVersion(String hostUuid) {
+        HostVmStates h = hosts.get(hostUuid);
+        return h == null ? -1 : h.version;
+    }
+
+    private synchronized void removeHost(String hostUuid) {
+        HostVmStates h = hosts.remove(hostUuid);
+        if (h != null) {
+            h.states.keySet().forEach(vmUuid -> vmHosts.remove(vmUuid, hostUuid));
+        }
+    }
+
+    private synchronized void removeHostsNotManagedByUs() {
+        new ArrayList<>(hosts.keySet()).stream()
+                .filter(hostUuid -> !destMaker.isManagedByUs(hostUuid))
+                .forEach(this::removeHost);
+    }
+
+    private synchronized void clear() {
+        hosts.clear();
+        vmHosts.clear();
+    }
+
+    @Override
+    public boolean start() {
+        evtf.on(VmCanonicalEvents.VM_FULL_STATE_CHANGED_PATH, new EventCallback() {
+            @Override
+            protected void run(Map tokens, Object data) {
+                if (!isEnabled()) {
+                    return;
+                }
+
+                VmCanonicalEvents.VmStateChangedData d = (VmCanonicalEvents.VmStateChangedData) data;
+                VmInstanceInventory inv = d.getInventory();
+                if (inv == null) {
+                    removeVm(d.getVmUuid());
+                    return;
+                }
+
+                updateVm(inv.getUuid(), inv.getHostUuid(), inv.getLastHostUuid(), VmInstanceState.valueOf(d.getNewState()), inv.getType());
+            }
+        });
+
+        evtf.on(HostCanonicalEvents.HOST_DELETED_PATH, new EventCallback() {
+            @Override
+            protected void run(Map tokens, Object data) {
+                HostCanonicalEvents.HostDeletedData d = (HostCanonicalEvents.HostDeletedData) data;
+                removeHost(d.getHostUuid());
+            }
+        });
+
+        VmGlobalConfig.VM_TRACER_STATE_INDEX_FULL_RESYNC_INTERVAL.installUpdateExtension((oldConfig, newConfig) -> {
+            logger.debug(String.format("%s change from %s to %s, clear the vm state index",
+                    oldConfig.getCanonicalName(), oldConfig.value(), newConfig.value()));
+            clear();
+        });
+
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        return true;
+    }
+
+    @Override
+    public void nodeJoin(ManagementNodeInventory inv) {
+        // hosts taken over by the new node are traced there from now on
+        removeHostsNotManagedByUs();
+    }
+
+    @Override
+    public void nodeLeft(ManagementNodeInventory inv) {
+        // hosts taken over from the left node are loaded when they're traced
+    }
+
+    @Override
+    public void iAmDead(ManagementNodeInventory inv) {
+        clear();
+    }
+
+    @Override
+    public void iJoin(ManagementNodeInventory inv) {
+        removeHostsNotManagedByUs();
+    }
+}
@@ -6,6 +6,7 @@ import org.zstack.core.CoreGlobalProperty;
 import org.zstack.core.cloudbus.CloudBus;
 import org.zstack.core.cloudbus.EventFacade;
 import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.Q;
 import org.zstack.core.thread.SyncTask;
 import org.zstack.core.thread.ThreadFacade;
 import org.zstack.header.exception.CloudRuntimeException;
@@ -34,6 +35,8 @@ public abstract class VmTracer {
     private EventFacade evtf;
     @Autowired
     private VmTracerHelper vmTracerHelper;
+    @Autowired
+    private VmStateIndex vmStateIndex;
 
     private static final int strangeVmNumberInCache = 1500;
 
@@ -49,12 +52,22 @@ public abstract class VmTracer {
         Set<String> vmsToSkipHostSide;
         Map<String, VmInstanceState> hostSideStates;
         Map<String, VmInstanceState> mgmtSideStates;
+        // vms whose states in the index are not confirmed by database, skipped this time
+        Set<String> unconfirmedVms = new HashSet<>();
+
+        private boolean isSkipped(String vmUuid) {
+            return (vmsToSkipHostSide != null && vmsToSkipHostSide.contains(vmUuid)) || unconfirmedVms.contains(vmUuid);
+        }
+
+        private boolean isMissingOnHost(String vmUuid, VmInstanceState expectedState) {
+            return expectedState != VmInstanceState.Stopped && expectedState != VmInstanceState.Created && !hostSideStates.containsKey(vmUuid);
+        }
 
         private void checkFromHostSide() {
             for (Map.Entry<String, VmInstanceState> e : hostSideStates.entrySet()) {
                 String vmUuid = e.getKey();
 
-                if (vmsToSkipHostSide != null && vmsToSkipHostSide.contains(vmUuid)) {
+                if (isSkipped(vmUuid)) {
                     continue;
                 }
 
@@ -113,8 +126,7 @@ public abstract class VmTracer {
             for (Map.Entry<String, VmInstanceState> e : mgmtSideStates.entrySet()) {
                 String vmUuid = e.getKey();
                 VmInstanceState expectedState = e.getValue();
-                if (expectedState != VmInstanceState.Stopped && expectedState != VmInstanceState.Created && !hostSideStates.containsKey(vmUuid)
-                        && (vmsToSkipHostSide == null || !vmsToSkipHostSide.contains(vmUuid))) {
+                if (isMissingOnHost(vmUuid, expectedState) && !isSkipped(vmUuid)) {
                     handleMissingVm(vmUuid, expectedState);
                 }
             }
@@ -131,9 +143,68 @@ public abstract class VmTracer {
             bus.send(msg);
         }
 
+        // the index is updated by events which can be late or lost, so a vm is only
+        // handled if its state in the index matches the database, otherwise the index
+        // is corrected and the vm is left to the next report. Only mismatched vms are
+        // queried, so the database cost scales with changes instead of vms on the host
+        private void confirmMismatchedVms() {
+            Set<String> mismatched = new HashSet<>();
+            hostSideStates.forEach((vmUuid, actualState) -> {
+                if (!isSkipped(vmUuid) && actualState != mgmtSideStates.get(vmUuid)) {
+                    mismatched.add(vmUuid);
+                }
+            });
+            mgmtSideStates.forEach((vmUuid, expectedState) -> {
+                if (!isSkipped(vmUuid) && isMissingOnHost(vmUuid, expectedState)) {
+                    mismatched.add(vmUuid);
+                }
+            });
+
+            if (mismatched.isEmpty()) {
+                return;
+            }
+
+            Set<String> unsupportedTypes = vmTracerHelper.getVmTracerUnsupportedVmInstanceTypeSet();
+            Set<String> vmsInDb = new HashSet<>();
+            Map<String, VmInstanceState> statesInDb = new HashMap<>();
+            List<Tuple> ts = Q.New(VmInstanceVO.class)
+                    .select(VmInstanceVO_.uuid, VmInstanceVO_.hostUuid, VmInstanceVO_.lastHostUuid, VmInstanceVO_.state, VmInstanceVO_.type)
+                    .in(VmInstanceVO_.uuid, mismatched)
+                    .listTuple();
+            for (Tuple t : ts) {
+                String vmUuid = t.get(0, String.class);
+                String vmHostUuid = t.get(1, String.class);
+                String lastHostUuid = t.get(2, String.class);
+                VmInstanceState state = t.get(3, VmInstanceState.class);
+                String type = t.get(4, String.class);
+
+                vmsInDb.add(vmUuid);
+                vmStateIndex.updateVm(vmUuid, vmHostUuid, lastHostUuid, state, type);
+                if (hostUuid.equals(VmStateIndexImpl.getTracedHostUuid(vmHostUuid, lastHostUuid, state, type, unsupportedTypes))) {
+                    statesInDb.put(vmUuid, state);
+                }
+            }
+
+            for (String vmUuid : mismatched) {
+                if (!vmsInDb.contains(vmUuid)) {
+                    vmStateIndex.removeVm(vmUuid);
+                }
+
+                if (statesInDb.get(vmUuid) != mgmtSideStates.get(vmUuid)) {
+                    logger.debug(String.format("[Vm Tracer] state of vm[uuid:%s] on host[uuid:%s] in index is %s but %s in database, skip it this time",
+                            vmUuid, hostUuid, mgmtSideStates.get(vmUuid), statesInDb.get(vmUuid)));
+                    unconfirmedVms.add(vmUuid);
+                }
+            }
+        }
+
         void trace() {
             if (mgmtSideStates == null) {
-                mgmtSideStates = buildManagementServerSideVmStates(hostUuid);
+                mgmtSideStates = getManagementServerSideVmStates(hostUuid);
+            }
+
+            if (vmStateIndex.isEnabled()) {
+                confirmMismatchedVms();
             }
 
             checkFromHostSide();
@@ -141,6 +212,21 @@ public abstract class VmTracer {
         }
     }
 
+    /**
+     * vm states of the host on management server side, from the vm state index if it's
+     * enabled and the host is indexed, otherwise from database
+     */
+    protected Map<String, VmInstanceState> getManagementServerSideVmStates(String hostUuid) {
+        Map<String, VmInstanceState> states = vmStateIndex.getVmStates(hostUuid);
+        if (states != null) {
+            return states;
+        }
+
+        states = buildManagementServerSideVmStates(hostUuid);
+        vmStateIndex.loadVmStates(hostUuid, states);
+        return states;
+    }
+
     @Transactional(readOnly = true)
     protected Map<String, VmInstanceState> buildManagementServerSideVmStates(String hostUuid) {
         Map<String, VmInstanceState> mgmtSideStates = new HashMap<>();
@@ -2,6 +2,7 @@ package org.zstack.core;
 
 import org.zstack.core.debug.APIDebugSignalMsg;
 import org.zstack.core.debug.APIGetDebugSignalMsg;
+import org.zstack.core.debug.APIGetFlowLatencyStatisticsMsg;
 import org.zstack.header.identity.rbac.RBACDescription;
 import org.zstack.core.debug.APICleanQueueMsg;
 
@@ -9,7 +10,8 @@ public class RBACInfo implements RBACDescription {
     @Override
     public void permissions() {
         permissionBuilder()
-                .adminOnlyAPIs(APIDebugSignalMsg.class, APIGetDebugSignalMsg.class, APICleanQueueMsg.class)
+                .adminOnlyAPIs(APIDebugSignalMsg.class, APIGetDebugSignalMsg.class, APICleanQueueMsg.class,
+                        APIGetFlowLatencyStatisticsMsg.class)
                 .build();
     }
 
@@ -54,6 +54,31 @@ public class CloudBusGlobalProperty {
     public static boolean HTTP_ALWAYS;
     @GlobalProperty(name="CloudBus.httpContextPath", defaultValue = "/zstack")
     public static String HTTP_CONTEXT_PATH;
+    // "http" or "tcp", with "tcp" messages to other management nodes are sent through
+    // persistent connections of CloudBusTcpTransport, HTTP is used as the fallback
+    @GlobalProperty(name="CloudBus.transport", defaultValue = "http")
+    public static String TRANSPORT;
+    @GlobalProperty(name="CloudBus.tcpPort", defaultValue = "8095")
+    public static int TCP_PORT;
+    @GlobalProperty(name="CloudBus.tcpConnectionsPerNode", defaultValue = "4")
+    public static int TCP_CONNECTIONS_PER_NODE;
+    @GlobalProperty(name="CloudBus.tcpMaxMessagesPerFrame", defaultValue = "64")
+    public static int TCP_MAX_MESSAGES_PER_FRAME;
+    // frames larger than this are deflated, 0 disables compression. Unit: byte
+    @GlobalProperty(name="CloudBus.tcpCompressThreshold", defaultValue = "0")
+    public static int TCP_COMPRESS_THRESHOLD;
+    // Unit: second
+    @GlobalProperty(name="CloudBus.tcpConnectTimeout", defaultValue = "5")
+    public static int TCP_CONNECT_TIMEOUT;
+    // after failing to connect a node, use HTTP for it in this period. Unit: second
+    @GlobalProperty(name="CloudBus.tcpReconnectInterval", defaultValue = "30")
+    public static int TCP_RECONNECT_INTERVAL;
+    // a connection not acking a frame in this period is closed, messages not acked fall back to HTTP. Unit: second
+    @GlobalProperty(name="CloudBus.tcpAckTimeout", defaultValue = "30")
+    public static int TCP_ACK_TIMEOUT;
+    // max resource uuids whose destination node is cached by ResourceDestinationMakerImpl, 0 disables the cache
+    @GlobalProperty(name="CloudBus.resourceDestinationCacheSize", defaultValue = "0")
+    public static int RESOURCE_DESTINATION_CACHE_SIZE;
     // Unit of SYNC_CALL_TIMEOUT: millisecond
     @GlobalProperty(name="Cloudbus.syncCallTimeout", defaultValue = "900000")
     public static int SYNC_CALL_TIMEOUT;
@@ -1,5 +1,7 @@
 package org.zstack.core.cloudbus;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.apache.logging.log4j.ThreadContext;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.*;
@@ -101,6 +103,15 @@ public class CloudBusImpl3 implements CloudBus, CloudBusIN {
     private final static TimeoutRestTemplate http = RESTFacade.createRestTemplate(CoreGlobalProperty.REST_FACADE_READ_TIMEOUT, CoreGlobalProperty.REST_FACADE_CONNECT_TIMEOUT);
 
     public static final String HTTP_BASE_URL = "/cloudbus";
+    public static final String TRANSPORT_TCP = "tcp";
+
+    private CloudBusTcpTransport tcpTransport;
+    // ids of messages received by tcp transport, a message is sent again by HTTP if the
+    // connection breaks before the sender receives its ack, drop it in that case
+    private final Cache<String, Boolean> tcpReceivedMessageIds = CacheBuilder.newBuilder()
+            .maximumSize(100000)
+            .expireAfterWrite(5, TimeUnit.MINUTES)
+            .build();
 
     {
         if (CloudBusGlobalProperty.MESSAGE_LOG != null) {
@@ -572,16 +583,39 @@ public class CloudBusImpl3 implements CloudBus, CloudBusIN {
             });
         }
 
+        private void remoteSend(String ip) {
+            if (tcpTransport == null) {
+                httpSendInQueue(ip);
+                return;
+            }
+
+            // messages to the same service share a connection to keep their order
+            tcpTransport.send(ip, msg.getServiceId(), CloudBusGson.toJson(msg), t -> {
+                if (logger.isTraceEnabled()) {
+                    logger.trace(String.format("unable to send message[%s] to %s by tcp transport, fall back to http, %s",
+                            msg.getId(), ip, t.getMessage()));
+                }
+
+                httpSendInQueue(ip);
+            }, err -> {
+                try {
+                    replyErrorIfNeeded(operr("management node[ip:%s] failed to receive message[%s], %s", ip, msg.getId(), err));
+                } catch (OperationFailureException e) {
+                    logger.warn(String.format("management node[ip:%s] failed to receive message[%s], %s", ip, msg.getId(), err));
+                }
+            });
+        }
+
         private void httpSend() {
             buildSchema(msg);
             try {
                 String ip = destMaker.getNodeInfo(managementNodeId).getNodeIP();
-                httpSendInQueue(ip);
+                remoteSend(ip);
             } catch (ManagementNodeNotFoundException e) {
                 if (msg instanceof MessageReply) {
                     if (!deadMessageManager.handleManagementNodeNotFoundError(managementNodeId, msg, () -> {
                         String ip = destMaker.getNodeInfo(managementNodeId).getNodeIP();
-                        httpSendInQueue(ip);
+                        remoteSend(ip);
                     })) {
                         throw e;
                     }
@@ -643,7 +677,7 @@ public class CloudBusImpl3 implements CloudBus, CloudBusIN {
             localSend();
             destMaker.getAllNodeInfo().forEach(node -> {
                 if (!node.getNodeUuid().equals(Platform.getManagementServerId())) {
-                    httpSendInQueue(node.getNodeIP());
+                    remoteSend(node.getNodeIP());
                 }
             });
         }
@@ -1167,11 +1201,22 @@ public class CloudBusImpl3 implements CloudBus, CloudBusIN {
         on(EVENT_ID, eventConsumer);
 
         populateExtension();
+
+        if (TRANSPORT_TCP.equals(CloudBusGlobalProperty.TRANSPORT)) {
+            tcpTransport = new CloudBusTcpTransport(Platform.getManagementServerIp(), this::receiveTcpMessage,
+                    ip -> destMaker.getAllNodeInfo().stream().anyMatch(node -> ip.equals(node.getNodeIP())));
+            tcpTransport.start();
+        }
+
         return true;
     }
 
     @Override
     public boolean stop() {
+        if (tcpTransport != null) {
+            tcpTransport.stop();
+        }
+
         return true;
     }
 
@@ -1265,24 +1310,43 @@ public class CloudBusImpl3 implements CloudBus, CloudBusIN {
         return CloudBusGson.fromJson(CloudBusGson.toJson(obj), clazz);
     }
 
+    private Message parseRemoteMessage(String body) {
+        Message msg = CloudBusGson.fromJson(body);
+        Map raw = JSONObjectUtil.toObject(body, LinkedHashMap.class);
+        try {
+            restoreFromSchema(msg, raw);
+        } catch (ClassNotFoundException e1) {
+            throw new CloudRuntimeException(e1);
+        }
+
+        return msg;
+    }
+
     @AsyncThread
     public void handleHttpRequest(HttpEntity<String> e, HttpServletResponse rsp) {
         try {
-            Message msg = CloudBusGson.fromJson(e.getBody());
-            Map raw = JSONObjectUtil.toObject(e.getBody(), LinkedHashMap.class);
-            try {
-                restoreFromSchema(msg, raw);
-            } catch (ClassNotFoundException e1) {
-                throw new CloudRuntimeException(e1);
+            Message msg = parseRemoteMessage(e.getBody());
+            if (tcpTransport != null && tcpReceivedMessageIds.getIfPresent(msg.getId()) != null) {
+                logger.debug(String.format("drop message[%s] received from HTTP, it has been received from tcp transport", msg.getId()));
+            } else {
+                new MessageSender(msg).localSend();
             }
-
-            new MessageSender(msg).localSend();
             rsp.setStatus(HttpStatus.OK.value());
         } catch (Throwable t) {
             logger.warn(String.format("unable to deliver a message received from HTTP. HTTP body: %s", e.getBody()), t);
         }
     }
 
+    /**
+     * called by the reader thread of a tcp connection in the order messages are sent, consumers
+     * deliver messages asynchronously. Exceptions are reported to the sender as error replies.
+     */
+    private void receiveTcpMessage(String body) {
+        Message msg = parseRemoteMessage(body);
+        tcpReceivedMessageIds.put(msg.getId(), Boolean.TRUE);
+        new MessageSender(msg).localSend();
+    }
+
     @Override
     public int getEnvelopeSize() {
         return envelopes.size();
@@ -0,0 +1,239 @@
+package org.zstack.core.cloudbus;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * frames and acks of CloudBusTcpTransport:
+ *
+ *     frame:    | length(int) | flags(byte) | seq(long) | payload(length bytes) |
+ *     payload:  | count(int) | [ size(int) | json(size bytes, UTF-8) ] * count |
+ *     ack:      | seq(long) | count(int) | [ status(byte) | size(int) | error(size bytes, UTF-8) ] * count |
+ *
+ * if flags has FLAG_DEFLATE, the payload is | raw length(int) | deflated payload |. An ack
+ * has a status for every message of the frame in order, size and error are only present
+ * when status is STATUS_REJECTED.
+ */
+public class CloudBusTcpFrame {
+    public static final byte FLAG_DEFLATE = 1;
+    public static final byte STATUS_OK = 0;
+    public static final byte STATUS_REJECTED = 1;
+    public static final int MAX_FRAME_SIZE = 512 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final long seq;
+    private final List<String> messages;
+
+    private CloudBusTcpFrame(long seq, List<String> messages) {
+        this.seq = seq;
+        this.messages = messages;
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public List<String> getMessages() {
+        return messages;
+    }
+
+    public static class Ack {
+        private final long seq;
+        // error of each message in the frame, null if the message is accepted
+        private final List<String> errors;
+
+        private Ack(long seq, List<String> errors) {
+            this.seq = seq;
+            this.errors = errors;
+        }
+
+        public long getSeq() {
+            return seq;
+        }
+
+        public List<String> getErrors() {
+            return errors;
+        }
+    }
+
+    /**
+     * @param compressThreshold payload larger than it is deflated, 0 never deflates
+     */
+    public static void write(DataOutputStream out, long seq, List<String> messages, int compressThreshold) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(BUFFER_SIZE);
+        DataOutputStream payload = new DataOutputStream(bos);
+        payload.writeInt(messages.size());
+        for (String m : messages) {
+            writeString(payload, m);
+        }
+        payload.flush();
+
+        byte[] raw = bos.toByteArray();
+        if (compressThreshold > 0 && raw.length > compressThreshold) {
+            byte[] deflated = deflate(raw);
+            out.writeInt(deflated.length + 4);
+            out.writeByte(FLAG_DEFLATE);
+            out.writeLong(seq);
+            out.writeInt(raw.length);
+            out.write(deflated);
+        } else {
+            out.writeInt(raw.length);
+            out.writeByte(0);
+            out.writeLong(seq);
+            out.write(raw);
+        }
+
+        out.flush();
+    }
+
+    /**
+     * @return null if the peer closes the connection between frames
+     */
+    public static CloudBusTcpFrame read(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+
+        checkSize(length, "frame length");
+        byte flags = in.readByte();
+        long seq = in.readLong();
+
+        byte[] payload;
+        if ((flags & FLAG_DEFLATE) != 0) {
+            int rawLength = in.readInt();
+            checkSize(rawLength, "raw frame length");
+            if (length < 4) {
+                throw new IOException(String.format("invalid frame length[%s] of a deflated frame", length));
+            }
+
+            byte[] deflated = new byte[length - 4];
+            in.readFully(deflated);
+            payload = inflate(deflated, rawLength);
+        } else {
+            payload = new byte[length];
+            in.readFully(payload);
+        }
+
+        DataInputStream pin = new DataInputStream(new ByteArrayInputStream(payload));
+        int count = pin.readInt();
+        checkSize(count, "message count");
+        List<String> messages = new ArrayList<>(Math.min(count, 1024));
+        for (int i = 0; i < count; i++) {
+            messages.add(readString(pin, payload.length));
+        }
+
+        return new CloudBusTcpFrame(seq, messages);
+    }
+
+    /**
+     * @param errors error of each message of the frame, null if the message is accepted
+     */
+    public static void writeAck(DataOutputStream out, long seq, List<String> errors) throws IOException {
+        out.writeLong(seq);
+        out.writeInt(errors.size());
+        for (String err : errors) {
+            if (err == null) {
+                out.writeByte(STATUS_OK);
+            } else {
+                out.writeByte(STATUS_REJECTED);
+                writeString(out, err);
+            }
+        }
+
+        out.flush();
+    }
+
+    public static Ack readAck(DataInputStream in) throws IOException {
+        long seq = in.readLong();
+        int count = in.readInt();
+        checkSize(count, "ack count");
+        List<String> errors = new ArrayList<>(Math.min(count, 1024));
+        for (int i = 0; i < count; i++) {
+            byte status = in.readByte();
+            if (status == STATUS_OK) {
+                errors.add(null);
+            } else if (status == STATUS_REJECTED) {
+                errors.add(readString(in, MAX_FRAME_SIZE));
+            } else {
+                throw new IOException(String.format("invalid ack status[%s]", status));
+            }
+        }
+
+        return new Ack(seq, Collections.unmodifiableList(errors));
+    }
+
+    private static void checkSize(int size, String name) throws IOException {
+        if (size < 0 || size > MAX_FRAME_SIZE) {
+            throw new IOException(String.format("invalid %s[%s]", name, size));
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in, int maxSize) throws IOException {
+        int size = in.readInt();
+        if (size < 0 || size > maxSize) {
+            throw new IOException(String.format("invalid string size[%s]", size));
+        }
+
+        byte[] bytes = new byte[size];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(raw.length / 2 + 64);
+            byte[] buf = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buf);
+                bos.write(buf, 0, n);
+            }
+            return bos.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] deflated, int rawLength) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(deflated);
+            byte[] raw = new byte[rawLength];
+            int off = 0;
+            while (off < rawLength && !inflater.finished()) {
+                int n = inflater.inflate(raw, off, rawLength - off);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                off += n;
+            }
+
+            if (off != rawLength) {
+                throw new IOException(String.format("corrupted frame, expected %s bytes after inflating but got %s", rawLength, off));
+            }
+
+            return raw;
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
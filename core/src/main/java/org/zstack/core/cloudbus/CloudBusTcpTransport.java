@@ -0,0 +1,428 @@
+package org.zstack.core.cloudbus;
+
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * persistent, multiplexed connections between management nodes for CloudBusImpl3.
+ *
+ * every peer node gets a small pool of connections, messages of the same key (e.g. the
+ * destination service) always go through the same connection so they are delivered in
+ * the order they are sent. The writer thread of a connection drains its queue and writes
+ * up to TCP_MAX_MESSAGES_PER_FRAME messages in one CloudBusTcpFrame.
+ *
+ * a connection starts with a header of MAGIC and VERSION, then frames follow. The receiver
+ * acks every frame after handing its messages to the receiver callback, with an error for
+ * each message the callback rejects, which are reported to the reject callback of the sender.
+ * When a connection breaks or a frame is not acked in TCP_ACK_TIMEOUT, messages of frames not
+ * acked and messages not written yet are handed to the fail callback, which falls back to HTTP.
+ *
+ * the transport listens on the management ip and only accepts connections from ips the
+ * isPeer predicate accepts.
+ */
+class CloudBusTcpTransport {
+    private static final CLogger logger = Utils.getLogger(CloudBusTcpTransport.class);
+
+    private static final int MAGIC = 0x5a534342;
+    private static final byte VERSION = 2;
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+    interface Receiver {
+        /**
+         * @throws Exception if the message cannot be accepted, it's reported to the sender
+         */
+        void receive(String json) throws Exception;
+    }
+
+    private final String bindIp;
+    private final Receiver receiver;
+    private final Predicate<String> isPeer;
+    private final Map<String, AtomicReferenceArray<PeerConnection>> connections = new ConcurrentHashMap<>();
+    private final Map<String, Long> unreachableUntil = new ConcurrentHashMap<>();
+    private volatile ServerSocket serverSocket;
+    private volatile boolean stopped;
+
+    private static class Pending {
+        final String json;
+        final Consumer<Throwable> fail;
+        final Consumer<String> reject;
+
+        Pending(String json, Consumer<Throwable> fail, Consumer<String> reject) {
+            this.json = json;
+            this.fail = fail;
+            this.reject = reject;
+        }
+    }
+
+    private static class Batch {
+        final List<Pending> pendings;
+        final long sentTime = System.currentTimeMillis();
+
+        Batch(List<Pending> pendings) {
+            this.pendings = pendings;
+        }
+    }
+
+    CloudBusTcpTransport(String bindIp, Receiver receiver, Predicate<String> isPeer) {
+        this.bindIp = bindIp;
+        this.receiver = receiver;
+        this.isPeer = isPeer;
+    }
+
+    private static Thread newThread(Runnable r, String name) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+    }
+
+    private static void closeQuietly(Closeable c) {
+        try {
+            if (c != null) {
+                c.close();
+            }
+        } catch (IOException e) {
+            logger.trace(e.getMessage(), e);
+        }
+    }
+
+    void start() {
+        try {
+            serverSocket = new ServerSocket();
+            serverSocket.setReuseAddress(true);
+            serverSocket.bind(new InetSocketAddress(bindIp, CloudBusGlobalProperty.TCP_PORT));
+        } catch (IOException e) {
+            throw new CloudRuntimeException(String.format("unable to listen on %s:%s for cloudbus tcp transport",
+                    bindIp, CloudBusGlobalProperty.TCP_PORT), e);
+        }
+
+        newThread(this::accept, "cloudbus-tcp-acceptor").start();
+        logger.debug(String.format("cloudbus tcp transport is listening on %s:%s", bindIp, CloudBusGlobalProperty.TCP_PORT));
+    }
+
+    void stop() {
+        stopped = true;
+        closeQuietly(serverSocket);
+
+        connections.values().forEach(slots -> {
+            for (int i = 0; i < slots.length(); i++) {
+                PeerConnection c = slots.get(i);
+                if (c != null) {
+                    c.fail(new IOException("cloudbus tcp transport stopped"));
+                }
+            }
+        });
+        connections.clear();
+    }
+
+    /**
+     * queue a serialized message to the node of the ip
+     *
+     * @param key messages of the same key are written to the same connection in order
+     * @param fail called if the message may not reach the node, e.g. the node is unreachable,
+     *             it doesn't enable the tcp transport or it doesn't ack in time
+     * @param reject called with the error if the node receives the message but cannot accept it
+     */
+    void send(String ip, String key, String json, Consumer<Throwable> fail, Consumer<String> reject) {
+        Pending p = new Pending(json, fail, reject);
+        AtomicReferenceArray<PeerConnection> slots = connections.computeIfAbsent(ip,
+                k -> new AtomicReferenceArray<>(Math.max(1, CloudBusGlobalProperty.TCP_CONNECTIONS_PER_NODE)));
+        int idx = key == null ? 0 : Math.floorMod(key.hashCode(), slots.length());
+
+        while (!stopped) {
+            if (isUnreachable(ip)) {
+                fail.accept(new IOException(String.format("management node[ip:%s] is not reachable by tcp transport", ip)));
+                return;
+            }
+
+            PeerConnection c = slots.get(idx);
+            if (c != null && c.offer(p)) {
+                return;
+            }
+
+            PeerConnection nc = new PeerConnection(ip, slots, idx);
+            if (slots.compareAndSet(idx, c, nc)) {
+                nc.start();
+            }
+        }
+
+        fail.accept(new IOException("cloudbus tcp transport stopped"));
+    }
+
+    private boolean isUnreachable(String ip) {
+        Long until = unreachableUntil.get(ip);
+        if (until == null) {
+            return false;
+        }
+
+        if (System.currentTimeMillis() < until) {
+            return true;
+        }
+
+        unreachableUntil.remove(ip, until);
+        return false;
+    }
+
+    private class PeerConnection implements Runnable {
+        private final String ip;
+        private final AtomicReferenceArray<PeerConnection> slots;
+        private final int slot;
+        private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+        // frames written but not acked, by seq
+        private final LinkedHashMap<Long, Batch> unacked = new LinkedHashMap<>();
+        private long seq = 0;
+        private boolean closed;
+        // why the connection is closed, for batches taken by the writer before it
+        private Throwable failure;
+        private volatile Socket socket;
+
+        PeerConnection(String ip, AtomicReferenceArray<PeerConnection> slots, int slot) {
+            this.ip = ip;
+            this.slots = slots;
+            this.slot = slot;
+        }
+
+        void start() {
+            newThread(this, String.format("cloudbus-tcp-writer-%s-%s", ip, slot)).start();
+        }
+
+        synchronized boolean offer(Pending p) {
+            if (closed) {
+                return false;
+            }
+
+            queue.add(p);
+            return true;
+        }
+
+        synchronized boolean isClosed() {
+            return closed;
+        }
+
+        void fail(Throwable t) {
+            List<Pending> left = new ArrayList<>();
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+
+                closed = true;
+                failure = t;
+                // frames not acked first to keep the order
+                unacked.values().forEach(b -> left.addAll(b.pendings));
+                unacked.clear();
+                queue.drainTo(left);
+            }
+
+            slots.compareAndSet(slot, this, null);
+            closeQuietly(socket);
+
+            left.forEach(p -> p.fail.accept(t));
+        }
+
+        private synchronized void checkAckTimeout() throws IOException {
+            Iterator<Batch> it = unacked.values().iterator();
+            if (!it.hasNext()) {
+                return;
+            }
+
+            long timeout = TimeUnit.SECONDS.toMillis(CloudBusGlobalProperty.TCP_ACK_TIMEOUT);
+            if (System.currentTimeMillis() - it.next().sentTime > timeout) {
+                throw new IOException(String.format("no ack in %s seconds", CloudBusGlobalProperty.TCP_ACK_TIMEOUT));
+            }
+        }
+
+        private void readAcks(DataInputStream in) {
+            try {
+                while (!stopped && !isClosed()) {
+                    CloudBusTcpFrame.Ack ack = CloudBusTcpFrame.readAck(in);
+                    Batch batch;
+                    synchronized (this) {
+                        batch = unacked.remove(ack.getSeq());
+                    }
+
+                    if (batch == null || batch.pendings.size() != ack.getErrors().size()) {
+                        throw new IOException(String.format("unexpected ack of frame[seq:%s]", ack.getSeq()));
+                    }
+
+                    for (int i = 0; i < ack.getErrors().size(); i++) {
+                        String err = ack.getErrors().get(i);
+                        if (err != null) {
+                            batch.pendings.get(i).reject.accept(err);
+                        }
+                    }
+                }
+            } catch (Throwable t) {
+                if (!isClosed()) {
+                    logger.warn(String.format("failed to read acks from management node[ip:%s] by tcp transport, %s", ip, t.getMessage()));
+                }
+                fail(t);
+            }
+        }
+
+        @Override
+        public void run() {
+            DataOutputStream out;
+            try {
+                socket = new Socket();
+                socket.setTcpNoDelay(true);
+                socket.setKeepAlive(true);
+                // peers accept connections from management ips only
+                socket.bind(new InetSocketAddress(bindIp, 0));
+                socket.connect(new InetSocketAddress(ip, CloudBusGlobalProperty.TCP_PORT),
+                        (int) TimeUnit.SECONDS.toMillis(CloudBusGlobalProperty.TCP_CONNECT_TIMEOUT));
+                out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), IO_BUFFER_SIZE));
+                out.writeInt(MAGIC);
+                out.writeByte(VERSION);
+                out.flush();
+
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), IO_BUFFER_SIZE));
+                newThread(() -> readAcks(in), String.format("cloudbus-tcp-ack-reader-%s-%s", ip, slot)).start();
+            } catch (IOException e) {
+                logger.warn(String.format("unable to connect management node[ip:%s, port:%s] by tcp transport, use HTTP in next %s seconds, %s",
+                        ip, CloudBusGlobalProperty.TCP_PORT, CloudBusGlobalProperty.TCP_RECONNECT_INTERVAL, e.getMessage()));
+                unreachableUntil.put(ip, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(CloudBusGlobalProperty.TCP_RECONNECT_INTERVAL));
+                fail(e);
+                return;
+            }
+
+            int maxBatch = Math.max(1, CloudBusGlobalProperty.TCP_MAX_MESSAGES_PER_FRAME);
+            while (!stopped && !isClosed()) {
+                try {
+                    checkAckTimeout();
+
+                    Pending first = queue.poll(1, TimeUnit.SECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+
+                    List<Pending> batch = new ArrayList<>(maxBatch);
+                    batch.add(first);
+                    queue.drainTo(batch, maxBatch - 1);
+
+                    long frameSeq;
+                    Throwable closedBy = null;
+                    synchronized (this) {
+                        if (closed) {
+                            // closed by the ack reader after the batch is taken from the queue,
+                            // fail() has drained the queue and unacked frames without it
+                            closedBy = failure;
+                            frameSeq = -1;
+                        } else {
+                            frameSeq = seq++;
+                            // the frame may be partially written if the connection breaks, it's
+                            // failed over with other frames not acked
+                            unacked.put(frameSeq, new Batch(batch));
+                        }
+                    }
+
+                    if (closedBy != null) {
+                        Throwable t = closedBy;
+                        batch.forEach(p -> p.fail.accept(t));
+                        return;
+                    }
+
+                    List<String> messages = new ArrayList<>(batch.size());
+                    batch.forEach(p -> messages.add(p.json));
+                    CloudBusTcpFrame.write(out, frameSeq, messages, CloudBusGlobalProperty.TCP_COMPRESS_THRESHOLD);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (Throwable t) {
+                    logger.warn(String.format("failed to write messages to management node[ip:%s] by tcp transport, %s",
+                            ip, t.getMessage()));
+                    fail(t);
+                    return;
+                }
+            }
+
+            fail(new IOException("cloudbus tcp transport stopped"));
+        }
+    }
+
+    private void accept() {
+        while (!stopped) {
+            try {
+                Socket s = serverSocket.accept();
+                String remoteIp = ((InetSocketAddress) s.getRemoteSocketAddress()).getAddress().getHostAddress();
+                if (!isPeer.test(remoteIp)) {
+                    logger.warn(String.format("drop connection from %s, it's not a management node", s.getRemoteSocketAddress()));
+                    closeQuietly(s);
+                    continue;
+                }
+
+                s.setTcpNoDelay(true);
+                s.setKeepAlive(true);
+                newThread(() -> read(s), String.format("cloudbus-tcp-reader-%s", s.getRemoteSocketAddress())).start();
+            } catch (IOException e) {
+                if (!stopped) {
+                    logger.warn(String.format("cloudbus tcp transport failed to accept a connection, %s", e.getMessage()));
+                }
+            }
+        }
+    }
+
+    private void read(Socket s) {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), IO_BUFFER_SIZE));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), IO_BUFFER_SIZE));
+            if (in.readInt() != MAGIC) {
+                logger.warn(String.format("drop connection from %s, it's not a cloudbus tcp transport client", s.getRemoteSocketAddress()));
+                return;
+            }
+
+            byte version = in.readByte();
+            if (version != VERSION) {
+                logger.warn(String.format("drop connection from %s, unsupported cloudbus tcp transport version[%s]", s.getRemoteSocketAddress(), version));
+                return;
+            }
+
+            while (!stopped) {
+                CloudBusTcpFrame frame = CloudBusTcpFrame.read(in);
+                if (frame == null) {
+                    // the peer closed the connection
+                    return;
+                }
+
+                List<String> errors = new ArrayList<>(frame.getMessages().size());
+                for (String json : frame.getMessages()) {
+                    errors.add(receive(json));
+                }
+
+                CloudBusTcpFrame.writeAck(out, frame.getSeq(), errors);
+            }
+        } catch (IOException e) {
+            if (!stopped) {
+                logger.warn(String.format("connection from %s of cloudbus tcp transport is broken, %s", s.getRemoteSocketAddress(), e.getMessage()));
+            }
+        } finally {
+            closeQuietly(s);
+        }
+    }
+
+    /**
+     * @return the error if the receiver rejects the message, otherwise null
+     */
+    private String receive(String json) {
+        try {
+            receiver.receive(json);
+            return null;
+        } catch (Throwable t) {
+            logger.warn(String.format("unable to receive a message from tcp transport. body: %s", json), t);
+            return t.getMessage() == null ? t.getClass().getName() : t.getMessage();
+        }
+    }
+}
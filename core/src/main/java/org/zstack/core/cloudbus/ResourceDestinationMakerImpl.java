@@ -1,5 +1,7 @@
 package org.zstack.core.cloudbus;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.zstack.core.Platform;
 import org.zstack.core.db.DatabaseFacade;
@@ -12,6 +14,7 @@ import org.zstack.utils.hash.ApacheHash;
 import org.zstack.utils.hash.ConsistentHash;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created with IntelliJ IDEA.
@@ -21,47 +24,75 @@ import java.util.*;
  */
 public class ResourceDestinationMakerImpl implements ManagementNodeChangeListener, ResourceDestinationMaker {
     private final ConsistentHash<String> nodeHash = new ConsistentHash<>(new ApacheHash(), 500, new ArrayList<String>()) ;
-    private final Map<String, NodeInfo> nodes = new HashMap<>();
+    private final Map<String, NodeInfo> nodes = new ConcurrentHashMap<>();
+    // resource uuid -> node uuid, replaced by a new cache whenever the ring changes
+    private volatile Cache<String, String> destinations = newDestinationCache();
 
     @Autowired
     private DatabaseFacade dbf;
 
+    private static Cache<String, String> newDestinationCache() {
+        if (CloudBusGlobalProperty.RESOURCE_DESTINATION_CACHE_SIZE <= 0) {
+            return null;
+        }
+
+        return CacheBuilder.newBuilder()
+                .maximumSize(CloudBusGlobalProperty.RESOURCE_DESTINATION_CACHE_SIZE)
+                .build();
+    }
+
+    private void addNode(String nodeUuid, NodeInfo info) {
+        nodeHash.add(nodeUuid);
+        nodes.put(nodeUuid, info);
+        destinations = newDestinationCache();
+    }
+
+    private void removeNode(String nodeUuid) {
+        nodeHash.remove(nodeUuid);
+        nodes.remove(nodeUuid);
+        destinations = newDestinationCache();
+    }
+
     @Override
     public void nodeJoin(ManagementNodeInventory inv) {
-        nodeHash.add(inv.getUuid());
-        nodes.put(inv.getUuid(), new NodeInfo(inv));
+        addNode(inv.getUuid(), new NodeInfo(inv));
     }
 
     @Override
     public void nodeLeft(ManagementNodeInventory inv) {
-        String nodeId = inv.getUuid();
-        nodeHash.remove(nodeId);
-        nodes.remove(nodeId);
+        removeNode(inv.getUuid());
     }
 
     @Override
     public void iAmDead(ManagementNodeInventory inv) {
-        String nodeId = inv.getUuid();
-        nodeHash.remove(nodeId);
-        nodes.remove(nodeId);
+        removeNode(inv.getUuid());
     }
 
     @Override
     public void iJoin(ManagementNodeInventory inv) {
         List<ManagementNodeVO> lst = Q.New(ManagementNodeVO.class).list();
-        lst.forEach((ManagementNodeVO node) -> {
-            nodeHash.add(node.getUuid());
-            nodes.put(node.getUuid(), new NodeInfo(node));
-        });
+        lst.forEach((ManagementNodeVO node) -> addNode(node.getUuid(), new NodeInfo(node)));
     }
 
     @Override
     public String makeDestination(String resourceUuid) {
-        String nodeUuid = nodeHash.get(resourceUuid);
+        // read the cache before the ring, a cache read after the ring changed
+        // is always a new one, it never holds destinations of the old ring
+        Cache<String, String> cache = destinations;
+        String nodeUuid = cache == null ? null : cache.getIfPresent(resourceUuid);
+        if (nodeUuid != null) {
+            return nodeUuid;
+        }
+
+        nodeUuid = nodeHash.get(resourceUuid);
         if (nodeUuid == null) {
             throw new CloudRuntimeException("Cannot find any available management node to send message");
         }
 
+        if (cache != null) {
+            cache.put(resourceUuid, nodeUuid);
+        }
+
         return nodeUuid;
     }
 
@@ -85,8 +116,8 @@ public class ResourceDestinationMakerImpl implements ManagementNodeChangeListene
                 throw new ManagementNodeNotFoundException(nodeUuid);
             }
 
-            nodeHash.add(nodeUuid);
-            info = nodes.put(nodeUuid, new NodeInfo(vo));
+            info = new NodeInfo(vo);
+            addNode(nodeUuid, info);
         }
 
         return info;
@@ -0,0 +1,32 @@
+package org.zstack.core.debug;
+
+import org.springframework.http.HttpMethod;
+import org.zstack.header.message.APIParam;
+import org.zstack.header.message.APISyncCallMessage;
+import org.zstack.header.rest.RestRequest;
+
+/**
+ * gets latencies of flows run on the management node handling the API
+ */
+@RestRequest(
+        path = "/debug/flow-latency-statistics",
+        method = HttpMethod.GET,
+        responseClass = APIGetFlowLatencyStatisticsReply.class)
+public class APIGetFlowLatencyStatisticsMsg extends APISyncCallMessage {
+    @APIParam(required = false)
+    private String chainName;
+
+    public String getChainName() {
+        return chainName;
+    }
+
+    public void setChainName(String chainName) {
+        this.chainName = chainName;
+    }
+
+    public static APIGetFlowLatencyStatisticsMsg __example__() {
+        APIGetFlowLatencyStatisticsMsg msg = new APIGetFlowLatencyStatisticsMsg();
+        msg.setChainName("start-vm");
+        return msg;
+    }
+}
@@ -0,0 +1,61 @@
+package org.zstack.core.debug
+
+import org.zstack.core.debug.APIGetFlowLatencyStatisticsReply
+
+doc {
+    title "GetFlowLatencyStatistics"
+
+    category "debug"
+
+    desc """获取处理该API的管理节点上工作流中各flow的耗时统计"""
+
+    rest {
+        request {
+			url "GET /v1/debug/flow-latency-statistics"
+
+			header (Authorization: 'OAuth the-session-uuid')
+
+            clz APIGetFlowLatencyStatisticsMsg.class
+
+            desc """"""
+            
+			params {
+
+				column {
+					name "chainName"
+					enclosedIn ""
+					desc "只返回名称包含该字符串的工作流"
+					location "query"
+					type "String"
+					optional true
+					since "4.4.24"
+					
+				}
+				column {
+					name "systemTags"
+					enclosedIn ""
+					desc ""
+					location "query"
+					type "List"
+					optional true
+					since "4.4.24"
+					
+				}
+				column {
+					name "userTags"
+					enclosedIn ""
+					desc ""
+					location "query"
+					type "List"
+					optional true
+					since "4.4.24"
+					
+				}
+			}
+        }
+
+        response {
+            clz APIGetFlowLatencyStatisticsReply.class
+        }
+    }
+}
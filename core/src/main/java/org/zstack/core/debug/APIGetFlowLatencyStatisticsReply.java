@@ -0,0 +1,28 @@
+package org.zstack.core.debug;
+
+import org.zstack.core.workflow.FlowLatencyStatistic;
+import org.zstack.header.message.APIReply;
+import org.zstack.header.rest.RestResponse;
+
+import java.util.Collections;
+import java.util.List;
+
+@RestResponse(allTo = "statistics")
+public class APIGetFlowLatencyStatisticsReply extends APIReply {
+    private List<FlowLatencyStatistic> statistics;
+
+    public List<FlowLatencyStatistic> getStatistics() {
+        return statistics;
+    }
+
+    public void setStatistics(List<FlowLatencyStatistic> statistics) {
+        this.statistics = statistics;
+    }
+
+    public static APIGetFlowLatencyStatisticsReply __example__() {
+        APIGetFlowLatencyStatisticsReply reply = new APIGetFlowLatencyStatisticsReply();
+        reply.setStatistics(Collections.singletonList(new FlowLatencyStatistic("start-vm-{uuid}",
+                "org.zstack.compute.vm.VmAllocateHostFlow", 100, 2, 35.2, 30.1, 52.3, 80.4, 95.0)));
+        return reply;
+    }
+}
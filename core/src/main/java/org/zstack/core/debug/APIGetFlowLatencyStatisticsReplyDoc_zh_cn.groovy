@@ -0,0 +1,29 @@
+package org.zstack.core.debug
+
+import org.zstack.header.errorcode.ErrorCode
+
+doc {
+
+	title "工作流耗时统计"
+
+	ref {
+		name "error"
+		path "org.zstack.core.debug.APIGetFlowLatencyStatisticsReply.error"
+		desc "错误码，若不为null，则表示操作失败, 操作成功时该字段为null",false
+		type "ErrorCode"
+		since "0.6"
+		clz ErrorCode.class
+	}
+	field {
+		name "success"
+		desc ""
+		type "boolean"
+		since "0.6"
+	}
+	field {
+		name "statistics"
+		desc "按总耗时降序排列的flow耗时统计，时间单位为毫秒"
+		type "List"
+		since "4.4.24"
+	}
+}
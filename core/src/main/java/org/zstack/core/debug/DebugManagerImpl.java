@@ -4,7 +4,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.zstack.core.cloudbus.CloudBus;
 import org.zstack.core.cloudbus.CloudBusCallBack;
 import org.zstack.core.cloudbus.MessageSafe;
+import org.zstack.core.jmx.JmxFacade;
 import org.zstack.core.thread.ThreadFacade;
+import org.zstack.core.workflow.FlowChainProfiler;
 import org.zstack.header.AbstractService;
 import org.zstack.header.core.progress.ChainInfo;
 import org.zstack.header.core.progress.TaskInfo;
@@ -28,12 +30,15 @@ public class DebugManagerImpl extends AbstractService implements DebugManager {
     private CloudBus bus;
     @Autowired
     private ThreadFacade thdf;
+    @Autowired
+    private JmxFacade jmxf;
     String ID = "id";
     String HEADERS = "headers";
     private static final CLogger logger = Utils.getLogger(DebugManagerImpl.class);
 
     @Override
     public boolean start() {
+        jmxf.registerBean("FlowChainProfiler", new FlowChainProfiler());
         return true;
     }
 
@@ -51,6 +56,8 @@ public class DebugManagerImpl extends AbstractService implements DebugManager {
             handle((APIGetDebugSignalMsg) msg);
         } else if (msg instanceof APICleanQueueMsg) {
             handle((APICleanQueueMsg) msg);
+        } else if (msg instanceof APIGetFlowLatencyStatisticsMsg) {
+            handle((APIGetFlowLatencyStatisticsMsg) msg);
         } else {
             handleLocalMessage(msg);
         }
@@ -119,6 +126,12 @@ public class DebugManagerImpl extends AbstractService implements DebugManager {
         return (String) msgMap.get(ID);
     }
 
+    private void handle(APIGetFlowLatencyStatisticsMsg msg) {
+        APIGetFlowLatencyStatisticsReply reply = new APIGetFlowLatencyStatisticsReply();
+        reply.setStatistics(FlowChainProfiler.getStatistics(msg.getChainName()));
+        bus.reply(msg, reply);
+    }
+
     private void handle(APIGetDebugSignalMsg msg) {
         APIGetDebugSignalReply reply = new APIGetDebugSignalReply();
         reply.setSignals(getDebugSignals());
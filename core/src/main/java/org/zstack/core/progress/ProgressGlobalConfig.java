@@ -17,4 +17,8 @@ public class ProgressGlobalConfig {
     public static GlobalConfig PROGRESS_TTL = new GlobalConfig(CATEGORY, "progress.ttl");
     @GlobalConfigValidation(numberGreaterThan = 1)
     public static GlobalConfig CLEANUP_THREAD_INTERVAL = new GlobalConfig(CATEGORY, "progress.cleanupThreadInterval");
+    @GlobalConfigValidation(numberGreaterThan = 1)
+    public static GlobalConfig EXPIRED_SWEEP_INTERVAL = new GlobalConfig(CATEGORY, "progress.expiredSweepInterval");
+    @GlobalConfigValidation(numberGreaterThan = -1)
+    public static GlobalConfig COALESCE_INTERVAL = new GlobalConfig(CATEGORY, "progress.coalesceInterval");
 }
@@ -66,8 +66,23 @@ public class ProgressReportService extends AbstractService implements Management
 
     private Future<Void> cleanupThread;
 
+    private Future<Void> flushThread;
+
+    private Future<Void> expiredSweepThread;
+
     private static Map<String, ParallelTaskStage> parallelTaskStage = new ConcurrentHashMap<>();
 
+    private static final TaskProgressStore store = new TaskProgressStore();
+
+    private static boolean isCoalescing() {
+        return ProgressGlobalConfig.COALESCE_INTERVAL.value(Long.class) > 0;
+    }
+
+    /**
+     * records of completed APIs are deleted by timeout tasks scheduled in cleanTaskProgress(),
+     * the cleanup thread only deletes records outliving the TTL, e.g. of APIs never completed.
+     * Records whose timeout tasks are lost are deleted by the expired sweep thread
+     */
     private void startCleanupThread() {
         if (cleanupThread != null) {
             cleanupThread.cancel(true);
@@ -92,21 +107,109 @@ public class ProgressReportService extends AbstractService implements Management
 
             @Override
             public void run() {
-                new SQLBatch() {
-                    @Override
-                    protected void scripts() {
-                        Query query = dbf.getEntityManager().createNativeQuery("select unix_timestamp()");
-                        Long current = ((BigInteger) query.getSingleResult()).longValue() * 1000;
-                        sql(TaskProgressVO.class).notNull(TaskProgressVO_.timeToDelete)
-                                .lte(TaskProgressVO_.timeToDelete, current).hardDelete();
-                        sql("delete from TaskProgressVO vo where vo.time + :ttl <= UNIX_TIMESTAMP() * 1000")
-                                .param("ttl", TimeUnit.SECONDS.toMillis(ProgressGlobalConfig.PROGRESS_TTL.value(Long.class))).execute();
-                    }
-                }.execute();
+                SQL.New("delete from TaskProgressVO vo where vo.time + :ttl <= UNIX_TIMESTAMP() * 1000")
+                        .param("ttl", TimeUnit.SECONDS.toMillis(ProgressGlobalConfig.PROGRESS_TTL.value(Long.class))).execute();
+            }
+        });
+    }
+
+    /**
+     * deletes records of completed APIs left by timeout tasks lost with a node gone,
+     * e.g. a node that never comes back to run the sweep in managementNodeReady()
+     */
+    private void startExpiredSweepThread() {
+        if (expiredSweepThread != null) {
+            expiredSweepThread.cancel(true);
+        }
+
+        logger.debug(String.format("progress expired sweep thread starts with interval %ss", ProgressGlobalConfig.EXPIRED_SWEEP_INTERVAL.value(Integer.class)));
+        expiredSweepThread = thdf.submitPeriodicTask(new PeriodicTask() {
+            @Override
+            public TimeUnit getTimeUnit() {
+                return TimeUnit.SECONDS;
+            }
+
+            @Override
+            public long getInterval() {
+                return ProgressGlobalConfig.EXPIRED_SWEEP_INTERVAL.value(Long.class);
+            }
+
+            @Override
+            public String getName() {
+                return "progress-expired-sweep-thread";
+            }
+
+            @Override
+            public void run() {
+                deleteExpiredTaskProgress();
+            }
+        });
+    }
+
+    private void deleteExpiredTaskProgress() {
+        new SQLBatch() {
+            @Override
+            protected void scripts() {
+                Query query = dbf.getEntityManager().createNativeQuery("select unix_timestamp()");
+                Long current = ((BigInteger) query.getSingleResult()).longValue() * 1000;
+                sql(TaskProgressVO.class).notNull(TaskProgressVO_.timeToDelete)
+                        .lte(TaskProgressVO_.timeToDelete, current).hardDelete();
+            }
+        }.execute();
+    }
+
+    private void startFlushThread() {
+        if (flushThread != null) {
+            flushThread.cancel(true);
+            flushThread = null;
+        }
+
+        if (!isCoalescing()) {
+            flushPending(store.takePending());
+            store.clear();
+            return;
+        }
+
+        logger.debug(String.format("progress flush thread starts with interval %sms", ProgressGlobalConfig.COALESCE_INTERVAL.value(Long.class)));
+        flushThread = thdf.submitPeriodicTask(new PeriodicTask() {
+            @Override
+            public TimeUnit getTimeUnit() {
+                return TimeUnit.MILLISECONDS;
+            }
+
+            @Override
+            public long getInterval() {
+                return ProgressGlobalConfig.COALESCE_INTERVAL.value(Long.class);
+            }
+
+            @Override
+            public String getName() {
+                return "progress-flush-thread";
+            }
+
+            @Override
+            public void run() {
+                flushPending(store.takePending());
             }
         });
     }
 
+    private static void flushPending(List<TaskProgressVO> vos) {
+        if (vos.isEmpty()) {
+            return;
+        }
+
+        try {
+            Platform.getComponentLoader().getComponent(DatabaseFacade.class).persistCollection(vos);
+        } catch (Throwable t) {
+            logger.warn(String.format("failed to persist %s progress records", vos.size()), t);
+        }
+    }
+
+    private void deleteTaskProgress(String apiId) {
+        SQL.New(TaskProgressVO.class).eq(TaskProgressVO_.apiId, apiId).hardDelete();
+    }
+
     public void setDELETE_DELAY(int DELETE_DELAY) {
         DebugUtils.Assert(DELETE_DELAY > 0, "DELETE_DELAY must be greater than 0");
         this.DELETE_DELAY = DELETE_DELAY;
@@ -159,7 +262,12 @@ public class ProgressReportService extends AbstractService implements Management
             }
         });
 
+        ProgressGlobalConfig.EXPIRED_SWEEP_INTERVAL.installUpdateExtension((oldConfig, newConfig) -> startExpiredSweepThread());
+        ProgressGlobalConfig.COALESCE_INTERVAL.installUpdateExtension((oldConfig, newConfig) -> startFlushThread());
+
         startCleanupThread();
+        startExpiredSweepThread();
+        startFlushThread();
 
         return true;
     }
@@ -170,19 +278,26 @@ public class ProgressReportService extends AbstractService implements Management
             return;
         }
 
+        flushPending(store.takePending(apiId));
+        store.remove(apiId);
+
         Query query = dbf.getEntityManager().createNativeQuery("select unix_timestamp()");
         Long current = ((BigInteger) query.getSingleResult()).longValue() * 1000;
         SQL.New(TaskProgressVO.class).eq(TaskProgressVO_.apiId, apiId).set(TaskProgressVO_.timeToDelete,
                 current + TimeUnit.SECONDS.toMillis(DELETE_DELAY)).update();
+        thdf.submitTimeoutTask(() -> deleteTaskProgress(apiId), TimeUnit.SECONDS, DELETE_DELAY);
     }
 
     @Override
     public boolean stop() {
+        flushPending(store.takePending());
         return true;
     }
 
     @Override
     public void managementNodeReady() {
+        // timeout tasks deleting records of completed APIs are lost when the node restarts
+        deleteExpiredTaskProgress();
     }
 
     @Override
@@ -270,11 +385,15 @@ public class ProgressReportService extends AbstractService implements Management
             }
 
             private void replyLastProgress() {
-                TaskProgressVO vo = Q.New(TaskProgressVO.class)
-                        .eq(TaskProgressVO_.apiId, msg.getApiId())
-                        .orderBy(TaskProgressVO_.time, SimpleQuery.Od.DESC)
-                        .limit(1)
-                        .find();
+                // progress of APIs running on this node is served from memory
+                TaskProgressVO vo = store.getLast(msg.getApiId());
+                if (vo == null) {
+                    vo = Q.New(TaskProgressVO.class)
+                            .eq(TaskProgressVO_.apiId, msg.getApiId())
+                            .orderBy(TaskProgressVO_.time, SimpleQuery.Od.DESC)
+                            .limit(1)
+                            .find();
+                }
 
                 if (vo == null) {
                     reply.setInventories(new ArrayList<>());
@@ -293,12 +412,16 @@ public class ProgressReportService extends AbstractService implements Management
                 invs.add(inv);
 
                 while (vo.getParentUuid() != null) {
-                    vo = Q.New(TaskProgressVO.class)
-                            .eq(TaskProgressVO_.apiId, msg.getApiId())
-                            .eq(TaskProgressVO_.taskUuid, vo.getParentUuid())
-                            .orderBy(TaskProgressVO_.time, SimpleQuery.Od.DESC)
-                            .limit(1)
-                            .find();
+                    TaskProgressVO parent = store.getTask(msg.getApiId(), vo.getParentUuid());
+                    if (parent == null) {
+                        parent = Q.New(TaskProgressVO.class)
+                                .eq(TaskProgressVO_.apiId, msg.getApiId())
+                                .eq(TaskProgressVO_.taskUuid, vo.getParentUuid())
+                                .orderBy(TaskProgressVO_.time, SimpleQuery.Od.DESC)
+                                .limit(1)
+                                .find();
+                    }
+                    vo = parent;
 
                     if (vo == null) {
                         break;
@@ -313,6 +436,7 @@ public class ProgressReportService extends AbstractService implements Management
             }
 
             private void replyAllProgress() {
+                flushPending(store.takePending(msg.getApiId()));
                 reply.setInventories(getAllProgress(msg.getApiId()));
             }
         }.execute();
@@ -377,7 +501,7 @@ public class ProgressReportService extends AbstractService implements Management
         vo.setManagementUuid(Platform.getManagementServerId());
         vo.setTaskName(ThreadContext.get(Constants.THREAD_CONTEXT_TASK_NAME));
 
-        Platform.getComponentLoader().getComponent(DatabaseFacade.class).persist(vo);
+        persistProgress(vo, TaskType.Task);
 
         // use content as the subtask name
         ThreadContext.put(Constants.THREAD_CONTEXT_TASK_NAME, vo.getContent());
@@ -411,7 +535,17 @@ public class ProgressReportService extends AbstractService implements Management
             logger.trace(String.format("report progress is : %s", vo.getContent()));
         }
 
-        Platform.getComponentLoader().getComponent(DatabaseFacade.class).persist(vo);
+        if (!isCoalescing()) {
+            Platform.getComponentLoader().getComponent(DatabaseFacade.class).persist(vo);
+            return;
+        }
+
+        store.record(vo);
+        if (type == TaskType.Progress) {
+            store.coalesce(vo);
+        } else {
+            Platform.getComponentLoader().getComponent(DatabaseFacade.class).persist(vo);
+        }
     }
 
     private static void taskProgress(TaskType type, String fmt, Object...args) {
@@ -484,8 +618,13 @@ public class ProgressReportService extends AbstractService implements Management
             String taskName = ThreadContext.get(THREAD_CONTEXT_TASK_NAME);
 
             @Override
-            @Deferred
             public boolean run() {
+                // the API is running on this node until cleanTaskProgress() removes it from the store
+                Double percent = store.getMaxPercent(apiId);
+                if (percent != null) {
+                    return report(percent.intValue());
+                }
+
                 // get current progress
                 Tuple res = SQL.New("SELECT content, timeToDelete FROM TaskProgressVO" +
                         " WHERE apiId = :apiId" +
@@ -502,7 +641,11 @@ public class ProgressReportService extends AbstractService implements Management
                 }
 
                 int currentPercent = res == null ? 0 : new Double(res.get(0, String.class)).intValue();
+                return report(currentPercent);
+            }
 
+            @Deferred
+            private boolean report(int currentPercent) {
                 Runnable cleanup = ThreadContextUtils.saveThreadContext();
                 Defer.defer(cleanup);
                 ThreadContext.put(THREAD_CONTEXT_API, apiId);
@@ -0,0 +1,146 @@
+package org.zstack.core.progress;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.zstack.header.core.progress.TaskProgressVO;
+import org.zstack.header.core.progress.TaskType;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * progress of APIs running on this management node kept in memory, enabled by
+ * the global config progress.coalesceInterval.
+ *
+ * progress reports of a task within the interval are coalesced, only the latest one
+ * is pending to be persisted in batch by the flush task. Tasks are persisted at once
+ * as they are parents of progress.
+ *
+ * the last progress and the latest row of every task of an API are kept until
+ * the API completes, for APIGetTaskProgressMsg and reportProgressUntil not querying
+ * the database. APIs never completed on this node expire from the store.
+ */
+class TaskProgressStore {
+    private static final int MAX_APIS = 10000;
+    private static final int EXPIRE_MINUTES = 60;
+
+    private static class ApiProgress {
+        TaskProgressVO last;
+        // task uuid -> the latest row of the task
+        final Map<String, TaskProgressVO> tasks = new HashMap<>();
+        Double maxPercent;
+    }
+
+    private final Cache<String, ApiProgress> apis = CacheBuilder.newBuilder()
+            .maximumSize(MAX_APIS)
+            .expireAfterAccess(EXPIRE_MINUTES, TimeUnit.MINUTES)
+            .build();
+
+    // apiId -> task uuid -> the latest progress not persisted
+    private final Map<String, Map<String, TaskProgressVO>> pending = new ConcurrentHashMap<>();
+
+    private static Double percentOf(TaskProgressVO vo) {
+        try {
+            return Double.valueOf(vo.getContent());
+        } catch (NumberFormatException | NullPointerException e) {
+            return null;
+        }
+    }
+
+    void record(TaskProgressVO vo) {
+        ApiProgress api;
+        try {
+            api = apis.get(vo.getApiId(), ApiProgress::new);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+
+        synchronized (api) {
+            if (api.last == null || api.last.getTime() <= vo.getTime()) {
+                api.last = vo;
+            }
+            api.tasks.put(vo.getTaskUuid(), vo);
+
+            Double percent = vo.getType() == TaskType.Progress ? percentOf(vo) : null;
+            if (percent != null && (api.maxPercent == null || api.maxPercent < percent)) {
+                api.maxPercent = percent;
+            }
+        }
+    }
+
+    /**
+     * replaces the pending progress of the same task
+     */
+    void coalesce(TaskProgressVO vo) {
+        // atomic with takePending() removing the map of the API
+        pending.compute(vo.getApiId(), (k, m) -> {
+            m = m == null ? new HashMap<>() : m;
+            m.put(vo.getTaskUuid(), vo);
+            return m;
+        });
+    }
+
+    /**
+     * @return pending progress of all APIs, removed from the store
+     */
+    List<TaskProgressVO> takePending() {
+        List<TaskProgressVO> ret = new ArrayList<>();
+        for (String apiId : pending.keySet()) {
+            ret.addAll(takePending(apiId));
+        }
+        return ret;
+    }
+
+    List<TaskProgressVO> takePending(String apiId) {
+        Map<String, TaskProgressVO> m = pending.remove(apiId);
+        return m == null ? Collections.emptyList() : new ArrayList<>(m.values());
+    }
+
+    /**
+     * @return null if the API is unknown to this node
+     */
+    TaskProgressVO getLast(String apiId) {
+        ApiProgress api = apis.getIfPresent(apiId);
+        if (api == null) {
+            return null;
+        }
+
+        synchronized (api) {
+            return api.last;
+        }
+    }
+
+    TaskProgressVO getTask(String apiId, String taskUuid) {
+        ApiProgress api = apis.getIfPresent(apiId);
+        if (api == null) {
+            return null;
+        }
+
+        synchronized (api) {
+            return api.tasks.get(taskUuid);
+        }
+    }
+
+    /**
+     * @return null if the API is unknown to this node or no progress reported
+     */
+    Double getMaxPercent(String apiId) {
+        ApiProgress api = apis.getIfPresent(apiId);
+        if (api == null) {
+            return null;
+        }
+
+        synchronized (api) {
+            return api.maxPercent;
+        }
+    }
+
+    void remove(String apiId) {
+        apis.invalidate(apiId);
+    }
+
+    void clear() {
+        apis.invalidateAll();
+    }
+}
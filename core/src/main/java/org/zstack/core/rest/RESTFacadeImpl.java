@@ -22,7 +22,6 @@ import org.zstack.core.retry.RetryCondition;
 import org.zstack.core.thread.AsyncThread;
 import org.zstack.core.thread.CancelablePeriodicTask;
 import org.zstack.core.thread.ThreadFacade;
-import org.zstack.core.thread.ThreadFacadeImpl.TimeoutTaskReceipt;
 import org.zstack.core.timeout.ApiTimeoutManager;
 import org.zstack.core.validation.ValidationFacade;
 import org.zstack.header.core.Completion;
@@ -33,6 +32,7 @@ import org.zstack.header.errorcode.SysErrors;
 import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.rest.*;
 import org.zstack.utils.ExceptionDSL;
+import org.zstack.utils.HashedWheelTimer;
 import org.zstack.utils.IptablesUtils;
 import org.zstack.utils.Utils;
 import org.zstack.utils.gson.JSONObjectUtil;
@@ -78,6 +78,25 @@ public class RESTFacadeImpl implements RESTFacade {
         void fail(ErrorCode err);
 
         void success(HttpEntity<String> responseEntity);
+
+        /**
+         * @return the class to read the callback body into, null to read the body as a string
+         */
+        Class getReturnClass();
+    }
+
+    /**
+     * a callback body read into the return class from the request stream, without the body string
+     */
+    private static class ParsedHttpEntity extends HttpEntity<String> {
+        final Object response;
+        final Throwable error;
+
+        ParsedHttpEntity(Object response, Throwable error, HttpHeaders headers) {
+            super(headers);
+            this.response = response;
+            this.error = error;
+        }
     }
 
     private interface HttpCallHandlerWrapper {
@@ -87,6 +106,10 @@ public class RESTFacadeImpl implements RESTFacade {
     }
 
     final private Map<String, AsyncHttpWrapper> wrappers = new ConcurrentHashMap<String, AsyncHttpWrapper>();
+    // timeouts of in-flight async calls, most are cancelled by responses long before expiring;
+    // expiring only fails the wrapper, whose completion runs in another thread
+    private final HashedWheelTimer asyncCallTimeouts = new HashedWheelTimer("rest-facade-async-call-timeouts",
+            100, TimeUnit.MILLISECONDS, 512, Runnable::run);
 
     void init() {
         DebugManager.registerDebugSignalHandler("DumpRestStats", () -> {
@@ -169,11 +192,38 @@ public class RESTFacadeImpl implements RESTFacade {
         return asyncRestTemplate;
     }
 
+    private HttpHeaders getHeaders(HttpServletRequest req) {
+        HttpHeaders header = new HttpHeaders();
+        for (Enumeration<?> e = req.getHeaderNames() ; e.hasMoreElements() ;) {
+            String name = e.nextElement().toString();
+            header.add(name, req.getHeader(name));
+        }
+        return header;
+    }
+
+    /**
+     * reads the body straight from the request stream into the return class, the body string
+     * is only built when it's logged or the callback wants the raw body
+     */
+    private HttpEntity<String> readCallbackEntity(HttpServletRequest req, AsyncHttpWrapper wrapper) {
+        Class clz = wrapper.getReturnClass();
+        if (clz == null || logger.isTraceEnabled()) {
+            return httpServletRequestToHttpEntity(req);
+        }
+
+        HttpHeaders headers = getHeaders(req);
+        try (BufferedReader reader = req.getReader()) {
+            return new ParsedHttpEntity(JSONObjectUtil.toObject(reader, clz), null, headers);
+        } catch (Throwable t) {
+            return new ParsedHttpEntity(null, t, headers);
+        }
+    }
+
     void notifyCallback(HttpServletRequest req, HttpServletResponse rsp) {
         String taskUuid = req.getHeader(RESTConstant.TASK_UUID);
         try {
-            HttpEntity<String> entity = this.httpServletRequestToHttpEntity(req);
             if (taskUuid == null) {
+                HttpEntity<String> entity = this.httpServletRequestToHttpEntity(req);
                 rsp.sendError(HttpStatus.SC_BAD_REQUEST, "No 'taskUuid' found in the header");
                 logger.warn(String.format("Received a callback request, but no 'taskUuid' found in headers. request body: %s", entity.getBody()));
                 return;
@@ -181,11 +231,13 @@ public class RESTFacadeImpl implements RESTFacade {
 
             AsyncHttpWrapper wrapper = wrappers.get(taskUuid);
             if (wrapper == null) {
+                HttpEntity<String> entity = this.httpServletRequestToHttpEntity(req);
                 rsp.sendError(HttpStatus.SC_NOT_FOUND, String.format("No callback found for taskUuid[%s]", taskUuid));
                 logger.warn(String.format("Received a callback request, but no 'callback found for taskUuid[%s]. request body: %s", taskUuid, entity.getBody()));
                 return;
             }
 
+            HttpEntity<String> entity = readCallbackEntity(req, wrapper);
             rsp.setStatus(HttpStatus.SC_OK);
             wrapper.success(entity);
         } catch (IOException e) {
@@ -291,12 +343,11 @@ public class RESTFacadeImpl implements RESTFacade {
         long stime = 0;
         if (CoreGlobalProperty.PROFILER_HTTP_CALL) {
             stime = System.currentTimeMillis();
-            HttpCallStatistic stat = statistics.get(url);
-            if (stat == null) {
-                stat = new HttpCallStatistic();
+            statistics.computeIfAbsent(url, k -> {
+                HttpCallStatistic stat = new HttpCallStatistic();
                 stat.setUrl(url);
-                statistics.put(url, stat);
-            }
+                return stat;
+            }).callStarted();
         }
 
         final String taskUuid = Platform.getUuid();
@@ -320,7 +371,7 @@ public class RESTFacadeImpl implements RESTFacade {
             final AtomicBoolean called = new AtomicBoolean(false);
 
             final AsyncHttpWrapper self = this;
-            final TimeoutTaskReceipt timeoutTaskReceipt = thdf.submitTimeoutTask(new Runnable() {
+            final HashedWheelTimer.Timeout timeoutTask = asyncCallTimeouts.newTimeout(new Runnable() {
                 @Override
                 public void run() {
                     self.fail(touterr(
@@ -328,10 +379,19 @@ public class RESTFacadeImpl implements RESTFacade {
                             url, timeout, unit.toString(), body
                     ));
                 }
-            }, unit, timeout);
+            }, timeout, unit);
 
             private void cancelTimeout() {
-                timeoutTaskReceipt.cancel();
+                timeoutTask.cancel();
+            }
+
+            private void callEnded() {
+                if (CoreGlobalProperty.PROFILER_HTTP_CALL) {
+                    HttpCallStatistic stat = statistics.get(url);
+                    if (stat != null) {
+                        stat.callEnded();
+                    }
+                }
             }
 
             final ReturnValueCompletion<HttpEntity<String>> completion = new ReturnValueCompletion<HttpEntity<String>>(callback) {
@@ -347,6 +407,7 @@ public class RESTFacadeImpl implements RESTFacade {
                         HttpCallStatistic stat = statistics.get(url);
                         stat.addStatistic(System.currentTimeMillis() - finalStime);
                     }
+                    callEnded();
 
                     wrappers.remove(taskUuid);
                     cancelTimeout();
@@ -366,10 +427,21 @@ public class RESTFacadeImpl implements RESTFacade {
                     if (callback instanceof JsonAsyncRESTCallback) {
                         JsonAsyncRESTCallback<Object> jcallback = (JsonAsyncRESTCallback)callback;
                         try {
-                            Object obj = JSONObjectUtil.toObject(responseEntity.getBody(), jcallback.getReturnClass());
+                            Object obj;
+                            if (responseEntity instanceof ParsedHttpEntity) {
+                                ParsedHttpEntity parsed = (ParsedHttpEntity) responseEntity;
+                                if (parsed.error != null) {
+                                    throw parsed.error;
+                                }
+                                obj = parsed.response;
+                            } else {
+                                obj = JSONObjectUtil.toObject(responseEntity.getBody(), jcallback.getReturnClass());
+                            }
+
                             ErrorCode err = vf.validateErrorByErrorCode(obj);
                             if (err != null) {
-                                logger.warn(String.format("error response that causes validation failure: %s", responseEntity.getBody()));
+                                logger.warn(String.format("error response that causes validation failure: %s",
+                                        responseEntity instanceof ParsedHttpEntity ? JSONObjectUtil.toJsonString(obj) : responseEntity.getBody()));
                                 jcallback.fail(err);
                             } else {
                                 jcallback.success(obj);
@@ -395,6 +467,7 @@ public class RESTFacadeImpl implements RESTFacade {
                     if (!SysErrors.TIMEOUT.toString().equals(err.getCode())) {
                         cancelTimeout();
                     }
+                    callEnded();
 
                     logger.warn(String.format("Unable to post to %s: %s", url, err.getDetails()));
                     callback.fail(err);
@@ -410,6 +483,11 @@ public class RESTFacadeImpl implements RESTFacade {
             public void success(HttpEntity<String> responseEntity) {
                 completion.success(responseEntity);
             }
+
+            @Override
+            public Class getReturnClass() {
+                return callback instanceof JsonAsyncRESTCallback ? ((JsonAsyncRESTCallback) callback).getReturnClass() : null;
+            }
         };
 
         try {
@@ -456,13 +534,7 @@ public class RESTFacadeImpl implements RESTFacade {
                 }
             }
 
-            HttpHeaders header = new HttpHeaders();
-            for (Enumeration<?> e = req.getHeaderNames() ; e.hasMoreElements() ;) {
-                String name = e.nextElement().toString();
-                header.add(name, req.getHeader(name));
-            }
-
-            return new HttpEntity<String>(sb.toString(), header);
+            return new HttpEntity<String>(sb.toString(), getHeaders(req));
         } catch (Exception e) {
             logger.warn(e.getMessage(), e);
             throw new CloudRuntimeException(e);
@@ -8,6 +8,7 @@ import org.zstack.core.CoreGlobalProperty;
 import org.zstack.core.debug.DebugManager;
 import org.zstack.core.debug.DebugSignalHandler;
 import org.zstack.header.Constants;
+import org.zstack.header.core.AsyncBackup;
 import org.zstack.header.core.Completion;
 import org.zstack.header.core.ExceptionSafe;
 import org.zstack.header.core.progress.ChainInfo;
@@ -16,6 +17,8 @@ import org.zstack.header.core.progress.SingleFlightChainInfo;
 import org.zstack.header.errorcode.ErrorCode;
 import org.zstack.header.errorcode.OperationFailureException;
 import org.zstack.header.errorcode.SysErrors;
+import org.zstack.header.message.Message;
+import org.zstack.header.message.NeedReplyMessage;
 import org.zstack.utils.DebugUtils;
 import org.zstack.utils.TaskContext;
 import org.zstack.utils.Utils;
@@ -42,16 +45,21 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
     @Autowired
     private org.zstack.core.timeout.Timer zTimer;
 
-    private final HashMap<String, SyncTaskQueueWrapper> syncTasks = new HashMap<>();
-    private final Map<String, ChainTaskQueueWrapper> chainTasks = Collections.synchronizedMap(new HashMap<>());
-    private final Map<String, SingleFlightQueueWrapper> singleFlightTasks = Collections.synchronizedMap(new HashMap<>());
+    // queues of different signatures are guarded by different locks striped by the signature,
+    // so submitting tasks of different hosts/vms doesn't contend on one global monitor
+    private static final int LOCK_STRIPES = 1024;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    private final Map<String, SyncTaskQueueWrapper> syncTasks = new ConcurrentHashMap<>();
+    private final Map<String, ChainTaskQueueWrapper> chainTasks = new ConcurrentHashMap<>();
+    private final Map<String, SingleFlightQueueWrapper> singleFlightTasks = new ConcurrentHashMap<>();
     private final Map<String, List<String>> apiRunningSignature = new ConcurrentHashMap<>();
     private static final CLogger _logger = CLoggerImpl.getLogger(DispatchQueueImpl.class);
 
     private String dumpChainTaskQueue() {
         List<String> asyncTasks = new ArrayList<>();
-        synchronized (chainTasks) {
-            for (Map.Entry<String, ChainTaskQueueWrapper> e : chainTasks.entrySet()) {
+        for (Map.Entry<String, ChainTaskQueueWrapper> e : chainTasks.entrySet()) {
+            synchronized (lockOf(e.getKey())) {
                 asyncTasks.add(e.getValue().dumpTaskQueueInfo());
             }
         }
@@ -65,8 +73,8 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
 
     private String dumpSyncTaskQueue() {
         List<String> queueSyncTasks = new ArrayList<>();
-        synchronized (syncTasks) {
-            for (Map.Entry<String, SyncTaskQueueWrapper> e : syncTasks.entrySet()) {
+        for (Map.Entry<String, SyncTaskQueueWrapper> e : syncTasks.entrySet()) {
+            synchronized (lockOf(e.getKey())) {
                 queueSyncTasks.add(e.getValue().dumpTaskQueueInfo());
             }
         }
@@ -80,8 +88,8 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
 
     private String dumpSingleFlightTaskQueue() {
         List<String> queueSingleFlightTasks = new ArrayList<>();
-        synchronized (singleFlightTasks) {
-            for (Map.Entry<String, SingleFlightQueueWrapper> e : singleFlightTasks.entrySet()) {
+        for (Map.Entry<String, SingleFlightQueueWrapper> e : singleFlightTasks.entrySet()) {
+            synchronized (lockOf(e.getKey())) {
                 queueSingleFlightTasks.add(e.getValue().dumpTaskQueueInfo());
             }
         }
@@ -122,7 +130,7 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
         sb.append(String.format("\nTASK QUEUE NUMBER: %s\n", chainTasks.size()));
         List<String> asyncTasks = new ArrayList<>();
         long now = System.currentTimeMillis();
-        synchronized (chainTasks) {
+        synchronized (lockOf(signatureName)) {
             ChainTaskQueueWrapper w = chainTasks.get(signatureName);
             if (w == null) {
                 sb.append(String.format("\n===== NO QUEUE SYNC SIGNATURE: %s =====", signatureName));
@@ -158,7 +166,7 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
     @Override
     public ChainInfo getChainTaskInfo(String signature) {
         long now = System.currentTimeMillis();
-        synchronized (chainTasks) {
+        synchronized (lockOf(signature)) {
             ChainInfo info = new ChainInfo();
             ChainTaskQueueWrapper w = chainTasks.get(signature);
             if (w == null) {
@@ -183,7 +191,7 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
     public ChainInfo cleanChainTaskInfo(String signature, Integer index, Boolean cleanUp, Boolean isRunningTask) {
         beforeCleanQueuedumpThread(signature);
         long now = System.currentTimeMillis();
-        synchronized (chainTasks) {
+        synchronized (lockOf(signature)) {
             ChainInfo info = new ChainInfo();
             ChainTaskQueueWrapper w = chainTasks.get(signature);
             if (w == null) {
@@ -231,7 +239,7 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
     @Override
     public SingleFlightChainInfo getSingleFlightChainTaskInfo(String signature) {
         long now = System.currentTimeMillis();
-        synchronized (singleFlightTasks) {
+        synchronized (lockOf(signature)) {
             SingleFlightChainInfo info = new SingleFlightChainInfo();
 
             SingleFlightQueueWrapper w = singleFlightTasks.get(signature);
@@ -260,9 +268,18 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
     }
 
     public DispatchQueueImpl() {
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+
         DebugManager.registerDebugSignalHandler(DUMP_TASK_DEBUG_SINGAL, this);
     }
 
+    private Object lockOf(String signature) {
+        int h = signature.hashCode();
+        return locks[(h ^ (h >>> 16)) & (LOCK_STRIPES - 1)];
+    }
+
     private class SyncTaskFuture<T> extends AbstractFuture<T> {
         public SyncTaskFuture(SyncTask<T> task) {
             super(task);
@@ -425,10 +442,10 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
                             stask.run();
                         }
 
-                        synchronized (syncTasks) {
+                        synchronized (lockOf(syncSignature)) {
                             if (queue.isEmpty()) {
                                 if (counter.decrementAndGet() == 0) {
-                                    syncTasks.remove(syncSignature);
+                                    syncTasks.remove(syncSignature, SyncTaskQueueWrapper.this);
                                 }
 
                                 break;
@@ -486,14 +503,9 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
     private <T> Future<T> doSyncSubmit(final SyncTask<T> syncTask) {
         assert syncTask.getSyncSignature() != null : "How can you submit a sync task without sync signature ???";
 
-        SyncTaskFuture f;
-        synchronized (syncTasks) {
-            SyncTaskQueueWrapper wrapper = syncTasks.get(syncTask.getSyncSignature());
-            if (wrapper == null) {
-                wrapper = new SyncTaskQueueWrapper();
-                syncTasks.put(syncTask.getSyncSignature(), wrapper);
-            }
-            f = new SyncTaskFuture(syncTask);
+        SyncTaskFuture f = new SyncTaskFuture(syncTask);
+        synchronized (lockOf(syncTask.getSyncSignature())) {
+            SyncTaskQueueWrapper wrapper = syncTasks.computeIfAbsent(syncTask.getSyncSignature(), k -> new SyncTaskQueueWrapper());
             wrapper.addTask(f);
             wrapper.startThreadIfNeeded();
         }
@@ -665,7 +677,7 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
 
                 @AsyncThread
                 private void runSingleFlight() {
-                    synchronized (singleFlightTasks) {
+                    synchronized (lockOf(syncSignature)) {
                         if (runningTask != null) {
                             logger.debug(String.format("single flight task[signature: %s, id: %s] is running now," +
                                             " skip poll new running task, current pending task num: %d", runningTask.getSyncSignature(),
@@ -677,7 +689,7 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
                         if (runningTask == null) {
                             logger.debug(String.format("single flight task[signature: %s] has no task available" +
                                     " skip execute", syncSignature));
-                            singleFlightTasks.remove(syncSignature);
+                            singleFlightTasks.remove(syncSignature, SingleFlightQueueWrapper.this);
                             return;
                         }
                     }
@@ -698,9 +710,12 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
                 }
 
                 private void executeSingleRunTasks(ErrorCode errorCode) {
-                    synchronized (singleFlightTasks) {
-                        safeRun(runningTask, errorCode);
-                        pendingQueue.forEach(task -> safeRun((SingleFlightFuture) task, errorCode));
+                    // collect the tasks sharing the result under the lock, but notify them outside
+                    // the lock, callbacks submitting tasks of other signatures must not hold it
+                    List<SingleFlightFuture<T>> done = new ArrayList<>();
+                    synchronized (lockOf(syncSignature)) {
+                        done.add(runningTask);
+                        done.addAll(pendingQueue);
 
                         // all tasks done, reset counter
                         taskCounter.set(0);
@@ -708,6 +723,7 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
                         pendingQueue.clear();
                     }
 
+                    done.forEach(task -> safeRun(task, errorCode));
                     runSingleFlight();
                 }
 
@@ -726,7 +742,7 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
                         _logger.warn(String.format("unhandled exception happened when calling %s", flightFuture.getClass().getName()), t);
                     } finally {
                         logger.debug(String.format("single flight task[signature: %s, id: %s] finish with %s",
-                                runningTask.getSyncSignature(), flightFuture.getTaskId(), JSONObjectUtil.toJsonString(result)));
+                                flightFuture.getSyncSignature(), flightFuture.getTaskId(), JSONObjectUtil.toJsonString(result)));
                         flightFuture.done();
                     }
                 }
@@ -872,13 +888,13 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
                 @AsyncThread
                 private void runQueue() {
                     ChainFuture cf;
-                    synchronized (chainTasks) {
+                    synchronized (lockOf(syncSignature)) {
                         // remove from pending queue and add to running queue later
                         cf = (ChainFuture) pendingQueue.poll();
 
                         if (cf == null) {
                             if (counter.decrementAndGet() == 0) {
-                                chainTasks.remove(syncSignature);
+                                chainTasks.remove(syncSignature, ChainTaskQueueWrapper.this);
                             }
 
                             return;
@@ -962,19 +978,22 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
 
     @ExceptionSafe
     private void processTimeoutTask(AbstractTimeStatisticFuture abstractTimeStatisticFuture) {
-        long now = System.currentTimeMillis();
-        PendingTaskInfo taskInfo = TaskInfoBuilder.buildPendingTaskInfo(abstractTimeStatisticFuture, now, 0);
-        Double timeout = 0.0;
-        if (taskInfo.getContext().isEmpty()) {
-            return;
+        // the timeout of the last message backing up the task decides,
+        // read it directly instead of building the task info json for every task
+        long timeout = 0;
+        for (AsyncBackup backup : abstractTimeStatisticFuture.getTask().getBackups()) {
+            if (backup instanceof Message) {
+                timeout = backup instanceof NeedReplyMessage ? ((NeedReplyMessage) backup).getTimeout() : 0;
+            }
         }
 
-        for (String c : taskInfo.getContextList()) {
-            Map context = JSONObjectUtil.toObject(c, LinkedHashMap.class);
-            timeout = (context.get("timeout") == null) ? 0 : (Double) context.get("timeout");
+        if (timeout <= 0) {
+            return;
         }
 
-        if (timeout > 0 && taskInfo.getPendingTime() * 1000 > timeout.longValue()){
+        long now = System.currentTimeMillis();
+        PendingTaskInfo taskInfo = TaskInfoBuilder.buildPendingTaskInfo(abstractTimeStatisticFuture, now, 0);
+        if (taskInfo.getPendingTime() * 1000 > timeout) {
             logger.warn(String.format("this task has been pending for %s ms longer than timeout %s ms, cancel it. task info: %s",
                     taskInfo.getPendingTime()*1000, timeout, taskInfo.toString()));
             abstractTimeStatisticFuture.cancel(true);
@@ -985,25 +1004,24 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
         assert task.getSyncSignature() != null : "How can you submit a chain task without sync signature ???";
         DebugUtils.Assert(task.getSyncLevel() >= 1, "getSyncLevel() must return 1 at least ");
 
-        synchronized (chainTasks) {
-            final String signature = task.getSyncSignature();
-            ChainTaskQueueWrapper wrapper = chainTasks.get(signature);
-            if (wrapper == null) {
-                wrapper = new ChainTaskQueueWrapper();
-                chainTasks.put(signature, wrapper);
-            }
-
-            ChainFuture cf = new ChainFuture(task);
-            boolean succeed = wrapper.addTask(cf, task.getMaxPendingTasks());
-            if (!succeed) {
-                cf.cancel();
-                logger.debug(String.format("Pending queue[%s] exceed max size, task name: %s, start execute callback", task.getSyncSignature(), task.getName()));
-                task.exceedMaxPendingCallback();
-            } else {
+        final String signature = task.getSyncSignature();
+        ChainFuture cf = new ChainFuture(task);
+        boolean succeed;
+        synchronized (lockOf(signature)) {
+            ChainTaskQueueWrapper wrapper = chainTasks.computeIfAbsent(signature, k -> new ChainTaskQueueWrapper());
+            succeed = wrapper.addTask(cf, task.getMaxPendingTasks());
+            if (succeed) {
                 wrapper.startThreadIfNeeded();
             }
-            return cf;
         }
+
+        if (!succeed) {
+            cf.cancel();
+            logger.debug(String.format("Pending queue[%s] exceed max size, task name: %s, start execute callback", signature, task.getName()));
+            task.exceedMaxPendingCallback();
+        }
+
+        return cf;
     }
 
 
@@ -1020,15 +1038,10 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
     private <T> Future<T> doSingleFlightSyncSubmit(SingleFlightTask task) {
         assert task.getSyncSignature() != null : "How can you submit a single flight chain task without sync signature ???";
 
-        synchronized (singleFlightTasks) {
-            final String signature = task.getSyncSignature();
-            SingleFlightQueueWrapper wrapper = singleFlightTasks.get(signature);
-            if (wrapper == null) {
-                wrapper = new SingleFlightQueueWrapper<T>();
-                singleFlightTasks.put(signature, wrapper);
-            }
-
-            SingleFlightFuture sf = new SingleFlightFuture(task);
+        final String signature = task.getSyncSignature();
+        SingleFlightFuture sf = new SingleFlightFuture(task);
+        synchronized (lockOf(signature)) {
+            SingleFlightQueueWrapper wrapper = singleFlightTasks.computeIfAbsent(signature, k -> new SingleFlightQueueWrapper<T>());
             wrapper.addSingleFlightTask(sf);
             wrapper.startSingleFlightIfNeed();
             return sf;
@@ -1038,18 +1051,16 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
     @Override
     public Map<String, SyncTaskStatistic> getSyncTaskStatistics() {
         Map<String, SyncTaskStatistic> ret = new ConcurrentHashMap<>();
-        synchronized (syncTasks) {
-            for (SyncTaskQueueWrapper wrapper : syncTasks.values()) {
-                SyncTaskStatistic statistic = new SyncTaskStatistic(
-                        wrapper.syncSignature,
-                        wrapper.maxThreadNum,
-                        wrapper.counter.intValue(),
-                        wrapper.queue.size()
-                );
-                ret.put(statistic.getSyncSignature(), statistic);
-
-                logger.warn(JSONObjectUtil.toJsonString(statistic));
-            }
+        for (SyncTaskQueueWrapper wrapper : syncTasks.values()) {
+            SyncTaskStatistic statistic = new SyncTaskStatistic(
+                    wrapper.syncSignature,
+                    wrapper.maxThreadNum,
+                    wrapper.counter.intValue(),
+                    wrapper.queue.size()
+            );
+            ret.put(statistic.getSyncSignature(), statistic);
+
+            logger.warn(JSONObjectUtil.toJsonString(statistic));
         }
 
         return ret;
@@ -1058,8 +1069,9 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
     @Override
     public Map<String, ChainTaskStatistic> getChainTaskStatistics() {
         Map<String, ChainTaskStatistic> ret =  new ConcurrentHashMap<>();
-        synchronized (chainTasks) {
-            for (ChainTaskQueueWrapper wrapper : chainTasks.values()) {
+        for (Map.Entry<String, ChainTaskQueueWrapper> e : chainTasks.entrySet()) {
+            ChainTaskQueueWrapper wrapper = e.getValue();
+            synchronized (lockOf(e.getKey())) {
                 ChainTaskStatistic statistic = new ChainTaskStatistic(
                         wrapper.syncSignature,
                         wrapper.maxThreadNum,
@@ -1074,8 +1086,6 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
 
     @Override
     public boolean isChainTaskRunning(String signature) {
-        synchronized (chainTasks) {
-            return chainTasks.containsKey(signature);
-        }
+        return chainTasks.containsKey(signature);
     }
 }
@@ -0,0 +1,117 @@
+package org.zstack.core.workflow;
+
+import org.zstack.utils.LatencyHistogram;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * latency histograms of flows run by SimpleFlowChain on this management node, keyed by
+ * the chain name and the flow class. A flow takes from calling its run() to calling
+ * next() or fail() of the chain, rollbacks are not counted.
+ *
+ * uuids in chain names are replaced by {uuid} so that chains doing the same thing
+ * share histograms, chains beyond MAX_CHAINS are counted as other-chains.
+ */
+public class FlowChainProfiler implements FlowChainProfilerMXBean {
+    private static final int MAX_CHAINS = 2000;
+    private static final int UUID_LENGTH = 32;
+    private static final String OTHER_CHAINS = "other-chains";
+
+    private static class FlowLatency {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final LongAdder failures = new LongAdder();
+    }
+
+    // chain name -> flow class -> latency
+    private static final Map<String, Map<Class, FlowLatency>> chains = new ConcurrentHashMap<>();
+
+    private static boolean isHex(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f');
+    }
+
+    private static void appendRun(StringBuilder sb, String name, int start, int end) {
+        if (end - start == UUID_LENGTH) {
+            sb.append("{uuid}");
+        } else {
+            sb.append(name, start, end);
+        }
+    }
+
+    static String normalizeChainName(String name) {
+        if (name == null) {
+            return "anonymous-chain";
+        }
+
+        StringBuilder sb = new StringBuilder(name.length());
+        int run = 0;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (isHex(c)) {
+                run++;
+                continue;
+            }
+
+            appendRun(sb, name, i - run, i);
+            run = 0;
+            sb.append(c);
+        }
+        appendRun(sb, name, name.length() - run, name.length());
+        return sb.toString();
+    }
+
+    static void record(String chainName, Class flowClass, long nanos, boolean success) {
+        Map<Class, FlowLatency> flows = chains.get(chainName);
+        if (flows == null) {
+            String key = chains.size() < MAX_CHAINS ? chainName : OTHER_CHAINS;
+            flows = chains.computeIfAbsent(key, k -> new ConcurrentHashMap<>());
+        }
+
+        FlowLatency latency = flows.computeIfAbsent(flowClass, k -> new FlowLatency());
+        latency.histogram.record(nanos);
+        if (!success) {
+            latency.failures.increment();
+        }
+    }
+
+    private static double toMillis(long nanos) {
+        return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * @param chainName only chains whose name contains it, null for all
+     * @return statistics sorted by total time desc
+     */
+    public static List<FlowLatencyStatistic> getStatistics(String chainName) {
+        List<FlowLatencyStatistic> ret = new ArrayList<>();
+        Map<FlowLatencyStatistic, Long> totals = new HashMap<>();
+        chains.forEach((cname, flows) -> {
+            if (chainName != null && !cname.contains(chainName)) {
+                return;
+            }
+
+            flows.forEach((clz, latency) -> {
+                LatencyHistogram h = latency.histogram;
+                FlowLatencyStatistic stat = new FlowLatencyStatistic(cname, clz.getName(), h.getCount(),
+                        latency.failures.sum(), toMillis(h.getMean()), toMillis(h.getValueAtPercentile(50)),
+                        toMillis(h.getValueAtPercentile(90)), toMillis(h.getValueAtPercentile(99)), toMillis(h.getMax()));
+                totals.put(stat, h.getTotal());
+                ret.add(stat);
+            });
+        });
+
+        ret.sort(Comparator.comparing(totals::get, Comparator.reverseOrder()));
+        return ret;
+    }
+
+    public static void reset() {
+        chains.clear();
+    }
+
+    @Override
+    public List<FlowLatencyStatistic> getFlowLatencyStatistics() {
+        return getStatistics(null);
+    }
+}
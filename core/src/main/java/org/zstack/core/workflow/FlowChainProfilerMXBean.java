@@ -0,0 +1,9 @@
+package org.zstack.core.workflow;
+
+import java.util.List;
+
+/**
+ */
+public interface FlowChainProfilerMXBean {
+    List<FlowLatencyStatistic> getFlowLatencyStatistics();
+}
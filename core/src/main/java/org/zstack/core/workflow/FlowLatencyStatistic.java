@@ -0,0 +1,68 @@
+package org.zstack.core.workflow;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * latencies of a flow class in chains of the same name, in milliseconds
+ */
+public class FlowLatencyStatistic {
+    private String chainName;
+    private String flowName;
+    private long count;
+    private long failureCount;
+    private double meanTime;
+    private double p50Time;
+    private double p90Time;
+    private double p99Time;
+    private double maxTime;
+
+    @ConstructorProperties({"chainName", "flowName", "count", "failureCount", "meanTime", "p50Time", "p90Time", "p99Time", "maxTime"})
+    public FlowLatencyStatistic(String chainName, String flowName, long count, long failureCount,
+                                double meanTime, double p50Time, double p90Time, double p99Time, double maxTime) {
+        this.chainName = chainName;
+        this.flowName = flowName;
+        this.count = count;
+        this.failureCount = failureCount;
+        this.meanTime = meanTime;
+        this.p50Time = p50Time;
+        this.p90Time = p90Time;
+        this.p99Time = p99Time;
+        this.maxTime = maxTime;
+    }
+
+    public String getChainName() {
+        return chainName;
+    }
+
+    public String getFlowName() {
+        return flowName;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getFailureCount() {
+        return failureCount;
+    }
+
+    public double getMeanTime() {
+        return meanTime;
+    }
+
+    public double getP50Time() {
+        return p50Time;
+    }
+
+    public double getP90Time() {
+        return p90Time;
+    }
+
+    public double getP99Time() {
+        return p99Time;
+    }
+
+    public double getMaxTime() {
+        return maxTime;
+    }
+}
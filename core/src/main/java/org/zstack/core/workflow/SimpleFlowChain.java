@@ -64,8 +64,23 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
 
     private boolean isFailCalled;
 
+    // when the current flow starts running, 0 if not running
+    private long flowStartTime;
+    private String profileName;
+
     private static final Map<String, WorkFlowStatistic> statistics = new ConcurrentHashMap<>();
 
+    private static class AfterRunnableFields {
+        List<Field> afterDone;
+        List<Field> afterError;
+        List<Field> afterFinal;
+    }
+
+    // flow class -> fields annotated by AfterDone/AfterError/AfterFinal
+    private static final Map<Class, AfterRunnableFields> afterRunnableFields = new ConcurrentHashMap<>();
+    // flow class -> the __name__ field
+    private static final Map<Class, Optional<Field>> nameFields = new ConcurrentHashMap<>();
+
     private class FlowStopWatch {
         Map<String, Long> beginTime = new HashMap<>();
         void start(Flow flow) {
@@ -272,33 +287,54 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
         return this;
     }
 
-    private void collectAfterRunnable(Flow flow) {
-        List<Field> ad = FieldUtils.getAnnotatedFieldsOnThisClass(AfterDone.class, flow.getClass());
-        for (Field f : ad) {
-            List lst = FieldUtils.getFieldValue(f.getName(), flow);
-            if (lst != null) {
-                afterDone.add(lst);
+    private static List<Field> accessibleFields(Class annotation, Class clazz) {
+        List<Field> fields = FieldUtils.getAnnotatedFieldsOnThisClass(annotation, clazz);
+        fields.forEach(f -> f.setAccessible(true));
+        return fields.isEmpty() ? Collections.emptyList() : fields;
+    }
+
+    private static void collectFieldValues(List<Field> fields, Flow flow, List<List<Runnable>> to) {
+        for (Field f : fields) {
+            try {
+                List lst = (List) f.get(flow);
+                if (lst != null) {
+                    to.add(lst);
+                }
+            } catch (IllegalAccessException e) {
+                throw new CloudRuntimeException(e);
             }
         }
+    }
 
-        ad = FieldUtils.getAnnotatedFieldsOnThisClass(AfterError.class, flow.getClass());
-        for (Field f : ad) {
-            List lst = FieldUtils.getFieldValue(f.getName(), flow);
-            if (lst != null) {
-                afterError.add(lst);
-            }
+    private void collectAfterRunnable(Flow flow) {
+        AfterRunnableFields fields = afterRunnableFields.computeIfAbsent(flow.getClass(), clz -> {
+            AfterRunnableFields af = new AfterRunnableFields();
+            af.afterDone = accessibleFields(AfterDone.class, clz);
+            af.afterError = accessibleFields(AfterError.class, clz);
+            af.afterFinal = accessibleFields(AfterFinal.class, clz);
+            return af;
+        });
+
+        collectFieldValues(fields.afterDone, flow, afterDone);
+        collectFieldValues(fields.afterError, flow, afterError);
+        collectFieldValues(fields.afterFinal, flow, afterFinal);
+    }
+
+    private void recordFlowLatency(boolean success) {
+        if (flowStartTime == 0 || currentFlow == null) {
+            return;
         }
 
-        ad = FieldUtils.getAnnotatedFieldsOnThisClass(AfterFinal.class, flow.getClass());
-        for (Field f : ad) {
-            List lst = FieldUtils.getFieldValue(f.getName(), flow);
-            if (lst != null) {
-                afterFinal.add(lst);
-            }
+        if (profileName == null) {
+            profileName = FlowChainProfiler.normalizeChainName(name);
         }
+
+        FlowChainProfiler.record(profileName, currentFlow.getClass(), System.nanoTime() - flowStartTime, success);
+        flowStartTime = 0;
     }
 
     private void runFlow(Flow flow) {
+        flowStartTime = 0;
         try {
             if (TransactionSynchronizationManager.isActualTransactionActive()) {
                 String flowName = null;
@@ -355,6 +391,7 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
                         return;
                     }
                 }
+                flowStartTime = System.nanoTime();
                 toRun.run(this, data);
             }
         } catch (OperationFailureException oe) {
@@ -437,7 +474,20 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
 
     private String getFlowName(Flow flow) {
         StringBuilder name = new StringBuilder();
-        String innerName = FieldUtils.getFieldValue("__name__", flow);
+        Optional<Field> nameField = nameFields.computeIfAbsent(flow.getClass(), clz -> {
+            Field f = FieldUtils.getField("__name__", clz);
+            if (f != null) {
+                f.setAccessible(true);
+            }
+            return Optional.ofNullable(f);
+        });
+
+        String innerName;
+        try {
+            innerName = nameField.isPresent() ? (String) nameField.get().get(flow) : null;
+        } catch (IllegalAccessException e) {
+            throw new CloudRuntimeException(e);
+        }
         if (innerName == null) {
             name.append(flow.getClass().getSimpleName());
             if (name.length() == 0) {
@@ -578,6 +628,7 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
 
     @Override
     public void fail(ErrorCode errorCode) {
+        recordFlowLatency(false);
         isFailCalled = true;
         setErrorCode(errorCode);
         rollBackFlows.push(currentFlow);
@@ -618,6 +669,7 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
                     String.format("[FlowChain(%s): %s] rollback has started, you can't call next()", id, name));
         }
 
+        recordFlowLatency(true);
         rollBackFlows.push(currentFlow);
 
         logger.debug(String.format("[FlowChain(%s): %s] successfully executed flow[%s]", id, name, getFlowName(currentFlow)));
@@ -3,6 +3,7 @@ package org.zstack.header.identity;
 import org.zstack.header.message.NeedJsonSchema;
 
 import java.util.Date;
+import java.util.List;
 
 /**
  * Created by xing5 on 2016/3/21.
@@ -12,6 +13,8 @@ public class IdentityCanonicalEvents {
     public static final String USER_DELETED_PATH = "/user/delete";
     public static final String ACCOUNT_LOGIN_PATH = "/account/login";
     public static final String SESSION_FORCE_LOGOUT_PATH = "/session/logout";
+    public static final String POLICY_CHANGED_PATH = "/policy/change";
+    public static final String ACCOUNT_RESOURCE_CHANGED_PATH = "/account/resource/change";
 
     public static final String SESSION_FORCE_LOGOUT = "SessionForceLogout";
 
@@ -126,6 +129,19 @@ public class IdentityCanonicalEvents {
         }
     }
 
+    @NeedJsonSchema
+    public static class AccountResourceChangedData {
+        private List<String> resourceTypes;
+
+        public List<String> getResourceTypes() {
+            return resourceTypes;
+        }
+
+        public void setResourceTypes(List<String> resourceTypes) {
+            this.resourceTypes = resourceTypes;
+        }
+    }
+
     @NeedJsonSchema
     public static class AccountLoginData {
         private String accountUuid;
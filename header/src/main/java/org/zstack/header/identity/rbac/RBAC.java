@@ -538,6 +538,11 @@ public class RBAC {
         return readableResources.stream().anyMatch(r->r.resources.contains(clz));
     }
 
+    public static boolean hasAPIPermissionChecker(Class apiClass) {
+        List<APIPermissionCheckerWrapper> checkers = permissionCheckers.get(apiClass);
+        return checkers != null && !checkers.isEmpty();
+    }
+
     public static boolean checkAPIPermission(APIMessage msg, boolean policyDecision) {
         List<APIPermissionCheckerWrapper> checkers = permissionCheckers.get(msg.getClass());
         if (checkers == null || checkers.isEmpty()) {
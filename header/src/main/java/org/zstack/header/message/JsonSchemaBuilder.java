@@ -2,13 +2,10 @@ package org.zstack.header.message;
 
 import org.apache.commons.lang.StringUtils;
 import org.zstack.header.exception.CloudRuntimeException;
-import org.zstack.utils.FieldUtils;
 import org.zstack.utils.Utils;
 import org.zstack.utils.gson.JSONObjectUtil;
 import org.zstack.utils.logging.CLogger;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
 import java.util.*;
 
 /**
@@ -25,71 +22,42 @@ public class JsonSchemaBuilder {
         this.object = object;
     }
 
-    private boolean isSkip(Field f) {
-        return f.isAnnotationPresent(NoJsonSchema.class) || Modifier.isStatic(f.getModifiers())
-                || f.isAnnotationPresent(GsonTransient.class);
-    }
-
-    private void build(Object o, Stack<String> paths) throws IllegalAccessException {
-        List<Field> fields = FieldUtils.getAllFields(o.getClass());
+    private void build(Object o, Stack<String> paths) {
+        JsonSchemaPlan plan = JsonSchemaPlan.get(o.getClass());
 
-        for (Field f : fields) {
+        for (JsonSchemaPlan.FieldPlan f : plan.fields) {
             try {
-                if (isSkip(f)) {
-                    continue;
-                }
-
-                f.setAccessible(true);
                 Object value = f.get(o);
                 if (value == null) {
                     // null value
                     continue;
                 }
 
-                final String valueClassCanonicalName = value.getClass().getCanonicalName();
-                if (valueClassCanonicalName == null) {
-                    continue;
-                }
-
-                if (valueClassCanonicalName.startsWith("java.")) {
-                    // for JRE classes, only deal with Collection and Map
-                    if (value instanceof Collection) {
-                        Collection c = (Collection) value;
-
-                        Class gtype = FieldUtils.getGenericType(f);
-
-                        if (gtype != null && !gtype.getName().startsWith("java.")) {
-                            int i = 0;
-                            for (Object co : c) {
-                                paths.push(String.format("%s[%s]", f.getName(), i++));
-                                build(co, paths);
-                                paths.pop();
-                            }
-                        }
-
-                    } else if (value instanceof Map) {
-                        Class gtype = FieldUtils.getGenericType(f);
-
-                        if (gtype != null && !gtype.getName().startsWith("java.")) {
-                            for (Object me : ((Map) value).entrySet()) {
-                                Map.Entry e = (Map.Entry) me;
-                                paths.push(String.format("%s.%s", f.getName(), e.getKey().toString()));
-                                build(e.getValue(), paths);
-                                paths.pop();
-                            }
-                        }
-                    }
-
-                    // don't record standard JRE classes
-
-                } else if (valueClassCanonicalName.startsWith("org.zstack")) {
-                    paths.push(f.getName());
+                JsonSchemaPlan.Kind kind = JsonSchemaPlan.kindOf(value.getClass());
+                if (kind == JsonSchemaPlan.Kind.ZSTACK) {
+                    paths.push(f.name);
                     build(value, paths);
                     paths.pop();
+                } else if (kind == JsonSchemaPlan.Kind.JRE_COLLECTION && f.walkElements) {
+                    int i = 0;
+                    for (Object co : (Collection) value) {
+                        paths.push(f.name + "[" + i++ + "]");
+                        build(co, paths);
+                        paths.pop();
+                    }
+                } else if (kind == JsonSchemaPlan.Kind.JRE_MAP && f.walkElements) {
+                    for (Object me : ((Map) value).entrySet()) {
+                        Map.Entry e = (Map.Entry) me;
+                        paths.push(f.name + "." + e.getKey().toString());
+                        build(e.getValue(), paths);
+                        paths.pop();
+                    }
                 }
+
+                // don't record standard JRE classes
             } catch (StackOverflowError e) {
                 throw new CloudRuntimeException(String.format("StackOverflowError at object: %s, o: %s, field[name:%s, type: %s], paths: %s",
-                        object.getClass(), o.getClass(), f.getName(), f.getType(), paths));
+                        object.getClass(), o.getClass(), f.name, f.type, paths));
             }
         }
 
@@ -0,0 +1,140 @@
+package org.zstack.header.message;
+
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.utils.FieldUtils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * a per-class, compiled view of the fields JsonSchemaBuilder has to walk.
+ *
+ * plans are built once per class and cached, fields that can never hold
+ * an org.zstack object or a JRE Collection/Map (primitives, String, boxed
+ * types, final JRE classes ...) are dropped from the plan, so the builder
+ * only touches fields that may contribute to the schema.
+ */
+class JsonSchemaPlan {
+    enum Kind {
+        // the class doesn't contribute to the schema
+        IGNORE,
+        // org.zstack.* classes, recursively walked
+        ZSTACK,
+        // JRE classes, only Collection and Map are handled
+        JRE_COLLECTION,
+        JRE_MAP,
+    }
+
+    static class FieldPlan {
+        final String name;
+        final Class type;
+        final MethodHandle getter;
+        // for Collection/Map fields, whether the element/value type is not a JRE class
+        final boolean walkElements;
+
+        FieldPlan(Field f, MethodHandle getter, boolean walkElements) {
+            this.name = f.getName();
+            this.type = f.getType();
+            this.getter = getter;
+            this.walkElements = walkElements;
+        }
+
+        Object get(Object o) {
+            try {
+                return (Object) getter.invokeExact(o);
+            } catch (Throwable t) {
+                throw new CloudRuntimeException(t);
+            }
+        }
+    }
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    private static final ClassValue<JsonSchemaPlan> plans = new ClassValue<JsonSchemaPlan>() {
+        @Override
+        protected JsonSchemaPlan computeValue(Class<?> type) {
+            return new JsonSchemaPlan(type);
+        }
+    };
+
+    private static final ClassValue<Kind> kinds = new ClassValue<Kind>() {
+        @Override
+        protected Kind computeValue(Class<?> type) {
+            String name = type.getCanonicalName();
+            if (name == null) {
+                return Kind.IGNORE;
+            }
+
+            if (name.startsWith("java.")) {
+                if (Collection.class.isAssignableFrom(type)) {
+                    return Kind.JRE_COLLECTION;
+                } else if (Map.class.isAssignableFrom(type)) {
+                    return Kind.JRE_MAP;
+                } else {
+                    return Kind.IGNORE;
+                }
+            }
+
+            return name.startsWith("org.zstack") ? Kind.ZSTACK : Kind.IGNORE;
+        }
+    };
+
+    final FieldPlan[] fields;
+
+    static JsonSchemaPlan get(Class clz) {
+        return plans.get(clz);
+    }
+
+    static Kind kindOf(Class clz) {
+        return kinds.get(clz);
+    }
+
+    private static boolean isSkip(Field f) {
+        return f.isAnnotationPresent(NoJsonSchema.class) || Modifier.isStatic(f.getModifiers())
+                || f.isAnnotationPresent(GsonTransient.class);
+    }
+
+    // a field of a final type can only hold values of exactly that type,
+    // so if that type is ignored by the schema, the field can be dropped
+    private static boolean canContribute(Class type) {
+        if (!Modifier.isFinal(type.getModifiers())) {
+            return true;
+        }
+
+        return kindOf(type) != Kind.IGNORE;
+    }
+
+    private JsonSchemaPlan(Class<?> clz) {
+        List<FieldPlan> fps = new ArrayList<>();
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+        for (Field f : FieldUtils.getAllFields(clz)) {
+            if (isSkip(f) || !canContribute(f.getType())) {
+                continue;
+            }
+
+            boolean walkElements = false;
+            if (Collection.class.isAssignableFrom(f.getType()) || Map.class.isAssignableFrom(f.getType())) {
+                Class gtype = FieldUtils.getGenericType(f);
+                walkElements = gtype != null && !gtype.getName().startsWith("java.");
+            }
+
+            try {
+                f.setAccessible(true);
+                MethodHandle getter = lookup.unreflectGetter(f).asType(GETTER_TYPE);
+                fps.add(new FieldPlan(f, getter, walkElements));
+            } catch (IllegalAccessException e) {
+                throw new CloudRuntimeException(String.format("unable to access field[name:%s] of %s", f.getName(), clz), e);
+            }
+        }
+
+        fields = fps.toArray(new FieldPlan[0]);
+    }
+}
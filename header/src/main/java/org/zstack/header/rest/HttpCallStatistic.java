@@ -9,6 +9,8 @@ public class HttpCallStatistic {
     private long totalTime;
     private long count;
     private long averageTime;
+    private long maxTime;
+    private long inflight;
 
     public String getUrl() {
         return url;
@@ -42,18 +44,45 @@ public class HttpCallStatistic {
         this.averageTime = averageTime;
     }
 
-    public void addStatistic(long time) {
+    public long getMaxTime() {
+        return maxTime;
+    }
+
+    public void setMaxTime(long maxTime) {
+        this.maxTime = maxTime;
+    }
+
+    public long getInflight() {
+        return inflight;
+    }
+
+    public void setInflight(long inflight) {
+        this.inflight = inflight;
+    }
+
+    public synchronized void addStatistic(long time) {
         totalTime += time;
         count++;
         averageTime = totalTime / count;
+        maxTime = Math.max(maxTime, time);
+    }
+
+    public synchronized void callStarted() {
+        inflight++;
+    }
+
+    public synchronized void callEnded() {
+        inflight--;
     }
 
     @Override
     public String toString() {
-        return String.format("URL[%s]: total time: %s secs, total count: %s, average time: %s secs",
+        return String.format("URL[%s]: total time: %s secs, total count: %s, average time: %s secs, max time: %s secs, in-flight: %s",
                 url,
                 TimeUnit.MILLISECONDS.toSeconds(totalTime),
                 count,
-                TimeUnit.MILLISECONDS.toSeconds(averageTime));
+                TimeUnit.MILLISECONDS.toSeconds(averageTime),
+                TimeUnit.MILLISECONDS.toSeconds(maxTime),
+                inflight);
     }
 }
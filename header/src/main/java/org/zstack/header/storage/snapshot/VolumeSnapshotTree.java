@@ -348,6 +348,8 @@ public class VolumeSnapshotTree {
 
     private SnapshotLeaf root;
     private String volumeUuid;
+    // snapshot uuid -> leaf, for trees built by fromInventories()
+    private transient Map<String, SnapshotLeaf> leaves;
 
     public static VolumeSnapshotTree fromInventories(List<VolumeSnapshotInventory> invs) {
         VolumeSnapshotTree tree = new VolumeSnapshotTree();
@@ -380,6 +382,7 @@ public class VolumeSnapshotTree {
         }
 
         DebugUtils.Assert(tree.root != null, "why tree root is null???");
+        tree.leaves = map;
         return tree;
     }
 
@@ -418,6 +421,18 @@ public class VolumeSnapshotTree {
         return null;
     }
 
+    /**
+     * @return the leaf of the snapshot, looked up by the uuid index when the tree is
+     * built by fromInventories()
+     */
+    public SnapshotLeaf findSnapshot(String uuid) {
+        if (leaves != null) {
+            return leaves.get(uuid);
+        }
+
+        return findSnapshot(arg -> arg.getUuid().equals(uuid));
+    }
+
     public SnapshotLeaf findSnapshot(Function<Boolean, VolumeSnapshotInventory> func) {
         if (func.call(root.getInventory())) {
             return root;
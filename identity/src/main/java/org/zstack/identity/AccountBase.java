@@ -30,6 +30,7 @@ import org.zstack.header.identity.role.RoleVO;
 import org.zstack.header.identity.role.RoleVO_;
 import org.zstack.header.message.APIMessage;
 import org.zstack.header.message.Message;
+import org.zstack.identity.rbac.RBACPolicyCache;
 import org.zstack.utils.CollectionUtils;
 import org.zstack.utils.DebugUtils;
 import org.zstack.utils.ExceptionDSL;
@@ -63,6 +64,10 @@ public class AccountBase extends AbstractAccount {
     private PluginRegistry pluginRgty;
     @Autowired
     private EventFacade evtf;
+    @Autowired
+    private RBACPolicyCache policyCache;
+    @Autowired
+    private AccountResourceIndex resourceIndex;
 
     private AccountVO self;
 
@@ -237,9 +242,15 @@ public class AccountBase extends AbstractAccount {
                         .eq(PolicyVO_.accountUuid, self.getUuid())
                         .delete();
 
+                List<String> sharedTypes = sql("select distinct s.resourceType from SharedResourceVO s" +
+                        " where s.ownerAccountUuid = :uuid or s.receiverAccountUuid = :uuid", String.class)
+                        .param("uuid", self.getUuid())
+                        .list();
                 sql("delete from SharedResourceVO s where s.ownerAccountUuid = :uuid or s.receiverAccountUuid = :uuid")
                         .param("uuid", self.getUuid())
                         .execute();
+                // bulk deletion fires no entity events
+                sharedTypes.forEach(resourceIndex::resourceChanged);
 
                 List<String> resourceUuids = q(AccountResourceRefVO.class)
                         .select(AccountResourceRefVO_.resourceUuid)
@@ -350,6 +361,8 @@ public class AccountBase extends AbstractAccount {
         q.setParameter("puuids", msg.getPolicyUuids());
         q.setParameter("userUuid", msg.getUserUuid());
         q.executeUpdate();
+        // bulk deletion fires no entity events
+        policyCache.policiesChanged();
 
         APIDetachPoliciesFromUserEvent evt = new APIDetachPoliciesFromUserEvent(msg.getId());
         bus.publish(evt);
@@ -469,6 +482,9 @@ public class AccountBase extends AbstractAccount {
         }
 
         Map<String, String> uuidType = getUuidTypeMapByResourceUuids(msg.getResourceUuids());
+        // bulk deletion fires no entity events
+        new HashSet<>(uuidType.values()).forEach(resourceIndex::resourceChanged);
+
         for (String ruuid : msg.getResourceUuids()) {
             String resourceType = uuidType.get(ruuid);
 
@@ -4,6 +4,7 @@ import org.zstack.header.identity.AccountResourceRefInventory;
 import org.zstack.header.identity.Quota;
 import org.zstack.header.identity.SessionInventory;
 import org.zstack.header.message.APIMessage;
+import org.zstack.utils.CompactUuidSet;
 
 import java.util.List;
 import java.util.Map;
@@ -15,6 +16,13 @@ public interface AccountManager {
 
     List<String> getResourceUuidsCanAccessByAccount(String accountUuid, Class resourceType);
 
+    /**
+     * for membership tests without copying uuids
+     *
+     * @return null if the account can access all resources
+     */
+    CompactUuidSet getResourceUuidSetCanAccessByAccount(String accountUuid, Class resourceType);
+
     Map<Class, List<Quota>> getMessageQuotaMap();
 
     List<Quota> getQuotas();
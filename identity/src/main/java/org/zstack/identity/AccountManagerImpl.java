@@ -71,6 +71,8 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
     @Autowired
     private EventFacade evtf;
     @Autowired
+    private AccountResourceIndex resourceIndex;
+    @Autowired
     private List<QuotaUpdateChecker> quotaChangeCheckers = Collections.emptyList();
 
     private final List<String> resourceTypeForAccountRef = new ArrayList<>();
@@ -987,8 +989,27 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
 
 
     @Override
-    @Transactional(readOnly = true)
     public List<String> getResourceUuidsCanAccessByAccount(String accountUuid, Class resourceType) {
+        if (!resourceIndex.isEnabled()) {
+            return queryResourceUuidsCanAccessByAccount(accountUuid, resourceType);
+        }
+
+        CompactUuidSet uuids = getResourceUuidSetCanAccessByAccount(accountUuid, resourceType);
+        return uuids == null ? null : uuids.toList();
+    }
+
+    @Override
+    public CompactUuidSet getResourceUuidSetCanAccessByAccount(String accountUuid, Class resourceType) {
+        if (resourceIndex.isEnabled()) {
+            return resourceIndex.get(accountUuid, resourceType, () -> queryResourceUuidsCanAccessByAccount(accountUuid, resourceType));
+        }
+
+        List<String> uuids = queryResourceUuidsCanAccessByAccount(accountUuid, resourceType);
+        return uuids == null ? null : new CompactUuidSet(uuids);
+    }
+
+    @Transactional(readOnly = true)
+    private List<String> queryResourceUuidsCanAccessByAccount(String accountUuid, Class resourceType) {
         String sql = "select a.type from AccountVO a where a.uuid = :auuid";
         TypedQuery<AccountType> q = dbf.getEntityManager().createQuery(sql, AccountType.class);
         q.setParameter("auuid", accountUuid);
@@ -1048,6 +1069,8 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
         q.setParameter("uuids", entityIds);
         q.setParameter("resourceType", entityClass.getSimpleName());
         q.executeUpdate();
+        // bulk deletion fires no entity events
+        resourceIndex.resourceChanged(entityClass.getSimpleName());
     }
 
     @Override
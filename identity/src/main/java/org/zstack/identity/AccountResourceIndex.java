@@ -0,0 +1,191 @@
+package org.zstack.identity;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.zstack.core.cloudbus.EventCallback;
+import org.zstack.core.cloudbus.EventFacade;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.EntityEvent;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.Component;
+import org.zstack.header.identity.AccountResourceRefVO;
+import org.zstack.header.identity.IdentityCanonicalEvents;
+import org.zstack.header.identity.SharedResourceVO;
+import org.zstack.utils.CompactUuidSet;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * uuids of resources an account owns or is shared with, by resource type, for
+ * AccountManager.getResourceUuidSetCanAccessByAccount, enabled by the global config
+ * account.resourceIndex.
+ *
+ * a resource type is dropped when AccountResourceRefVO or SharedResourceVO of the type
+ * is changed or resources of the type are deleted on this node, and again once the
+ * transaction of the change completes, as uuids loaded in between may be read before the
+ * change is committed. Other nodes are notified by the canonical event
+ * IdentityCanonicalEvents.ACCOUNT_RESOURCE_CHANGED_PATH after the transaction completes.
+ * Uuids loaded while the type is being dropped are not cached, and entries expire in
+ * EXPIRE_MINUTES in case a change is made without entity events.
+ */
+public class AccountResourceIndex implements Component {
+    private static final CLogger logger = Utils.getLogger(AccountResourceIndex.class);
+
+    private static final int MAX_ENTRIES = 10000;
+    private static final int EXPIRE_MINUTES = 5;
+
+    private static class Entry {
+        // null if the account can access all resources
+        final CompactUuidSet uuids;
+
+        Entry(CompactUuidSet uuids) {
+            this.uuids = uuids;
+        }
+    }
+
+    // account uuid/resource type -> uuids
+    private final Cache<String, Entry> entries = CacheBuilder.newBuilder()
+            .maximumSize(MAX_ENTRIES)
+            .expireAfterWrite(EXPIRE_MINUTES, TimeUnit.MINUTES)
+            .build();
+    // resource type -> times the type is dropped
+    private final Map<String, AtomicLong> generations = new ConcurrentHashMap<>();
+    private final Set<String> changedTypes = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean notifying = new AtomicBoolean();
+
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private EventFacade evtf;
+    @Autowired
+    private ThreadFacade thdf;
+
+    public boolean isEnabled() {
+        return IdentityGlobalConfig.ACCOUNT_RESOURCE_INDEX.value(Boolean.class);
+    }
+
+    private AtomicLong generation(String resourceType) {
+        return generations.computeIfAbsent(resourceType, k -> new AtomicLong());
+    }
+
+    /**
+     * @param loader loads uuids the account can access, returns null if the account can access all
+     * @return null if the account can access all resources
+     */
+    CompactUuidSet get(String accountUuid, Class resourceType, Supplier<List<String>> loader) {
+        String type = resourceType.getSimpleName();
+        String key = accountUuid + "/" + type;
+        Entry entry = entries.getIfPresent(key);
+        if (entry != null) {
+            return entry.uuids;
+        }
+
+        AtomicLong gen = generation(type);
+        long before = gen.get();
+        List<String> uuids = loader.get();
+        entry = new Entry(uuids == null ? null : new CompactUuidSet(uuids));
+        if (before == gen.get()) {
+            entries.put(key, entry);
+        }
+
+        return entry.uuids;
+    }
+
+    private void drop(Collection<String> resourceTypes) {
+        resourceTypes.forEach(type -> generation(type).incrementAndGet());
+        entries.asMap().keySet().removeIf(key -> resourceTypes.contains(key.substring(key.indexOf('/') + 1)));
+    }
+
+    private void dropAll() {
+        generations.values().forEach(AtomicLong::incrementAndGet);
+        entries.invalidateAll();
+    }
+
+    private static void afterTransaction(Runnable runnable) {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            runnable.run();
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                runnable.run();
+            }
+        });
+    }
+
+    /**
+     * drops the resource type on this node and notifies other nodes once the change is
+     * committed, changes completed in a second are notified by one event
+     */
+    public void resourceChanged(String resourceType) {
+        if (resourceType == null) {
+            return;
+        }
+
+        drop(Collections.singleton(resourceType));
+        afterTransaction(() -> {
+            drop(Collections.singleton(resourceType));
+            changedTypes.add(resourceType);
+
+            if (!notifying.compareAndSet(false, true)) {
+                return;
+            }
+
+            thdf.submitTimeoutTask(() -> {
+                notifying.set(false);
+                List<String> types = new ArrayList<>(changedTypes);
+                changedTypes.removeAll(types);
+
+                IdentityCanonicalEvents.AccountResourceChangedData data = new IdentityCanonicalEvents.AccountResourceChangedData();
+                data.setResourceTypes(types);
+                evtf.fire(IdentityCanonicalEvents.ACCOUNT_RESOURCE_CHANGED_PATH, data);
+            }, TimeUnit.SECONDS, 1);
+        });
+    }
+
+    @Override
+    public boolean start() {
+        for (EntityEvent evt : Arrays.asList(EntityEvent.POST_PERSIST, EntityEvent.POST_UPDATE, EntityEvent.POST_REMOVE)) {
+            dbf.installEntityLifeCycleCallback(AccountResourceRefVO.class, evt, (e, o) -> resourceChanged(((AccountResourceRefVO) o).getResourceType()));
+            dbf.installEntityLifeCycleCallback(SharedResourceVO.class, evt, (e, o) -> resourceChanged(((SharedResourceVO) o).getResourceType()));
+        }
+
+        evtf.on(IdentityCanonicalEvents.ACCOUNT_RESOURCE_CHANGED_PATH, new EventCallback() {
+            @Override
+            protected void run(Map tokens, Object data) {
+                IdentityCanonicalEvents.AccountResourceChangedData d = (IdentityCanonicalEvents.AccountResourceChangedData) data;
+                drop(new HashSet<>(d.getResourceTypes()));
+            }
+        });
+
+        evtf.on(IdentityCanonicalEvents.ACCOUNT_DELETED_PATH, new EventCallback() {
+            @Override
+            protected void run(Map tokens, Object data) {
+                dropAll();
+            }
+        });
+
+        IdentityGlobalConfig.ACCOUNT_RESOURCE_INDEX.installUpdateExtension((oldConfig, newConfig) -> {
+            logger.debug(String.format("account resource index is %s", newConfig.value(Boolean.class) ? "enabled" : "disabled"));
+            dropAll();
+        });
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        return true;
+    }
+}
@@ -24,4 +24,8 @@ public class IdentityGlobalConfig {
     @GlobalConfigEncrypt(category = CATEGORY, name = "enable.unique.session")
     @GlobalConfigValidation(validValues = {"true", "false"})
     public static GlobalConfig ENABLE_UNIQUE_SESSION = new GlobalConfig(CATEGORY, "enable.unique.session");
+    @GlobalConfigValidation(validValues = {"true", "false"})
+    public static GlobalConfig RBAC_DECISION_CACHE = new GlobalConfig(CATEGORY, "rbac.decisionCache");
+    @GlobalConfigValidation(validValues = {"true", "false"})
+    public static GlobalConfig ACCOUNT_RESOURCE_INDEX = new GlobalConfig(CATEGORY, "account.resourceIndex");
 }
@@ -10,6 +10,7 @@ import org.zstack.header.zql.MarshalZQLASTTreeExtensionPoint;
 import org.zstack.header.zql.RestrictByExprExtensionPoint;
 import org.zstack.header.zql.ZQLExtensionContext;
 import org.zstack.zql.ZQLContext;
+import org.zstack.utils.CompactUuidSet;
 import org.zstack.zql.ast.ZQLMetadata;
 
 import java.util.ArrayList;
@@ -22,6 +23,9 @@ public class IdentityZQLExtension implements MarshalZQLASTTreeExtensionPoint, Re
 
     public static final String SKIP_IDENTITY_FILTER = "__SKIP_IDENTITY_FILTER __";
 
+    // accessible resources up to the number are restricted by a list instead of sub-queries
+    private static final int MAX_INLINE_RESOURCE_UUIDS = 1000;
+
     @Autowired
     protected AccountManager acntMgr;
 
@@ -56,6 +60,7 @@ public class IdentityZQLExtension implements MarshalZQLASTTreeExtensionPoint, Re
         }
 
         List<String> restrictAccountUuids = getRestrictAccountUuids(context.getAPISession());
+        boolean restrictSessionAccountOnly = restrictAccountUuids == null;
         String accountUuid = context.getAPISession().getAccountUuid();
         if (AccountConstant.INITIAL_SYSTEM_ADMIN_UUID.equals(accountUuid) && restrictAccountUuids == null) {
             throw new SkipThisRestrictExprException();
@@ -74,6 +79,13 @@ public class IdentityZQLExtension implements MarshalZQLASTTreeExtensionPoint, Re
 
         String primaryKey = EntityMetadata.getPrimaryKeyField(src.inventoryAnnotation.mappingVOClass()).getName();
 
+        if (restrictSessionAccountOnly && IdentityGlobalConfig.ACCOUNT_RESOURCE_INDEX.value(Boolean.class)) {
+            String sql = getIndexedAccountResourceSql(src, primaryKey, accountUuid);
+            if (sql != null) {
+                return sql;
+            }
+        }
+
         String accountStr = restrictAccountUuids.stream()
                 .map(uuid -> String.format("'%s'", uuid))
                 .collect(Collectors.joining(","));
@@ -81,6 +93,30 @@ public class IdentityZQLExtension implements MarshalZQLASTTreeExtensionPoint, Re
         return getAccountResourceSql(src.simpleInventoryName(), primaryKey, accountStr);
     }
 
+    private String getIndexedAccountResourceSql(ZQLMetadata.InventoryMetadata src, String primaryKey, String accountUuid) {
+        Class baseType = acntMgr.getBaseResourceType(src.inventoryAnnotation.mappingVOClass());
+        if (baseType == null) {
+            return null;
+        }
+
+        CompactUuidSet uuids = acntMgr.getResourceUuidSetCanAccessByAccount(accountUuid, baseType);
+        if (uuids == null || uuids.size() > MAX_INLINE_RESOURCE_UUIDS) {
+            return null;
+        }
+
+        if (uuids.isEmpty()) {
+            return String.format("(%s.%s IS NULL)", src.simpleInventoryName(), primaryKey);
+        }
+
+        List<String> list = uuids.toList();
+        if (!list.stream().allMatch(uuid -> uuid.matches("[\\w-]+"))) {
+            return null;
+        }
+
+        return String.format("(%s.%s IN (%s))", src.simpleInventoryName(), primaryKey,
+                list.stream().map(uuid -> String.format("'%s'", uuid)).collect(Collectors.joining(",")));
+    }
+
     protected String getAccountResourceSql(String inventoryName, String primaryKey, String accountStr) {
         return String.format("(%s.%s IN (SELECT accountresourcerefvo.resourceUuid FROM AccountResourceRefVO accountresourcerefvo WHERE" +
                         "  accountresourcerefvo.ownerAccountUuid in (%s) OR (accountresourcerefvo.resourceUuid" +
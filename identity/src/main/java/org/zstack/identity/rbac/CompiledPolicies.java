@@ -0,0 +1,194 @@
+package org.zstack.identity.rbac;
+
+import org.springframework.util.AntPathMatcher;
+import org.zstack.header.identity.PolicyInventory;
+import org.zstack.identity.rbac.datatype.Entity;
+
+import java.lang.reflect.Field;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * statements of policies applied to an account/user, with principals already evaluated and
+ * action patterns indexed by their literal API name prefix. Decisions are made once for every
+ * API and additional APIs to check, and reused until the policies are changed.
+ *
+ * matching follows PolicyMatcher, a pattern matches an API name if it's matched in ant style
+ * or the API name ends with it.
+ */
+class CompiledPolicies {
+    private static final AntPathMatcher matcher = new AntPathMatcher();
+
+    static class CompiledStatement {
+        final PolicyInventory policy;
+        final String action;
+        final String pattern;
+        final String[] fields;
+
+        CompiledStatement(PolicyInventory policy, String action, String pattern, String[] fields) {
+            this.policy = policy;
+            this.action = action;
+            this.pattern = pattern.replace('.', '/');
+            this.fields = fields;
+        }
+
+        boolean isLiteral() {
+            return pattern.indexOf('*') < 0 && pattern.indexOf('?') < 0 && pattern.indexOf('{') < 0;
+        }
+
+        /**
+         * the path an API name must start with to be matched in ant style, the last path
+         * segment before wildcards is excluded as '/a/**' matches '/a'
+         */
+        String literalPrefix() {
+            int end = pattern.length();
+            for (char c : new char[]{'*', '?', '{'}) {
+                int i = pattern.indexOf(c);
+                if (i >= 0 && i < end) {
+                    end = i;
+                }
+            }
+
+            int sep = end == 0 ? -1 : pattern.lastIndexOf('/', end - 1);
+            String prefix = sep < 0 ? "" : pattern.substring(0, sep);
+            // ant matcher ignores empty path segments
+            return prefix.contains("//") ? "" : prefix;
+        }
+    }
+
+    static class ActionIndex {
+        // literal prefix -> statements
+        private final Map<String, List<CompiledStatement>> byPrefix = new LinkedHashMap<>();
+        // statements without wildcards, they also match API names ending with them
+        private final List<CompiledStatement> literals = new ArrayList<>();
+
+        void add(CompiledStatement s) {
+            byPrefix.computeIfAbsent(s.literalPrefix(), k -> new ArrayList<>()).add(s);
+            if (s.isLiteral()) {
+                literals.add(s);
+            }
+        }
+
+        void collect(String apiName, Set<CompiledStatement> ret) {
+            String path = apiName.replace('.', '/');
+            byPrefix.forEach((prefix, sts) -> {
+                if (!path.startsWith(prefix)) {
+                    return;
+                }
+
+                sts.forEach(s -> {
+                    if (matcher.match(s.pattern, path)) {
+                        ret.add(s);
+                    }
+                });
+            });
+
+            literals.forEach(s -> {
+                if (path.endsWith(s.pattern)) {
+                    ret.add(s);
+                }
+            });
+        }
+
+        boolean matches(String apiName) {
+            Set<CompiledStatement> ret = new HashSet<>();
+            collect(apiName, ret);
+            return !ret.isEmpty();
+        }
+    }
+
+    static class DenyRule {
+        final CompiledStatement statement;
+        // null if the API is denied whatever fields are set
+        final Field field;
+
+        DenyRule(CompiledStatement statement, Field field) {
+            this.statement = statement;
+            this.field = field;
+        }
+    }
+
+    static class Decision {
+        final List<DenyRule> denyRules;
+        final boolean allowed;
+
+        Decision(List<DenyRule> denyRules, boolean allowed) {
+            this.denyRules = denyRules;
+            this.allowed = allowed;
+        }
+    }
+
+    private final ActionIndex denies = new ActionIndex();
+    private final ActionIndex allows = new ActionIndex();
+    // api name and additional apis -> decision
+    private final Map<String, Decision> decisions = new ConcurrentHashMap<>();
+
+    /**
+     * @param principalMatcher whether a statement with the principals applies to the account/user
+     */
+    CompiledPolicies(List<PolicyInventory> policies, Predicate<List<String>> principalMatcher) {
+        RBACManager.collectDenyStatements(policies).forEach((p, sts) -> sts.forEach(st -> {
+            if (!principalMatcher.test(st.getPrincipals())) {
+                return;
+            }
+
+            // action string format is:
+            // api-full-name:optional-api-field-list-split-by-comma
+            st.getActions().forEach(action -> {
+                String[] ss = action.split(":", 2);
+                denies.add(new CompiledStatement(p, action, ss[0], ss.length > 1 ? ss[1].split(",") : null));
+            });
+        }));
+
+        RBACManager.collectAllowedStatements(policies).forEach((p, sts) -> sts.forEach(st -> {
+            if (!principalMatcher.test(st.getPrincipals())) {
+                return;
+            }
+
+            st.getActions().forEach(action -> allows.add(new CompiledStatement(p, action, PolicyUtils.apiNamePatternFromAction(action, true), null)));
+        }));
+    }
+
+    int getDecisionCount() {
+        return decisions.size();
+    }
+
+    Decision getDecision(Class apiClass, String apiName, List<String> additionalApisToCheck) {
+        String key = additionalApisToCheck.isEmpty() ? apiName : apiName + "," + String.join(",", additionalApisToCheck);
+        Decision d = decisions.get(key);
+        if (d == null) {
+            d = decide(apiClass, apiName, additionalApisToCheck);
+            decisions.put(key, d);
+        }
+
+        return d;
+    }
+
+    private Decision decide(Class apiClass, String apiName, List<String> additionalApisToCheck) {
+        Set<String> apis = new LinkedHashSet<>();
+        apis.add(apiName);
+        apis.addAll(additionalApisToCheck);
+
+        Set<CompiledStatement> matched = new LinkedHashSet<>();
+        apis.forEach(api -> denies.collect(api, matched));
+
+        List<DenyRule> rules = new ArrayList<>();
+        for (CompiledStatement s : matched) {
+            if (s.fields == null) {
+                rules.add(new DenyRule(s, null));
+                continue;
+            }
+
+            Map<String, Field> fields = Entity.getEntity(apiClass).getFields();
+            for (String fname : s.fields) {
+                Field field = fields.get(fname);
+                if (field != null) {
+                    rules.add(new DenyRule(s, field));
+                }
+            }
+        }
+
+        return new Decision(rules, apis.stream().allMatch(allows::matches));
+    }
+}
@@ -8,6 +8,7 @@ import org.zstack.header.identity.rbac.PolicyMatcher;
 import org.zstack.header.identity.rbac.RBAC;
 import org.zstack.header.identity.rbac.RBACEntity;
 import org.zstack.header.identity.rbac.SuppressRBACCheck;
+import org.zstack.header.message.APIMessage;
 import org.zstack.identity.APIRequestChecker;
 import org.zstack.identity.rbac.datatype.Entity;
 import org.zstack.utils.Utils;
@@ -52,6 +53,13 @@ public class RBACAPIRequestChecker implements APIRequestChecker {
         return RBACManager.getPoliciesByAPI(rbacEntity.getApiMessage());
     }
 
+    /**
+     * decisions of APIs having permission checkers depend on the message, they are not cached
+     */
+    protected boolean useDecisionCache() {
+        return RBACPolicyCache.isEnabled() && !RBAC.hasAPIPermissionChecker(rbacEntity.getApiMessage().getClass());
+    }
+
     /**
      * rule evaluation order:
      * 3. if any user defined policy denies the API, deny
@@ -59,6 +67,11 @@ public class RBACAPIRequestChecker implements APIRequestChecker {
      * 5. then deny by default
      */
     protected void check() {
+        if (useDecisionCache()) {
+            checkByDecisionCache();
+            return;
+        }
+
         List<PolicyInventory> polices = getPoliciesForAPI();
         Map<PolicyInventory, List<PolicyStatement>> denyStatements = RBACManager.collectDenyStatements(polices);
         Map<PolicyInventory, List<PolicyStatement>> allowStatements = RBACManager.collectAllowedStatements(polices);
@@ -70,6 +83,10 @@ public class RBACAPIRequestChecker implements APIRequestChecker {
             return;
         }
 
+        denyByDefault();
+    }
+
+    private void denyByDefault() {
         if (logger.isTraceEnabled()) {
             logger.trace(String.format("[RBAC]operation is denied by default, API:\n%s", jsonMessage()));
         }
@@ -78,6 +95,40 @@ public class RBACAPIRequestChecker implements APIRequestChecker {
         throw new OperationFailureException(operr("operation[API:%s] is denied by default, please contact admin to correct it", rbacEntity.getApiMessage().getClass().getName()));
     }
 
+    private void checkByDecisionCache() {
+        APIMessage msg = rbacEntity.getApiMessage();
+        CompiledPolicies compiled = RBACPolicyCache.get(msg.getSession(), () -> new CompiledPolicies(getPoliciesForAPI(), this::isPrincipalMatched));
+        CompiledPolicies.Decision decision = compiled.getDecision(msg.getClass(), rbacEntity.getApiName(), rbacEntity.getAdditionalApisToCheck());
+
+        for (CompiledPolicies.DenyRule rule : decision.denyRules) {
+            PolicyInventory p = rule.statement.policy;
+            if (rule.field == null) {
+                if (logger.isTraceEnabled()) {
+                    logger.trace(String.format("[RBAC] policy[name:%s, uuid:%s]'s statement[%s] denies the API:\n%s", p.getName(),
+                            p.getUuid(), rule.statement.action, jsonMessage()));
+                }
+
+                throw new OperationFailureException(operr("the operation is denied by the policy[name:%s uuid:%s]", p.getName(), p.getUuid()));
+            }
+
+            try {
+                if (rule.field.get(msg) != null) {
+                    if (logger.isTraceEnabled()) {
+                        logger.trace(String.format("[RBAC] policy[name:%s, uuid:%s]'s statement[%s] denies the API:\n%s", p.getName(),
+                                p.getUuid(), rule.statement.action, jsonMessage()));
+                    }
+                    throw new OperationFailureException(operr("the operation is denied by the policy[name:%s, uuid:%s], field[%s] is not permitted to set", p.getName(), p.getUuid(), rule.field.getName()));
+                }
+            } catch (IllegalAccessException e) {
+                throw new CloudRuntimeException(e);
+            }
+        }
+
+        if (!decision.allowed) {
+            denyByDefault();
+        }
+    }
+
     private String jsonMessage() {
         return CloudBusGson.toLogSafeJson(rbacEntity.getApiMessage());
     }
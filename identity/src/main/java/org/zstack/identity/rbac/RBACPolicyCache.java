@@ -0,0 +1,219 @@
+package org.zstack.identity.rbac;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.zstack.core.cloudbus.EventCallback;
+import org.zstack.core.cloudbus.EventFacade;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.EntityEvent;
+import org.zstack.core.db.HardDeleteEntityExtensionPoint;
+import org.zstack.core.jmx.JmxFacade;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.Component;
+import org.zstack.header.identity.*;
+import org.zstack.header.identity.role.*;
+import org.zstack.identity.IdentityGlobalConfig;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * compiled policies of accounts/users for RBACAPIRequestChecker, enabled by the global
+ * config rbac.decisionCache.
+ *
+ * all are dropped when policies, roles, users or groups are changed on this node, and again
+ * once the transaction of the change completes, as policies compiled in between may be read
+ * before the change is committed. Other nodes are notified by the canonical event
+ * IdentityCanonicalEvents.POLICY_CHANGED_PATH after the transaction completes. Policies
+ * compiled while they are being dropped are not cached, and entries expire in EXPIRE_MINUTES
+ * in case a change is made without entity events.
+ */
+public class RBACPolicyCache implements Component, HardDeleteEntityExtensionPoint, RBACPolicyCacheMXBean {
+    private static final CLogger logger = Utils.getLogger(RBACPolicyCache.class);
+
+    private static final int MAX_IDENTITIES = 10000;
+    private static final int EXPIRE_MINUTES = 10;
+
+    private static final List<Class> policyEntities = Arrays.asList(PolicyVO.class, UserPolicyRefVO.class,
+            UserGroupPolicyRefVO.class, UserGroupUserRefVO.class, UserGroupVO.class,
+            RoleVO.class, RolePolicyRefVO.class, RolePolicyStatementVO.class, RoleAccountRefVO.class,
+            RoleUserRefVO.class, RoleUserGroupRefVO.class);
+
+    // account uuid/user uuid -> compiled policies
+    private static final Cache<String, CompiledPolicies> identities = CacheBuilder.newBuilder()
+            .maximumSize(MAX_IDENTITIES)
+            .expireAfterWrite(EXPIRE_MINUTES, TimeUnit.MINUTES)
+            .build();
+    private static final AtomicLong generation = new AtomicLong();
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+
+    private final AtomicBoolean notifying = new AtomicBoolean();
+
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private EventFacade evtf;
+    @Autowired
+    private ThreadFacade thdf;
+    @Autowired
+    private JmxFacade jmxf;
+
+    static boolean isEnabled() {
+        return IdentityGlobalConfig.RBAC_DECISION_CACHE.value(Boolean.class);
+    }
+
+    private static String identityKey(SessionInventory session) {
+        return session.getAccountUuid() + "/" + session.getUserUuid();
+    }
+
+    /**
+     * @param compiler compiles policies of the session's account/user if not cached
+     */
+    static CompiledPolicies get(SessionInventory session, Supplier<CompiledPolicies> compiler) {
+        String key = identityKey(session);
+        CompiledPolicies compiled = identities.getIfPresent(key);
+        if (compiled != null) {
+            hits.increment();
+            return compiled;
+        }
+
+        misses.increment();
+        long gen = generation.get();
+        compiled = compiler.get();
+        if (gen == generation.get()) {
+            identities.put(key, compiled);
+        }
+
+        return compiled;
+    }
+
+    static void invalidateAll() {
+        generation.incrementAndGet();
+        identities.invalidateAll();
+    }
+
+    private static void afterTransaction(Runnable runnable) {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            runnable.run();
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                runnable.run();
+            }
+        });
+    }
+
+    /**
+     * drops compiled policies on this node and notifies other nodes once the change is
+     * committed, changes completed in a second are notified by one event
+     */
+    public void policiesChanged() {
+        invalidateAll();
+        afterTransaction(() -> {
+            invalidateAll();
+
+            if (!notifying.compareAndSet(false, true)) {
+                return;
+            }
+
+            thdf.submitTimeoutTask(() -> {
+                notifying.set(false);
+                evtf.fire(IdentityCanonicalEvents.POLICY_CHANGED_PATH, null);
+            }, TimeUnit.SECONDS, 1);
+        });
+    }
+
+    @Override
+    public boolean start() {
+        for (Class clz : policyEntities) {
+            dbf.installEntityLifeCycleCallback(clz, EntityEvent.POST_PERSIST, (evt, o) -> policiesChanged());
+            dbf.installEntityLifeCycleCallback(clz, EntityEvent.POST_UPDATE, (evt, o) -> policiesChanged());
+            dbf.installEntityLifeCycleCallback(clz, EntityEvent.POST_REMOVE, (evt, o) -> policiesChanged());
+        }
+        // updating a user, e.g. its password, doesn't change policies, only removing it does
+        dbf.installEntityLifeCycleCallback(UserVO.class, EntityEvent.POST_REMOVE, (evt, o) -> policiesChanged());
+
+        evtf.on(IdentityCanonicalEvents.POLICY_CHANGED_PATH, new EventCallback() {
+            @Override
+            protected void run(Map tokens, Object data) {
+                invalidateAll();
+            }
+        });
+
+        EventCallback onDeleted = new EventCallback() {
+            @Override
+            protected void run(Map tokens, Object data) {
+                invalidateAll();
+            }
+        };
+        evtf.on(IdentityCanonicalEvents.ACCOUNT_DELETED_PATH, onDeleted);
+        evtf.on(IdentityCanonicalEvents.USER_DELETED_PATH, onDeleted);
+
+        IdentityGlobalConfig.RBAC_DECISION_CACHE.installUpdateExtension((oldConfig, newConfig) -> invalidateAll());
+        jmxf.registerBean("RBACPolicyCache", this);
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        return true;
+    }
+
+    @Override
+    public List<Class> getEntityClassForHardDeleteEntityExtension() {
+        List<Class> ret = new ArrayList<>(policyEntities);
+        ret.add(UserVO.class);
+        return ret;
+    }
+
+    @Override
+    public void postHardDelete(Collection entityIds, Class entityClass) {
+        policiesChanged();
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    @Override
+    public long getCachedIdentities() {
+        return identities.size();
+    }
+
+    @Override
+    public long getCachedDecisions() {
+        return identities.asMap().values().stream().mapToLong(CompiledPolicies::getDecisionCount).sum();
+    }
+
+    @Override
+    public void invalidate() {
+        logger.debug("invalidate all compiled RBAC policies by JMX");
+        invalidateAll();
+    }
+}
@@ -0,0 +1,17 @@
+package org.zstack.identity.rbac;
+
+/**
+ */
+public interface RBACPolicyCacheMXBean {
+    long getHits();
+
+    long getMisses();
+
+    double getHitRate();
+
+    long getCachedIdentities();
+
+    long getCachedDecisions();
+
+    void invalidate();
+}
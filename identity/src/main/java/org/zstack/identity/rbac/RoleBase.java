@@ -29,6 +29,8 @@ public class RoleBase implements Role {
     private PluginRegistry pluginRgty;
     @Autowired
     private RoleUtils roleUtils;
+    @Autowired
+    private RBACPolicyCache policyCache;
 
     protected RoleVO self;
 
@@ -150,6 +152,8 @@ public class RoleBase implements Role {
     private void handle(APIRemovePolicyStatementsFromRoleMsg msg) {
         SQL.New(RolePolicyStatementVO.class).eq(RolePolicyStatementVO_.roleUuid, self.getUuid())
                 .in(RolePolicyStatementVO_.uuid, msg.getPolicyStatementUuids()).hardDelete();
+        // bulk deletion fires no entity events
+        policyCache.policiesChanged();
         bus.publish(new APIRemovePolicyStatementsFromRoleEvent(msg.getId()));
     }
 
@@ -173,6 +177,8 @@ public class RoleBase implements Role {
     private void handle(APIDetachPolicyFromRoleMsg msg) {
         SQL.New(RolePolicyRefVO.class).eq(RolePolicyRefVO_.policyUuid, msg.getPolicyUuid())
                 .eq(RolePolicyRefVO_.roleUuid, msg.getRoleUuid()).hardDelete();
+        // bulk deletion fires no entity events
+        policyCache.policiesChanged();
         bus.publish(new APIDetachPolicyFromRoleEvent(msg.getId()));
     }
 
@@ -187,6 +193,8 @@ public class RoleBase implements Role {
     private void handle(APIDetachRoleFromAccountMsg msg) {
         SQL.New(RoleAccountRefVO.class).eq(RoleAccountRefVO_.accountUuid, msg.getAccountUuid())
                 .eq(RoleAccountRefVO_.roleUuid, msg.getRoleUuid()).hardDelete();
+        // bulk deletion fires no entity events
+        policyCache.policiesChanged();
 
         APIDetachRoleFromAccountEvent evt = new APIDetachRoleFromAccountEvent(msg.getId());
         bus.publish(evt);
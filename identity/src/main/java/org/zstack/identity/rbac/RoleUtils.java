@@ -17,6 +17,9 @@ import org.zstack.header.identity.role.RoleVO_;
 public class RoleUtils {
     @Autowired
     private PluginRegistry pluginRgty;
+    @Autowired
+    private RBACPolicyCache policyCache;
+
     public void deleteRole(String uuid) {
         for(DeleteRoleExtensionPoint ext : pluginRgty.getExtensionList(DeleteRoleExtensionPoint.class)) {
             ext.beforeDeleteRole(uuid);
@@ -24,5 +27,7 @@ public class RoleUtils {
 
         SQL.New(RoleVO.class).eq(RoleVO_.uuid, uuid).hardDelete();
         SQL.New(RolePolicyStatementVO.class).eq(RolePolicyStatementVO_.roleUuid, uuid).hardDelete();
+        // bulk deletion fires no entity events
+        policyCache.policiesChanged();
     }
 }
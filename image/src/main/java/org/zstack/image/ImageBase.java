@@ -39,6 +39,7 @@ import org.zstack.header.storage.backup.*;
 import org.zstack.header.vm.DetachIsoFromVmInstanceMsg;
 import org.zstack.header.vm.VmInstanceConstant;
 import org.zstack.header.volume.VolumeType;
+import org.zstack.identity.AccountResourceIndex;
 import org.zstack.tag.SystemTagCreator;
 import org.zstack.tag.TagManager;
 import org.zstack.utils.CollectionUtils;
@@ -81,6 +82,8 @@ public class ImageBase implements Image {
     private PluginRegistry pluginRgty;
     @Autowired
     private TagManager tagMgr;
+    @Autowired
+    private AccountResourceIndex resourceIndex;
 
     protected ImageVO self;
 
@@ -303,7 +306,11 @@ public class ImageBase implements Image {
                         if (count == 0) {
                             // the image is expunged on all backup storage
                             sql(ImageVO.class).eq(ImageVO_.uuid, msg.getImageUuid()).delete();
+                            List<String> sharedTypes = q(SharedResourceVO.class).select(SharedResourceVO_.resourceType)
+                                    .eq(SharedResourceVO_.resourceUuid, msg.getImageUuid()).listValues();
                             sql(SharedResourceVO.class).eq(SharedResourceVO_.resourceUuid, msg.getImageUuid()).delete();
+                            // bulk deletion fires no entity events
+                            new HashSet<>(sharedTypes).forEach(resourceIndex::resourceChanged);
 
                             logger.debug(String.format("the image[uuid:%s, name:%s] has been expunged on all backup storage, remove it from database",
                                     self.getUuid(), self.getName()));
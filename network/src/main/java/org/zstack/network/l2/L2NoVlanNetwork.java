@@ -34,6 +34,7 @@ import org.zstack.header.message.APIMessage;
 import org.zstack.header.message.Message;
 import org.zstack.header.message.MessageReply;
 import org.zstack.header.network.l2.*;
+import org.zstack.identity.AccountResourceIndex;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 
@@ -60,6 +61,8 @@ public class L2NoVlanNetwork implements L2Network {
     protected ErrorFacade errf;
     @Autowired
     protected ThreadFacade thdf;
+    @Autowired
+    protected AccountResourceIndex resourceIndex;
 
     protected L2NetworkVO self;
 
@@ -559,7 +562,11 @@ public class L2NoVlanNetwork implements L2Network {
             @Override
             public void handle(Map data) {
                 casf.asyncCascadeFull(CascadeConstant.DELETION_CLEANUP_CODE, issuer, ctx, new NopeCompletion());
+                List<String> sharedTypes = Q.New(SharedResourceVO.class).select(SharedResourceVO_.resourceType)
+                        .eq(SharedResourceVO_.resourceUuid, msg.getL2NetworkUuid()).listValues();
                 SQL.New(SharedResourceVO.class).eq(SharedResourceVO_.resourceUuid, msg.getL2NetworkUuid()).delete();
+                // bulk deletion fires no entity events
+                new HashSet<>(sharedTypes).forEach(resourceIndex::resourceChanged);
                 bus.publish(evt);
             }
         }).error(new FlowErrorHandler(msg) {
@@ -33,6 +33,17 @@ public abstract class AbstractIpAllocatorStrategy implements IpAllocatorStrategy
     protected ErrorFacade errf;
     @Autowired
     private PluginRegistry pluginRgty;
+    @Autowired
+    protected IpRangeBitmapCache ipBitmaps;
+
+    protected UsedIpInventory reserveIp(IpRangeVO ipr, String ip, boolean allowDuplicatedAddress) {
+        UsedIpInventory inv = l3NwMgr.reserveIp(ipr, ip, allowDuplicatedAddress);
+        if (inv == null) {
+            // used by a concurrent allocation or another node, don't offer it again
+            ipBitmaps.occupy(ipr.getUuid(), ip);
+        }
+        return inv;
+    }
 
     protected UsedIpInventory allocateRequiredIp(IpAllocateMessage msg) {
         List<IpRangeVO> iprs;
@@ -59,6 +59,16 @@ public class FirstAvailableIpv6AllocatorStrategy extends AbstractIpAllocatorStra
             IpRangeVO tr = null;
             
             for (IpRangeVO r : ranges) {
+                if (ipBitmaps.isEnabled(r)) {
+                    ip = ipBitmaps.allocate(r, excludeIp, false);
+                    tr = r;
+                    if (ip != null) {
+                        break;
+                    }
+
+                    continue;
+                }
+
                 if (l3NwMgr.isIpRangeFull(r)) {
                     logger.debug(String.format("Ip range[uuid:%s, name: %s] is exhausted, try next one", r.getUuid(), r.getName()));
                     continue;
@@ -76,7 +86,7 @@ public class FirstAvailableIpv6AllocatorStrategy extends AbstractIpAllocatorStra
                 return null;
             }
             
-            UsedIpInventory inv = l3NwMgr.reserveIp(tr, ip, msg.isDuplicatedIpAllowed());
+            UsedIpInventory inv = reserveIp(tr, ip, msg.isDuplicatedIpAllowed());
             if (inv != null) {
                 return inv;
             }
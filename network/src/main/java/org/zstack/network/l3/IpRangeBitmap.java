@@ -0,0 +1,170 @@
+package org.zstack.network.l3;
+
+import org.zstack.header.network.l3.IpRangeVO;
+import org.zstack.utils.network.IPv6Constants;
+import org.zstack.utils.network.IPv6NetworkUtils;
+import org.zstack.utils.network.NetworkUtils;
+
+import java.math.BigInteger;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * used IPs of an ip range, bit n stands for the start ip + n.
+ *
+ * finding a free IP is BitSet.nextClearBit(), which skips 64 used IPs per word,
+ * a full /16 range costs 1024 word reads.
+ */
+class IpRangeBitmap {
+    // as RandomIpv6AllocatorStrategy, a stateful dhcp range with 2^23 addresses is big enough,
+    // IPv6 ranges are capped to it. IPv4 ranges larger than it get no bitmap, see fits()
+    static final int MAX_SIZE = 1 << 23;
+
+    private final String startIp;
+    private final String endIp;
+    private final boolean ipv4;
+    private final long ipv4Start;
+    private final BigInteger ipv6Start;
+    private final int size;
+    private final BitSet used = new BitSet();
+    // offset -> number of UsedIpVO more than one of the same IP, when duplicated addresses are allowed
+    private final Map<Integer, Integer> duplicates = new HashMap<>();
+    // UsedIpVO marked used and not freed, compared with the database to find deleted ones
+    private long count;
+
+    IpRangeBitmap(IpRangeVO vo) {
+        startIp = vo.getStartIp();
+        endIp = vo.getEndIp();
+        ipv4 = vo.getIpVersion() == IPv6Constants.IPv4;
+
+        if (ipv4) {
+            ipv4Start = NetworkUtils.ipv4StringToLong(startIp);
+            ipv6Start = null;
+            size = (int) (NetworkUtils.ipv4StringToLong(endIp) - ipv4Start + 1);
+        } else {
+            ipv4Start = 0;
+            ipv6Start = IPv6NetworkUtils.ipv6AddressToBigInteger(startIp);
+            BigInteger total = IPv6NetworkUtils.ipv6AddressToBigInteger(endIp).subtract(ipv6Start).add(BigInteger.ONE);
+            size = total.compareTo(BigInteger.valueOf(MAX_SIZE)) > 0 ? MAX_SIZE : total.intValue();
+        }
+    }
+
+    /**
+     * @return false for an IPv4 range larger than MAX_SIZE, IPs of which are allocated from database
+     */
+    static boolean fits(IpRangeVO vo) {
+        if (vo.getIpVersion() != IPv6Constants.IPv4) {
+            return true;
+        }
+
+        return NetworkUtils.ipv4StringToLong(vo.getEndIp()) - NetworkUtils.ipv4StringToLong(vo.getStartIp()) + 1 <= MAX_SIZE;
+    }
+
+    boolean isOf(IpRangeVO vo) {
+        return startIp.equals(vo.getStartIp()) && endIp.equals(vo.getEndIp());
+    }
+
+    int size() {
+        return size;
+    }
+
+    synchronized long count() {
+        return count;
+    }
+
+    private int offsetOf(String ip) {
+        long offset;
+        if (ipv4) {
+            if (!NetworkUtils.isIpv4Address(ip)) {
+                return -1;
+            }
+
+            offset = NetworkUtils.ipv4StringToLong(ip) - ipv4Start;
+        } else {
+            if (!IPv6NetworkUtils.isIpv6Address(ip)) {
+                return -1;
+            }
+
+            BigInteger o = IPv6NetworkUtils.ipv6AddressToBigInteger(ip).subtract(ipv6Start);
+            if (o.signum() < 0 || o.compareTo(BigInteger.valueOf(size)) >= 0) {
+                return -1;
+            }
+            offset = o.longValue();
+        }
+
+        return offset < 0 || offset >= size ? -1 : (int) offset;
+    }
+
+    private String ipOf(int offset) {
+        if (ipv4) {
+            return NetworkUtils.longToIpv4String(ipv4Start + offset);
+        }
+
+        return IPv6NetworkUtils.ipv6AddressToString(ipv6Start.add(BigInteger.valueOf(offset)));
+    }
+
+    private int nextFree(int from, int to, int excluded) {
+        int offset = used.nextClearBit(from);
+        if (offset == excluded) {
+            offset = used.nextClearBit(offset + 1);
+        }
+
+        return offset < to ? offset : -1;
+    }
+
+    /**
+     * @return the first free IP from the offset, wrapping around to the start ip,
+     * null if the range is full
+     */
+    synchronized String allocate(int from, String excludedIp) {
+        int excluded = excludedIp == null ? -1 : offsetOf(excludedIp);
+        int offset = nextFree(from, size, excluded);
+        if (offset < 0 && from > 0) {
+            offset = nextFree(0, from, excluded);
+        }
+
+        return offset < 0 ? null : ipOf(offset);
+    }
+
+    synchronized void markUsed(String ip) {
+        count++;
+        int offset = offsetOf(ip);
+        if (offset < 0) {
+            return;
+        }
+
+        if (used.get(offset)) {
+            duplicates.merge(offset, 1, Integer::sum);
+        } else {
+            used.set(offset);
+        }
+    }
+
+    /**
+     * marks an IP found used by a failed reservation, which is not counted
+     */
+    synchronized void occupy(String ip) {
+        int offset = offsetOf(ip);
+        if (offset >= 0) {
+            used.set(offset);
+        }
+    }
+
+    synchronized void markFree(String ip) {
+        count--;
+        int offset = offsetOf(ip);
+        if (offset < 0) {
+            return;
+        }
+
+        Integer dup = duplicates.get(offset);
+        if (dup == null) {
+            used.clear(offset);
+        } else if (dup == 1) {
+            duplicates.remove(offset);
+        } else {
+            duplicates.put(offset, dup - 1);
+        }
+    }
+}
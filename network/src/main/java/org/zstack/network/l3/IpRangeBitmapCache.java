@@ -0,0 +1,212 @@
+package org.zstack.network.l3;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.zstack.core.db.*;
+import org.zstack.header.Component;
+import org.zstack.header.managementnode.ManagementNodeChangeListener;
+import org.zstack.header.managementnode.ManagementNodeInventory;
+import org.zstack.header.network.l3.IpRangeVO;
+import org.zstack.header.network.l3.UsedIpVO;
+import org.zstack.header.network.l3.UsedIpVO_;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import javax.persistence.Tuple;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.zstack.utils.CollectionDSL.list;
+
+/**
+ * bitmaps of used IPs of ip ranges, for allocating IPs without scanning UsedIpVO,
+ * enabled by the global config ipAllocator.bitmap.
+ *
+ * IPs of a L3 network are allocated on the management node owning it, a bitmap is
+ * built from UsedIpVO when a range is first allocated from on the node, and all are
+ * dropped when a node joins or leaves as the ownership may move. UsedIpVO entity events
+ * and ReturnIpMsg keep bitmaps updated, UsedIpVO deleted in bulk drop the bitmaps of
+ * ranges whose used IPs no longer match the database. A bitmap is rebuilt after
+ * ipAllocator.bitmap.rebuildInterval in case of IPs changed on other nodes.
+ *
+ * a free bit is only a candidate, the unique key of UsedIpVO still decides. When
+ * reserving a candidate fails, strategies mark it used by occupy() and try again.
+ */
+public class IpRangeBitmapCache implements Component, ManagementNodeChangeListener, HardDeleteEntityExtensionPoint {
+    private static final CLogger logger = Utils.getLogger(IpRangeBitmapCache.class);
+
+    @Autowired
+    private DatabaseFacade dbf;
+
+    private volatile Cache<String, IpRangeBitmap> bitmaps;
+
+    private static Cache<String, IpRangeBitmap> newCache() {
+        return CacheBuilder.newBuilder()
+                .expireAfterWrite(L3NetworkGlobalConfig.IP_ALLOCATOR_BITMAP_REBUILD_INTERVAL.value(Long.class), TimeUnit.SECONDS)
+                .build();
+    }
+
+    public boolean isEnabled() {
+        return L3NetworkGlobalConfig.IP_ALLOCATOR_BITMAP.value(Boolean.class);
+    }
+
+    /**
+     * @return whether IPs of the range are allocated from its bitmap, IPv4 ranges
+     * too large for a bitmap are allocated from database as if bitmaps were disabled
+     */
+    public boolean isEnabled(IpRangeVO vo) {
+        return isEnabled() && IpRangeBitmap.fits(vo);
+    }
+
+    private IpRangeBitmap build(IpRangeVO vo) {
+        IpRangeBitmap bitmap = new IpRangeBitmap(vo);
+        List<String> ips = Q.New(UsedIpVO.class).select(UsedIpVO_.ip).eq(UsedIpVO_.ipRangeUuid, vo.getUuid()).listValues();
+        ips.forEach(bitmap::markUsed);
+        logger.debug(String.format("built the bitmap of ip range[uuid:%s] with %s used IPs", vo.getUuid(), ips.size()));
+        return bitmap;
+    }
+
+    private IpRangeBitmap get(IpRangeVO vo) {
+        IpRangeBitmap bitmap = bitmaps.getIfPresent(vo.getUuid());
+        if (bitmap == null || !bitmap.isOf(vo)) {
+            bitmap = build(vo);
+            bitmaps.put(vo.getUuid(), bitmap);
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * @param random start from a random IP, otherwise the start ip of the range
+     * @return a free IP of the range, null if the range is full
+     */
+    public String allocate(IpRangeVO vo, String excludedIp, boolean random) {
+        IpRangeBitmap bitmap = get(vo);
+        int from = random ? ThreadLocalRandom.current().nextInt(bitmap.size()) : 0;
+        return bitmap.allocate(from, excludedIp);
+    }
+
+    public void occupy(String ipRangeUuid, String ip) {
+        IpRangeBitmap bitmap = bitmaps.getIfPresent(ipRangeUuid);
+        if (bitmap != null) {
+            bitmap.occupy(ip);
+        }
+    }
+
+    public void markUsed(String ipRangeUuid, String ip) {
+        IpRangeBitmap bitmap = ipRangeUuid == null ? null : bitmaps.getIfPresent(ipRangeUuid);
+        if (bitmap != null) {
+            bitmap.markUsed(ip);
+        }
+    }
+
+    public void markFree(String ipRangeUuid, String ip) {
+        IpRangeBitmap bitmap = ipRangeUuid == null ? null : bitmaps.getIfPresent(ipRangeUuid);
+        if (bitmap != null) {
+            bitmap.markFree(ip);
+        }
+    }
+
+    public void invalidateAll() {
+        if (bitmaps != null) {
+            bitmaps.invalidateAll();
+        }
+    }
+
+    private void invalidateChangedRanges() {
+        Cache<String, IpRangeBitmap> cache = bitmaps;
+        if (cache == null || cache.size() == 0) {
+            return;
+        }
+
+        Map<String, IpRangeBitmap> cached = new HashMap<>(cache.asMap());
+        Map<String, Long> counts = new HashMap<>();
+        List<Tuple> ts = SQL.New("select ip.ipRangeUuid, count(ip) from UsedIpVO ip" +
+                " where ip.ipRangeUuid in (:ipRangeUuids) group by ip.ipRangeUuid", Tuple.class)
+                .param("ipRangeUuids", cached.keySet())
+                .list();
+        ts.forEach(t -> counts.put(t.get(0, String.class), t.get(1, Long.class)));
+
+        // IPs allocated meanwhile may not be committed yet, which only costs a rebuild
+        cached.forEach((ipRangeUuid, bitmap) -> {
+            if (bitmap.count() != counts.getOrDefault(ipRangeUuid, 0L)) {
+                cache.asMap().remove(ipRangeUuid, bitmap);
+            }
+        });
+    }
+
+    private void afterTransaction(Runnable runnable) {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            runnable.run();
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                runnable.run();
+            }
+        });
+    }
+
+    @Override
+    public boolean start() {
+        bitmaps = newCache();
+        dbf.installEntityLifeCycleCallback(UsedIpVO.class, EntityEvent.POST_PERSIST, (evt, o) -> {
+            UsedIpVO vo = (UsedIpVO) o;
+            markUsed(vo.getIpRangeUuid(), vo.getIp());
+        });
+        dbf.installEntityLifeCycleCallback(UsedIpVO.class, EntityEvent.POST_REMOVE, (evt, o) -> {
+            UsedIpVO vo = (UsedIpVO) o;
+            markFree(vo.getIpRangeUuid(), vo.getIp());
+        });
+
+        L3NetworkGlobalConfig.IP_ALLOCATOR_BITMAP.installUpdateExtension((oldConfig, newConfig) -> bitmaps = newCache());
+        L3NetworkGlobalConfig.IP_ALLOCATOR_BITMAP_REBUILD_INTERVAL.installUpdateExtension((oldConfig, newConfig) -> bitmaps = newCache());
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        return true;
+    }
+
+    @Override
+    public void nodeJoin(ManagementNodeInventory inv) {
+        invalidateAll();
+    }
+
+    @Override
+    public void nodeLeft(ManagementNodeInventory inv) {
+        invalidateAll();
+    }
+
+    @Override
+    public void iAmDead(ManagementNodeInventory inv) {
+        invalidateAll();
+    }
+
+    @Override
+    public void iJoin(ManagementNodeInventory inv) {
+        invalidateAll();
+    }
+
+    @Override
+    public List<Class> getEntityClassForHardDeleteEntityExtension() {
+        return list(UsedIpVO.class);
+    }
+
+    @Override
+    public void postHardDelete(Collection entityIds, Class entityClass) {
+        // only uuids of deleted UsedIpVO are known, find the ranges they belonged to
+        // by counting used IPs once the deletion is committed
+        afterTransaction(this::invalidateChangedRanges);
+    }
+}
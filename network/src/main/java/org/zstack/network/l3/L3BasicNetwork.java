@@ -74,6 +74,8 @@ public class L3BasicNetwork implements L3Network {
     protected PluginRegistry pluginRgty;
     @Autowired
     private ThreadFacade thdf;
+    @Autowired
+    private IpRangeBitmapCache ipBitmaps;
 
     private L3NetworkVO self;
 
@@ -236,6 +238,9 @@ public class L3BasicNetwork implements L3Network {
 
     private void handle(ReturnIpMsg msg) {
         ReturnIpReply reply = new ReturnIpReply();
+        // the bulk delete below fires no entity event to update the ip bitmap
+        Tuple ip = !ipBitmaps.isEnabled() ? null : Q.New(UsedIpVO.class).select(UsedIpVO_.ipRangeUuid, UsedIpVO_.ip)
+                .eq(UsedIpVO_.uuid, msg.getUsedIpUuid()).findTuple();
         new Retry<Void>() {
             String __name__ = String.format("return-ip-%s-for-l3-%s", msg.getUsedIpUuid(), msg.getL3NetworkUuid());
 
@@ -246,6 +251,9 @@ public class L3BasicNetwork implements L3Network {
                 return null;
             }
         }.run();
+        if (ip != null) {
+            ipBitmaps.markFree(ip.get(0, String.class), ip.get(1, String.class));
+        }
         logger.debug(String.format("Successfully released used ip[%s]", msg.getUsedIpUuid()));
         bus.reply(msg, reply);
     }
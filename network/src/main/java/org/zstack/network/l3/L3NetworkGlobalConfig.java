@@ -0,0 +1,17 @@
+package org.zstack.network.l3;
+
+import org.zstack.core.config.GlobalConfig;
+import org.zstack.core.config.GlobalConfigDefinition;
+import org.zstack.core.config.GlobalConfigValidation;
+
+/**
+ */
+@GlobalConfigDefinition
+public class L3NetworkGlobalConfig {
+    public static final String CATEGORY = "l3Network";
+
+    @GlobalConfigValidation
+    public static GlobalConfig IP_ALLOCATOR_BITMAP = new GlobalConfig(CATEGORY, "ipAllocator.bitmap");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig IP_ALLOCATOR_BITMAP_REBUILD_INTERVAL = new GlobalConfig(CATEGORY, "ipAllocator.bitmap.rebuildInterval");
+}
@@ -49,7 +49,7 @@ public class RandomIpAllocatorStrategy extends AbstractIpAllocatorStrategy {
             IpRangeVO tr = null;
 
             for (IpRangeVO r : ranges) {
-                ip = allocateIp(r, msg.getExcludedIp());
+                ip = ipBitmaps.isEnabled(r) ? ipBitmaps.allocate(r, msg.getExcludedIp(), true) : allocateIp(r, msg.getExcludedIp());
                 tr = r;
                 if (ip != null) {
                     break;
@@ -61,7 +61,7 @@ public class RandomIpAllocatorStrategy extends AbstractIpAllocatorStrategy {
                 return null;
             }
 
-            UsedIpInventory inv = l3NwMgr.reserveIp(tr, ip, msg.isDuplicatedIpAllowed());
+            UsedIpInventory inv = reserveIp(tr, ip, msg.isDuplicatedIpAllowed());
             if (inv != null) {
                 return inv;
             }
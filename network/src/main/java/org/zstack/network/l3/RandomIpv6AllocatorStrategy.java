@@ -50,7 +50,7 @@ public class RandomIpv6AllocatorStrategy extends AbstractIpAllocatorStrategy {
             IpRangeVO tr = null;
 
             for (IpRangeVO r : ranges) {
-                ip = allocateIp(r, excludeIp);
+                ip = ipBitmaps.isEnabled(r) ? ipBitmaps.allocate(r, excludeIp, true) : allocateIp(r, excludeIp);
                 tr = r;
                 if (ip != null) {
                     break;
@@ -61,7 +61,7 @@ public class RandomIpv6AllocatorStrategy extends AbstractIpAllocatorStrategy {
                 return null;
             }
 
-            UsedIpInventory inv = l3NwMgr.reserveIp(tr, ip, msg.isDuplicatedIpAllowed());
+            UsedIpInventory inv = reserveIp(tr, ip, msg.isDuplicatedIpAllowed());
             if (inv != null) {
                 return inv;
             }
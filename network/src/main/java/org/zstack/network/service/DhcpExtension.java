@@ -2,7 +2,6 @@ package org.zstack.network.service;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.zstack.core.componentloader.PluginRegistry;
-import org.zstack.core.db.Q;
 import org.zstack.core.db.SimpleQuery;
 import org.zstack.core.db.SimpleQuery.Op;
 import org.zstack.header.Component;
@@ -127,13 +126,13 @@ public class DhcpExtension extends AbstractNetworkServiceExtension implements Co
         return nic.getUsedIps().stream().map(UsedIpInventory::getL3NetworkUuid).distinct().count() == 1;
     }
 
-    private DhcpStruct getDhcpStruct(VmInstanceInventory vm, List<VmInstanceSpec.HostName> hostNames, VmNicVO nic, UsedIpVO ip, boolean isDefaultNic) {
+    private DhcpStruct getDhcpStruct(List<VmInstanceSpec.HostName> hostNames, VmNicVO nic, UsedIpVO ip, boolean isDefaultNic, DhcpStructLookup lookup) {
         String l3Uuid = nic.getL3NetworkUuid();
         if (ip != null) {
             l3Uuid = ip.getL3NetworkUuid();
         }
 
-        L3NetworkInventory l3 = L3NetworkInventory.valueOf(dbf.findByUuid(l3Uuid, L3NetworkVO.class));
+        L3NetworkInventory l3 = lookup.getL3Network(l3Uuid);
         DhcpStruct struct = new DhcpStruct();
         struct.setVmUuid(nic.getVmInstanceUuid());
         String hostname = CollectionUtils.find(hostNames, new Function<String, HostName>() {
@@ -150,13 +149,13 @@ public class DhcpExtension extends AbstractNetworkServiceExtension implements Co
         struct.setL3Network(l3);
         struct.setDefaultL3Network(isDefaultNic);
         struct.setMac(nic.getMac());
-        struct.setMtu(new MtuGetter().getMtu(l3.getUuid()));
+        struct.setMtu(lookup.getMtu(l3.getUuid()));
         struct.setNicType(nic.getType());
 
         return struct;
     }
 
-    private void setDualStackNicOfSingleL3Network(DhcpStruct struct, VmNicVO nic) {
+    private void setDualStackNicOfSingleL3Network(DhcpStruct struct, VmNicVO nic, DhcpStructLookup lookup) {
         struct.setIpVersion(IPv6Constants.DUAL_STACK);
         List<UsedIpVO> sortedIps = nic.getUsedIps().stream().sorted(Comparator.comparingLong(UsedIpVO::getIpVersionl)).collect(Collectors.toList());
         for (UsedIpVO ip : sortedIps) {
@@ -168,8 +167,7 @@ public class DhcpExtension extends AbstractNetworkServiceExtension implements Co
                     struct.setHostname(ip.getIp().replaceAll("\\.", "-"));
                 }
             } else {
-                List<NormalIpRangeVO> iprs = Q.New(NormalIpRangeVO.class).eq(NormalIpRangeVO_.l3NetworkUuid, ip.getL3NetworkUuid())
-                        .eq(NormalIpRangeVO_.ipVersion, ip.getIpVersion()).list();
+                List<NormalIpRangeVO> iprs = lookup.getIpRanges(ip.getL3NetworkUuid(), ip.getIpVersion());
                 if (iprs.get(0).getAddressMode().equals(IPv6Constants.SLAAC)) {
                     continue;
                 }
@@ -183,7 +181,7 @@ public class DhcpExtension extends AbstractNetworkServiceExtension implements Co
         }
     }
 
-    private void setNicDhcp(DhcpStruct struct, UsedIpVO ip) {
+    private void setNicDhcp(DhcpStruct struct, UsedIpVO ip, DhcpStructLookup lookup) {
         if (ip.getIpVersion() == IPv6Constants.IPv4) {
             struct.setGateway(ip.getGateway());
             struct.setIp(ip.getIp());
@@ -192,8 +190,7 @@ public class DhcpExtension extends AbstractNetworkServiceExtension implements Co
                 struct.setHostname(ip.getIp().replaceAll("\\.", "-"));
             }
         } else {
-            List<NormalIpRangeVO> iprs = Q.New(NormalIpRangeVO.class).eq(NormalIpRangeVO_.l3NetworkUuid, ip.getL3NetworkUuid())
-                    .eq(NormalIpRangeVO_.ipVersion, IPv6Constants.IPv6).list();
+            List<NormalIpRangeVO> iprs = lookup.getIpRanges(ip.getL3NetworkUuid(), IPv6Constants.IPv6);
             struct.setGateway6(ip.getGateway());
             struct.setIp6(ip.getIp());
             struct.setRaMode(iprs.get(0).getAddressMode());
@@ -204,28 +201,36 @@ public class DhcpExtension extends AbstractNetworkServiceExtension implements Co
     }
 
     public List<DhcpStruct> makeDhcpStruct(VmInstanceInventory vm, List<VmInstanceSpec.HostName> hostNames, List<VmNicVO> nics) {
+        return makeDhcpStruct(vm.getDefaultL3NetworkUuid(), hostNames, nics, new DhcpStructLookup());
+    }
+
+    /**
+     * @param lookup shared by VMs to load every L3 network and IP range once
+     */
+    public List<DhcpStruct> makeDhcpStruct(String defaultL3NetworkUuid, List<VmInstanceSpec.HostName> hostNames, List<VmNicVO> nics, DhcpStructLookup lookup) {
         List<DhcpStruct> res = new ArrayList<>();
 
-        List<VmNicVO> defaultNics = nics.stream().filter(nic -> nic.getL3NetworkUuid().equals(vm.getDefaultL3NetworkUuid())).collect(Collectors.toList());
+        List<VmNicVO> defaultNics = nics.stream().filter(nic -> nic.getL3NetworkUuid().equals(defaultL3NetworkUuid)).collect(Collectors.toList());
+        VmNicVO defaultNic = VmNicVO.findTheEarliestOne(defaultNics);
         for (VmNicVO nic : nics) {
-            boolean isDefaultNic = nic.equals(VmNicVO.findTheEarliestOne(defaultNics));
+            boolean isDefaultNic = nic.equals(defaultNic);
             if (isDualStackNicInSingleL3Network(VmNicInventory.valueOf(nic))) {
-                DhcpStruct struct = getDhcpStruct(vm, hostNames, nic, null, isDefaultNic);
-                setDualStackNicOfSingleL3Network(struct, nic);
+                DhcpStruct struct = getDhcpStruct(hostNames, nic, null, isDefaultNic, lookup);
+                setDualStackNicOfSingleL3Network(struct, nic, lookup);
                 res.add(struct);
                 continue;
             }
 
             for (UsedIpVO ip : nic.getUsedIps()) {
-                NormalIpRangeVO ipr = dbf.findByUuid(ip.getIpRangeUuid(), NormalIpRangeVO.class);
+                NormalIpRangeVO ipr = lookup.getIpRange(ip.getIpRangeUuid());
                 if (ipr.getIpVersion() == IPv6Constants.IPv6 &&
                         (ipr.getAddressMode().equals(IPv6Constants.SLAAC))) {
                     continue;
                 }
 
-                DhcpStruct struct = getDhcpStruct(vm, hostNames, nic, ip, isDefaultNic);
+                DhcpStruct struct = getDhcpStruct(hostNames, nic, ip, isDefaultNic, lookup);
                 struct.setIpVersion(ip.getIpVersion());
-                setNicDhcp(struct, ip);
+                setNicDhcp(struct, ip, lookup);
                 res.add(struct);
             }
         }
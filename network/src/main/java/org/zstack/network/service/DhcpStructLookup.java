@@ -0,0 +1,71 @@
+package org.zstack.network.service;
+
+import org.zstack.core.db.Q;
+import org.zstack.header.network.l3.*;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * L3 networks, MTUs and IP ranges read by DhcpExtension.makeDhcpStruct, each is loaded once
+ * for all NICs the lookup is used for. preload() loads L3 networks and IP ranges of many
+ * NICs in bulk, e.g. for all VMs on a reconnecting host.
+ */
+public class DhcpStructLookup {
+    private final Map<String, L3NetworkInventory> l3s = new HashMap<>();
+    private final Map<String, Integer> mtus = new HashMap<>();
+    private final Map<String, NormalIpRangeVO> ipRanges = new HashMap<>();
+    // l3 uuid -> ip version -> ip ranges
+    private final Map<String, Map<Integer, List<NormalIpRangeVO>>> l3IpRanges = new HashMap<>();
+
+    public void preload(Collection<String> l3Uuids) {
+        List<String> uuids = l3Uuids.stream().filter(uuid -> !l3s.containsKey(uuid)).distinct().collect(Collectors.toList());
+        if (uuids.isEmpty()) {
+            return;
+        }
+
+        L3NetworkInventory.valueOf(Q.New(L3NetworkVO.class).in(L3NetworkVO_.uuid, uuids).list())
+                .forEach(l3 -> l3s.put(l3.getUuid(), l3));
+
+        List<NormalIpRangeVO> iprs = Q.New(NormalIpRangeVO.class).in(NormalIpRangeVO_.l3NetworkUuid, uuids).list();
+        uuids.forEach(uuid -> l3IpRanges.put(uuid, new HashMap<>()));
+        iprs.forEach(this::addIpRange);
+    }
+
+    private void addIpRange(NormalIpRangeVO ipr) {
+        ipRanges.put(ipr.getUuid(), ipr);
+        l3IpRanges.computeIfAbsent(ipr.getL3NetworkUuid(), k -> new HashMap<>())
+                .computeIfAbsent(ipr.getIpVersion(), k -> new ArrayList<>()).add(ipr);
+    }
+
+    public L3NetworkInventory getL3Network(String l3Uuid) {
+        return l3s.computeIfAbsent(l3Uuid, uuid -> L3NetworkInventory.valueOf(Q.New(L3NetworkVO.class).eq(L3NetworkVO_.uuid, uuid).find()));
+    }
+
+    public Integer getMtu(String l3Uuid) {
+        return mtus.computeIfAbsent(l3Uuid, uuid -> new MtuGetter().getMtu(uuid));
+    }
+
+    public NormalIpRangeVO getIpRange(String ipRangeUuid) {
+        NormalIpRangeVO ipr = ipRanges.get(ipRangeUuid);
+        if (ipr == null) {
+            ipr = Q.New(NormalIpRangeVO.class).eq(NormalIpRangeVO_.uuid, ipRangeUuid).find();
+            if (ipr != null) {
+                ipRanges.put(ipRangeUuid, ipr);
+            }
+        }
+
+        return ipr;
+    }
+
+    public List<NormalIpRangeVO> getIpRanges(String l3Uuid, int ipVersion) {
+        Map<Integer, List<NormalIpRangeVO>> iprs = l3IpRanges.get(l3Uuid);
+        if (iprs == null) {
+            iprs = new HashMap<>();
+            l3IpRanges.put(l3Uuid, iprs);
+            Q.New(NormalIpRangeVO.class).eq(NormalIpRangeVO_.l3NetworkUuid, l3Uuid).list().forEach(this::addIpRange);
+        }
+
+        return iprs.getOrDefault(ipVersion, Collections.emptyList());
+    }
+}
@@ -47,5 +47,13 @@ public class CephGlobalConfig {
     public static GlobalConfig PRIMARY_STORAGE_MON_MAXIMUM_PING_FAILURE = new GlobalConfig(CATEGORY, "primaryStorage.mon.ping.maxFailure");
     @GlobalConfigValidation(numberGreaterThan = -1)
     public static GlobalConfig SLEEP_TIME_AFTER_PING_FAILURE = new GlobalConfig(CATEGORY, "ping.sleepPeriodAfterFailure");
+    @GlobalConfigValidation
+    public static GlobalConfig MON_LATENCY_AWARE_SELECTION = new GlobalConfig(CATEGORY, "mon.selection.latencyAware");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig MON_CIRCUIT_BREAKER_FAILURE_THRESHOLD = new GlobalConfig(CATEGORY, "mon.circuitBreaker.failureThreshold");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig MON_CIRCUIT_BREAKER_OPEN_INTERVAL = new GlobalConfig(CATEGORY, "mon.circuitBreaker.openInterval");
+    @GlobalConfigValidation(numberGreaterThan = -1)
+    public static GlobalConfig MON_HEDGE_DELAY = new GlobalConfig(CATEGORY, "mon.hedge.delay");
 
 }
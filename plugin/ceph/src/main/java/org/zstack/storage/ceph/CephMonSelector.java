@@ -0,0 +1,237 @@
+package org.zstack.storage.ceph;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.EntityEvent;
+import org.zstack.core.jmx.JmxFacade;
+import org.zstack.header.Component;
+import org.zstack.storage.ceph.backup.CephBackupStorageMonVO;
+import org.zstack.storage.ceph.primary.CephPrimaryStorageMonVO;
+import org.zstack.utils.CollectionUtils;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * orders mons of ceph primary storage and backup storage for HttpCaller.
+ *
+ * error rate of http calls and latency of read-only calls are tracked per mon as
+ * exponentially weighted moving averages, other calls, e.g. cloning or copying an image,
+ * take a time depending on the data and aren't sampled. When ceph.mon.selection.latencyAware
+ * is true, mons are tried in the order of their scores, and a mon failing
+ * mon.circuitBreaker.failureThreshold times in a row is tried at last in the next
+ * mon.circuitBreaker.openInterval seconds, after that it's tried by its score again and
+ * one more failure puts it back to the end.
+ *
+ * the averages of a mon decay by half every SCORE_HALF_LIFE it isn't called, a mon once
+ * slow or failing is not tried at last forever, but probed again when its score drops
+ * below the others.
+ */
+public class CephMonSelector implements Component, CephMonSelectorMXBean {
+    private static final CLogger logger = Utils.getLogger(CephMonSelector.class);
+
+    // weight of the latest sample in the moving averages
+    private static final double ALPHA = 0.2;
+    // a mon always failing scores as it's ERROR_PENALTY times slower
+    private static final double ERROR_PENALTY = 10;
+    private static final long SCORE_HALF_LIFE = TimeUnit.MINUTES.toMillis(1);
+
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private JmxFacade jmxf;
+
+    private static class MonHealth {
+        final String monUuid;
+        volatile String hostname;
+        long calls;
+        long failures;
+        long latencySamples;
+        double latency;
+        double errorRate;
+        int continuousFailures;
+        long openUntil;
+        long lastCallTime;
+
+        MonHealth(String monUuid) {
+            this.monUuid = monUuid;
+        }
+
+        private double decay(long now) {
+            return calls == 0 ? 0 : Math.pow(0.5, (double) Math.max(0, now - lastCallTime) / SCORE_HALF_LIFE);
+        }
+
+        synchronized void record(long now, long latencyMillis, boolean sampleLatency, boolean failure) {
+            // the longer the mon isn't called, the less the averages weigh
+            double keep = (1 - ALPHA) * decay(now);
+            if (sampleLatency) {
+                latency = latencySamples == 0 ? latencyMillis : (1 - keep) * latencyMillis + keep * latency;
+                latencySamples++;
+            }
+            errorRate = (1 - keep) * (failure ? 1 : 0) + keep * errorRate;
+            calls++;
+            lastCallTime = now;
+
+            if (!failure) {
+                continuousFailures = 0;
+                return;
+            }
+
+            failures++;
+            continuousFailures++;
+            if (continuousFailures >= CephGlobalConfig.MON_CIRCUIT_BREAKER_FAILURE_THRESHOLD.value(Integer.class)) {
+                openUntil = now + TimeUnit.SECONDS.toMillis(CephGlobalConfig.MON_CIRCUIT_BREAKER_OPEN_INTERVAL.value(Long.class));
+                logger.warn(String.format("ceph mon[uuid:%s, hostname:%s] failed %s times in a row, try it at last until %s",
+                        monUuid, hostname, continuousFailures, new Date(openUntil)));
+            }
+        }
+
+        synchronized boolean isOpen(long now) {
+            return openUntil > now;
+        }
+
+        // mons never called score 1 to be probed first, so do mons not called for long
+        synchronized double score(long now) {
+            double d = decay(now);
+            return (1 + latency * d) * (1 + ERROR_PENALTY * errorRate * d);
+        }
+
+        synchronized CephMonStats toStats(long now) {
+            double d = decay(now);
+            CephMonStats stats = new CephMonStats();
+            stats.setMonUuid(monUuid);
+            stats.setHostname(hostname);
+            stats.setCalls(calls);
+            stats.setFailures(failures);
+            stats.setLatency(latency * d);
+            stats.setErrorRate(errorRate * d);
+            stats.setContinuousFailures(continuousFailures);
+            stats.setCircuitOpen(openUntil > now);
+            return stats;
+        }
+    }
+
+    private final Map<String, MonHealth> healths = new ConcurrentHashMap<>();
+    private final LongAdder hedgedCalls = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+
+    private MonHealth health(String monUuid) {
+        return healths.computeIfAbsent(monUuid, MonHealth::new);
+    }
+
+    public boolean isLatencyAware() {
+        return CephGlobalConfig.MON_LATENCY_AWARE_SELECTION.value(Boolean.class);
+    }
+
+    /**
+     * @return milliseconds to wait before a read-only call is also sent to the next mon, 0 if never
+     */
+    public long getHedgeDelay() {
+        return CephGlobalConfig.MON_HEDGE_DELAY.value(Long.class);
+    }
+
+    /**
+     * @param randomFactor if not null, mons are kept in the order seeded by it to make the same
+     *                     mon receive the calls every time, only mons with circuit opened are moved
+     *                     to the end
+     * @return the mons in the order to try
+     */
+    public <T> List<T> order(List<T> mons, Function<T, String> getMonUuid, String randomFactor) {
+        return order(mons, getMonUuid, randomFactor, System.currentTimeMillis());
+    }
+
+    <T> List<T> order(List<T> mons, Function<T, String> getMonUuid, String randomFactor, long now) {
+        List<T> ret = new ArrayList<>(mons);
+        if (randomFactor != null) {
+            CollectionUtils.shuffleByKeySeed(ret, randomFactor, getMonUuid::apply);
+        } else {
+            Collections.shuffle(ret);
+        }
+
+        if (!isLatencyAware() || ret.size() < 2) {
+            return ret;
+        }
+
+        Map<String, MonHealth> hs = new HashMap<>();
+        ret.forEach(it -> hs.put(getMonUuid.apply(it), health(getMonUuid.apply(it))));
+
+        // stable sort keeps the shuffled order between mons with the same score
+        Comparator<T> byOpen = Comparator.comparing(it -> hs.get(getMonUuid.apply(it)).isOpen(now));
+        ret.sort(randomFactor != null ? byOpen : byOpen.thenComparingDouble(it -> hs.get(getMonUuid.apply(it)).score(now)));
+        return ret;
+    }
+
+    /**
+     * records an http call sent to the mon
+     *
+     * @param sampleLatency true if the call is read-only and takes a bounded time, the latency of
+     *                      others depends on the data they handle more than the mon
+     * @param failure true if the mon didn't answer the call, errors returned by the mon are not failures
+     */
+    public void record(String monUuid, String hostname, long latencyMillis, boolean sampleLatency, boolean failure) {
+        record(monUuid, hostname, latencyMillis, sampleLatency, failure, System.currentTimeMillis());
+    }
+
+    void record(String monUuid, String hostname, long latencyMillis, boolean sampleLatency, boolean failure, long now) {
+        MonHealth h = health(monUuid);
+        h.hostname = hostname;
+        h.record(now, latencyMillis, sampleLatency, failure);
+    }
+
+    public void hedgeSent() {
+        hedgedCalls.increment();
+    }
+
+    /**
+     * a hedged call is answered by the mon it's hedged to first
+     */
+    public void hedgeWon() {
+        hedgeWins.increment();
+    }
+
+    @Override
+    public List<CephMonStats> getMonStats() {
+        long now = System.currentTimeMillis();
+        List<CephMonStats> ret = new ArrayList<>();
+        healths.values().forEach(h -> ret.add(h.toStats(now)));
+        return ret;
+    }
+
+    @Override
+    public long getHedgedCalls() {
+        return hedgedCalls.sum();
+    }
+
+    @Override
+    public long getHedgeWins() {
+        return hedgeWins.sum();
+    }
+
+    @Override
+    public void reset() {
+        healths.clear();
+        hedgedCalls.reset();
+        hedgeWins.reset();
+    }
+
+    @Override
+    public boolean start() {
+        dbf.installEntityLifeCycleCallback(CephPrimaryStorageMonVO.class, EntityEvent.POST_REMOVE,
+                (evt, o) -> healths.remove(((CephPrimaryStorageMonVO) o).getUuid()));
+        dbf.installEntityLifeCycleCallback(CephBackupStorageMonVO.class, EntityEvent.POST_REMOVE,
+                (evt, o) -> healths.remove(((CephBackupStorageMonVO) o).getUuid()));
+
+        jmxf.registerBean("CephMonSelector", this);
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        return true;
+    }
+}
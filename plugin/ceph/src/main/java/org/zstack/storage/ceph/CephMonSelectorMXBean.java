@@ -0,0 +1,15 @@
+package org.zstack.storage.ceph;
+
+import java.util.List;
+
+/**
+ */
+public interface CephMonSelectorMXBean {
+    List<CephMonStats> getMonStats();
+
+    long getHedgedCalls();
+
+    long getHedgeWins();
+
+    void reset();
+}
@@ -0,0 +1,80 @@
+package org.zstack.storage.ceph;
+
+/**
+ * health of a ceph mon tracked by CephMonSelector
+ */
+public class CephMonStats {
+    private String monUuid;
+    private String hostname;
+    private long calls;
+    private long failures;
+    // moving average in milliseconds
+    private double latency;
+    private double errorRate;
+    private int continuousFailures;
+    private boolean circuitOpen;
+
+    public String getMonUuid() {
+        return monUuid;
+    }
+
+    public void setMonUuid(String monUuid) {
+        this.monUuid = monUuid;
+    }
+
+    public String getHostname() {
+        return hostname;
+    }
+
+    public void setHostname(String hostname) {
+        this.hostname = hostname;
+    }
+
+    public long getCalls() {
+        return calls;
+    }
+
+    public void setCalls(long calls) {
+        this.calls = calls;
+    }
+
+    public long getFailures() {
+        return failures;
+    }
+
+    public void setFailures(long failures) {
+        this.failures = failures;
+    }
+
+    public double getLatency() {
+        return latency;
+    }
+
+    public void setLatency(double latency) {
+        this.latency = latency;
+    }
+
+    public double getErrorRate() {
+        return errorRate;
+    }
+
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    public int getContinuousFailures() {
+        return continuousFailures;
+    }
+
+    public void setContinuousFailures(int continuousFailures) {
+        this.continuousFailures = continuousFailures;
+    }
+
+    public boolean isCircuitOpen() {
+        return circuitOpen;
+    }
+
+    public void setCircuitOpen(boolean circuitOpen) {
+        this.circuitOpen = circuitOpen;
+    }
+}
@@ -93,6 +93,8 @@ public class CephBackupStorageBase extends BackupStorageBase {
     protected RESTFacade restf;
     @Autowired
     protected CephBackupStorageMetaDataMaker metaDataMaker;
+    @Autowired
+    private CephMonSelector monSelector;
 
     public enum PingOperationFailure {
         UnableToCreateFile,
@@ -694,9 +696,16 @@ public class CephBackupStorageBase extends BackupStorageBase {
         new HttpCaller<>(path, cmd, retClass, callback, unit, timeout).call();
     }
 
+    // read-only calls any mon answers the same in a bounded time, which can be hedged to
+    // another mon and whose latency is sampled to order mons
+    private static final Set<String> HEDGEABLE_PATHS = new HashSet<>(Collections.singletonList(GET_IMAGE_SIZE_PATH));
+
     protected class HttpCaller<T extends AgentResponse> {
         private Iterator<CephBackupStorageMonBase> it;
         private List<ErrorCode> errorCodes = new ArrayList<ErrorCode>();
+        private final AtomicBoolean done = new AtomicBoolean();
+        private int inflight = 0;
+        private boolean hedgeable = false;
 
         private final String path;
         private final AgentCommand cmd;
@@ -722,7 +731,9 @@ public class CephBackupStorageBase extends BackupStorageBase {
         }
 
         void call() {
-            it = prepareMons().iterator();
+            List<CephBackupStorageMonBase> mons = prepareMons();
+            it = mons.iterator();
+            hedgeable = mons.size() > 1 && HEDGEABLE_PATHS.contains(path) && monSelector.getHedgeDelay() > 0;
             prepareCmd();
             doCall();
         }
@@ -743,16 +754,9 @@ public class CephBackupStorageBase extends BackupStorageBase {
         }
 
         private List<CephBackupStorageMonBase> prepareMons() {
-            final List<CephBackupStorageMonBase> mons = new ArrayList<CephBackupStorageMonBase>();
-            for (CephBackupStorageMonVO monvo : getSelf().getMons()) {
-                mons.add(new CephBackupStorageMonBase(monvo));
-            }
-
-            if (randomFactor != null) {
-                CollectionUtils.shuffleByKeySeed(mons, randomFactor, it -> it.getSelf().getUuid());
-            } else {
-                Collections.shuffle(mons);
-            }
+            final List<CephBackupStorageMonBase> mons = monSelector.order(
+                    CollectionUtils.transformToList(getSelf().getMons(), CephBackupStorageMonBase::new),
+                    it -> it.getSelf().getUuid(), randomFactor);
 
             mons.removeIf(it -> it.getSelf().getStatus() != MonStatus.Connected);
             if (mons.isEmpty()) {
@@ -763,19 +767,65 @@ public class CephBackupStorageBase extends BackupStorageBase {
             return mons;
         }
 
-        private void doCall() {
+        private synchronized CephBackupStorageMonBase nextMon() {
             if (!it.hasNext()) {
+                return null;
+            }
+
+            inflight++;
+            return it.next();
+        }
+
+        private synchronized boolean finishOne() {
+            inflight--;
+            return !done.get();
+        }
+
+        private void hedge() {
+            thdf.submitTimeoutTask(() -> {
+                if (done.get()) {
+                    return;
+                }
+
+                logger.debug(String.format("http call[%s] to ceph backup storage[uuid:%s] is not answered in %sms, hedge it to the next mon",
+                        path, self.getUuid(), monSelector.getHedgeDelay()));
+                monSelector.hedgeSent();
+                doCall(true);
+            }, TimeUnit.MILLISECONDS, monSelector.getHedgeDelay());
+        }
+
+        private void doCall() {
+            doCall(false);
+        }
+
+        private void doCall(boolean hedged) {
+            CephBackupStorageMonBase base = nextMon();
+            if (base == null) {
+                synchronized (this) {
+                    // wait for the call still sent to another mon
+                    if (inflight > 0 || !done.compareAndSet(false, true)) {
+                        return;
+                    }
+                }
+
                 callback.fail(operr("all mons failed to execute http call[%s], errors are %s",
                         path, JSONObjectUtil.toJsonString(errorCodes)));
 
                 return;
             }
 
-            CephBackupStorageMonBase base = it.next();
-
+            final long startTime = System.currentTimeMillis();
             ReturnValueCompletion<T> completion = new ReturnValueCompletion<T>(callback) {
                 @Override
                 public void success(T ret) {
+                    monSelector.record(base.getSelf().getUuid(), base.getSelf().getHostname(), System.currentTimeMillis() - startTime, HEDGEABLE_PATHS.contains(path), false);
+                    if (!finishOne() || !done.compareAndSet(false, true)) {
+                        return;
+                    }
+
+                    if (hedged) {
+                        monSelector.hedgeWon();
+                    }
                     if (!(cmd instanceof InitCmd)) {
                         updateCapacityIfNeeded(ret);
                     }
@@ -786,22 +836,35 @@ public class CephBackupStorageBase extends BackupStorageBase {
 
                 @Override
                 public void fail(ErrorCode errorCode) {
-                    if (!errorCode.isError(SysErrors.OPERATION_ERROR)) {
+                    boolean answered = errorCode.isError(SysErrors.OPERATION_ERROR);
+                    monSelector.record(base.getSelf().getUuid(), base.getSelf().getHostname(), System.currentTimeMillis() - startTime, HEDGEABLE_PATHS.contains(path), !answered);
+                    if (!finishOne()) {
+                        return;
+                    }
+
+                    if (!answered) {
                         String details = String.format("[mon:%s], %s", base.getSelf().getHostname(), errorCode.getDetails());
                         errorCode.setDetails(details);
-                        errorCodes.add(errorCode);
+                        synchronized (HttpCaller.this) {
+                            errorCodes.add(errorCode);
+                        }
                         doCall();
                         return;
                     }
 
                     if (tryNext) {
                         doCall();
-                    } else {
+                    } else if (done.compareAndSet(false, true)) {
                         callback.fail(errorCode);
                     }
                 }
                 };
 
+            if (hedgeable && !hedged) {
+                hedgeable = false;
+                hedge();
+            }
+
             if (unit == null) {
                 base.httpCall(path, cmd, retClass, completion);
             } else {
@@ -101,6 +101,8 @@ public class CephPrimaryStorageBase extends PrimaryStorageBase {
     @Autowired
     private CephImageCacheCleaner imageCacheCleaner;
     @Autowired
+    private CephMonSelector monSelector;
+    @Autowired
     private AccountManager acntMgr;
     @Autowired
     private PluginRegistry pluginRgty;
@@ -3225,9 +3227,17 @@ public class CephPrimaryStorageBase extends PrimaryStorageBase {
         new HttpCaller<>(path, cmd, retClass, callback, unit, timeout).call();
     }
 
+    // read-only calls any mon answers the same in a bounded time, which can be hedged to
+    // another mon and whose latency is sampled to order mons
+    private static final Set<String> HEDGEABLE_PATHS = new HashSet<>(Arrays.asList(
+            GET_VOLUME_SIZE_PATH, GET_VOLUME_SNAPSHOT_SIZE_PATH, GET_VOLUME_SNAPINFOS_PATH, CHECK_BITS_PATH, GET_IMAGE_WATCHERS_PATH));
+
     protected class HttpCaller<T extends AgentResponse> {
         private Iterator<CephPrimaryStorageMonBase> it;
         private final ErrorCodeList errorCodes = new ErrorCodeList();
+        private final AtomicBoolean done = new AtomicBoolean();
+        private int inflight = 0;
+        private boolean hedgeable = false;
 
         private final String path;
         private final AgentCommand cmd;
@@ -3254,7 +3264,9 @@ public class CephPrimaryStorageBase extends PrimaryStorageBase {
         }
 
         void call() {
-            it = prepareMons().iterator();
+            List<CephPrimaryStorageMonBase> mons = prepareMons();
+            it = mons.iterator();
+            hedgeable = mons.size() > 1 && HEDGEABLE_PATHS.contains(path) && monSelector.getHedgeDelay() > 0;
             prepareCmd();
             doCall();
         }
@@ -3286,16 +3298,9 @@ public class CephPrimaryStorageBase extends PrimaryStorageBase {
         }
 
         private List<CephPrimaryStorageMonBase> prepareMons() {
-            final List<CephPrimaryStorageMonBase> mons = new ArrayList<CephPrimaryStorageMonBase>();
-            for (CephPrimaryStorageMonVO monvo : getSelf().getMons()) {
-                mons.add(new CephPrimaryStorageMonBase(monvo));
-            }
-
-            if (randomFactor != null) {
-                CollectionUtils.shuffleByKeySeed(mons, randomFactor, it -> it.getSelf().getUuid());
-            } else {
-                Collections.shuffle(mons);
-            }
+            final List<CephPrimaryStorageMonBase> mons = monSelector.order(
+                    CollectionUtils.transformToList(getSelf().getMons(), CephPrimaryStorageMonBase::new),
+                    it -> it.getSelf().getUuid(), randomFactor);
 
             mons.removeIf(it -> it.getSelf().getStatus() != MonStatus.Connected);
             if (mons.isEmpty()) {
@@ -3311,21 +3316,65 @@ public class CephPrimaryStorageBase extends PrimaryStorageBase {
             return mons;
         }
 
-        private void doCall() {
+        private synchronized CephPrimaryStorageMonBase nextMon() {
             if (!it.hasNext()) {
+                return null;
+            }
+
+            inflight++;
+            return it.next();
+        }
+
+        private synchronized boolean finishOne() {
+            inflight--;
+            return !done.get();
+        }
+
+        private void hedge() {
+            thdf.submitTimeoutTask(() -> {
+                if (done.get()) {
+                    return;
+                }
+
+                logger.debug(String.format("http call[%s] to ceph primary storage[uuid:%s] is not answered in %sms, hedge it to the next mon",
+                        path, self.getUuid(), monSelector.getHedgeDelay()));
+                monSelector.hedgeSent();
+                doCall(true);
+            }, TimeUnit.MILLISECONDS, monSelector.getHedgeDelay());
+        }
+
+        private void doCall() {
+            doCall(false);
+        }
+
+        private void doCall(boolean hedged) {
+            CephPrimaryStorageMonBase base = nextMon();
+            if (base == null) {
+                synchronized (this) {
+                    // wait for the call still sent to another mon
+                    if (inflight > 0 || !done.compareAndSet(false, true)) {
+                        return;
+                    }
+                }
+
                 callback.fail(operr(errorCodes, "all mons failed to execute http call[%s], errors are %s", path)
                 );
 
                 return;
             }
 
-            CephPrimaryStorageMonBase base = it.next();
-            cmd.monUuid = base.getSelf().getUuid();
-            cmd.monIp = base.getSelf().getHostname();
-
+            final long startTime = System.currentTimeMillis();
             ReturnValueCompletion<T> completion = new ReturnValueCompletion<T>(callback) {
                 @Override
                 public void success(T ret) {
+                    monSelector.record(base.getSelf().getUuid(), base.getSelf().getHostname(), System.currentTimeMillis() - startTime, HEDGEABLE_PATHS.contains(path), false);
+                    if (!finishOne() || !done.compareAndSet(false, true)) {
+                        return;
+                    }
+
+                    if (hedged) {
+                        monSelector.hedgeWon();
+                    }
                     if (!(cmd instanceof InitCmd)) {
                         updateCapacityIfNeeded(ret);
                     }
@@ -3334,26 +3383,45 @@ public class CephPrimaryStorageBase extends PrimaryStorageBase {
 
                 @Override
                 public void fail(ErrorCode errorCode) {
-                    if (!errorCode.isError(SysErrors.OPERATION_ERROR)) {
+                    boolean answered = errorCode.isError(SysErrors.OPERATION_ERROR);
+                    monSelector.record(base.getSelf().getUuid(), base.getSelf().getHostname(), System.currentTimeMillis() - startTime, HEDGEABLE_PATHS.contains(path), !answered);
+                    if (!finishOne()) {
+                        return;
+                    }
+
+                    if (!answered) {
                         logger.warn(String.format("mon[%s] failed to execute http call[%s], error is: %s",
                                 base.getSelf().getHostname(), path, JSONObjectUtil.toJsonString(errorCode)));
-                        errorCodes.getCauses().add(errorCode);
+                        synchronized (HttpCaller.this) {
+                            errorCodes.getCauses().add(errorCode);
+                        }
                         doCall();
                         return;
                     }
 
                     if (tryNext) {
                         doCall();
-                    } else {
+                    } else if (done.compareAndSet(false, true)) {
                         callback.fail(errorCode);
                     }
                 }
             };
 
-            if (unit == null) {
-                base.httpCall(path, cmd, retClass, completion);
-            } else {
-                base.httpCall(path, cmd, retClass, completion, unit, timeout);
+            if (hedgeable && !hedged) {
+                hedgeable = false;
+                hedge();
+            }
+
+            // the cmd is serialized in httpCall, keep a hedged call from changing its mon meanwhile
+            synchronized (this) {
+                cmd.monUuid = base.getSelf().getUuid();
+                cmd.monIp = base.getSelf().getHostname();
+
+                if (unit == null) {
+                    base.httpCall(path, cmd, retClass, completion);
+                } else {
+                    base.httpCall(path, cmd, retClass, completion, unit, timeout);
+                }
             }
         }
     }
@@ -46,6 +46,7 @@ import org.zstack.network.service.flat.IpStatisticConstants.VmType;
 import org.zstack.network.service.vip.VipVO;
 import org.zstack.tag.SystemTagCreator;
 import org.zstack.utils.CollectionUtils;
+import org.zstack.utils.CompactUuidSet;
 import org.zstack.utils.DebugUtils;
 import org.zstack.utils.TagUtils;
 import org.zstack.utils.Utils;
@@ -107,51 +108,25 @@ public class FlatDhcpBackend extends AbstractService implements NetworkServiceDh
         return String.format("%s_%s", brName, l3Uuid);
     }
 
-    @Transactional(readOnly = true)
-    private List<DhcpInfo> getDhcpInfoForConnectedKvmHost(KVMHostConnectedContext context) {
-        String sql = "select vm from VmInstanceVO vm where vm.hostUuid = :huuid and vm.state in (:states) and vm.type = :vtype";
-        TypedQuery<VmInstanceVO> q = dbf.getEntityManager().createQuery(sql, VmInstanceVO.class);
-        q.setParameter("huuid", context.getInventory().getUuid());
-        q.setParameter("states", list(VmInstanceState.Running, VmInstanceState.Unknown, VmInstanceState.Starting,
-                VmInstanceState.Rebooting, VmInstanceState.Resuming, VmInstanceState.Migrating, VmInstanceState.VolumeMigrating));
-        q.setParameter("vtype", VmInstanceConstant.USER_VM_TYPE);
-        List<VmInstanceVO> vmVos = q.getResultList();
-        if (vmVos.isEmpty()) {
-            return null;
-        }
-
-        List<String> vmUuids = vmVos.stream().map(VmInstanceVO::getUuid).collect(Collectors.toList());
-        sql = "select nic.uuid from VmNicVO nic, L3NetworkVO l3, NetworkServiceL3NetworkRefVO ref, NetworkServiceProviderVO provider, UsedIpVO ip" +
-                " where nic.uuid = ip.vmNicUuid and nic.type <> :nicType and ip.l3NetworkUuid = l3.uuid" +
-                " and ref.l3NetworkUuid = l3.uuid and ref.networkServiceProviderUuid = provider.uuid " +
-                " and ref.networkServiceType = :dhcpType " +
-                " and provider.type = :ptype and nic.vmInstanceUuid in (:vmUuids) group by nic.uuid";
-
-        TypedQuery<String> nq = dbf.getEntityManager().createQuery(sql, String.class);
-        nq.setParameter("ptype", FlatNetworkServiceConstant.FLAT_NETWORK_SERVICE_TYPE_STRING);
-        nq.setParameter("dhcpType", NetworkServiceType.DHCP.toString());
-        nq.setParameter("vmUuids", vmUuids);
-        // TODO: we will support vDPA dhcp in future
-        nq.setParameter("nicType", "vDPA");
-        List<String> nicUuids = nq.getResultList();
-        if (nicUuids.isEmpty()) {
+    private List<DhcpInfo> getDhcpInfoForConnectedKvmHost(KVMHostConnectedContext context, Map data) {
+        FlatHostNetworkSnapshot snapshot = FlatHostNetworkSnapshot.get(data, context.getInventory().getUuid());
+        if (snapshot.isEmpty()) {
             return null;
         }
 
         List<DhcpInfo> dhcpInfoList = new ArrayList<DhcpInfo>();
-        for (VmInstanceVO vm : vmVos) {
-            List<VmNicVO> dhcpNics = vm.getVmNics().stream().filter(nic -> nicUuids.contains(nic.getUuid())).collect(Collectors.toList());
-
+        for (String vmUuid : snapshot.getVmUuidsHavingDhcpNics()) {
+            String defaultL3Uuid = snapshot.getDefaultL3NetworkUuid(vmUuid);
             List<VmInstanceSpec.HostName> hostNames = new ArrayList<>();
-            String hostName = VmSystemTags.HOSTNAME.getTokenByResourceUuid(vm.getUuid(), VmSystemTags.HOSTNAME_TOKEN);
+            String hostName = snapshot.getHostname(vmUuid);
             if (hostName != null) {
                 VmInstanceSpec.HostName hostNameSpec = new VmInstanceSpec.HostName();
-                hostNameSpec.setL3NetworkUuid(vm.getDefaultL3NetworkUuid());
+                hostNameSpec.setL3NetworkUuid(defaultL3Uuid);
                 hostNameSpec.setHostname(hostName);
                 hostNames.add(hostNameSpec);
             }
 
-            List<DhcpStruct> structs = dhcpExtension.makeDhcpStruct(VmInstanceInventory.valueOf(vm), hostNames, dhcpNics);
+            List<DhcpStruct> structs = dhcpExtension.makeDhcpStruct(defaultL3Uuid, hostNames, snapshot.getDhcpNics(vmUuid), snapshot.getLookup());
             dhcpInfoList.addAll(toDhcpInfo(structs));
         }
 
@@ -285,11 +260,11 @@ public class FlatDhcpBackend extends AbstractService implements NetworkServiceDh
 
         boolean isAdmin = acntMgr.isAdmin(msg.getSession());
 
-        Set<String> ownedVms = new HashSet<>();
-        Set<String> ownedVips = new HashSet<>();
+        CompactUuidSet ownedVms = null;
+        CompactUuidSet ownedVips = null;
         if (!isAdmin) {
-            ownedVms.addAll(acntMgr.getResourceUuidsCanAccessByAccount(msg.getSession().getAccountUuid(), VmInstanceVO.class));
-            ownedVips.addAll(acntMgr.getResourceUuidsCanAccessByAccount(msg.getSession().getAccountUuid(), VipVO.class));
+            ownedVms = acntMgr.getResourceUuidSetCanAccessByAccount(msg.getSession().getAccountUuid(), VmInstanceVO.class);
+            ownedVips = acntMgr.getResourceUuidSetCanAccessByAccount(msg.getSession().getAccountUuid(), VipVO.class);
         }
 
         for (Object[] result : results) {
@@ -314,13 +289,13 @@ public class FlatDhcpBackend extends AbstractService implements NetworkServiceDh
                     resourceTypes.add(ResourceType.VIP);
                 }
             } else {
-                if (result[1] != null && ownedVips.contains(result[1])) {
+                if (result[1] != null && ownedVips.contains((String) result[1])) {
                     element.setVipUuid((String) result[1]);
                     element.setVipName((String) result[2]);
                     resourceTypes.add(ResourceType.VIP);
                 }
 
-                if (result[3] != null && ownedVms.contains(result[3])) {
+                if (result[3] != null && ownedVms.contains((String) result[3])) {
                     element.setVmInstanceUuid((String) result[3]);
                     element.setVmInstanceName((String) result[4]);
                     element.setVmInstanceType((String) result[5]);
@@ -1238,7 +1213,7 @@ public class FlatDhcpBackend extends AbstractService implements NetworkServiceDh
 
             @Override
             public void run(final FlowTrigger trigger, Map data) {
-                final List<DhcpInfo> dhcpInfoList = getDhcpInfoForConnectedKvmHost(context);
+                final List<DhcpInfo> dhcpInfoList = getDhcpInfoForConnectedKvmHost(context, data);
                 if (dhcpInfoList == null) {
                     trigger.next();
                     return;
@@ -0,0 +1,130 @@
+package org.zstack.network.service.flat;
+
+import org.zstack.compute.vm.VmSystemTags;
+import org.zstack.core.db.SQL;
+import org.zstack.header.network.l3.UsedIpVO;
+import org.zstack.header.network.service.NetworkServiceType;
+import org.zstack.header.tag.SystemTagInventory;
+import org.zstack.header.vm.*;
+import org.zstack.network.service.DhcpStructLookup;
+
+import javax.persistence.Tuple;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.zstack.utils.CollectionDSL.list;
+
+/**
+ * user VMs on a connecting host with their NICs served by flat DHCP and hostnames, loaded
+ * in a fixed number of queries whatever the number of VMs is. L3 networks and IP ranges
+ * of the NICs are preloaded into the DhcpStructLookup.
+ *
+ * it's built once per host connecting chain and kept in the chain data, flows preparing
+ * DHCP and userdata on the host share it.
+ */
+public class FlatHostNetworkSnapshot {
+    private static final String DATA_KEY = FlatHostNetworkSnapshot.class.getName();
+
+    private final String hostUuid;
+    // vm uuid -> state, in the order of query
+    private final Map<String, VmInstanceState> vmStates = new LinkedHashMap<>();
+    // vm uuid -> default l3 uuid
+    private final Map<String, String> defaultL3Uuids = new HashMap<>();
+    // vm uuid -> nics served by flat dhcp
+    private final Map<String, List<VmNicVO>> dhcpNics = new HashMap<>();
+    // vm uuid -> hostname
+    private final Map<String, String> hostnames = new HashMap<>();
+    private final DhcpStructLookup lookup = new DhcpStructLookup();
+
+    private FlatHostNetworkSnapshot(String hostUuid) {
+        this.hostUuid = hostUuid;
+    }
+
+    public static FlatHostNetworkSnapshot get(Map data, String hostUuid) {
+        FlatHostNetworkSnapshot snapshot = (FlatHostNetworkSnapshot) data.get(DATA_KEY);
+        if (snapshot == null || !snapshot.hostUuid.equals(hostUuid)) {
+            snapshot = new FlatHostNetworkSnapshot(hostUuid);
+            snapshot.load();
+            data.put(DATA_KEY, snapshot);
+        }
+
+        return snapshot;
+    }
+
+    private void load() {
+        List<Tuple> vms = SQL.New("select vm.uuid, vm.state, vm.defaultL3NetworkUuid from VmInstanceVO vm" +
+                " where vm.hostUuid = :huuid and vm.state in (:states) and vm.type = :vtype", Tuple.class)
+                .param("huuid", hostUuid)
+                .param("states", list(VmInstanceState.Running, VmInstanceState.Unknown, VmInstanceState.Starting,
+                        VmInstanceState.Rebooting, VmInstanceState.Resuming, VmInstanceState.Migrating, VmInstanceState.VolumeMigrating))
+                .param("vtype", VmInstanceConstant.USER_VM_TYPE)
+                .list();
+        if (vms.isEmpty()) {
+            return;
+        }
+
+        vms.forEach(t -> {
+            vmStates.put(t.get(0, String.class), t.get(1, VmInstanceState.class));
+            defaultL3Uuids.put(t.get(0, String.class), t.get(2, String.class));
+        });
+        List<String> vmUuids = new ArrayList<>(vmStates.keySet());
+
+        List<String> nicUuids = SQL.New("select nic.uuid from VmNicVO nic, L3NetworkVO l3, NetworkServiceL3NetworkRefVO ref, NetworkServiceProviderVO provider, UsedIpVO ip" +
+                " where nic.uuid = ip.vmNicUuid and nic.type <> :nicType and ip.l3NetworkUuid = l3.uuid" +
+                " and ref.l3NetworkUuid = l3.uuid and ref.networkServiceProviderUuid = provider.uuid " +
+                " and ref.networkServiceType = :dhcpType " +
+                " and provider.type = :ptype and nic.vmInstanceUuid in (:vmUuids) group by nic.uuid", String.class)
+                .param("ptype", FlatNetworkServiceConstant.FLAT_NETWORK_SERVICE_TYPE_STRING)
+                .param("dhcpType", NetworkServiceType.DHCP.toString())
+                .param("vmUuids", vmUuids)
+                // TODO: we will support vDPA dhcp in future
+                .param("nicType", "vDPA")
+                .list();
+
+        if (!nicUuids.isEmpty()) {
+            List<VmNicVO> nics = SQL.New("select distinct nic from VmNicVO nic left join fetch nic.usedIps where nic.uuid in (:uuids)", VmNicVO.class)
+                    .param("uuids", nicUuids)
+                    .list();
+            nics.forEach(nic -> dhcpNics.computeIfAbsent(nic.getVmInstanceUuid(), k -> new ArrayList<>()).add(nic));
+            lookup.preload(nics.stream().flatMap(nic -> nic.getUsedIps().stream()).map(UsedIpVO::getL3NetworkUuid).collect(Collectors.toSet()));
+        }
+
+        for (SystemTagInventory tag : VmSystemTags.HOSTNAME.getTagInventories(vmUuids)) {
+            hostnames.put(tag.getResourceUuid(), VmSystemTags.HOSTNAME.getTokenByTag(tag.getTag(), VmSystemTags.HOSTNAME_TOKEN));
+        }
+    }
+
+    public boolean isEmpty() {
+        return dhcpNics.isEmpty();
+    }
+
+    /**
+     * @return uuids of VMs in the states
+     */
+    public List<String> getVmUuids(Collection<VmInstanceState> states) {
+        return vmStates.entrySet().stream().filter(e -> states.contains(e.getValue())).map(Map.Entry::getKey).collect(Collectors.toList());
+    }
+
+    public List<String> getVmUuidsHavingDhcpNics() {
+        return vmStates.keySet().stream().filter(dhcpNics::containsKey).collect(Collectors.toList());
+    }
+
+    public String getDefaultL3NetworkUuid(String vmUuid) {
+        return defaultL3Uuids.get(vmUuid);
+    }
+
+    public List<VmNicVO> getDhcpNics(String vmUuid) {
+        return dhcpNics.getOrDefault(vmUuid, Collections.emptyList());
+    }
+
+    /**
+     * @return null if the VM has no hostname set
+     */
+    public String getHostname(String vmUuid) {
+        return hostnames.get(vmUuid);
+    }
+
+    public DhcpStructLookup getLookup() {
+        return lookup;
+    }
+}
@@ -88,14 +88,8 @@ public class FlatUserdataBackend implements UserdataBackend, KVMHostConnectExten
         return new NoRollbackFlow() {
             String __name__ = "prepare-userdata";
 
-            @Transactional(readOnly = true)
-            private List<String> getVmsNeedUserdataOnHost() {
-                String sql = "select vm.uuid from VmInstanceVO vm where vm.hostUuid = :huuid and vm.state = :state and vm.type = :type";
-                TypedQuery<String> q = dbf.getEntityManager().createQuery(sql, String.class);
-                q.setParameter("state", VmInstanceState.Running);
-                q.setParameter("huuid", context.getInventory().getUuid());
-                q.setParameter("type", VmInstanceConstant.USER_VM_TYPE);
-                List<String> vmUuids = q.getResultList();
+            private List<String> getVmsNeedUserdataOnHost(FlatHostNetworkSnapshot snapshot) {
+                List<String> vmUuids = snapshot.getVmUuids(Collections.singletonList(VmInstanceState.Running));
                 if (vmUuids.isEmpty()) {
                     return null;
                 }
@@ -147,8 +141,8 @@ public class FlatUserdataBackend implements UserdataBackend, KVMHostConnectExten
                 return ret;
             }
 
-            private List<UserdataTO> getUserData() {
-                List<String> vmUuids = getVmsNeedUserdataOnHost();
+            private List<UserdataTO> getUserData(FlatHostNetworkSnapshot snapshot) {
+                List<String> vmUuids = getVmsNeedUserdataOnHost(snapshot);
                 if (vmUuids == null) {
                     return null;
                 }
@@ -175,13 +169,14 @@ public class FlatUserdataBackend implements UserdataBackend, KVMHostConnectExten
                 }
 
                 Map<String, String> bridgeNames = new BridgeNameFinder().findByL3Uuids(l3Uuids);
+                Map<String, Boolean> ovsDpdkL3s = new HashMap<>();
 
                 List<UserdataTO> tos = new ArrayList<UserdataTO>();
                 for (String vmuuid : vmUuids) {
                     UserdataTO to = new UserdataTO();
                     MetadataTO mto = new MetadataTO();
                     mto.vmUuid = vmuuid;
-                    mto.vmHostname = VmSystemTags.HOSTNAME.getTokenByResourceUuid(vmuuid, VmSystemTags.HOSTNAME_TOKEN);
+                    mto.vmHostname = snapshot.getHostname(vmuuid);
                     to.metadata = mto;
 
                     VmIpL3Uuid l = vmipl3.get(vmuuid);
@@ -194,14 +189,14 @@ public class FlatUserdataBackend implements UserdataBackend, KVMHostConnectExten
                     }
 
                     // TODO: vDPA do not support Userdata service yet;
-                    boolean isOvsDpdk = (Long) SQL.New("select count(l2.uuid)" +
+                    boolean isOvsDpdk = ovsDpdkL3s.computeIfAbsent(l.l3Uuid, l3Uuid -> (Long) SQL.New("select count(l2.uuid)" +
                                     " from L2NetworkVO l2, L3NetworkVO l3" +
                                     " where l3.uuid = :l3Uuid" +
                                     " and l2.uuid = l3.l2NetworkUuid" +
                                     " and l2.vSwitchType = :vswitchType", Long.class)
-                            .param("l3Uuid", l.l3Uuid)
+                            .param("l3Uuid", l3Uuid)
                             .param("vswitchType", L2NetworkConstant.VSWITCH_TYPE_OVS_DPDK)
-                            .find() > 0;
+                            .find() > 0);
                     if (isOvsDpdk) {
                         continue;
                     }
@@ -228,7 +223,7 @@ public class FlatUserdataBackend implements UserdataBackend, KVMHostConnectExten
 
             @Override
             public void run(final FlowTrigger trigger, Map data) {
-                List<UserdataTO> tos = getUserData();
+                List<UserdataTO> tos = getUserData(FlatHostNetworkSnapshot.get(data, context.getInventory().getUuid()));
                 if (tos == null) {
                     trigger.next();
                     return;
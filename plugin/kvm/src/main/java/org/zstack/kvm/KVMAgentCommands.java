@@ -2652,6 +2652,17 @@ public class KVMAgentCommands {
     }
 
     public static class VmSyncCmd extends AgentCommand {
+        // version of the last report received from the agent, an agent supporting
+        // delta reports only returns vms changed since this version
+        private String baseVersion;
+
+        public String getBaseVersion() {
+            return baseVersion;
+        }
+
+        public void setBaseVersion(String baseVersion) {
+            this.baseVersion = baseVersion;
+        }
     }
 
     public static class VmSyncResponse extends AgentResponse {
@@ -2659,6 +2670,38 @@ public class KVMAgentCommands {
 
         private List<String> vmInShutdowns;
 
+        // if true, states only contains vms changed since baseVersion of the command,
+        // and removedVms contains vms disappeared since then
+        private boolean delta;
+
+        private String version;
+
+        private List<String> removedVms;
+
+        public boolean isDelta() {
+            return delta;
+        }
+
+        public void setDelta(boolean delta) {
+            this.delta = delta;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+
+        public void setVersion(String version) {
+            this.version = version;
+        }
+
+        public List<String> getRemovedVms() {
+            return removedVms == null ? Collections.emptyList() : removedVms;
+        }
+
+        public void setRemovedVms(List<String> removedVms) {
+            this.removedVms = removedVms;
+        }
+
         public HashMap<String, String> getStates() {
             return states;
         }
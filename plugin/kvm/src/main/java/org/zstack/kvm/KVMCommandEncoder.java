@@ -0,0 +1,203 @@
+package org.zstack.kvm;
+
+import org.zstack.utils.gson.JSONObjectUtil;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * encodes agent commands with kvmHostAddons.
+ *
+ * the command is serialized once, the addons are spliced before its last '}'
+ * without a regex, and the command is only parsed back to a map when an
+ * extension reads it.
+ */
+public class KVMCommandEncoder {
+    /**
+     * @return the command json with kvmHostAddons as its last field, or the json
+     * unchanged if it's not a json object
+     */
+    public static String appendHostAddons(String commandJson, Map addons) {
+        int end = commandJson.length() - 1;
+        if (end < 0 || commandJson.charAt(end) != '}') {
+            return commandJson;
+        }
+
+        int last = end - 1;
+        while (last >= 0 && Character.isWhitespace(commandJson.charAt(last))) {
+            last--;
+        }
+
+        String addonsJson = JSONObjectUtil.toJsonString(addons);
+        StringBuilder sb = new StringBuilder(commandJson.length() + addonsJson.length() + KVMConstant.KVM_HOST_ADDONS.length() + 8);
+        sb.append(commandJson, 0, end);
+        if (last < 0 || commandJson.charAt(last) != '{') {
+            sb.append(',');
+        }
+        sb.append('"').append(KVMConstant.KVM_HOST_ADDONS).append("\":").append(addonsJson).append('}');
+        return sb.toString();
+    }
+
+    public static LinkedHashMap lazyCommandMap(String commandJson) {
+        return new LazyCommandMap(commandJson);
+    }
+
+    /**
+     * a read-only map of the command, parsed from the json at first read
+     */
+    private static class LazyCommandMap extends LinkedHashMap<Object, Object> {
+        private final String json;
+        private boolean parsed;
+
+        LazyCommandMap(String json) {
+            this.json = json;
+        }
+
+        private void parse() {
+            if (!parsed) {
+                parsed = true;
+                super.putAll(JSONObjectUtil.toObject(json, LinkedHashMap.class));
+            }
+        }
+
+        @Override
+        public Object get(Object key) {
+            parse();
+            return super.get(key);
+        }
+
+        @Override
+        public Object getOrDefault(Object key, Object defaultValue) {
+            parse();
+            return super.getOrDefault(key, defaultValue);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            parse();
+            return super.containsKey(key);
+        }
+
+        @Override
+        public boolean containsValue(Object value) {
+            parse();
+            return super.containsValue(value);
+        }
+
+        @Override
+        public int size() {
+            parse();
+            return super.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            parse();
+            return super.isEmpty();
+        }
+
+        @Override
+        public Set<Object> keySet() {
+            parse();
+            return Collections.unmodifiableSet(super.keySet());
+        }
+
+        @Override
+        public Collection<Object> values() {
+            parse();
+            return Collections.unmodifiableCollection(super.values());
+        }
+
+        @Override
+        public Set<Map.Entry<Object, Object>> entrySet() {
+            parse();
+            return Collections.unmodifiableSet(super.entrySet());
+        }
+
+        @Override
+        public void forEach(BiConsumer<? super Object, ? super Object> action) {
+            parse();
+            super.forEach(action);
+        }
+
+        @Override
+        public String toString() {
+            parse();
+            return super.toString();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            parse();
+            return super.equals(o);
+        }
+
+        @Override
+        public int hashCode() {
+            parse();
+            return super.hashCode();
+        }
+
+        @Override
+        public Object put(Object key, Object value) {
+            throw new UnsupportedOperationException("the command map is read-only");
+        }
+
+        @Override
+        public void putAll(Map<?, ?> m) {
+            throw new UnsupportedOperationException("the command map is read-only");
+        }
+
+        @Override
+        public Object remove(Object key) {
+            throw new UnsupportedOperationException("the command map is read-only");
+        }
+
+        @Override
+        public void clear() {
+            throw new UnsupportedOperationException("the command map is read-only");
+        }
+
+        @Override
+        public Object putIfAbsent(Object key, Object value) {
+            throw new UnsupportedOperationException("the command map is read-only");
+        }
+
+        @Override
+        public Object computeIfAbsent(Object key, Function<? super Object, ?> mappingFunction) {
+            throw new UnsupportedOperationException("the command map is read-only");
+        }
+
+        @Override
+        public Object compute(Object key, BiFunction<? super Object, ? super Object, ?> remappingFunction) {
+            throw new UnsupportedOperationException("the command map is read-only");
+        }
+
+        @Override
+        public Object merge(Object key, Object value, BiFunction<? super Object, ? super Object, ?> remappingFunction) {
+            throw new UnsupportedOperationException("the command map is read-only");
+        }
+
+        @Override
+        public Object computeIfPresent(Object key, BiFunction<? super Object, ? super Object, ?> remappingFunction) {
+            throw new UnsupportedOperationException("the command map is read-only");
+        }
+
+        @Override
+        public Object replace(Object key, Object value) {
+            throw new UnsupportedOperationException("the command map is read-only");
+        }
+
+        @Override
+        public boolean replace(Object key, Object oldValue, Object newValue) {
+            throw new UnsupportedOperationException("the command map is read-only");
+        }
+
+        @Override
+        public void replaceAll(BiFunction<? super Object, ? super Object, ?> function) {
+            throw new UnsupportedOperationException("the command map is read-only");
+        }
+    }
+}
@@ -450,7 +450,8 @@ public class KVMHost extends HostBase implements Host {
                 return;
             }
 
-            LinkedHashMap commandMap = JSONObjectUtil.toObject(commandStr, LinkedHashMap.class);
+            // parsed only when an extension reads it
+            LinkedHashMap commandMap = KVMCommandEncoder.lazyCommandMap(commandStr);
             LinkedHashMap kvmHostAddon = new LinkedHashMap();
             for (KVMBeforeAsyncJsonPostExtensionPoint extp : pluginRegistry.getExtensionList(KVMBeforeAsyncJsonPostExtensionPoint.class)) {
                 LinkedHashMap tmpHashMap = extp.kvmBeforeAsyncJsonPostExtensionPoint(path, commandMap, header);
@@ -462,13 +463,7 @@ public class KVMHost extends HostBase implements Host {
                 }
             }
 
-            if (commandStr.equals("{}")) {
-                commandStr = commandStr.replaceAll("\\}$",
-                        String.format("\"%s\":%s}", KVMConstant.KVM_HOST_ADDONS, JSONObjectUtil.toJsonString(kvmHostAddon)));
-            } else {
-                commandStr = commandStr.replaceAll("\\}$",
-                        String.format(",\"%s\":%s}", KVMConstant.KVM_HOST_ADDONS, JSONObjectUtil.toJsonString(kvmHostAddon)));
-            }
+            commandStr = KVMCommandEncoder.appendHostAddons(commandStr, kvmHostAddon);
         }
     }
 
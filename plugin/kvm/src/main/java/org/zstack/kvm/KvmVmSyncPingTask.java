@@ -60,6 +60,8 @@ public class KvmVmSyncPingTask extends VmTracer implements KVMPingAgentNoFailure
     private EventFacade evtf;
     @Autowired
     private PluginRegistry pluginRgty;
+    @Autowired
+    private ResourceDestinationMaker destMaker;
 
     // A map from apiId to VM instance uuid
     private ConcurrentHashMap<String, ConcurrentHashMap<String, String>> vmApis = new ConcurrentHashMap<>();
@@ -67,6 +69,18 @@ public class KvmVmSyncPingTask extends VmTracer implements KVMPingAgentNoFailure
     private List<Class<? extends Message>> skipVmTracerMessages = new ArrayList<>();
     private List<Class> skipVmTracerReplies = new ArrayList<>();
     private Map<String, Integer> vmInShutdownMap = new ConcurrentHashMap<>();
+    // the last vm states reported by each host, which delta reports are applied on
+    private Map<String, HostSideVmStates> lastReports = new ConcurrentHashMap<>();
+
+    private static class HostSideVmStates {
+        final String version;
+        final Map<String, String> states;
+
+        HostSideVmStates(String version, Map<String, String> states) {
+            this.version = version;
+            this.states = states;
+        }
+    }
 
     {
         getReflections().getTypesAnnotatedWith(SkipVmTracer.class).forEach(clz -> {
@@ -132,6 +146,14 @@ public class KvmVmSyncPingTask extends VmTracer implements KVMPingAgentNoFailure
             }
         });
 
+        evtf.on(HostCanonicalEvents.HOST_DELETED_PATH, new EventCallback() {
+            @Override
+            protected void run(Map tokens, Object data) {
+                HostCanonicalEvents.HostDeletedData d = (HostCanonicalEvents.HostDeletedData) data;
+                lastReports.remove(d.getHostUuid());
+            }
+        });
+
         evtf.on(VmTracerCanonicalEvents.VM_CONTINUE_TRACE_PATH, new EventCallback() {
             @Override
             protected void run(Map tokens, Object data) {
@@ -204,10 +226,13 @@ public class KvmVmSyncPingTask extends VmTracer implements KVMPingAgentNoFailure
         // but if the vm is running on host but stopped on management node side in same pattern, the result is
         // wrong but it will be fixed in next vm sync and different from creation, normally vm operations skip
         // vm sync during processing
-        Map<String, VmInstanceState> mgmtSideStates = buildManagementServerSideVmStates(host.getUuid());
+        Map<String, VmInstanceState> mgmtSideStates = getManagementServerSideVmStates(host.getUuid());
+
+        HostSideVmStates lastReport = lastReports.get(host.getUuid());
 
         KVMHostAsyncHttpCallMsg msg = new KVMHostAsyncHttpCallMsg();
         VmSyncCmd cmd = new VmSyncCmd();
+        cmd.setBaseVersion(lastReport == null ? null : lastReport.version);
         msg.setCommand(cmd);
         msg.setNoStatusCheck(true);
         msg.setHostUuid(host.getUuid());
@@ -223,14 +248,20 @@ public class KvmVmSyncPingTask extends VmTracer implements KVMPingAgentNoFailure
                 KVMHostAsyncHttpCallReply r = reply.castReply();
                 VmSyncResponse ret = r.toResponse(VmSyncResponse.class);
                 if (ret.isSuccess()) {
-                    Map<String, VmInstanceState> states = new HashMap<>(ret.getStates().size());
+                    Map<String, String> reportedStates = getReportedStates(host.getUuid(), lastReport, ret);
+                    if (reportedStates == null) {
+                        completion.success();
+                        return;
+                    }
+
+                    Map<String, VmInstanceState> states = new HashMap<>(reportedStates.size());
 
                     // Get vms to skip after sync result returned.
                     vmsToSkip.values().forEach(vmsToSkipSetHostSide::addAll);
 
-                    Collection<String> vmUuidsInDeleteVmGC = DeleteVmGC.queryVmInGC(host.getUuid(), ret.getStates().keySet());
+                    Collection<String> vmUuidsInDeleteVmGC = DeleteVmGC.queryVmInGC(host.getUuid(), reportedStates.keySet());
 
-                    for (Map.Entry<String, String> e : ret.getStates().entrySet()) {
+                    for (Map.Entry<String, String> e : reportedStates.entrySet()) {
                         if (logger.isTraceEnabled()) {
                             logger.trace(String.format("state from vmsync vm %s state %s", e.getKey(), e.getValue()));
                         }
@@ -262,6 +293,34 @@ public class KvmVmSyncPingTask extends VmTracer implements KVMPingAgentNoFailure
         });
     }
 
+    // full vm states of the host, merged with the last report if the agent
+    // replies a delta, or null if the delta can't be applied
+    private Map<String, String> getReportedStates(String hostUuid, HostSideVmStates lastReport, VmSyncResponse ret) {
+        Map<String, String> states;
+        if (!ret.isDelta()) {
+            states = ret.getStates();
+        } else if (lastReport == null) {
+            logger.warn(String.format("host[uuid:%s] replies a delta vm sync report without a base version, skip it and" +
+                    " ask for a full report next time", hostUuid));
+            lastReports.remove(hostUuid);
+            return null;
+        } else {
+            states = new HashMap<>(lastReport.states);
+            if (ret.getStates() != null) {
+                states.putAll(ret.getStates());
+            }
+            ret.getRemovedVms().forEach(states::remove);
+        }
+
+        if (ret.getVersion() != null) {
+            lastReports.put(hostUuid, new HostSideVmStates(ret.getVersion(), states));
+        } else {
+            lastReports.remove(hostUuid);
+        }
+
+        return states;
+    }
+
     private void checkVmInShutdown(final List<String> vmInShutdowns, final Map<String, VmInstanceState> states) {
         if (vmInShutdowns.isEmpty() && vmInShutdownMap.isEmpty()) {
             return;
@@ -294,6 +353,7 @@ public class KvmVmSyncPingTask extends VmTracer implements KVMPingAgentNoFailure
 
     @Override
     public void connectionReestablished(HostInventory inv) {
+        lastReports.remove(inv.getUuid());
         syncVm(inv, new NopeCompletion());
     }
 
@@ -376,6 +436,8 @@ public class KvmVmSyncPingTask extends VmTracer implements KVMPingAgentNoFailure
         return new NoRollbackFlow() {
             @Override
             public void run(final FlowTrigger trigger, Map data) {
+                // the agent may be restarted, always ask for a full report when connecting
+                lastReports.remove(context.getInventory().getUuid());
                 syncVm(context.getInventory(), new Completion(trigger) {
                     String __name__ = "sync-vm-state";
 
@@ -435,6 +497,8 @@ public class KvmVmSyncPingTask extends VmTracer implements KVMPingAgentNoFailure
     public void nodeJoin(ManagementNodeInventory inv) {
         vmApis.putIfAbsent(inv.getUuid(), new ConcurrentHashMap<>());
         vmsToSkip.putIfAbsent(inv.getUuid(), ConcurrentHashMap.newKeySet());
+        // hosts taken over by the new node are synced there from now on
+        lastReports.keySet().removeIf(hostUuid -> !destMaker.isManagedByUs(hostUuid));
     }
 
     @Override
@@ -0,0 +1,98 @@
+package org.zstack.network.securitygroup;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.zstack.utils.gson.JSONObjectUtil;
+import org.zstack.utils.network.IPv6Constants;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * digests of rules last applied successfully to nics on hosts, for skipping nics
+ * whose rules are unchanged, enabled by the global config apply.skipUnchangedRules.
+ *
+ * a host is forgotten when applying rules to it fails, or when rules of it are being
+ * applied by another request at the same time, the next apply then sends all nics
+ * again. A host is also forgotten when it's deleted.
+ */
+class HostRuleDigests {
+    private static class Host {
+        long version;
+        Map<String, String> digests = new HashMap<>();
+    }
+
+    private final Map<String, Host> hosts = new ConcurrentHashMap<>();
+
+    private static String keyOf(SecurityGroupRuleTO rto, int ipVersion) {
+        return ipVersion + ":" + rto.getVmNicUuid();
+    }
+
+    private static String digestOf(SecurityGroupRuleTO rto) {
+        return DigestUtils.md5Hex(JSONObjectUtil.toJsonString(rto));
+    }
+
+    private List<SecurityGroupRuleTO> changed(Host host, List<SecurityGroupRuleTO> rtos, int ipVersion) {
+        List<SecurityGroupRuleTO> ret = new ArrayList<>();
+        for (SecurityGroupRuleTO rto : rtos) {
+            if (!SecurityGroupRuleTO.ACTION_CODE_APPLY_RULE.equals(rto.getActionCode())
+                    || host == null || !digestOf(rto).equals(host.digests.get(keyOf(rto, ipVersion)))) {
+                ret.add(rto);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * removes rules unchanged since last applied from the hto
+     *
+     * @return version of the host to pass to applied(), or -1 if nothing is left to apply
+     */
+    synchronized long prepare(HostRuleTO hto) {
+        Host host = hosts.computeIfAbsent(hto.getHostUuid(), k -> new Host());
+        host.version++;
+
+        if (!hto.isRefreshHost()) {
+            hto.setRules(changed(host, hto.getRules(), IPv6Constants.IPv4));
+            hto.setIpv6Rules(changed(host, hto.getIpv6Rules(), IPv6Constants.IPv6));
+            if (hto.getRules().isEmpty() && hto.getIpv6Rules().isEmpty()) {
+                return -1;
+            }
+        }
+
+        return host.version;
+    }
+
+    synchronized void applied(HostRuleTO hto, long version) {
+        Host host = hosts.get(hto.getHostUuid());
+        if (host == null || host.version != version) {
+            // another apply started after this one, the order they take effect is unknown
+            hosts.remove(hto.getHostUuid());
+            return;
+        }
+
+        if (hto.isRefreshHost()) {
+            host.digests.clear();
+        }
+
+        record(host, hto.getRules(), IPv6Constants.IPv4);
+        record(host, hto.getIpv6Rules(), IPv6Constants.IPv6);
+    }
+
+    private void record(Host host, List<SecurityGroupRuleTO> rtos, int ipVersion) {
+        for (SecurityGroupRuleTO rto : rtos) {
+            if (SecurityGroupRuleTO.ACTION_CODE_APPLY_RULE.equals(rto.getActionCode())) {
+                host.digests.put(keyOf(rto, ipVersion), digestOf(rto));
+            } else {
+                host.digests.remove(keyOf(rto, ipVersion));
+            }
+        }
+    }
+
+    void forget(String hostUuid) {
+        hosts.remove(hostUuid);
+    }
+
+    void clear() {
+        hosts.clear();
+    }
+}
@@ -20,4 +20,6 @@ public class SecurityGroupGlobalConfig {
     public static GlobalConfig INGRESS_RULE_DEFAULT_POLICY = new GlobalConfig(CATEGORY, "ingress.defaultPolicy");
     @GlobalConfigValidation(validValues = {"accept", "deny"})
     public static GlobalConfig EGRESS_RULE_DEFAULT_POLICY = new GlobalConfig(CATEGORY, "egress.defaultPolicy");
+    @GlobalConfigValidation(validValues = {"true", "false"})
+    public static GlobalConfig SKIP_UNCHANGED_RULES = new GlobalConfig(CATEGORY, "apply.skipUnchangedRules");
 }
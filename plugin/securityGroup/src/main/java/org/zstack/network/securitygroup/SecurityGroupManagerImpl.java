@@ -6,6 +6,8 @@ import org.springframework.transaction.annotation.Transactional;
 import org.zstack.core.Platform;
 import org.zstack.core.cloudbus.CloudBus;
 import org.zstack.core.cloudbus.CloudBusCallBack;
+import org.zstack.core.cloudbus.EventCallback;
+import org.zstack.core.cloudbus.EventFacade;
 import org.zstack.core.cloudbus.MessageSafe;
 import org.zstack.core.componentloader.PluginRegistry;
 import org.zstack.core.config.GlobalConfig;
@@ -23,6 +25,7 @@ import org.zstack.header.errorcode.ErrorCode;
 import org.zstack.header.errorcode.OperationFailureException;
 import org.zstack.header.errorcode.SysErrors;
 import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.header.host.HostCanonicalEvents;
 import org.zstack.header.host.HostStatus;
 import org.zstack.header.host.HostVO;
 import org.zstack.header.host.HostVO_;
@@ -38,6 +41,7 @@ import org.zstack.header.message.NeedQuotaCheckMessage;
 import org.zstack.header.network.l3.IpRangeInventory;
 import org.zstack.header.network.l3.L3NetworkInventory;
 import org.zstack.header.network.l3.L3NetworkVO;
+import org.zstack.header.network.l3.L3NetworkVO_;
 import org.zstack.header.query.AddExpandedQueryExtensionPoint;
 import org.zstack.header.query.ExpandedQueryAliasStruct;
 import org.zstack.header.query.ExpandedQueryStruct;
@@ -92,6 +96,8 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
     private TagManager tagMgr;
     @Autowired
     private ErrorFacade errf;
+    @Autowired
+    private EventFacade evtf;
 
     protected Map<String, SecurityGroupHypervisorBackend> hypervisorBackends;
     private int failureHostWorkerInterval;
@@ -177,7 +183,11 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
         }
     }
 
+    private final HostRuleDigests hostRuleDigests = new HostRuleDigests();
+
     private class RuleCalculator {
+        private static final int NIC_QUERY_BATCH_SIZE = 1000;
+
         private List<String> vmNicUuids;
         private List<String> l3NetworkUuids;
         private List<String> securityGroupUuids;
@@ -185,6 +195,13 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
         private List<VmInstanceState> vmStates;
         private List<SecurityGroupState> sgStates;
 
+        // loaded in sets and memoized for one calculation, ip version -> security group uuid -> value
+        private final Map<Integer, Map<String, List<RuleTO>>> rulesBySg = new HashMap<>();
+        private final Map<Integer, Map<String, List<RuleTO>>> baseRulesBySg = new HashMap<>();
+        private final Map<Integer, Map<String, List<String>>> memberIpsBySg = new HashMap<>();
+        // l3 uuid-ip version -> gateway, null if the l3 has no ip range of the version
+        private final Map<String, String> gateways = new HashMap<>();
+
         List<HostRuleTO> calculate() {
             if (sgStates == null) {
                 sgStates = new ArrayList<SecurityGroupState>();
@@ -318,38 +335,69 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
             return calculateByVmNic();
         }
 
-        private List<RuleTO> calculateRuleTOBySecurityGroup(List<String> sgUuids, List<String> l3Uuids, int ipVersion) {
-            List<RuleTO> ret = new ArrayList<>();
+        private RuleTO toRuleTO(SecurityGroupRuleVO r) {
+            RuleTO rto = new RuleTO();
+            rto.setIpVersion(r.getIpVersion());
+            rto.setAllowedCidr(r.getAllowedCidr());
+            rto.setEndPort(r.getEndPort());
+            rto.setProtocol(r.getProtocol().toString());
+            rto.setStartPort(r.getStartPort());
+            rto.setType(r.getType().toString());
+            rto.setSecurityGroupUuid(r.getSecurityGroupUuid());
+            return rto;
+        }
+
+        /* load rules of security groups not loaded yet, in a few set queries */
+        private void loadRules(Collection<String> sgUuids, int ipVersion) {
+            Map<String, List<RuleTO>> rules = rulesBySg.computeIfAbsent(ipVersion, k -> new HashMap<>());
+            Map<String, List<RuleTO>> baseRules = baseRulesBySg.computeIfAbsent(ipVersion, k -> new HashMap<>());
+            List<String> toLoad = sgUuids.stream().filter(uuid -> !rules.containsKey(uuid)).distinct().collect(Collectors.toList());
+            if (toLoad.isEmpty()) {
+                return;
+            }
 
-            for (String sgUuid : sgUuids) {
-                if (!Q.New(SecurityGroupVO.class).eq(SecurityGroupVO_.uuid, sgUuid).in(SecurityGroupVO_.state, sgStates).isExists()) {
-                    continue;
-                }
-                List<SecurityGroupRuleVO> rules = Q.New(SecurityGroupRuleVO.class).eq(SecurityGroupRuleVO_.securityGroupUuid, sgUuid)
-                        .eq(SecurityGroupRuleVO_.ipVersion, ipVersion)
-                        .isNull(SecurityGroupRuleVO_.remoteSecurityGroupUuid).list();
-                if (rules.isEmpty()) {
-                    continue;
+            toLoad.forEach(uuid -> {
+                rules.put(uuid, new ArrayList<>());
+                baseRules.put(uuid, new ArrayList<>());
+            });
+
+            List<SecurityGroupRuleVO> vos = Q.New(SecurityGroupRuleVO.class)
+                    .in(SecurityGroupRuleVO_.securityGroupUuid, toLoad)
+                    .eq(SecurityGroupRuleVO_.ipVersion, ipVersion)
+                    .list();
+            Set<String> sgUuidsInQuery = new HashSet<>(toLoad);
+            vos.forEach(vo -> {
+                if (vo.getRemoteSecurityGroupUuid() != null) {
+                    sgUuidsInQuery.add(vo.getRemoteSecurityGroupUuid());
                 }
+            });
+            Set<String> enabledSgUuids = new HashSet<>(Q.New(SecurityGroupVO.class).select(SecurityGroupVO_.uuid)
+                    .in(SecurityGroupVO_.uuid, sgUuidsInQuery).in(SecurityGroupVO_.state, sgStates).listValues());
+
+            List<String> remoteSgUuids = vos.stream().map(SecurityGroupRuleVO::getRemoteSecurityGroupUuid)
+                    .filter(uuid -> uuid != null && enabledSgUuids.contains(uuid)).distinct().collect(Collectors.toList());
+            loadMemberIps(remoteSgUuids, ipVersion);
 
-                for (SecurityGroupRuleVO r : rules) {
-                    if ( r.getRemoteSecurityGroupUuid() != null) {
-                        SecurityGroupVO remoteSg = Q.New(SecurityGroupVO.class).eq(SecurityGroupVO_.uuid, r.getRemoteSecurityGroupUuid()).in(SecurityGroupVO_.state, sgStates).find();
-                        if (remoteSg == null) {
-                            continue;
-                        }
+            for (SecurityGroupRuleVO r : vos) {
+                if (r.getRemoteSecurityGroupUuid() == null) {
+                    if (enabledSgUuids.contains(r.getSecurityGroupUuid())) {
+                        rules.get(r.getSecurityGroupUuid()).add(toRuleTO(r));
                     }
-                    RuleTO rto = new RuleTO();
-                    rto.setIpVersion(r.getIpVersion());
-                    rto.setAllowedCidr(r.getAllowedCidr());
-                    rto.setEndPort(r.getEndPort());
-                    rto.setProtocol(r.getProtocol().toString());
-                    rto.setStartPort(r.getStartPort());
-                    rto.setType(r.getType().toString());
-                    rto.setSecurityGroupUuid(r.getSecurityGroupUuid());
-                    ret.add(rto);
+                } else if (enabledSgUuids.contains(r.getRemoteSecurityGroupUuid())) {
+                    /* base rule is the rule with remote security group */
+                    RuleTO rule = toRuleTO(r);
+                    rule.setRemoteGroupUuid(r.getRemoteSecurityGroupUuid());
+                    // member ips of the same remote group are loaded once and shared
+                    rule.setRemoteGroupVmIps(memberIpsBySg.get(ipVersion).get(r.getRemoteSecurityGroupUuid()));
+                    baseRules.get(r.getSecurityGroupUuid()).add(rule);
                 }
             }
+        }
+
+        private List<RuleTO> calculateRuleTOBySecurityGroup(List<String> sgUuids, List<String> l3Uuids, int ipVersion) {
+            loadRules(sgUuids, ipVersion);
+            List<RuleTO> ret = new ArrayList<>();
+            sgUuids.forEach(uuid -> ret.addAll(rulesBySg.get(ipVersion).get(uuid)));
 
             if (logger.isTraceEnabled()) {
                 StringBuilder sb = new StringBuilder();
@@ -365,68 +413,69 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
 
         /* base rule is the rule with remote security group */
         private List<RuleTO> calculateSecurityGroupBaseRule(List<String> sgUuids, List<String> l3Uuids, int ipVersion){
+            loadRules(sgUuids, ipVersion);
             List<RuleTO> rules = new ArrayList<>();
-            for(String sgUuid : sgUuids){
-                String sql = "select r from SecurityGroupRuleVO r,SecurityGroupVO sg  where r.securityGroupUuid = :sgUuid and r.ipVersion = :ipVersion" +
-                        " and r.remoteSecurityGroupUuid is not null and r.remoteSecurityGroupUuid = sg.uuid and sg.state in (:sgStates)";
-                TypedQuery<SecurityGroupRuleVO> q = dbf.getEntityManager().createQuery(sql, SecurityGroupRuleVO.class);
-                q.setParameter("sgUuid", sgUuid);
-                q.setParameter("sgStates", sgStates);
-                q.setParameter("ipVersion", ipVersion);
-                List<SecurityGroupRuleVO> remoteRules = q.getResultList();
-
-                for(SecurityGroupRuleVO r : remoteRules){
-                    RuleTO rule = new RuleTO();
-                    rule.setIpVersion(r.getIpVersion());
-                    rule.setStartPort(r.getStartPort());
-                    rule.setEndPort(r.getEndPort());
-                    rule.setProtocol(r.getProtocol().toString());
-                    rule.setType(r.getType().toString());
-                    rule.setAllowedCidr(r.getAllowedCidr());
-                    rule.setSecurityGroupUuid(sgUuid);
-                    rule.setRemoteGroupUuid(r.getRemoteSecurityGroupUuid());
-                    // TODO: the same group only transport once
-                    rule.setRemoteGroupVmIps(getVmIpsBySecurityGroup(r.getRemoteSecurityGroupUuid(), r.getIpVersion()));
-                    rules.add(rule);
-                }
-            }
+            sgUuids.forEach(uuid -> rules.addAll(baseRulesBySg.get(ipVersion).get(uuid)));
             return rules;
-
         }
 
-        private List<String> getVmIpsBySecurityGroup(String sgUuid, int ipVersion){
-            List<String> ret = new ArrayList<>();
+        /* load member ips of security groups not loaded yet, in a few set queries */
+        private void loadMemberIps(Collection<String> sgUuids, int ipVersion) {
+            Map<String, List<String>> memberIps = memberIpsBySg.computeIfAbsent(ipVersion, k -> new HashMap<>());
+            List<String> toLoad = sgUuids.stream().filter(uuid -> !memberIps.containsKey(uuid)).distinct().collect(Collectors.toList());
+            if (toLoad.isEmpty()) {
+                return;
+            }
+
+            toLoad.forEach(uuid -> memberIps.put(uuid, new ArrayList<>()));
+
             // TODO: if two L3 network which have same ip segment attached same sg, it might has a problem
-            String sql = "select ip.ip" +
+            String sql = "select ref.securityGroupUuid, ip.ip" +
                     " from VmNicVO nic, VmNicSecurityGroupRefVO ref, SecurityGroupVO sg, UsedIpVO ip" +
                     " where sg.uuid = ref.securityGroupUuid and ref.vmNicUuid = nic.uuid" +
-                    " and ref.securityGroupUuid = :sgUuid" +
+                    " and ref.securityGroupUuid in (:sgUuids)" +
                     " and nic.uuid = ip.vmNicUuid and ip.ipVersion = :ipVersion";
-            TypedQuery<String> internalIpQuery = dbf.getEntityManager().createQuery(sql, String.class);
-            internalIpQuery.setParameter("sgUuid", sgUuid);
-            internalIpQuery.setParameter("ipVersion", ipVersion);
-
-            List<String> ips = internalIpQuery.getResultList();
-            if (ips != null) {
-                ret.addAll(ips);
+            List<Tuple> ts = SQL.New(sql, Tuple.class).param("sgUuids", toLoad).param("ipVersion", ipVersion).list();
+            for (Tuple t : ts) {
+                memberIps.get(t.get(0, String.class)).add(t.get(1, String.class));
             }
 
             /* add gateway address to group list */
-            List<String> l3Uuids = Q.New(SecurityGroupL3NetworkRefVO.class).select(SecurityGroupL3NetworkRefVO_.l3NetworkUuid)
-                    .eq(SecurityGroupL3NetworkRefVO_.securityGroupUuid, sgUuid).listValues();
-            for (String uuid: l3Uuids) {
-                L3NetworkInventory inv = L3NetworkInventory.valueOf(dbf.findByUuid(uuid, L3NetworkVO.class));
-                List<IpRangeInventory> iprs = IpRangeHelper.getNormalIpRanges(inv, ipVersion);
-                if (!iprs.isEmpty()) {
-                    ret.add(iprs.get(0).getGateway());
+            List<Tuple> l3Refs = Q.New(SecurityGroupL3NetworkRefVO.class)
+                    .select(SecurityGroupL3NetworkRefVO_.securityGroupUuid, SecurityGroupL3NetworkRefVO_.l3NetworkUuid)
+                    .in(SecurityGroupL3NetworkRefVO_.securityGroupUuid, toLoad).listTuple();
+            loadGateways(l3Refs.stream().map(t -> t.get(1, String.class)).collect(Collectors.toList()), ipVersion);
+            for (Tuple t : l3Refs) {
+                String gateway = gateways.get(t.get(1, String.class) + "-" + ipVersion);
+                if (gateway != null) {
+                    memberIps.get(t.get(0, String.class)).add(gateway);
                 }
             }
 
-            for (SecurityGroupGetDefaultRuleExtensionPoint exp : pluginRgty.getExtensionList(SecurityGroupGetDefaultRuleExtensionPoint.class)) {
-                ret.addAll(exp.getGroupMembers(sgUuid, ipVersion));
+            for (String sgUuid : toLoad) {
+                for (SecurityGroupGetDefaultRuleExtensionPoint exp : pluginRgty.getExtensionList(SecurityGroupGetDefaultRuleExtensionPoint.class)) {
+                    memberIps.get(sgUuid).addAll(exp.getGroupMembers(sgUuid, ipVersion));
+                }
             }
+        }
 
-            return ret;
+        private void loadGateways(List<String> l3Uuids, int ipVersion) {
+            List<String> toLoad = l3Uuids.stream().filter(uuid -> !gateways.containsKey(uuid + "-" + ipVersion))
+                    .distinct().collect(Collectors.toList());
+            if (toLoad.isEmpty()) {
+                return;
+            }
+
+            List<L3NetworkVO> l3s = Q.New(L3NetworkVO.class).in(L3NetworkVO_.uuid, toLoad).list();
+            for (L3NetworkVO l3 : l3s) {
+                List<IpRangeInventory> iprs = IpRangeHelper.getNormalIpRanges(L3NetworkInventory.valueOf(l3), ipVersion);
+                gateways.put(l3.getUuid() + "-" + ipVersion, iprs.isEmpty() ? null : iprs.get(0).getGateway());
+            }
+        }
+
+        private List<String> getVmIpsBySecurityGroup(String sgUuid, int ipVersion){
+            loadMemberIps(list(sgUuid), ipVersion);
+            return new ArrayList<>(memberIpsBySg.get(ipVersion).get(sgUuid));
         }
 
         /* calculate the default rules for nics which are not bound to sg */
@@ -523,30 +572,54 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
             Map<String, HostRuleTO> hostRuleMap = new HashMap<String, HostRuleTO>();
             List<HostRuleTO> htos = new ArrayList<HostRuleTO>();
 
-            for (String nicUuid : vmNicUuids) {
+            /* load nics in sets instead of one query per nic */
+            Map<String, List<Tuple>> tuplesByNic = new LinkedHashMap<>();
+            vmNicUuids.forEach(uuid -> tuplesByNic.put(uuid, new ArrayList<>()));
+            List<String> nicUuids = new ArrayList<>(tuplesByNic.keySet());
+            for (int i = 0; i < nicUuids.size(); i += NIC_QUERY_BATCH_SIZE) {
+                List<String> batch = nicUuids.subList(i, Math.min(i + NIC_QUERY_BATCH_SIZE, nicUuids.size()));
                 List<Tuple> tuples;
                 if (vmStates != null && !vmStates.isEmpty()) {
-                    String sql = "select ref.securityGroupUuid, vm.hostUuid, vm.hypervisorType, nic.internalName, ip.l3NetworkUuid, nic.mac, ip.ip, ip.ipVersion" +
+                    String sql = "select ref.securityGroupUuid, vm.hostUuid, vm.hypervisorType, nic.internalName, ip.l3NetworkUuid, nic.mac, ip.ip, ip.ipVersion, nic.uuid" +
                                      " from VmNicSecurityGroupRefVO ref, VmInstanceVO vm, VmNicVO nic, SecurityGroupVO sg, UsedIpVO ip" +
-                                     " where ref.vmNicUuid = nic.uuid and nic.vmInstanceUuid = vm.uuid and ref.vmNicUuid = :nicUuid " +
+                                     " where ref.vmNicUuid = nic.uuid and nic.vmInstanceUuid = vm.uuid and ref.vmNicUuid in (:nicUuids) " +
                                      " and vm.state in (:vmStates) and ref.securityGroupUuid = sg.uuid and sg.state in (:sgStates) " +
                                      " and nic.uuid = ip.vmNicUuid";
                     TypedQuery<Tuple> q = dbf.getEntityManager().createQuery(sql, Tuple.class);
-                    q.setParameter("nicUuid", nicUuid);
+                    q.setParameter("nicUuids", batch);
                     q.setParameter("vmStates", vmStates);
                     q.setParameter("sgStates", sgStates);
                     tuples = q.getResultList();
                 } else {
-                    String sql = "select ref.securityGroupUuid, vm.hostUuid, vm.hypervisorType, nic.internalName, ip.l3NetworkUuid, nic.mac, ip.ip, ip.ipVersion" +
+                    String sql = "select ref.securityGroupUuid, vm.hostUuid, vm.hypervisorType, nic.internalName, ip.l3NetworkUuid, nic.mac, ip.ip, ip.ipVersion, nic.uuid" +
                             " from VmNicSecurityGroupRefVO ref, VmInstanceVO vm, VmNicVO nic, SecurityGroupVO sg, UsedIpVO ip" +
-                            " where ref.vmNicUuid = nic.uuid and nic.vmInstanceUuid = vm.uuid and ref.vmNicUuid = :nicUuid " +
+                            " where ref.vmNicUuid = nic.uuid and nic.vmInstanceUuid = vm.uuid and ref.vmNicUuid in (:nicUuids) " +
                             " and ref.securityGroupUuid = sg.uuid and sg.state in (:sgStates) and nic.uuid = ip.vmNicUuid";
                     TypedQuery<Tuple> q = dbf.getEntityManager().createQuery(sql, Tuple.class);
-                    q.setParameter("nicUuid", nicUuid);
+                    q.setParameter("nicUuids", batch);
                     q.setParameter("sgStates", sgStates);
                     tuples = q.getResultList();
                 }
 
+                tuples.forEach(t -> tuplesByNic.get(t.get(8, String.class)).add(t));
+            }
+
+            /* rules of all security groups involved are loaded at once, and shared by nics */
+            Set<String> ipv4SgUuids = new HashSet<>();
+            Set<String> ipv6SgUuids = new HashSet<>();
+            tuplesByNic.values().forEach(tuples -> tuples.forEach(t -> {
+                if (t.get(7, Integer.class) == IPv6Constants.IPv4) {
+                    ipv4SgUuids.add(t.get(0, String.class));
+                } else {
+                    ipv6SgUuids.add(t.get(0, String.class));
+                }
+            }));
+            loadRules(ipv4SgUuids, IPv6Constants.IPv4);
+            loadRules(ipv6SgUuids, IPv6Constants.IPv6);
+
+            for (Map.Entry<String, List<Tuple>> e : tuplesByNic.entrySet()) {
+                String nicUuid = e.getKey();
+                List<Tuple> tuples = e.getValue();
                 if (tuples.isEmpty()) {
                     // vm is not in vmStates or not in security group
                     continue;
@@ -1270,7 +1343,14 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
     }
 
     private void applyRules(Collection<HostRuleTO> htos) {
+        boolean skipUnchanged = SecurityGroupGlobalConfig.SKIP_UNCHANGED_RULES.value(Boolean.class);
         for (final HostRuleTO h : htos) {
+            final long digestVersion = skipUnchanged ? hostRuleDigests.prepare(h) : -1;
+            if (skipUnchanged && digestVersion < 0) {
+                logger.debug(String.format("security rules on host[uuid:%s] are unchanged, skip applying", h.getHostUuid()));
+                continue;
+            }
+
             SecurityGroupHypervisorBackend bkend = hypervisorBackends.get(h.getHypervisorType());
             bkend.applyRules(h, new Completion(null) {
                 private void copeWithFailureHost() {
@@ -1279,11 +1359,15 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
 
                 @Override
                 public void success() {
+                    if (skipUnchanged) {
+                        hostRuleDigests.applied(h, digestVersion);
+                    }
                     logger.debug(String.format("successfully applied security rules on host[uuid:%s]", h.getHostUuid()));
                 }
 
                 @Override
                 public void fail(ErrorCode errorCode) {
+                    hostRuleDigests.forget(h.getHostUuid());
                     logger.debug(String.format("failed to apply security rules on host[uuid:%s], because %s, will try it later", h.getHostUuid(), errorCode));
                     copeWithFailureHost();
                 }
@@ -1511,11 +1595,20 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
         SecurityGroupGlobalConfig.FAILURE_HOST_WORKER_INTERVAL.installUpdateExtension(onUpdate);
         SecurityGroupGlobalConfig.FAILURE_HOST_EACH_TIME_TO_TAKE.installUpdateExtension(onUpdate);
         SecurityGroupGlobalConfig.DELAY_REFRESH_INTERVAL.installUpdateExtension(onUpdate);
+        SecurityGroupGlobalConfig.SKIP_UNCHANGED_RULES.installUpdateExtension((oldConfig, newConfig) -> hostRuleDigests.clear());
     }
 
     public boolean start() {
         prepareGlobalConfig();
         populateExtensions();
+
+        evtf.on(HostCanonicalEvents.HOST_DELETED_PATH, new EventCallback() {
+            @Override
+            protected void run(Map tokens, Object data) {
+                HostCanonicalEvents.HostDeletedData d = (HostCanonicalEvents.HostDeletedData) data;
+                hostRuleDigests.forget(d.getHostUuid());
+            }
+        });
         return true;
     }
 
@@ -14,4 +14,10 @@ public class VxlanNetworkGlobalConfig {
 
     @GlobalConfigValidation
     public static GlobalConfig CLUSTER_LAZY_ATTACH = new GlobalConfig(CATEGORY, "cluster.lazyAttach");
+
+    @GlobalConfigValidation(validValues = {"true", "false"})
+    public static GlobalConfig FDB_INCREMENTAL = new GlobalConfig(CATEGORY, "fdb.incremental");
+
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig FDB_POPULATE_PARALLELISM = new GlobalConfig(CATEGORY, "fdb.populateParallelism");
 }
\ No newline at end of file
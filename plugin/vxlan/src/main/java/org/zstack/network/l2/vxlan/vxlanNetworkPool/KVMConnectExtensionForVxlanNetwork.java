@@ -47,6 +47,8 @@ public class KVMConnectExtensionForVxlanNetwork implements KVMHostConnectExtensi
     private KVMRealizeL2VxlanNetworkBackend kvmRealizeL2VxlanNetworkBackend;
     @Autowired
     private CloudBus bus;
+    @Autowired
+    private VtepFdbDistributor fdbDistributor;
 
     @Transactional(readOnly = true)
     private List<L2NetworkInventory> getL2Networks(String clusterUuid) {
@@ -88,6 +90,9 @@ public class KVMConnectExtensionForVxlanNetwork implements KVMHostConnectExtensi
 
     @Override
     public void connectionReestablished(HostInventory inv) throws HostException {
+        // the agent may have restarted and lost fdb
+        fdbDistributor.forgetHost(inv.getUuid());
+
         //TODO: make connect async
         List<String> l2s = getL2Networks(inv.getClusterUuid()).stream().map(L2NetworkInventory::getUuid).collect(Collectors.toList());
         if (l2s.isEmpty()) {
@@ -114,6 +119,7 @@ public class KVMConnectExtensionForVxlanNetwork implements KVMHostConnectExtensi
 
             @Override
             public void run(final FlowTrigger trigger, Map data) {
+                fdbDistributor.forgetHost(context.getInventory().getUuid());
                 List<String> l2s = getL2Networks(context.getInventory().getClusterUuid()).stream().map(L2NetworkInventory::getUuid).collect(Collectors.toList());
                 if (l2s.isEmpty()) {
                     trigger.next();
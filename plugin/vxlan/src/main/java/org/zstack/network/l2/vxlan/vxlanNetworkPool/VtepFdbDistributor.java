@@ -0,0 +1,172 @@
+package org.zstack.network.l2.vxlan.vxlanNetworkPool;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.jmx.JmxFacade;
+import org.zstack.header.Component;
+import org.zstack.header.managementnode.ManagementNodeChangeListener;
+import org.zstack.header.managementnode.ManagementNodeInventory;
+import org.zstack.network.l2.vxlan.vxlanNetwork.VxlanNetworkGlobalConfig;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * peers populated to fdb of hosts in vxlan network pools, for PopulateVtepPeersMsg only
+ * sending vteps a host doesn't have yet, enabled by the global config fdb.incremental.
+ *
+ * a host is populated with all peers when it's unknown, or when the pool has vxlan
+ * networks it wasn't populated with. A host is forgotten when populating it fails or
+ * it reconnects, and all are forgotten when a node joins or leaves as pools may move
+ * to another node.
+ *
+ * the agent appends peers to fdb and has no command to remove them, peers of removed
+ * vteps are only dropped from the state, so they are sent again if they come back.
+ */
+public class VtepFdbDistributor implements Component, ManagementNodeChangeListener, VtepFdbDistributorMXBean {
+    private static final CLogger logger = Utils.getLogger(VtepFdbDistributor.class);
+
+    @Autowired
+    private JmxFacade jmxf;
+
+    private static class HostFdb {
+        final Set<String> peers = new HashSet<>();
+        final Set<String> networkUuids = new HashSet<>();
+    }
+
+    // pool uuid -> host uuid -> fdb populated
+    private final Map<String, Map<String, HostFdb>> pools = new HashMap<>();
+    // pool uuid -> time taken by the last populating, in milliseconds
+    private final Map<String, Long> convergenceTimes = new ConcurrentHashMap<>();
+
+    public boolean isIncremental() {
+        return VxlanNetworkGlobalConfig.FDB_INCREMENTAL.value(Boolean.class);
+    }
+
+    public int getParallelism() {
+        return VxlanNetworkGlobalConfig.FDB_POPULATE_PARALLELISM.value(Integer.class);
+    }
+
+    /**
+     * @param peersByHost host uuid -> all peers the host should have
+     * @return host uuid -> peers to send, hosts having all peers are not included
+     */
+    public synchronized Map<String, List<String>> prepare(String poolUuid, Collection<String> networkUuids, Map<String, Set<String>> peersByHost) {
+        Map<String, List<String>> ret = new LinkedHashMap<>();
+        if (!isIncremental()) {
+            peersByHost.forEach((hostUuid, peers) -> ret.put(hostUuid, new ArrayList<>(peers)));
+            return ret;
+        }
+
+        Map<String, HostFdb> hosts = pools.computeIfAbsent(poolUuid, k -> new HashMap<>());
+        peersByHost.forEach((hostUuid, peers) -> {
+            HostFdb fdb = hosts.get(hostUuid);
+            if (fdb == null || !fdb.networkUuids.containsAll(networkUuids)) {
+                ret.put(hostUuid, new ArrayList<>(peers));
+                return;
+            }
+
+            fdb.peers.retainAll(peers);
+            List<String> added = new ArrayList<>();
+            for (String peer : peers) {
+                if (!fdb.peers.contains(peer)) {
+                    added.add(peer);
+                }
+            }
+
+            if (!added.isEmpty()) {
+                ret.put(hostUuid, added);
+            }
+        });
+
+        return ret;
+    }
+
+    /**
+     * @param full the host was sent all peers with networkUuids
+     */
+    public synchronized void populated(String poolUuid, String hostUuid, Collection<String> peers, Collection<String> networkUuids, boolean full) {
+        if (!isIncremental()) {
+            return;
+        }
+
+        Map<String, HostFdb> hosts = pools.computeIfAbsent(poolUuid, k -> new HashMap<>());
+        HostFdb fdb = hosts.get(hostUuid);
+        if (full || fdb == null) {
+            fdb = new HostFdb();
+            fdb.networkUuids.addAll(networkUuids);
+            hosts.put(hostUuid, fdb);
+        }
+        fdb.peers.addAll(peers);
+    }
+
+    public synchronized void forgetHost(String poolUuid, String hostUuid) {
+        Map<String, HostFdb> hosts = pools.get(poolUuid);
+        if (hosts != null) {
+            hosts.remove(hostUuid);
+        }
+    }
+
+    public synchronized void forgetHost(String hostUuid) {
+        pools.values().forEach(hosts -> hosts.remove(hostUuid));
+    }
+
+    /**
+     * drops hosts no longer having vteps in the pool
+     */
+    public synchronized void retainHosts(String poolUuid, Collection<String> hostUuids) {
+        Map<String, HostFdb> hosts = pools.get(poolUuid);
+        if (hosts != null) {
+            hosts.keySet().retainAll(hostUuids);
+        }
+    }
+
+    public synchronized void forgetAll() {
+        pools.clear();
+    }
+
+    public void converged(String poolUuid, long startTime, int populatedHosts, int targetHosts) {
+        long time = System.currentTimeMillis() - startTime;
+        convergenceTimes.put(poolUuid, time);
+        logger.info(String.format("fdb of vxlan network pool[uuid:%s] converged in %sms, populated %s of %s hosts%s",
+                poolUuid, time, populatedHosts, targetHosts, isIncremental() ? " incrementally" : ""));
+    }
+
+    @Override
+    public Map<String, Long> getConvergenceTimes() {
+        return new HashMap<>(convergenceTimes);
+    }
+
+    @Override
+    public boolean start() {
+        VxlanNetworkGlobalConfig.FDB_INCREMENTAL.installUpdateExtension((oldConfig, newConfig) -> forgetAll());
+        jmxf.registerBean("VtepFdbDistributor", this);
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        return true;
+    }
+
+    @Override
+    public void nodeJoin(ManagementNodeInventory inv) {
+        forgetAll();
+    }
+
+    @Override
+    public void nodeLeft(ManagementNodeInventory inv) {
+        forgetAll();
+    }
+
+    @Override
+    public void iAmDead(ManagementNodeInventory inv) {
+        forgetAll();
+    }
+
+    @Override
+    public void iJoin(ManagementNodeInventory inv) {
+        forgetAll();
+    }
+}
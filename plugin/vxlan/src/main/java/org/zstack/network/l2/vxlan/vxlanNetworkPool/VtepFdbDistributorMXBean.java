@@ -0,0 +1,12 @@
+package org.zstack.network.l2.vxlan.vxlanNetworkPool;
+
+import java.util.Map;
+
+/**
+ */
+public interface VtepFdbDistributorMXBean {
+    /**
+     * @return pool uuid -> milliseconds taken by the last populating of the pool on this node
+     */
+    Map<String, Long> getConvergenceTimes();
+}
@@ -32,6 +32,7 @@ import org.zstack.header.message.Message;
 import org.zstack.header.message.MessageReply;
 import org.zstack.header.network.l2.*;
 import org.zstack.kvm.KVMHostAsyncHttpCallMsg;
+import org.zstack.kvm.KVMHostAsyncHttpCallReply;
 import org.zstack.network.l2.L2NetworkExtensionPointEmitter;
 import org.zstack.network.l2.L2NetworkManager;
 import org.zstack.network.l2.L2NoVlanNetwork;
@@ -78,6 +79,8 @@ public class VxlanNetworkPool extends L2NoVlanNetwork implements L2VxlanNetworkP
     private TagManager tagMgr;
     @Autowired
     private ApiTimeoutManager timeoutMgr;
+    @Autowired
+    private VtepFdbDistributor fdbDistributor;
 
     private Map<String, VniAllocatorStrategy> vniAllocatorStrategies = Collections.synchronizedMap(new HashMap<String, VniAllocatorStrategy>());
 
@@ -138,6 +141,7 @@ public class VxlanNetworkPool extends L2NoVlanNetwork implements L2VxlanNetworkP
 
     protected void handle(final PopulateVtepPeersMsg msg) {
         final PopulateVtepPeersReply reply = new PopulateVtepPeersReply();
+        long startTime = System.currentTimeMillis();
 
         List<VtepVO> vteps = Q.New(VtepVO.class).eq(VtepVO_.poolUuid, msg.getPoolUuid()).list();
         if (vteps == null || vteps.size() <= 1) {
@@ -164,18 +168,34 @@ public class VxlanNetworkPool extends L2NoVlanNetwork implements L2VxlanNetworkP
             return;
         }
 
-        new While<>(targets).all((host, completion1) -> {
-            List<VtepVO> peerVteps = Q.New(VtepVO.class).eq(VtepVO_.poolUuid, msg.getPoolUuid())
-                    .notEq(VtepVO_.hostUuid, host.getUuid()).list();
-            Set<String> peers = peerVteps.stream()
-                    .map(v -> v.getVtepIp())
-                    .collect(Collectors.toSet());
+        // peers of a host are vteps of other hosts
+        Map<String, Set<String>> peersByHost = new LinkedHashMap<>();
+        for (HostInventory host : targets) {
+            peersByHost.put(host.getUuid(), vteps.stream()
+                    .filter(v -> !v.getHostUuid().equals(host.getUuid()))
+                    .map(VtepVO::getVtepIp)
+                    .collect(Collectors.toSet()));
+        }
 
-            logger.info(String.format("populate fdb to host[ip:%s] for vxlan network pool %s with vxlan network[uuids:%s] to host[uuid:%s]",
-                    host.getManagementIp(), msg.getPoolUuid(), vxlanNetworkUuids, host.getUuid()));
+        fdbDistributor.retainHosts(msg.getPoolUuid(), vteps.stream().map(VtepVO::getHostUuid).collect(Collectors.toSet()));
+        Map<String, List<String>> toSend = fdbDistributor.prepare(msg.getPoolUuid(), vxlanNetworkUuids, peersByHost);
+        List<HostInventory> hosts = targets.stream().filter(h -> toSend.containsKey(h.getUuid())).collect(Collectors.toList());
+        int targetNum = targets.size();
+        if (hosts.isEmpty()) {
+            fdbDistributor.converged(msg.getPoolUuid(), startTime, 0, targetNum);
+            bus.reply(msg, reply);
+            return;
+        }
+
+        new While<>(hosts).step((host, completion1) -> {
+            List<String> peers = toSend.get(host.getUuid());
+            boolean full = peers.size() == peersByHost.get(host.getUuid()).size();
+
+            logger.info(String.format("populate fdb to host[ip:%s] for vxlan network pool %s with vxlan network[uuids:%s] to host[uuid:%s], %s peers%s",
+                    host.getManagementIp(), msg.getPoolUuid(), vxlanNetworkUuids, host.getUuid(), peers.size(), full ? "" : " added"));
 
             VxlanKvmAgentCommands.PopulateVxlanNetworksFdbCmd cmd = new VxlanKvmAgentCommands.PopulateVxlanNetworksFdbCmd();
-            cmd.setPeers(new ArrayList<>(peers));
+            cmd.setPeers(peers);
             cmd.setNetworkUuids(vxlanNetworkUuids);
 
             KVMHostAsyncHttpCallMsg kmsg = new KVMHostAsyncHttpCallMsg();
@@ -189,13 +209,19 @@ public class VxlanNetworkPool extends L2NoVlanNetwork implements L2VxlanNetworkP
                 public void run(MessageReply reply) {
                     if (!reply.isSuccess()) {
                         logger.warn(reply.getError().toString());
+                        fdbDistributor.forgetHost(msg.getPoolUuid(), host.getUuid());
+                    } else if (!((KVMHostAsyncHttpCallReply) reply).toResponse(VxlanKvmAgentCommands.PopulateVxlanNetworksFdbResponse.class).isSuccess()) {
+                        fdbDistributor.forgetHost(msg.getPoolUuid(), host.getUuid());
+                    } else {
+                        fdbDistributor.populated(msg.getPoolUuid(), host.getUuid(), peers, vxlanNetworkUuids, full);
                     }
                     completion1.done();
                 }
             });
-        }).run(new WhileDoneCompletion(msg) {
+        }, fdbDistributor.getParallelism()).run(new WhileDoneCompletion(msg) {
             @Override
             public void done(ErrorCodeList errorCodeList) {
+                fdbDistributor.converged(msg.getPoolUuid(), startTime, hosts.size(), targetNum);
                 bus.reply(msg, reply);
             }
         });
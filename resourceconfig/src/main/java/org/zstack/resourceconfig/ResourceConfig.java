@@ -1,5 +1,7 @@
 package org.zstack.resourceconfig;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.springframework.beans.factory.annotation.Autowire;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Configurable;
@@ -16,7 +18,9 @@ import org.zstack.utils.TypeUtils;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 
+import javax.persistence.Tuple;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.zstack.core.Platform.operr;
 import static org.zstack.utils.CollectionDSL.e;
@@ -32,6 +36,11 @@ import static org.zstack.resourceconfig.ResourceConfigCanonicalEvents.*;
 public class ResourceConfig {
     private static final CLogger logger = Utils.getLogger(ResourceConfig.class);
 
+    // the type of a resource never changes, shared by all resource configs
+    private static final Cache<String, String> resourceTypes = CacheBuilder.newBuilder()
+            .maximumSize(100000)
+            .build();
+
     @Autowired
     private DatabaseFacade dbf;
 
@@ -47,6 +56,12 @@ public class ResourceConfig {
     private List<ResourceConfigDeleteExtensionPoint> deleteExtensions = new ArrayList<>();
     private List<ResourceConfigValidatorExtensionPoint> validatorExtensions = new ArrayList<>();
 
+    // values set on resources, loaded at init and kept in line with the database
+    // by local changes and canonical events of changes on other nodes
+    private final Map<String, String> values = new ConcurrentHashMap<>();
+    // resource type -> uuids of resources having a value set
+    private final Map<String, Set<String>> resourceUuidsByType = new ConcurrentHashMap<>();
+
     public static ResourceConfig valueOf(GlobalConfig globalConfig, BindResourceConfig bindInfo) {
         ResourceConfig result = new ResourceConfig();
         result.globalConfig = globalConfig;
@@ -102,6 +117,38 @@ public class ResourceConfig {
     void init() {
         installEventTrigger();
         initResourceConfigNodes();
+        loadValues();
+    }
+
+    private void loadValues() {
+        List<Tuple> ts = Q.New(ResourceConfigVO.class)
+                .select(ResourceConfigVO_.resourceUuid, ResourceConfigVO_.resourceType, ResourceConfigVO_.value)
+                .eq(ResourceConfigVO_.name, globalConfig.getName())
+                .eq(ResourceConfigVO_.category, globalConfig.getCategory())
+                .listTuple();
+        ts.forEach(t -> cacheValue(t.get(0, String.class), t.get(1, String.class), t.get(2, String.class)));
+    }
+
+    private synchronized void cacheValue(String resourceUuid, String resourceType, String value) {
+        if (value == null) {
+            uncacheValue(resourceUuid);
+            return;
+        }
+
+        values.put(resourceUuid, value);
+        if (resourceType != null) {
+            resourceUuidsByType.computeIfAbsent(resourceType, k -> ConcurrentHashMap.newKeySet()).add(resourceUuid);
+        }
+    }
+
+    private synchronized void uncacheValue(String resourceUuid) {
+        values.remove(resourceUuid);
+        resourceUuidsByType.values().forEach(uuids -> uuids.remove(resourceUuid));
+    }
+
+    private boolean hasValueOnType(String resourceType) {
+        Set<String> uuids = resourceUuidsByType.get(resourceType);
+        return uuids != null && !uuids.isEmpty();
     }
 
     private void installEventTrigger() {
@@ -117,11 +164,9 @@ public class ResourceConfig {
                 }
 
                 UpdateEvent evt = (UpdateEvent) data;
-                String newValue = Q.New(ResourceConfigVO.class).select(ResourceConfigVO_.value)
-                        .eq(ResourceConfigVO_.resourceUuid, evt.getResourceUuid())
-                        .eq(ResourceConfigVO_.category, globalConfig.getCategory())
-                        .eq(ResourceConfigVO_.name, globalConfig.getName())
-                        .findValue();
+                ResourceConfigVO vo = loadConfig(evt.getResourceUuid());
+                String newValue = vo == null ? null : vo.getValue();
+                cacheValue(evt.getResourceUuid(), vo == null ? evt.getResourceType() : vo.getResourceType(), newValue);
 
                 updateValue(evt.getResourceUuid(), evt.getResourceType(), newValue, false);
                 logger.info(String.format("ResourceConfig [resourceUuid:%s, category:%s, name:%s] was updated in other" +
@@ -142,6 +187,7 @@ public class ResourceConfig {
                 }
 
                 DeleteEvent evt = (DeleteEvent)data;
+                uncacheValue(evt.getResourceUuid());
                 deleteValue(evt.getResourceUuid(), evt.getResourceType(), false);
                 logger.info(String.format("ResourceConfig[resourceUuid: %s category: %s, name: %s] was deleted from" +
                                 " other management node[uuid:%s], in line with that change, deleted ours.",
@@ -168,6 +214,7 @@ public class ResourceConfig {
                     it.validateGlobalConfig(globalConfig.getCategory(), globalConfig.getName(), oldValue, newValue));
             validatorExtensions.forEach(it -> it.validateResourceConfig(resourceUuid, oldValue, newValue));
             updateValueInDb(resourceUuid, resourceType, newValue);
+            cacheValue(resourceUuid, resourceType, newValue);
             localUpdateExtensions.forEach(it -> it.updateResourceConfig(this, resourceUuid, resourceType, oldValue, newValue));
         }
 
@@ -176,6 +223,7 @@ public class ResourceConfig {
         if (localUpdate) {
             UpdateEvent evt = new UpdateEvent();
             evt.setResourceUuid(resourceUuid);
+            evt.setResourceType(resourceType);
             evt.setOldValue(oldValue);
             evtf.fire(makeUpdateEventPath(), evt);
         }
@@ -190,6 +238,7 @@ public class ResourceConfig {
 
         if (localDelete) {
             deleteInDb(resourceUuid);
+            uncacheValue(resourceUuid);
             localDeleteExtensions.forEach(it -> it.deleteResourceConfig(this, resourceUuid, resourceType, originValue));
         }
 
@@ -210,7 +259,12 @@ public class ResourceConfig {
 
     @Transactional(readOnly = true)
     protected String getResourceConfigValue(String resourceUuid) {
-        String resourceType = Q.New(ResourceVO.class).select(ResourceVO_.resourceType).eq(ResourceVO_.uuid, resourceUuid).findValue();
+        if (values.isEmpty()) {
+            // not set on any resource
+            return globalConfig.value();
+        }
+
+        String resourceType = findResourceType(resourceUuid);
         if (resourceType == null) {
             logger.warn(String.format("no resource[uuid:%s] found, cannot get it's resource config," +
                     " use global config instead", resourceUuid));
@@ -227,6 +281,19 @@ public class ResourceConfig {
         return getter.getResourceConfigValue(resourceUuid);
     }
 
+    private static String findResourceType(String resourceUuid) {
+        String resourceType = resourceTypes.getIfPresent(resourceUuid);
+        if (resourceType != null) {
+            return resourceType;
+        }
+
+        resourceType = Q.New(ResourceVO.class).select(ResourceVO_.resourceType).eq(ResourceVO_.uuid, resourceUuid).findValue();
+        if (resourceType != null) {
+            resourceTypes.put(resourceUuid, resourceType);
+        }
+        return resourceType;
+    }
+
     List<ResourceConfigInventory> getEffectiveResourceConfigs(String resourceUuid) {
         String resourceType = Q.New(ResourceVO.class).select(ResourceVO_.resourceType).eq(ResourceVO_.uuid, resourceUuid).findValue();
         if (resourceType == null) {
@@ -248,20 +315,31 @@ public class ResourceConfig {
     private class ResourceConfigGetter {
         String resourceType;
         List<String> parentTypeSql = new ArrayList<>();
+        // resource types of parentTypeSql, in the same order
+        List<String> parentTypes = new ArrayList<>();
+
+        private String findParentUuid(String sql, String resourceUuid) {
+            return SQL.New(sql, String.class).param("uuid", resourceUuid).find();
+        }
 
         private String getResourceConfigValue(String resourceUuid) {
-            String v = loadConfigValue(resourceUuid);
+            String v = values.get(resourceUuid);
             if (v != null) {
                 return v;
             }
 
-            for (String sql : parentTypeSql) {
-                String resUuid = SQL.New(String.format(sql, resourceUuid), String.class).find();
+            for (int i = 0; i < parentTypeSql.size(); i++) {
+                if (!hasValueOnType(parentTypes.get(i))) {
+                    // no need to find the parent, it has no value set anyway
+                    continue;
+                }
+
+                String resUuid = findParentUuid(parentTypeSql.get(i), resourceUuid);
                 if (resUuid == null) {
                     continue;
                 }
 
-                v = loadConfigValue(resUuid);
+                v = values.get(resUuid);
                 if (v != null) {
                     return v;
                 }
@@ -275,7 +353,7 @@ public class ResourceConfig {
             Optional.ofNullable(loadConfig(resourceUuid)).ifPresent(it ->
                     results.add(ResourceConfigInventory.valueOf(it)));
             for (String sql : parentTypeSql) {
-                String resUuid = SQL.New(String.format(sql, resourceUuid), String.class).find();
+                String resUuid = findParentUuid(sql, resourceUuid);
                 if (resUuid == null) {
                     continue;
                 }
@@ -290,8 +368,10 @@ public class ResourceConfig {
             ResourceConfigGetter getter = new ResourceConfigGetter();
             Class resourceClass = connectedClasses.get(0);
             for (Class parentClass : connectedClasses.subList(1, connectedClasses.size())) {
-                Optional.ofNullable(DBGraph.findVerticesWithSmallestWeight(resourceClass, parentClass)).ifPresent(vertex ->
-                        parentTypeSql.add(vertex.toSQL("uuid", SimpleQuery.Op.EQ, "'%s'")));
+                Optional.ofNullable(DBGraph.findVerticesWithSmallestWeight(resourceClass, parentClass)).ifPresent(vertex -> {
+                    parentTypeSql.add(vertex.toSQL("uuid", SimpleQuery.Op.EQ, ":uuid"));
+                    parentTypes.add(parentClass.getSimpleName());
+                });
             }
 
             getter.resourceType = resourceClass.getSimpleName();
@@ -347,7 +427,7 @@ public class ResourceConfig {
     }
 
     private String makeDeleteEventPath() {
-        return s(ResourceConfigCanonicalEvents.UPDATE_EVENT_PATH).formatByMap(map(
+        return s(ResourceConfigCanonicalEvents.DELETE_EVENT_PATH).formatByMap(map(
                 e("nodeUuid", Platform.getManagementServerId()),
                 e("category", globalConfig.getCategory()),
                 e("name", globalConfig.getName())
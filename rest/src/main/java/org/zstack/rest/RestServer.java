@@ -44,6 +44,7 @@ import org.zstack.rest.sdk.SdkTemplate;
 import org.zstack.utils.*;
 import org.zstack.utils.gson.JSONObjectUtil;
 import org.zstack.utils.logging.CLogger;
+import org.zstack.utils.path.PathTrie;
 import org.zstack.utils.path.PathUtil;
 
 import javax.net.ssl.SSLSocketFactory;
@@ -320,6 +321,8 @@ public class RestServer implements Component, CloudBusEventListener {
         String path;
         List<String> optionalPaths = new ArrayList<>();
         String actionName;
+        // names of {var} segments of the path, in order
+        List<String> pathVarNames;
 
         Map<String, Field> allApiClassFields = new HashMap<>();
 
@@ -473,6 +476,8 @@ public class RestServer implements Component, CloudBusEventListener {
     private AntPathMatcher matcher = new AntPathMatcher();
 
     private Map<String, Object> apis = new HashMap<>();
+    // normalized paths of apis, for matching request URLs
+    private PathTrie<Object> routes = new PathTrie<>();
     private Set<String> sensitiveRestPaths = new HashSet<>();
     private Map<Class, RestResponseWrapper> responseAnnotationByClass = new HashMap<>();
 
@@ -532,17 +537,13 @@ public class RestServer implements Component, CloudBusEventListener {
     }
 
     private String getMatchPath(String path) {
-        if (apis.containsKey(path)) {
-            return path;
-        }
-
-        for (String p : apis.keySet()) {
-            if (matcher.match(p, path)) {
-                return p;
-            }
-        }
+        PathTrie.Match<Object> m = routes.match(path);
+        return m == null ? null : m.getPattern();
+    }
 
-        return null;
+    private Map<String, String> getPathVariables(Api api, String url) {
+        PathTrie.Match<Object> m = routes.match(url);
+        return m == null ? new HashMap<>() : m.getVariables(api.pathVarNames);
     }
 
     void handle(HttpServletRequest req, HttpServletResponse rsp) throws IOException, IllegalAccessException, NoSuchMethodException, InvocationTargetException {
@@ -917,7 +918,7 @@ public class RestServer implements Component, CloudBusEventListener {
         }
 
         String url = getDecodedUrl(req);
-        Map<String, String> vars = matcher.extractUriTemplateVariables(api.path, url);
+        Map<String, String> vars = getPathVariables(api, url);
         for (Map.Entry<String, String> e : vars.entrySet()) {
             // set fields parsed from the URL
             String key = e.getKey();
@@ -989,7 +990,7 @@ public class RestServer implements Component, CloudBusEventListener {
         msg.setSession(session);
         msg.setServiceId(ApiMediatorConstant.SERVICE_ID);
 
-        Map<String, String> urlvars = matcher.extractUriTemplateVariables(api.path, getDecodedUrl(req));
+        Map<String, String> urlvars = getPathVariables(api, getDecodedUrl(req));
         String uuid = urlvars.get("uuid");
         if (uuid != null) {
             // this is a GET /xxxx/uuid
@@ -1285,6 +1286,7 @@ public class RestServer implements Component, CloudBusEventListener {
 
                 api = new Api(clz, at);
                 api.path = path;
+                api.pathVarNames = PathTrie.getVariableNames(path);
 
                 if (LogSafeGson.needMaskLog(api.apiClass)) {
                     sensitiveRestPaths.add(normalizedPath);
@@ -1313,6 +1315,8 @@ public class RestServer implements Component, CloudBusEventListener {
             responseAnnotationByClass.put(api.apiResponseClass, new RestResponseWrapper(api.responseAnnotation, api.apiResponseClass));
         }
 
+        apis.forEach((path, api) -> routes.add(path, api));
+
         responseAnnotationByClass.put(APIEvent.class, new RestResponseWrapper(new RestResponse(){
             @Override
             public Class<? extends Annotation> annotationType() {
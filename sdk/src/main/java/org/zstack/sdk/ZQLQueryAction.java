@@ -28,6 +28,9 @@ public class ZQLQueryAction extends AbstractAction {
     @Param(required = false)
     public java.lang.String zql;
 
+    @Param(required = false, nonempty = false, nullElements = false, emptyString = true, noTrim = false)
+    public boolean streaming = false;
+
     @Param(required = false)
     public java.util.List systemTags;
 
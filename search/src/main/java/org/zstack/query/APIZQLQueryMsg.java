@@ -1,12 +1,15 @@
 package org.zstack.query;
 
 import org.springframework.http.HttpMethod;
+import org.zstack.header.message.APIParam;
 import org.zstack.header.message.APISyncCallMessage;
 import org.zstack.header.rest.RestRequest;
 
 @RestRequest(path = "/zql", method = HttpMethod.GET, responseClass = APIZQLQueryReply.class)
 public class APIZQLQueryMsg extends APISyncCallMessage {
     private String zql;
+    @APIParam(required = false)
+    private boolean streaming;
 
     public static APIZQLQueryMsg __example__() {
         APIZQLQueryMsg ret = new APIZQLQueryMsg();
@@ -20,4 +23,12 @@ public class APIZQLQueryMsg extends APISyncCallMessage {
     public void setZql(String zql) {
         this.zql = zql;
     }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
 }
@@ -30,6 +30,16 @@ doc {
 					optional true
 					since "0.6"
 					
+				}
+				column {
+					name "streaming"
+					enclosedIn ""
+					desc "以流式方式读取查询结果，逐行转换为inventory，适用于结果集很大的查询"
+					location "query"
+					type "boolean"
+					optional true
+					since "4.4.24"
+					
 				}
 				column {
 					name "systemTags"
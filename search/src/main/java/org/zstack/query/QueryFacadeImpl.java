@@ -239,7 +239,11 @@ public class QueryFacadeImpl extends AbstractService implements QueryFacade, Glo
             }
 
             private void doCall(ReturnValueCompletion<List<ZQLQueryReturn>> completion) {
-                completion.success(ZQL.fromString(msg.getZql()).getResultList());
+                ZQL zql = ZQL.fromString(msg.getZql());
+                if (msg.isStreaming()) {
+                    zql.fetchInChunks(QueryGlobalConfig.ZQL_STREAMING_CHUNK_SIZE.value(Integer.class));
+                }
+                completion.success(zql.getResultList());
             }
 
             @Override
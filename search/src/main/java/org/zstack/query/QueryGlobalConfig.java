@@ -19,4 +19,13 @@ public class QueryGlobalConfig {
 
     @GlobalConfigValidation
     public static GlobalConfig ZQL_STATISTICS_ON = new GlobalConfig(CATEGORY, "zql.statistics.on");
+
+    @GlobalConfigValidation(numberGreaterThan = -1)
+    public static GlobalConfig ZQL_PARSE_CACHE_SIZE = new GlobalConfig(CATEGORY, "zql.parseCache.size");
+
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig ZQL_PARSE_CACHE_EXPIRE_TIME = new GlobalConfig(CATEGORY, "zql.parseCache.expireTime");
+
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig ZQL_STREAMING_CHUNK_SIZE = new GlobalConfig(CATEGORY, "zql.streaming.chunkSize");
 }
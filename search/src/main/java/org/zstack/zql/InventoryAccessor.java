@@ -0,0 +1,76 @@
+package org.zstack.zql;
+
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.utils.BeanUtils;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * per inventory class constructor and property setters, resolved once, for
+ * building inventories of field queries row by row instead of
+ * looking up bean properties by reflection for every field of every row
+ */
+class InventoryAccessor {
+    private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private static final ClassValue<InventoryAccessor> accessors = new ClassValue<InventoryAccessor>() {
+        @Override
+        protected InventoryAccessor computeValue(Class<?> type) {
+            return new InventoryAccessor(type);
+        }
+    };
+
+    private final MethodHandle constructor;
+    private final Map<String, MethodHandle> setters = new HashMap<>();
+
+    static InventoryAccessor get(Class invClass) {
+        return accessors.get(invClass);
+    }
+
+    private InventoryAccessor(Class<?> invClass) {
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+
+        try {
+            constructor = lookup.findConstructor(invClass, MethodType.methodType(void.class)).asType(CONSTRUCTOR_TYPE);
+
+            for (PropertyDescriptor pd : Introspector.getBeanInfo(invClass).getPropertyDescriptors()) {
+                if (pd.getWriteMethod() != null) {
+                    setters.put(pd.getName(), lookup.unreflect(pd.getWriteMethod()).asType(SETTER_TYPE));
+                }
+            }
+        } catch (NoSuchMethodException | IllegalAccessException | IntrospectionException e) {
+            throw new CloudRuntimeException(String.format("unable to access inventory class[%s]", invClass), e);
+        }
+    }
+
+    Object newInstance() {
+        try {
+            return (Object) constructor.invokeExact();
+        } catch (Throwable t) {
+            throw new CloudRuntimeException(t);
+        }
+    }
+
+    void setProperty(Object inv, String fieldName, Object value) {
+        MethodHandle setter = setters.get(fieldName);
+        if (setter == null) {
+            // not a plain bean property, let BeanUtils resolve it or report the error
+            BeanUtils.setProperty(inv, fieldName, value);
+            return;
+        }
+
+        try {
+            setter.invokeExact(inv, value);
+        } catch (Throwable t) {
+            throw new CloudRuntimeException(String.format("unable to set field[%s] of %s", fieldName, inv.getClass()), t);
+        }
+    }
+}
@@ -30,10 +30,8 @@ import org.zstack.header.vo.ToInventory;
 import org.zstack.header.zql.*;
 import org.zstack.query.QueryGlobalConfig;
 import org.zstack.search.SearchErrors;
-import org.zstack.utils.BeanUtils;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
-import org.zstack.zql.antlr4.ZQLLexer;
 import org.zstack.zql.antlr4.ZQLParser;
 import org.zstack.zql.ast.ZQLMetadata;
 import org.zstack.zql.ast.parser.visitors.CountVisitor;
@@ -45,6 +43,7 @@ import org.zstack.zql.ast.visitors.result.QueryResult;
 import org.zstack.zql.ast.visitors.result.ReturnWithResult;
 import org.zstack.zql.ast.visitors.result.SearchResult;
 
+import javax.persistence.EntityManager;
 import javax.persistence.Query;
 import java.lang.reflect.Field;
 import java.util.*;
@@ -60,10 +59,12 @@ public class ZQL {
 
     private static Set<String> slowZql = new HashSet<>();
     private static ZQLStatistic statistic = new ZQLStatistic();
+    private static volatile ZQLParseCache parseCache;
 
     private QueryResult astResult;
     private SearchResult searchResult;
     private String text;
+    private Integer chunkSize;
 
     @Autowired
     private PluginRegistry pluginRgty;
@@ -105,6 +106,20 @@ public class ZQL {
         return zql;
     }
 
+    /**
+     * query results are read in pages of the chunk size, ordered by the primary key
+     * at last, and converted to inventories page by page. The persistence context is
+     * cleared after each page, so neither it nor the VO list holds the whole result.
+     *
+     * only applies to queries without return with clause, whose extensions need the
+     * full VO list, and to queries whose rows have a primary key, i.e. without group
+     * by or functions
+     */
+    public ZQL fetchInChunks(int chunkSize) {
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
     private List entityVOtoInventories(List vos) {
         List ret = new ArrayList();
         if (astResult.targetFieldNames != null && !astResult.targetFieldNames.isEmpty()) {
@@ -118,19 +133,49 @@ public class ZQL {
         return ret;
     }
 
+    private boolean isChunked() {
+        return chunkSize != null && astResult.createChunkJPAQuery != null
+                && (astResult.returnWith == null || astResult.returnWith.isEmpty());
+    }
+
+    private List chunkEntityVOtoInventories(EntityManager entityManager) {
+        List ret = new ArrayList();
+        Query q = astResult.createChunkJPAQuery.apply(entityManager);
+        // the limit and offset of the zql
+        int first = q.getFirstResult();
+        int max = q.getMaxResults();
+
+        while (ret.size() < max) {
+            int size = Math.min(chunkSize, max - ret.size());
+            q.setFirstResult(first + ret.size());
+            q.setMaxResults(size);
+            List vos = q.getResultList();
+            ret.addAll(entityVOtoInventories(vos));
+            // the query is read only, drop the converted entities
+            entityManager.clear();
+
+            if (vos.size() < size) {
+                break;
+            }
+        }
+
+        return ret;
+    }
+
     private Object entityVOtoInventory(Object vo) {
         try {
             ZQLMetadata.InventoryMetadata inventoryMetadata = astResult.inventoryMetadata;
-            Object inv = inventoryMetadata.selfInventoryClass.getConstructor().newInstance();
+            InventoryAccessor accessor = InventoryAccessor.get(inventoryMetadata.selfInventoryClass);
+            Object inv = accessor.newInstance();
             if (vo instanceof Object[]) {
                 Object[] fieldValues = (Object[]) vo;
                 for (int i = 0; i < astResult.targetFieldNames.size(); i++) {
                     String fieldName = astResult.targetFieldNames.get(i);
-                    BeanUtils.setProperty(inv, fieldName, inventoryMetadata.toInventoryFieldObject(fieldName, fieldValues[i]));
+                    accessor.setProperty(inv, fieldName, inventoryMetadata.toInventoryFieldObject(fieldName, fieldValues[i]));
                 }
             } else {
                 String fieldName =  astResult.targetFieldNames.get(0);
-                BeanUtils.setProperty(inv, fieldName, astResult.inventoryMetadata.toInventoryFieldObject(fieldName, vo));
+                accessor.setProperty(inv, fieldName, astResult.inventoryMetadata.toInventoryFieldObject(fieldName, vo));
             }
             return inv;
         } catch (Exception e) {
@@ -233,199 +278,209 @@ public class ZQL {
 
         List<ZQLQueryReturn> rs = new ArrayList<>();
 
-        ZQLLexer l = new ZQLLexer(CharStreams.fromString(text));
-        ZQLParser p = new ZQLParser(new CommonTokenStream(l));
-        
-        l.addErrorListener(new ThrowingErrorListener(text));
-        p.addErrorListener(new ThrowingErrorListener(text));
+        ZQLParseCache.ParsedZQL parsed = getParseCache().parse(text, ThrowingErrorListener::new);
 
         Map currentContext = ZQLContext.get();
-        p.zqls().zql().forEach(ctx -> {
-            ZQLContext.set(currentContext);
+        parsed.bind();
+        try {
+            parsed.tree.zql().forEach(ctx -> {
+                ZQLContext.set(currentContext);
+                rs.add(getResult(ctx));
+            });
+        } finally {
+            parsed.unbind();
+        }
 
-            ZQLQueryReturn qr = new ZQLQueryReturn();
+        long cost = System.currentTimeMillis() - before;
+        boolean statisticsOn = QueryGlobalConfig.ZQL_STATISTICS_ON.value(Boolean.class);
+        if (cost > TimeUnit.SECONDS.toMillis(QueryGlobalConfig.SLOW_ZQL_COST_TIME.value(Long.class))) {
+            logSlowZql(text, cost);
 
-            class Ret {
-                Long count;
-                List vos;
+            if (statisticsOn) {
+                statistic.getSlowZQLStatistics().add(new SlowZQLStatistic(text, cost));
             }
+        }
 
-            Ret ret = new Ret();
+        if (statisticsOn) {
+            statistic.count();
+        }
 
-            if (ctx instanceof ZQLParser.CountGrammarContext) {
-                ASTNode.Query query = ((ZQLParser.CountGrammarContext)ctx).count().accept(new CountVisitor());
+        return rs;
+    }
 
-                Runnable clean = prepareZQLContext(query);
+    private ZQLQueryReturn getResult(ZQLParser.ZqlContext ctx) {
+        ZQLQueryReturn qr = new ZQLQueryReturn();
 
-                callExtensions(query);
+        class Ret {
+            Long count;
+            List vos;
+            List inventories;
+        }
 
-                astResult = (QueryResult) query.accept(new QueryVisitor(true));
+        Ret ret = new Ret();
 
-                if (logger.isTraceEnabled()) {
-                    logger.trace(String.format("ZQL query: %s", astResult.sql));
-                }
+        if (ctx instanceof ZQLParser.CountGrammarContext) {
+            ASTNode.Query query = ((ZQLParser.CountGrammarContext)ctx).count().accept(new CountVisitor());
 
-                beforeExecuteQuery(astResult, ZQLContext.getAPISession());
+            Runnable clean = prepareZQLContext(query);
 
-                new SQLBatch() {
-                    @Override
-                    protected void scripts() {
-                        Query q = astResult.createCountQuery.apply(databaseFacade.getEntityManager());
-                        List results = q.getResultList();
-                        if (results.size() == 1 && results.get(0) instanceof Long) {
-                            ret.count = (Long)results.get(0);
-                        } else {
-                            if (!results.isEmpty()) {
-                                /*
-                                    gson which enable ComplexMapKeySerialization will serialize the map to json array
-                                    when it is not empty or json object "{}" when it is empty.
-                                    null is better than a inconsistent json type.
-                                 */
-                                qr.inventoryCounts = new LinkedHashMap<>();
-                            }
-                            for (Object result : results) {
-                                Object[] fieldValues = (Object[]) result;
-                                int countIndex = fieldValues.length - 1;
-                                qr.inventoryCounts.put(entityVOtoInventory(fieldValues), (Long)fieldValues[countIndex]);
-                            }
-
-                            Query totalCountQuery = astResult.createSimpleCountQuery.apply(databaseFacade.getEntityManager());
-                            ret.count = (Long) totalCountQuery.getSingleResult();
-                        }
-                    }
-                }.execute();
+            callExtensions(query);
 
-                qr.name = query.getName();
+            astResult = (QueryResult) query.accept(new QueryVisitor(true));
 
-                clean.run();
-            } else if (ctx instanceof ZQLParser.QueryGrammarContext) {
-                ASTNode.Query query = ((ZQLParser.QueryGrammarContext) ctx).query().accept(new org.zstack.zql.ast.parser.visitors.QueryVisitor());
-                ReturnWithQueryNodeWrapper wrapper = new ReturnWithQueryNodeWrapper(query);
-
-                wrapper.addPrimaryKeyFieldToTargetFieldNamesWhenReturnWithEnabledAndIsFieldQuery();
+            if (logger.isTraceEnabled()) {
+                logger.trace(String.format("ZQL query: %s", astResult.sql));
+            }
 
-                Runnable clean = prepareZQLContext(query);
+            beforeExecuteQuery(astResult, ZQLContext.getAPISession());
 
-                callExtensions(query);
-                astResult = (QueryResult) query.accept(new QueryVisitor(false));
+            new SQLBatch() {
+                @Override
+                protected void scripts() {
+                    Query q = astResult.createCountQuery.apply(databaseFacade.getEntityManager());
+                    List results = q.getResultList();
+                    if (results.size() == 1 && results.get(0) instanceof Long) {
+                        ret.count = (Long)results.get(0);
+                    } else {
+                        if (!results.isEmpty()) {
+                            /*
+                                gson which enable ComplexMapKeySerialization will serialize the map to json array
+                                when it is not empty or json object "{}" when it is empty.
+                                null is better than a inconsistent json type.
+                             */
+                            qr.inventoryCounts = new LinkedHashMap<>();
+                        }
+                        for (Object result : results) {
+                            Object[] fieldValues = (Object[]) result;
+                            int countIndex = fieldValues.length - 1;
+                            qr.inventoryCounts.put(entityVOtoInventory(fieldValues), (Long)fieldValues[countIndex]);
+                        }
 
-                if (logger.isTraceEnabled()) {
-                    logger.trace(String.format("ZQL query: %s", astResult.sql));
+                        Query totalCountQuery = astResult.createSimpleCountQuery.apply(databaseFacade.getEntityManager());
+                        ret.count = (Long) totalCountQuery.getSingleResult();
+                    }
                 }
+            }.execute();
 
-                beforeExecuteQuery(astResult, ZQLContext.getAPISession());
+            qr.name = query.getName();
 
-                new SQLBatch() {
-                    @Override
-                    protected void scripts() {
-                        Query q = astResult.createJPAQuery.apply(databaseFacade.getEntityManager());
-                        ret.vos = q.getResultList();
+            clean.run();
+        } else if (ctx instanceof ZQLParser.QueryGrammarContext) {
+            ASTNode.Query query = ((ZQLParser.QueryGrammarContext) ctx).query().accept(new org.zstack.zql.ast.parser.visitors.QueryVisitor());
+            ReturnWithQueryNodeWrapper wrapper = new ReturnWithQueryNodeWrapper(query);
 
-                        if (astResult.createSimpleCountQuery != null) {
-                            q = astResult.createSimpleCountQuery.apply(databaseFacade.getEntityManager());
-                            ret.count = (Long) q.getSingleResult();
-                        }
-                    }
-                }.execute();
+            wrapper.addPrimaryKeyFieldToTargetFieldNamesWhenReturnWithEnabledAndIsFieldQuery();
 
-                qr.returnWith = callReturnWithExtensions(astResult, wrapper, ret.vos);
-                qr.name = query.getName();
+            Runnable clean = prepareZQLContext(query);
 
-                wrapper.removePrimaryKeyFieldFromTargetFieldNamesWhenReturnWithEnabledAndIsFieldQuery(astResult);
+            callExtensions(query);
+            astResult = (QueryResult) query.accept(new QueryVisitor(false));
 
-                clean.run();
-
-                qr.inventories = ret.vos != null ? entityVOtoInventories(ret.vos) : null;
-            } else if (ctx instanceof ZQLParser.SumGrammarContext) {
-                ASTNode.Sum sum = ((ZQLParser.SumGrammarContext) ctx).sum().accept(new SumVisitor());
+            if (logger.isTraceEnabled()) {
+                logger.trace(String.format("ZQL query: %s", astResult.sql));
+            }
 
-                Runnable clean = prepareZQLContext(sum);
-                callExtensions(sum);
+            beforeExecuteQuery(astResult, ZQLContext.getAPISession());
 
-                astResult = (QueryResult) sum.accept(new QueryVisitor(false));
+            new SQLBatch() {
+                @Override
+                protected void scripts() {
+                    if (isChunked()) {
+                        ret.inventories = chunkEntityVOtoInventories(databaseFacade.getEntityManager());
+                    } else {
+                        ret.vos = astResult.createJPAQuery.apply(databaseFacade.getEntityManager()).getResultList();
+                    }
 
-                if (logger.isTraceEnabled()) {
-                    logger.trace(String.format("ZQL query: %s", astResult.sql));
+                    if (astResult.createSimpleCountQuery != null) {
+                        Query q = astResult.createSimpleCountQuery.apply(databaseFacade.getEntityManager());
+                        ret.count = (Long) q.getSingleResult();
+                    }
                 }
+            }.execute();
 
-                beforeExecuteQuery(astResult, ZQLContext.getAPISession());
+            qr.returnWith = callReturnWithExtensions(astResult, wrapper, ret.vos);
+            qr.name = query.getName();
 
-                new SQLBatch() {
-                    @Override
-                    protected void scripts() {
-                        Query q = astResult.createJPAQuery.apply(databaseFacade.getEntityManager());
-                        ret.vos = q.getResultList();
-                    }
-                }.execute();
+            wrapper.removePrimaryKeyFieldFromTargetFieldNamesWhenReturnWithEnabledAndIsFieldQuery(astResult);
 
-                qr.inventories = (List) ret.vos.stream().map(vo -> Arrays.asList((Object[]) vo)).collect(Collectors.toList());
-                qr.name = sum.getName();
+            clean.run();
 
-                clean.run();
-            } else if (ctx instanceof ZQLParser.SearchGrammarContext) {
-                if (!SearchGlobalProperty.SearchAutoRegister) {
-                    throw new OperationFailureException(err(SearchErrors.SEARCH_MODULE_DISABLED, "search module disabled"));
-                }
-
-                ASTNode.Search search = ((ZQLParser.SearchGrammarContext) ctx).search().accept(new SearchVisitor());
-                searchResult = (SearchResult) search.accept(new org.zstack.zql.ast.visitors.SearchVisitor());
-                Set<String> resourceUuids = Sets.newConcurrentHashSet();
-                searchResult.getSearchs()
-                        .parallelStream()
-                        .forEach(v -> {
-                            List result = v.getQuery().getResultList();
-                            Set<String> searchResults = Sets.newConcurrentHashSet();
-                            for (Object o : result) {
-                                Object[] rarray = (Object[]) o;
-                                searchResults.add((String) rarray[0]);
-                            }
-
-                            if (!searchResults.isEmpty() && v.getRestrictSql() != null) {
-                                new SQLBatch() {
-                                    @Override
-                                    protected void scripts() {
-                                        Query q = databaseFacade
-                                            .getEntityManager()
-                                            .createQuery(String.format(v.getRestrictSql(),
-                                                    String.join(",", searchResults)
-                                                            .replaceAll("([^,]+)", "'$1'")));
-                                        List res = q.getResultList();
-                                        resourceUuids.addAll((Collection<? extends String>) res.stream().collect(Collectors.toList()));
-                                    }
-                                }.execute();
-                            } else {
-                                resourceUuids.addAll(searchResults);
-                            }
-                        });
-
-                qr.inventories = filterNoAccessResources(resourceUuids, ZQLContext.getAPISession().getAccountUuid());
-                ret.count = (long) qr.inventories.size();
+            if (ret.inventories != null) {
+                qr.inventories = ret.inventories;
             } else {
-                throw new CloudRuntimeException(String.format("should not be here, %s", ctx));
+                qr.inventories = ret.vos != null ? entityVOtoInventories(ret.vos) : null;
             }
+        } else if (ctx instanceof ZQLParser.SumGrammarContext) {
+            ASTNode.Sum sum = ((ZQLParser.SumGrammarContext) ctx).sum().accept(new SumVisitor());
 
+            Runnable clean = prepareZQLContext(sum);
+            callExtensions(sum);
 
-            qr.total = ret.count;
+            astResult = (QueryResult) sum.accept(new QueryVisitor(false));
 
-            rs.add(qr);
-        });
+            if (logger.isTraceEnabled()) {
+                logger.trace(String.format("ZQL query: %s", astResult.sql));
+            }
 
+            beforeExecuteQuery(astResult, ZQLContext.getAPISession());
 
-        long cost = System.currentTimeMillis() - before;
-        boolean statisticsOn = QueryGlobalConfig.ZQL_STATISTICS_ON.value(Boolean.class);
-        if (cost > TimeUnit.SECONDS.toMillis(QueryGlobalConfig.SLOW_ZQL_COST_TIME.value(Long.class))) {
-            logSlowZql(text, cost);
+            new SQLBatch() {
+                @Override
+                protected void scripts() {
+                    Query q = astResult.createJPAQuery.apply(databaseFacade.getEntityManager());
+                    ret.vos = q.getResultList();
+                }
+            }.execute();
 
-            if (statisticsOn) {
-                statistic.getSlowZQLStatistics().add(new SlowZQLStatistic(text, cost));
+            qr.inventories = (List) ret.vos.stream().map(vo -> Arrays.asList((Object[]) vo)).collect(Collectors.toList());
+            qr.name = sum.getName();
+
+            clean.run();
+        } else if (ctx instanceof ZQLParser.SearchGrammarContext) {
+            if (!SearchGlobalProperty.SearchAutoRegister) {
+                throw new OperationFailureException(err(SearchErrors.SEARCH_MODULE_DISABLED, "search module disabled"));
             }
-        }
 
-        if (statisticsOn) {
-            statistic.count();
+            ASTNode.Search search = ((ZQLParser.SearchGrammarContext) ctx).search().accept(new SearchVisitor());
+            searchResult = (SearchResult) search.accept(new org.zstack.zql.ast.visitors.SearchVisitor());
+            Set<String> resourceUuids = Sets.newConcurrentHashSet();
+            searchResult.getSearchs()
+                    .parallelStream()
+                    .forEach(v -> {
+                        List result = v.getQuery().getResultList();
+                        Set<String> searchResults = Sets.newConcurrentHashSet();
+                        for (Object o : result) {
+                            Object[] rarray = (Object[]) o;
+                            searchResults.add((String) rarray[0]);
+                        }
+
+                        if (!searchResults.isEmpty() && v.getRestrictSql() != null) {
+                            new SQLBatch() {
+                                @Override
+                                protected void scripts() {
+                                    Query q = databaseFacade
+                                        .getEntityManager()
+                                        .createQuery(String.format(v.getRestrictSql(),
+                                                String.join(",", searchResults)
+                                                        .replaceAll("([^,]+)", "'$1'")));
+                                    List res = q.getResultList();
+                                    resourceUuids.addAll((Collection<? extends String>) res.stream().collect(Collectors.toList()));
+                                }
+                            }.execute();
+                        } else {
+                            resourceUuids.addAll(searchResults);
+                        }
+                    });
+
+            qr.inventories = filterNoAccessResources(resourceUuids, ZQLContext.getAPISession().getAccountUuid());
+            ret.count = (long) qr.inventories.size();
+        } else {
+            throw new CloudRuntimeException(String.format("should not be here, %s", ctx));
         }
 
-        return rs;
+
+        qr.total = ret.count;
+        return qr;
     }
 
     @ExceptionSafe
@@ -440,6 +495,31 @@ public class ZQL {
         return statistic;
     }
 
+    private static ZQLParseCache getParseCache() {
+        ZQLParseCache cache = parseCache;
+        if (cache == null) {
+            synchronized (ZQL.class) {
+                if (parseCache == null) {
+                    parseCache = new ZQLParseCache(QueryGlobalConfig.ZQL_PARSE_CACHE_SIZE.value(Long.class),
+                            QueryGlobalConfig.ZQL_PARSE_CACHE_EXPIRE_TIME.value(Long.class));
+                }
+                cache = parseCache;
+            }
+        }
+
+        return cache;
+    }
+
+    public static ZQLParseCacheStatistic getZQLParseCacheStatistic() {
+        return getParseCache().getStatistic();
+    }
+
+    @ExceptionSafe
+    public static void cleanParseCache() {
+        // rebuilt with current configs on next query
+        parseCache = null;
+    }
+
     @ExceptionSafe
     public static void cleanStatisticData() {
         statistic.getSlowZQLStatistics().clear();
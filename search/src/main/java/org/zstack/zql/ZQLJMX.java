@@ -17,6 +17,11 @@ public class ZQLJMX implements ZQLMXBean, Component {
         return ZQL.getZQLStatistic();
     }
 
+    @Override
+    public ZQLParseCacheStatistic getZQLParseCacheStatistic() {
+        return ZQL.getZQLParseCacheStatistic();
+    }
+
     @Override
     public boolean start() {
         QueryGlobalConfig.ZQL_STATISTICS_ON.installUpdateExtension((oldConfig, newConfig) -> {
@@ -28,6 +33,9 @@ public class ZQLJMX implements ZQLMXBean, Component {
             ZQL.cleanStatisticData();
         });
 
+        QueryGlobalConfig.ZQL_PARSE_CACHE_SIZE.installUpdateExtension((oldConfig, newConfig) -> ZQL.cleanParseCache());
+        QueryGlobalConfig.ZQL_PARSE_CACHE_EXPIRE_TIME.installUpdateExtension((oldConfig, newConfig) -> ZQL.cleanParseCache());
+
         jmxf.registerBean("ZQL", this);
         return true;
     }
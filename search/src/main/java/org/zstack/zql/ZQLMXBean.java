@@ -2,4 +2,6 @@ package org.zstack.zql;
 
 public interface ZQLMXBean {
     ZQLStatistic getZQLStatistic();
+
+    ZQLParseCacheStatistic getZQLParseCacheStatistic();
 }
@@ -0,0 +1,176 @@
+package org.zstack.zql;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNodeImpl;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+import org.zstack.zql.antlr4.ZQLLexer;
+import org.zstack.zql.antlr4.ZQLParser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * caches parse trees of ZQL texts.
+ *
+ * a text is lexed on every call, which is cheap, literals(INT, FLOAT, STRING) are
+ * replaced by placeholders to make the cache key, so queries only differing in
+ * literal values share one parse tree. Terminal nodes of literals in a cached tree
+ * hold a ParameterToken, whose text is resolved from the literals bound to the current
+ * thread by ParsedZQL.bind(), that's why the visitors turning the tree into AST
+ * must run between bind() and unbind() on the same thread.
+ *
+ * only parse trees are cached, the AST built from a tree is still mutated by
+ * MarshalZQLASTTreeExtensionPoint and the generated JPQL depends on the session,
+ * so both are built per call.
+ */
+class ZQLParseCache {
+    private static final CLogger logger = Utils.getLogger(ZQLParseCache.class);
+
+    private static final ThreadLocal<List<String>> boundLiterals = new ThreadLocal<>();
+
+    private final Cache<String, ZQLParser.ZqlsContext> trees;
+    private final AtomicLong parseCount = new AtomicLong();
+    private final AtomicLong totalParseTime = new AtomicLong();
+    private final AtomicLong maxParseTime = new AtomicLong();
+
+    static class ParameterToken extends CommonToken {
+        private final int parameterIndex;
+
+        ParameterToken(Token token, int parameterIndex) {
+            super(token);
+            this.parameterIndex = parameterIndex;
+        }
+
+        @Override
+        public String getText() {
+            List<String> literals = boundLiterals.get();
+            // not bound, e.g. printing the tree in a log, use the text it was parsed from
+            return literals == null ? super.getText() : literals.get(parameterIndex);
+        }
+    }
+
+    static class ParsedZQL {
+        ZQLParser.ZqlsContext tree;
+        List<String> literals;
+
+        private List<String> previous;
+
+        void bind() {
+            // a ZQL may be executed in extensions of another one on the same thread
+            previous = boundLiterals.get();
+            boundLiterals.set(literals);
+        }
+
+        void unbind() {
+            if (previous == null) {
+                boundLiterals.remove();
+            } else {
+                boundLiterals.set(previous);
+            }
+        }
+    }
+
+    ZQLParseCache(long size, long expireTime) {
+        trees = size <= 0 ? null : CacheBuilder.newBuilder()
+                .maximumSize(size)
+                .expireAfterAccess(expireTime, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+    }
+
+    private static boolean isLiteral(Token token) {
+        return token.getType() == ZQLLexer.INT || token.getType() == ZQLLexer.FLOAT || token.getType() == ZQLLexer.STRING;
+    }
+
+    ParsedZQL parse(String text, Function<String, ANTLRErrorListener> errorListener) {
+        ZQLLexer l = new ZQLLexer(CharStreams.fromString(text));
+        l.addErrorListener(errorListener.apply(text));
+        CommonTokenStream tokens = new CommonTokenStream(l);
+        tokens.fill();
+
+        ParsedZQL ret = new ParsedZQL();
+        ret.literals = new ArrayList<>();
+        // token index -> index of the literal
+        Map<Integer, Integer> parameters = new HashMap<>();
+        StringBuilder key = new StringBuilder();
+        for (Token token : tokens.getTokens()) {
+            if (isLiteral(token)) {
+                parameters.put(token.getTokenIndex(), ret.literals.size());
+                ret.literals.add(token.getText());
+                key.append('?').append(token.getType());
+            } else {
+                key.append(token.getText());
+            }
+            // keywords may contain spaces, e.g. 'order by'
+            key.append('\u0001');
+        }
+
+        ret.tree = trees == null ? null : trees.getIfPresent(key.toString());
+        if (ret.tree != null) {
+            return ret;
+        }
+
+        long before = System.nanoTime();
+        ZQLParser p = new ZQLParser(tokens);
+        p.addErrorListener(errorListener.apply(text));
+        ret.tree = p.zqls();
+        parameterize(ret.tree, parameters);
+        recordParseTime(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - before));
+
+        if (trees != null) {
+            trees.put(key.toString(), ret.tree);
+        }
+
+        if (logger.isTraceEnabled()) {
+            logger.trace(String.format("parsed ZQL with %s literals: %s", ret.literals.size(), text));
+        }
+
+        return ret;
+    }
+
+    private void parameterize(ParseTree tree, Map<Integer, Integer> parameters) {
+        if (tree instanceof TerminalNodeImpl) {
+            TerminalNodeImpl node = (TerminalNodeImpl) tree;
+            Integer index = parameters.get(node.symbol.getTokenIndex());
+            if (index != null) {
+                node.symbol = new ParameterToken(node.symbol, index);
+            }
+            return;
+        }
+
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            parameterize(tree.getChild(i), parameters);
+        }
+    }
+
+    private void recordParseTime(long cost) {
+        parseCount.incrementAndGet();
+        totalParseTime.addAndGet(cost);
+        maxParseTime.accumulateAndGet(cost, Math::max);
+    }
+
+    ZQLParseCacheStatistic getStatistic() {
+        ZQLParseCacheStatistic s = new ZQLParseCacheStatistic();
+        s.setParseCount(parseCount.get());
+        s.setTotalParseTime(totalParseTime.get());
+        s.setMaxParseTime(maxParseTime.get());
+        if (trees != null) {
+            CacheStats stats = trees.stats();
+            s.setHitCount(stats.hitCount());
+            s.setMissCount(stats.missCount());
+            s.setEvictionCount(stats.evictionCount());
+            s.setSize(trees.size());
+        }
+        return s;
+    }
+}
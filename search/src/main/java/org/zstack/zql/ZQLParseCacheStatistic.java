@@ -0,0 +1,68 @@
+package org.zstack.zql;
+
+public class ZQLParseCacheStatistic {
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private long size;
+    private long parseCount;
+    // in milliseconds
+    private long totalParseTime;
+    private long maxParseTime;
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public void setHitCount(long hitCount) {
+        this.hitCount = hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public void setMissCount(long missCount) {
+        this.missCount = missCount;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public void setEvictionCount(long evictionCount) {
+        this.evictionCount = evictionCount;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public long getParseCount() {
+        return parseCount;
+    }
+
+    public void setParseCount(long parseCount) {
+        this.parseCount = parseCount;
+    }
+
+    public long getTotalParseTime() {
+        return totalParseTime;
+    }
+
+    public void setTotalParseTime(long totalParseTime) {
+        this.totalParseTime = totalParseTime;
+    }
+
+    public long getMaxParseTime() {
+        return maxParseTime;
+    }
+
+    public void setMaxParseTime(long maxParseTime) {
+        this.maxParseTime = maxParseTime;
+    }
+}
@@ -1,6 +1,7 @@
 package org.zstack.zql.ast.visitors;
 
 import org.apache.commons.lang.StringUtils;
+import org.zstack.core.db.EntityMetadata;
 import org.zstack.header.core.StaticInit;
 import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.zql.ASTNode;
@@ -71,6 +72,9 @@ public class QueryVisitor implements ASTVisitor<QueryResult, ASTNode.Query> {
         String sql;
         // JPQL doesn't not support limit and offset clause
         String jpql;
+        // jpql ordered by the primary key at last, for reading the result in chunks,
+        // null if rows of the query have no primary key
+        String chunkJpql;
         Integer limit;
         Integer offset;
     }
@@ -108,16 +112,33 @@ public class QueryVisitor implements ASTVisitor<QueryResult, ASTNode.Query> {
             sqlClauses.add(StringUtils.join(where, " AND "));
         }
 
+        String groupBy = null;
         if (ctype != QueryVisitorPlugin.ClauseType.SIMPLE_COUNT) {
-            Optional.ofNullable(plugin.groupBy()).ifPresent(sqlClauses::add);
+            groupBy = plugin.groupBy();
+            Optional.ofNullable(groupBy).ifPresent(sqlClauses::add);
         }
 
+        String orderBy = null;
         if (ctype != QueryVisitorPlugin.ClauseType.SIMPLE_COUNT) {
-            Optional.ofNullable(plugin.orderBy()).ifPresent(sqlClauses::add);
+            orderBy = plugin.orderBy();
+            Optional.ofNullable(orderBy).ifPresent(sqlClauses::add);
         }
 
         List<String> jpqlClauses = new ArrayList<>(sqlClauses);
 
+        if (ctype == QueryVisitorPlugin.ClauseType.QUERY && groupBy == null && node.getTarget().getFunction() == null) {
+            // pages of the result are only consistent in a total order
+            String pk = String.format("%s.%s ASC", inventory.simpleInventoryName(),
+                    EntityMetadata.getPrimaryKeyField(inventory.inventoryAnnotation.mappingVOClass()).getName());
+            List<String> chunkClauses = new ArrayList<>(jpqlClauses);
+            if (orderBy == null) {
+                chunkClauses.add(String.format("ORDER BY %s", pk));
+            } else {
+                chunkClauses.set(chunkClauses.size() - 1, String.format("%s,%s", orderBy, pk));
+            }
+            st.chunkJpql = StringUtils.join(chunkClauses, " ");
+        }
+
         Integer limit = plugin.limit();
         if (limit != null) {
             sqlClauses.add(String.format("LIMIT %s", limit));
@@ -146,6 +167,13 @@ public class QueryVisitor implements ASTVisitor<QueryResult, ASTNode.Query> {
                 setPaging(q, st);
                 return q;
             };
+            if (st.chunkJpql != null) {
+                ret.createChunkJPAQuery = (EntityManager emgr) -> {
+                    Query q = emgr.createQuery(st.chunkJpql);
+                    setPaging(q, st);
+                    return q;
+                };
+            }
         }
 
 
@@ -11,6 +11,8 @@ public class QueryResult {
     public String sql;
     public List<String> targetFieldNames;
     public Function<EntityManager, Query> createJPAQuery;
+    // the query in a total order, null if the result can't be read in chunks
+    public Function<EntityManager, Query> createChunkJPAQuery;
     public Function<EntityManager, Query> createSimpleCountQuery;
     public Function<EntityManager, Query> createCountQuery;
     public ZQLMetadata.InventoryMetadata inventoryMetadata;
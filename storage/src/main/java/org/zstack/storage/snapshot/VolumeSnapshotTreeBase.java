@@ -163,12 +163,7 @@ public class VolumeSnapshotTreeBase {
 
         currentRoot = vo;
         buildFullSnapshotTree();
-        currentLeaf = fullTree.findSnapshot(new Function<Boolean, VolumeSnapshotInventory>() {
-            @Override
-            public Boolean call(VolumeSnapshotInventory arg) {
-                return arg.getUuid().equals(currentRoot.getUuid());
-            }
-        });
+        currentLeaf = fullTree.findSnapshot(currentRoot.getUuid());
     }
 
     private VolumeSnapshotInventory getSelfInventory() {
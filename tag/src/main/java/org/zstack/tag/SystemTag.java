@@ -38,6 +38,8 @@ public class SystemTag {
 
     @Autowired
     protected DatabaseFacade dbf;
+    @Autowired
+    protected SystemTagCache tagCache;
 
     // TagManager must be explicitly set. use @Autowired will cause circular dependency
     protected TagManagerImpl tagMgr;
@@ -117,7 +119,15 @@ public class SystemTag {
         return hasTag(resourceUuid, resourceClass);
     }
 
+    private boolean isCached() {
+        return tagCache != null && tagCache.isEnabled();
+    }
+
     public boolean hasTag(String resourceUuid, Class resourceClass) {
+        if (isCached()) {
+            return !tagCache.getTags(resourceClass.getSimpleName(), resourceUuid, useTagFormat(), useOp() == Op.LIKE).isEmpty();
+        }
+
         SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
         q.add(SystemTagVO_.resourceType, Op.EQ, resourceClass.getSimpleName());
         q.add(SystemTagVO_.resourceUuid, Op.EQ, resourceUuid);
@@ -156,6 +166,10 @@ public class SystemTag {
     }
 
     public List<String> getTags(String resourceUuid, Class resourceClass) {
+        if (isCached()) {
+            return tagCache.getTags(resourceClass.getSimpleName(), resourceUuid, useTagFormat(), useOp() == Op.LIKE);
+        }
+
         SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
         q.select(SystemTagVO_.tag);
         q.add(SystemTagVO_.resourceType, Op.EQ, resourceClass.getSimpleName());
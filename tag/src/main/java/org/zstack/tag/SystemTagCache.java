@@ -0,0 +1,27 @@
+package org.zstack.tag;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * an in-memory copy of system tags indexed by resource, enabled by
+ * the global property systemTag.cache.enable
+ */
+public interface SystemTagCache {
+    boolean isEnabled();
+
+    /**
+     * @param tag the tag to match, a sql LIKE pattern when like is true
+     * @return tags of the resource matching the tag, as the query on SystemTagVO would
+     */
+    List<String> getTags(String resourceType, String resourceUuid, String tag, boolean like);
+
+    /**
+     * must be called after changing SystemTagVO by bulk SQL, which doesn't fire entity events
+     */
+    void evict(String resourceType, String resourceUuid);
+
+    void evict(Collection<String> resourceTypes, Collection<String> resourceUuids);
+
+    void evictAll();
+}
@@ -0,0 +1,419 @@
+package org.zstack.tag;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalCause;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.zstack.core.Platform;
+import org.zstack.core.cloudbus.EventCallback;
+import org.zstack.core.cloudbus.EventFacade;
+import org.zstack.core.db.*;
+import org.zstack.core.jmx.JmxFacade;
+import org.zstack.header.Component;
+import org.zstack.header.tag.SystemTagVO;
+import org.zstack.header.tag.SystemTagVO_;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import javax.persistence.Tuple;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import static org.zstack.utils.CollectionDSL.*;
+import static org.zstack.utils.StringDSL.s;
+
+/**
+ * system tags of a resource are loaded by one query and kept in a map sorted by
+ * the lower-cased tag, a lookup by a tag format only scans tags sharing the literal
+ * prefix of the format, e.g. 'hostname::' of 'hostname::%'. Tags are matched
+ * case-insensitively as MySQL does with the default collation.
+ *
+ * tags of all resources are loaded at boot, then the copy follows the database by:
+ * 1. entity events of SystemTagVO on the node changing it, the resource is evicted at once
+ * and again after the transaction completes, as a reader may reload the old rows before commit
+ * 2. a canonical event to other nodes after the transaction completes
+ * 3. callers changing SystemTagVO by bulk SQL, e.g. TagManagerImpl deleting tags of deleted resources
+ * 4. tags deleted by DatabaseFacade.removeByPrimaryKeys(), the resources are resolved from the
+ * uuids of cached tags, all are evicted only if a tag isn't cached on this node
+ *
+ * entries expire after systemTag.cache.expireTime as a safety net for bulk SQL not
+ * calling evict().
+ */
+public class SystemTagCacheImpl implements SystemTagCache, SystemTagCacheMXBean, Component, HardDeleteEntityExtensionPoint {
+    private static final CLogger logger = Utils.getLogger(SystemTagCacheImpl.class);
+
+    // rough sizes of a String without its chars, a tag entry and a resource entry, for estimating memory
+    private static final int STRING_OVERHEAD = 40;
+    private static final int TAG_OVERHEAD = 96;
+    private static final int RESOURCE_OVERHEAD = 160;
+    private static final int PRELOAD_PAGE_SIZE = 1000;
+
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private EventFacade evtf;
+    @Autowired
+    private JmxFacade jmxf;
+
+    private volatile Cache<String, ResourceTags> resources;
+    // increased on every eviction, tags loaded by a query started before it are not kept
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong invalidationCount = new AtomicLong();
+    private final Map<String, Pattern> likePatterns = new ConcurrentHashMap<>();
+    // tag uuid -> key of the resource, for tags of cached resources
+    private final Map<String, String> tagResources = new ConcurrentHashMap<>();
+    // uuids of tags removed as entities, their resources are already evicted by POST_REMOVE
+    private final Cache<String, Boolean> removedTags = CacheBuilder.newBuilder()
+            .expireAfterWrite(5, TimeUnit.MINUTES)
+            .build();
+
+    private static class ResourceTags {
+        // lower-cased tag -> tags
+        final NavigableMap<String, List<String>> tags = new TreeMap<>();
+        final List<String> uuids = new ArrayList<>();
+        int count;
+        long bytes = RESOURCE_OVERHEAD;
+
+        void add(String uuid, String tag) {
+            tags.computeIfAbsent(tag.toLowerCase(Locale.ROOT), k -> new ArrayList<>(1)).add(tag);
+            uuids.add(uuid);
+            count++;
+            bytes += TAG_OVERHEAD + 2 * (STRING_OVERHEAD + tag.length()) + STRING_OVERHEAD + uuid.length();
+        }
+
+        List<String> eq(String tag) {
+            List<String> ret = tags.get(tag.toLowerCase(Locale.ROOT));
+            return ret == null ? new ArrayList<>() : new ArrayList<>(ret);
+        }
+
+        List<String> like(String prefix, Pattern pattern) {
+            List<String> ret = new ArrayList<>();
+            Collection<List<String>> candidates = prefix.isEmpty() ? tags.values() :
+                    tags.subMap(prefix, true, prefix + Character.MAX_VALUE, true).values();
+            for (List<String> lst : candidates) {
+                for (String tag : lst) {
+                    if (pattern.matcher(tag).matches()) {
+                        ret.add(tag);
+                    }
+                }
+            }
+            return ret;
+        }
+    }
+
+    private static String makeKey(String resourceType, String resourceUuid) {
+        return resourceType + ":" + resourceUuid;
+    }
+
+    private void put(String key, ResourceTags rtags) {
+        rtags.uuids.forEach(uuid -> tagResources.put(uuid, key));
+        resources.put(key, rtags);
+    }
+
+    private static String likePrefix(String like) {
+        int i = 0;
+        while (i < like.length() && "%_\\".indexOf(like.charAt(i)) < 0) {
+            i++;
+        }
+        return like.substring(0, i).toLowerCase(Locale.ROOT);
+    }
+
+    private static Pattern compileLike(String like) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < like.length(); i++) {
+            char c = like.charAt(i);
+            if (c == '\\' && i + 1 < like.length()) {
+                literal.append(like.charAt(++i));
+                continue;
+            }
+
+            if (c != '%' && c != '_') {
+                literal.append(c);
+                continue;
+            }
+
+            if (literal.length() > 0) {
+                regex.append(Pattern.quote(literal.toString()));
+                literal.setLength(0);
+            }
+            regex.append(c == '%' ? ".*" : ".");
+        }
+
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+
+        return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE | Pattern.DOTALL);
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return resources != null;
+    }
+
+    @Override
+    public List<String> getTags(String resourceType, String resourceUuid, String tag, boolean like) {
+        ResourceTags rtags = getResourceTags(resourceType, resourceUuid);
+        if (!like) {
+            return rtags.eq(tag);
+        }
+
+        return rtags.like(likePrefix(tag), likePatterns.computeIfAbsent(tag, SystemTagCacheImpl::compileLike));
+    }
+
+    private ResourceTags getResourceTags(String resourceType, String resourceUuid) {
+        String key = makeKey(resourceType, resourceUuid);
+        ResourceTags rtags = resources.getIfPresent(key);
+        if (rtags != null) {
+            return rtags;
+        }
+
+        long gen = generation.get();
+        List<Tuple> tags = Q.New(SystemTagVO.class)
+                .select(SystemTagVO_.uuid, SystemTagVO_.tag)
+                .eq(SystemTagVO_.resourceType, resourceType)
+                .eq(SystemTagVO_.resourceUuid, resourceUuid)
+                .listTuple();
+        rtags = new ResourceTags();
+        for (Tuple t : tags) {
+            rtags.add(t.get(0, String.class), t.get(1, String.class));
+        }
+
+        if (gen == generation.get()) {
+            put(key, rtags);
+            // an eviction may happen between the check and the put
+            if (gen != generation.get()) {
+                resources.invalidate(key);
+            }
+        }
+
+        return rtags;
+    }
+
+    private void evictLocally(Collection<String> resourceTypes, Collection<String> resourceUuids) {
+        generation.incrementAndGet();
+        invalidationCount.incrementAndGet();
+        if (resourceTypes == null) {
+            resources.invalidateAll();
+            return;
+        }
+
+        for (String type : resourceTypes) {
+            for (String uuid : resourceUuids) {
+                resources.invalidate(makeKey(type, uuid));
+            }
+        }
+    }
+
+    private void afterTransaction(Runnable runnable) {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            runnable.run();
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                runnable.run();
+            }
+        });
+    }
+
+    private void doEvict(List<String> resourceTypes, List<String> resourceUuids) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        evictLocally(resourceTypes, resourceUuids);
+        afterTransaction(() -> {
+            evictLocally(resourceTypes, resourceUuids);
+
+            SystemTagCanonicalEvents.CacheEvictData data = new SystemTagCanonicalEvents.CacheEvictData();
+            data.setResourceTypes(resourceTypes);
+            data.setResourceUuids(resourceUuids);
+            evtf.fire(s(SystemTagCanonicalEvents.CACHE_EVICT_PATH).formatByMap(map(
+                    e("nodeUuid", Platform.getManagementServerId())
+            )), data);
+        });
+    }
+
+    @Override
+    public void evict(String resourceType, String resourceUuid) {
+        doEvict(list(resourceType), list(resourceUuid));
+    }
+
+    @Override
+    public void evict(Collection<String> resourceTypes, Collection<String> resourceUuids) {
+        doEvict(new ArrayList<>(resourceTypes), new ArrayList<>(resourceUuids));
+    }
+
+    @Override
+    public void evictAll() {
+        doEvict(null, null);
+    }
+
+    private void preload() {
+        long gen = generation.get();
+        long count = Q.New(SystemTagVO.class).count();
+        Map<String, ResourceTags> loaded = new HashMap<>();
+        SQL.New("select t.resourceType, t.resourceUuid, t.uuid, t.tag from SystemTagVO t" +
+                " order by t.resourceType, t.resourceUuid, t.uuid", Tuple.class)
+                .limit(PRELOAD_PAGE_SIZE)
+                .paginate(count, (List<Tuple> ts) -> ts.forEach(t -> {
+                    String key = makeKey(t.get(0, String.class), t.get(1, String.class));
+                    ResourceTags rtags = loaded.get(key);
+                    if (rtags == null) {
+                        if (loaded.size() >= TagGlobalProperty.SYSTEM_TAG_CACHE_SIZE) {
+                            return;
+                        }
+
+                        rtags = new ResourceTags();
+                        loaded.put(key, rtags);
+                    }
+                    rtags.add(t.get(2, String.class), t.get(3, String.class));
+                }));
+
+        if (gen == generation.get()) {
+            loaded.forEach(this::put);
+            if (gen != generation.get()) {
+                resources.invalidateAll();
+            }
+        }
+
+        logger.debug(String.format("loaded %s system tags of %s resources into the system tag cache", count, loaded.size()));
+    }
+
+    private void enable() {
+        resources = CacheBuilder.newBuilder()
+                .maximumSize(TagGlobalProperty.SYSTEM_TAG_CACHE_SIZE)
+                .expireAfterWrite(TagGlobalProperty.SYSTEM_TAG_CACHE_EXPIRE_TIME, TimeUnit.SECONDS)
+                .recordStats()
+                .<String, ResourceTags>removalListener(n -> {
+                    // a replaced entry of the same resource has put its tags again
+                    if (n.getCause() != RemovalCause.REPLACED && n.getValue() != null) {
+                        n.getValue().uuids.forEach(uuid -> tagResources.remove(uuid, n.getKey()));
+                    }
+                })
+                .build();
+
+        preload();
+    }
+
+    @Override
+    public boolean start() {
+        jmxf.registerBean("SystemTagCache", this);
+
+        EntityLifeCycleCallback cb = (evt, o) -> {
+            SystemTagVO vo = (SystemTagVO) o;
+            evict(vo.getResourceType(), vo.getResourceUuid());
+        };
+        dbf.installEntityLifeCycleCallback(SystemTagVO.class, EntityEvent.POST_PERSIST, cb);
+        dbf.installEntityLifeCycleCallback(SystemTagVO.class, EntityEvent.POST_UPDATE, cb);
+        dbf.installEntityLifeCycleCallback(SystemTagVO.class, EntityEvent.POST_REMOVE, (evt, o) -> {
+            if (!isEnabled()) {
+                return;
+            }
+
+            SystemTagVO vo = (SystemTagVO) o;
+            // postHardDelete() of the tag comes after it if the removal is flushed early
+            removedTags.put(vo.getUuid(), true);
+            evict(vo.getResourceType(), vo.getResourceUuid());
+        });
+
+        evtf.on(SystemTagCanonicalEvents.CACHE_EVICT_PATH, new EventCallback() {
+            @Override
+            public void run(Map tokens, Object data) {
+                String nodeUuid = (String) tokens.get("nodeUuid");
+                if (!isEnabled() || Platform.getManagementServerId().equals(nodeUuid)) {
+                    return;
+                }
+
+                SystemTagCanonicalEvents.CacheEvictData d = (SystemTagCanonicalEvents.CacheEvictData) data;
+                evictLocally(d.getResourceTypes(), d.getResourceUuids());
+            }
+        });
+
+        if (TagGlobalProperty.SYSTEM_TAG_CACHE_ENABLE) {
+            enable();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        return true;
+    }
+
+    @Override
+    public List<Class> getEntityClassForHardDeleteEntityExtension() {
+        return list(SystemTagVO.class);
+    }
+
+    @Override
+    public void postHardDelete(Collection entityIds, Class entityClass) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        // only uuids of the deleted tags are known, resolve their resources from cached tags
+        Map<String, Set<String>> uuidsByType = new HashMap<>();
+        boolean unresolved = false;
+        for (Object id : entityIds) {
+            String uuid = (String) id;
+            if (removedTags.asMap().remove(uuid) != null) {
+                continue;
+            }
+
+            String key = tagResources.get(uuid);
+            if (key == null) {
+                unresolved = true;
+                break;
+            }
+
+            int i = key.indexOf(':');
+            uuidsByType.computeIfAbsent(key.substring(0, i), k -> new HashSet<>()).add(key.substring(i + 1));
+        }
+
+        if (unresolved) {
+            // the resource may be cached on other nodes
+            evictAll();
+            return;
+        }
+
+        uuidsByType.forEach((type, uuids) -> evict(list(type), uuids));
+    }
+
+    @Override
+    public SystemTagCacheStatistic getSystemTagCacheStatistic() {
+        SystemTagCacheStatistic s = new SystemTagCacheStatistic();
+        s.setEnabled(isEnabled());
+        if (!isEnabled()) {
+            return s;
+        }
+
+        CacheStats stats = resources.stats();
+        s.setHitCount(stats.hitCount());
+        s.setMissCount(stats.missCount());
+        s.setHitRate(stats.hitRate());
+        s.setEvictionCount(stats.evictionCount());
+        s.setInvalidationCount(invalidationCount.get());
+
+        long tagCount = 0;
+        long bytes = 0;
+        for (Map.Entry<String, ResourceTags> entry : resources.asMap().entrySet()) {
+            tagCount += entry.getValue().count;
+            bytes += entry.getValue().bytes + STRING_OVERHEAD + entry.getKey().length();
+        }
+        s.setResourceCount(resources.size());
+        s.setTagCount(tagCount);
+        s.setEstimatedMemoryBytes(bytes);
+        return s;
+    }
+}
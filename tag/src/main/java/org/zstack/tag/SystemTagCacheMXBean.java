@@ -0,0 +1,5 @@
+package org.zstack.tag;
+
+public interface SystemTagCacheMXBean {
+    SystemTagCacheStatistic getSystemTagCacheStatistic();
+}
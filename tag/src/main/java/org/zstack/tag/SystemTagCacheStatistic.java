@@ -0,0 +1,85 @@
+package org.zstack.tag;
+
+public class SystemTagCacheStatistic {
+    private boolean enabled;
+    private long hitCount;
+    private long missCount;
+    private double hitRate;
+    private long evictionCount;
+    private long invalidationCount;
+    private long resourceCount;
+    private long tagCount;
+    private long estimatedMemoryBytes;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public void setHitCount(long hitCount) {
+        this.hitCount = hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public void setMissCount(long missCount) {
+        this.missCount = missCount;
+    }
+
+    public double getHitRate() {
+        return hitRate;
+    }
+
+    public void setHitRate(double hitRate) {
+        this.hitRate = hitRate;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public void setEvictionCount(long evictionCount) {
+        this.evictionCount = evictionCount;
+    }
+
+    public long getInvalidationCount() {
+        return invalidationCount;
+    }
+
+    public void setInvalidationCount(long invalidationCount) {
+        this.invalidationCount = invalidationCount;
+    }
+
+    public long getResourceCount() {
+        return resourceCount;
+    }
+
+    public void setResourceCount(long resourceCount) {
+        this.resourceCount = resourceCount;
+    }
+
+    public long getTagCount() {
+        return tagCount;
+    }
+
+    public void setTagCount(long tagCount) {
+        this.tagCount = tagCount;
+    }
+
+    public long getEstimatedMemoryBytes() {
+        return estimatedMemoryBytes;
+    }
+
+    public void setEstimatedMemoryBytes(long estimatedMemoryBytes) {
+        this.estimatedMemoryBytes = estimatedMemoryBytes;
+    }
+}
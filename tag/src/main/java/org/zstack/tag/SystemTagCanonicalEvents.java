@@ -0,0 +1,35 @@
+package org.zstack.tag;
+
+import org.zstack.header.message.NeedJsonSchema;
+
+import java.util.List;
+
+public class SystemTagCanonicalEvents {
+    public static final String CACHE_EVICT_PATH = "/systemTag/cache/evict/{nodeUuid}";
+
+    /**
+     * evicts tags of every resource type and resource uuid combination,
+     * evicts all when resourceTypes is null
+     */
+    @NeedJsonSchema
+    public static class CacheEvictData {
+        private List<String> resourceTypes;
+        private List<String> resourceUuids;
+
+        public List<String> getResourceTypes() {
+            return resourceTypes;
+        }
+
+        public void setResourceTypes(List<String> resourceTypes) {
+            this.resourceTypes = resourceTypes;
+        }
+
+        public List<String> getResourceUuids() {
+            return resourceUuids;
+        }
+
+        public void setResourceUuids(List<String> resourceUuids) {
+            this.resourceUuids = resourceUuids;
+        }
+    }
+}
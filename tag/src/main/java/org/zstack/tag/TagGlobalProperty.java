@@ -0,0 +1,16 @@
+package org.zstack.tag;
+
+import org.zstack.core.GlobalProperty;
+import org.zstack.core.GlobalPropertyDefinition;
+
+@GlobalPropertyDefinition
+public class TagGlobalProperty {
+    @GlobalProperty(name = "systemTag.cache.enable", defaultValue = "false")
+    public static boolean SYSTEM_TAG_CACHE_ENABLE;
+    // max number of resources whose system tags are cached
+    @GlobalProperty(name = "systemTag.cache.size", defaultValue = "200000")
+    public static long SYSTEM_TAG_CACHE_SIZE;
+    // in seconds, a safety net for tags changed by bulk SQL not firing any entity event
+    @GlobalProperty(name = "systemTag.cache.expireTime", defaultValue = "600")
+    public static long SYSTEM_TAG_CACHE_EXPIRE_TIME;
+}
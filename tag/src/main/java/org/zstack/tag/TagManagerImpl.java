@@ -58,6 +58,8 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     protected ErrorFacade errf;
     @Autowired
     private PluginRegistry pluginRgty;
+    @Autowired
+    private SystemTagCache tagCache;
 
     private List<SystemTag> systemTags = new ArrayList<>();
     private List<SystemTag> adminOnlySystemTags = new ArrayList<>();
@@ -830,6 +832,7 @@ public class TagManagerImpl extends AbstractService implements TagManager,
         q.setParameter("resourceTypes", rtypes);
         q.setParameter("resourceUuids", entityIds);
         q.executeUpdate();
+        tagCache.evict(rtypes, entityIds);
 
         sql = "delete from UserTagVO s" +
                 " where s.resourceType in (:resourceTypes)" +
@@ -0,0 +1,135 @@
+package org.zstack.test.integration.configuration.systemTag
+
+import org.zstack.core.Platform
+import org.zstack.core.db.DatabaseFacade
+import org.zstack.core.db.Q
+import org.zstack.core.db.SQL
+import org.zstack.header.host.HostVO
+import org.zstack.header.tag.SystemTagVO
+import org.zstack.header.tag.SystemTagVO_
+import org.zstack.header.tag.TagType
+import org.zstack.tag.SystemTagCacheImpl
+import org.zstack.tag.TagGlobalProperty
+import org.zstack.test.integration.ZStackTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+
+class SystemTagCacheCase extends SubCase {
+    EnvSpec env
+    SystemTagCacheImpl tagCache
+    DatabaseFacade dbf
+    String host1 = Platform.uuid
+    String host2 = Platform.uuid
+    boolean enabledByCase
+
+    @Override
+    void clean() {
+        // the cache is disabled in the test environment, drop the one enabled by this case
+        if (enabledByCase) {
+            tagCache.@resources = null
+            tagCache.@tagResources.clear()
+            TagGlobalProperty.SYSTEM_TAG_CACHE_ENABLE = false
+        }
+        SQL.New(SystemTagVO.class).in(SystemTagVO_.resourceUuid, [host1, host2]).hardDelete()
+        env.delete()
+    }
+
+    @Override
+    void setup() {
+        useSpring(ZStackTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = env {}
+    }
+
+    @Override
+    void test() {
+        env.create {
+            tagCache = bean(SystemTagCacheImpl.class)
+            dbf = bean(DatabaseFacade.class)
+            if (!tagCache.isEnabled()) {
+                TagGlobalProperty.SYSTEM_TAG_CACHE_ENABLE = true
+                tagCache.enable()
+                enabledByCase = true
+            }
+
+            testBulkDeleteEvictsOwnResource()
+            testRemoveEvictsOwnResource()
+            testDeleteOfUncachedTagEvictsAll()
+        }
+    }
+
+    SystemTagVO createTag(String hostUuid, String tag) {
+        SystemTagVO vo = new SystemTagVO()
+        vo.uuid = Platform.uuid
+        vo.resourceType = HostVO.class.simpleName
+        vo.resourceUuid = hostUuid
+        vo.tag = tag
+        vo.type = TagType.System
+        vo.inherent = false
+        return dbf.persistAndRefresh(vo)
+    }
+
+    List<String> tagsOf(String hostUuid) {
+        return tagCache.getTags(HostVO.class.simpleName, hostUuid, "test::%", true)
+    }
+
+    long hits() {
+        return tagCache.systemTagCacheStatistic.hitCount
+    }
+
+    // the tags of host2 are cached, a lookup of them must be a hit
+    void assertHost2Cached() {
+        long before = hits()
+        assert tagsOf(host2) == ["test::host2"]
+        assert hits() == before + 1
+    }
+
+    void testBulkDeleteEvictsOwnResource() {
+        createTag(host1, "test::connected")
+        createTag(host2, "test::host2")
+        assert tagsOf(host1) == ["test::connected"]
+        assert tagsOf(host2) == ["test::host2"]
+
+        // fires postHardDelete() with uuids of the tags only
+        SQL.New(SystemTagVO.class)
+                .eq(SystemTagVO_.resourceUuid, host1)
+                .eq(SystemTagVO_.resourceType, HostVO.class.simpleName)
+                .like(SystemTagVO_.tag, "test::%")
+                .delete()
+
+        assert tagsOf(host1).isEmpty()
+        assertHost2Cached()
+    }
+
+    void testRemoveEvictsOwnResource() {
+        SystemTagVO vo = createTag(host1, "test::removed")
+        assert tagsOf(host1) == ["test::removed"]
+        assertHost2Cached()
+
+        // fires both postHardDelete() and POST_REMOVE of the same tag
+        dbf.remove(vo)
+
+        assert tagsOf(host1).isEmpty()
+        assertHost2Cached()
+    }
+
+    void testDeleteOfUncachedTagEvictsAll() {
+        createTag(host1, "test::uncached")
+        tagCache.evict(HostVO.class.simpleName, host1)
+        assertHost2Cached()
+
+        // the resource of the tag isn't known on this node
+        String uuid = Q.New(SystemTagVO.class).select(SystemTagVO_.uuid)
+                .eq(SystemTagVO_.resourceUuid, host1)
+                .findValue()
+        SQL.New(SystemTagVO.class).eq(SystemTagVO_.uuid, uuid).delete()
+
+        long before = hits()
+        assert tagsOf(host2) == ["test::host2"]
+        assert hits() == before
+        assert tagsOf(host1).isEmpty()
+    }
+}
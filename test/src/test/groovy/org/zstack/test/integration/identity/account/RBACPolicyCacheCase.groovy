@@ -0,0 +1,189 @@
+package org.zstack.test.integration.identity.account
+
+import org.zstack.identity.IdentityGlobalConfig
+import org.zstack.identity.rbac.RBACPolicyCache
+import org.zstack.sdk.AccountInventory
+import org.zstack.sdk.PolicyInventory
+import org.zstack.sdk.PolicyStatement
+import org.zstack.sdk.PolicyStatementEffect
+import org.zstack.sdk.SessionInventory
+import org.zstack.sdk.UserInventory
+import org.zstack.sdk.identity.role.RoleInventory
+import org.zstack.test.integration.ZStackTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+
+class RBACPolicyCacheCase extends SubCase {
+    EnvSpec env
+    RBACPolicyCache policyCache
+    AccountInventory account
+    SessionInventory accountSession
+    UserInventory user
+    SessionInventory userSession
+
+    @Override
+    void clean() {
+        IdentityGlobalConfig.RBAC_DECISION_CACHE.updateValue(false)
+        env.delete()
+    }
+
+    @Override
+    void setup() {
+        useSpring(ZStackTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = env {}
+    }
+
+    @Override
+    void test() {
+        env.create {
+            policyCache = bean(RBACPolicyCache.class)
+            IdentityGlobalConfig.RBAC_DECISION_CACHE.updateValue(true)
+
+            account = createAccount {
+                name = "rbac cache account"
+                password = "password"
+            } as AccountInventory
+
+            accountSession = logInByAccount {
+                accountName = "rbac cache account"
+                password = "password"
+            } as SessionInventory
+
+            user = createUser {
+                name = "rbac cache user"
+                password = "password"
+                sessionId = accountSession.uuid
+            } as UserInventory
+
+            userSession = logInByUser {
+                accountName = "rbac cache account"
+                userName = "rbac cache user"
+                password = "password"
+            } as SessionInventory
+
+            testAttachAndDetachPolicyOfUser()
+            testRoleChangesDropCompiledPolicies()
+        }
+    }
+
+    void queryZoneByUser() {
+        queryZone {
+            sessionId = userSession.uuid
+        }
+    }
+
+    void testAttachAndDetachPolicyOfUser() {
+        queryZoneByUser()
+        assert policyCache.getCachedIdentities() > 0
+
+        PolicyInventory policy = createPolicy {
+            name = "deny query zone"
+            statements = [new PolicyStatement(
+                    name: "deny",
+                    effect: PolicyStatementEffect.Deny,
+                    actions: ["org.zstack.header.zone.APIQueryZoneMsg"]
+            )]
+            sessionId = accountSession.uuid
+        } as PolicyInventory
+
+        attachPolicyToUser {
+            userUuid = user.uuid
+            policyUuid = policy.uuid
+            sessionId = accountSession.uuid
+        }
+
+        expect(AssertionError.class) {
+            queryZoneByUser()
+        }
+
+        detachPolicyFromUser {
+            userUuid = user.uuid
+            policyUuid = policy.uuid
+            sessionId = accountSession.uuid
+        }
+
+        queryZoneByUser()
+
+        attachPolicyToUser {
+            userUuid = user.uuid
+            policyUuid = policy.uuid
+            sessionId = accountSession.uuid
+        }
+
+        expect(AssertionError.class) {
+            queryZoneByUser()
+        }
+
+        deletePolicy {
+            uuid = policy.uuid
+            sessionId = accountSession.uuid
+        }
+
+        queryZoneByUser()
+    }
+
+    void testRoleChangesDropCompiledPolicies() {
+        PolicyInventory policy = createPolicy {
+            name = "allow query zone"
+            statements = [new PolicyStatement(
+                    name: "allow",
+                    effect: PolicyStatementEffect.Allow,
+                    actions: ["org.zstack.header.zone.APIQueryZoneMsg"]
+            )]
+        } as PolicyInventory
+
+        RoleInventory role = createRole {
+            name = "rbac cache role"
+            statements = [new PolicyStatement(
+                    name: "allow",
+                    effect: PolicyStatementEffect.Allow,
+                    actions: ["org.zstack.header.zone.APIQueryZoneMsg"]
+            )]
+        } as RoleInventory
+
+        attachRoleToAccount {
+            roleUuid = role.uuid
+            accountUuid = account.uuid
+        }
+        attachPolicyToRole {
+            roleUuid = role.uuid
+            policyUuid = policy.uuid
+        }
+
+        // roles are removed from accounts and policies by bulk deletion without entity events
+        queryZoneByUser()
+        assert policyCache.getCachedIdentities() > 0
+        detachRoleFromAccount {
+            roleUuid = role.uuid
+            accountUuid = account.uuid
+        }
+        assert policyCache.getCachedIdentities() == 0
+
+        queryZoneByUser()
+        assert policyCache.getCachedIdentities() > 0
+        detachPolicyFromRole {
+            roleUuid = role.uuid
+            policyUuid = policy.uuid
+        }
+        assert policyCache.getCachedIdentities() == 0
+
+        queryZoneByUser()
+        assert policyCache.getCachedIdentities() > 0
+        removePolicyStatementsFromRole {
+            uuid = role.uuid
+            policyStatementUuids = role.statements.collect { it.uuid }
+        }
+        assert policyCache.getCachedIdentities() == 0
+
+        queryZoneByUser()
+        assert policyCache.getCachedIdentities() > 0
+        deleteRole {
+            uuid = role.uuid
+        }
+        assert policyCache.getCachedIdentities() == 0
+    }
+}
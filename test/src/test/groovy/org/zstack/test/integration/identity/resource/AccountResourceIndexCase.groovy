@@ -0,0 +1,115 @@
+package org.zstack.test.integration.identity.resource
+
+import org.zstack.identity.IdentityGlobalConfig
+import org.zstack.sdk.AccountInventory
+import org.zstack.sdk.InstanceOfferingInventory
+import org.zstack.sdk.SessionInventory
+import org.zstack.test.integration.ZStackTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+import org.zstack.utils.data.SizeUnit
+
+class AccountResourceIndexCase extends SubCase {
+    EnvSpec envSpec
+    InstanceOfferingInventory offering
+    AccountInventory account
+    SessionInventory session
+
+    @Override
+    void clean() {
+        IdentityGlobalConfig.ACCOUNT_RESOURCE_INDEX.updateValue(false)
+        envSpec.delete()
+    }
+
+    @Override
+    void setup() {
+        useSpring(ZStackTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        envSpec = env {
+            instanceOffering {
+                name = "instanceOffering"
+                memory = SizeUnit.GIGABYTE.toByte(1)
+                cpu = 1
+            }
+        }
+    }
+
+    @Override
+    void test() {
+        envSpec.create {
+            IdentityGlobalConfig.ACCOUNT_RESOURCE_INDEX.updateValue(true)
+            offering = envSpec.inventoryByName("instanceOffering") as InstanceOfferingInventory
+
+            account = createAccount {
+                name = "index"
+                password = "password"
+            } as AccountInventory
+
+            session = logInByAccount {
+                accountName = "index"
+                password = "password"
+            } as SessionInventory
+
+            testRevokeSharingToAccount()
+            testRevokeSharingToPublic()
+            testRevokeAllSharing()
+        }
+    }
+
+    boolean canQueryOffering() {
+        List<InstanceOfferingInventory> invs = queryInstanceOffering {
+            conditions = ["uuid=${offering.uuid}"]
+            sessionId = session.uuid
+        } as List<InstanceOfferingInventory>
+
+        return !invs.isEmpty()
+    }
+
+    void testRevokeSharingToAccount() {
+        assert !canQueryOffering()
+
+        shareResource {
+            resourceUuids = [offering.uuid]
+            accountUuids = [account.uuid]
+        }
+        assert canQueryOffering()
+
+        // the sharing is deleted in bulk, the index must not keep it
+        revokeResourceSharing {
+            resourceUuids = [offering.uuid]
+            accountUuids = [account.uuid]
+        }
+        assert !canQueryOffering()
+    }
+
+    void testRevokeSharingToPublic() {
+        shareResource {
+            resourceUuids = [offering.uuid]
+            toPublic = true
+        }
+        assert canQueryOffering()
+
+        revokeResourceSharing {
+            resourceUuids = [offering.uuid]
+            toPublic = true
+        }
+        assert !canQueryOffering()
+    }
+
+    void testRevokeAllSharing() {
+        shareResource {
+            resourceUuids = [offering.uuid]
+            accountUuids = [account.uuid]
+        }
+        assert canQueryOffering()
+
+        revokeResourceSharing {
+            resourceUuids = [offering.uuid]
+            all = true
+        }
+        assert !canQueryOffering()
+    }
+}
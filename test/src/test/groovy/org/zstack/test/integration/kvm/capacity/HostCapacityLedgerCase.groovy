@@ -0,0 +1,222 @@
+package org.zstack.test.integration.kvm.capacity
+
+import org.zstack.compute.allocator.HostAllocatorGlobalConfig
+import org.zstack.compute.allocator.HostAllocatorManager
+import org.zstack.compute.allocator.HostCapacityLedger
+import org.zstack.compute.allocator.HostCapacityReserveManager
+import org.zstack.core.cloudbus.CloudBus
+import org.zstack.core.db.Q
+import org.zstack.core.db.SQL
+import org.zstack.header.allocator.HostAllocatorConstant
+import org.zstack.header.allocator.HostCapacityVO
+import org.zstack.header.allocator.HostCapacityVO_
+import org.zstack.header.allocator.UnableToReserveHostCapacityException
+import org.zstack.header.host.RecalculateHostCapacityMsg
+import org.zstack.sdk.HostInventory
+import org.zstack.test.integration.kvm.KvmTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+import org.zstack.utils.data.SizeUnit
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicInteger
+
+class HostCapacityLedgerCase extends SubCase {
+    EnvSpec env
+    HostInventory host
+    HostCapacityLedger ledger
+    HostCapacityReserveManager reserveMgr
+    HostAllocatorManager allocatorMgr
+
+    @Override
+    void setup() {
+        useSpring(KvmTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = env {
+            zone {
+                name = "zone"
+
+                cluster {
+                    name = "cluster"
+                    hypervisorType = "KVM"
+
+                    kvm {
+                        name = "kvm"
+                        managementIp = "127.0.0.1"
+                        username = "root"
+                        password = "password"
+                        totalCpu = 8
+                        totalMem = SizeUnit.GIGABYTE.toByte(8)
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    void test() {
+        env.create {
+            host = env.inventoryByName("kvm") as HostInventory
+            ledger = bean(HostCapacityLedger.class)
+            reserveMgr = bean(HostCapacityReserveManager.class)
+            allocatorMgr = bean(HostAllocatorManager.class)
+            HostAllocatorGlobalConfig.HOST_CAPACITY_LEDGER.updateValue(true)
+
+            testConcurrentlyReserveAndReturn()
+            testRecalculateOverridesLedger()
+            testReturnReachingTotalUpdatesDatabase()
+            testConflictingFlushRecalculates()
+            testRefreshChangesOfOtherNodes()
+        }
+    }
+
+    HostCapacityVO capacityInDb() {
+        return Q.New(HostCapacityVO.class).eq(HostCapacityVO_.uuid, host.uuid).find()
+    }
+
+    void testConcurrentlyReserveAndReturn() {
+        HostAllocatorGlobalConfig.HOST_CAPACITY_LEDGER_FLUSH_INTERVAL.updateValue(1)
+        HostCapacityVO before = capacityInDb()
+
+        long memory = SizeUnit.MEGABYTE.toByte(64)
+        int threads = 16
+        int rounds = 20
+        AtomicInteger errors = new AtomicInteger()
+        CountDownLatch latch = new CountDownLatch(threads)
+        threads.times {
+            Thread.start {
+                try {
+                    rounds.times {
+                        reserveMgr.reserveCapacity(host.uuid, 1, memory, false)
+                        allocatorMgr.returnComputeResourceCapacity(host.uuid, 1, memory)
+                    }
+                } catch (Throwable t) {
+                    logger.warn("failed to reserve or return capacity", t)
+                    errors.incrementAndGet()
+                } finally {
+                    latch.countDown()
+                }
+            }
+        }
+
+        latch.await()
+        assert errors.get() == 0
+
+        ledger.evictAll()
+        HostCapacityVO after = capacityInDb()
+        assert after.availableCpu == before.availableCpu
+        assert after.availableMemory == before.availableMemory
+    }
+
+    void testRecalculateOverridesLedger() {
+        // keep pending changes in the ledger
+        HostAllocatorGlobalConfig.HOST_CAPACITY_LEDGER_FLUSH_INTERVAL.updateValue(3600)
+        HostCapacityVO before = capacityInDb()
+
+        reserveMgr.reserveCapacity(host.uuid, 1, SizeUnit.GIGABYTE.toByte(1), false)
+        assert ledger.getCapacity(host.uuid).availableMemory == before.availableMemory - SizeUnit.GIGABYTE.toByte(1)
+
+        // the capacity in database drifts, e.g. changes of a crashed node are lost
+        SQL.New(HostCapacityVO.class).eq(HostCapacityVO_.uuid, host.uuid)
+                .set(HostCapacityVO_.availableMemory, before.totalMemory - SizeUnit.GIGABYTE.toByte(2))
+                .set(HostCapacityVO_.availableCpu, before.totalCpu - 2)
+                .update()
+
+        RecalculateHostCapacityMsg msg = new RecalculateHostCapacityMsg()
+        msg.hostUuid = host.uuid
+        bean(CloudBus.class).makeLocalServiceId(msg, HostAllocatorConstant.SERVICE_ID)
+        assert bean(CloudBus.class).call(msg).success
+
+        // no vm on the host, recalculation must restore the total
+        HostCapacityVO after = capacityInDb()
+        assert after.availableMemory == after.totalMemory
+        assert after.availableCpu == after.totalCpu
+
+        ledger.evictAll()
+        after = capacityInDb()
+        assert after.availableMemory == after.totalMemory
+        assert after.availableCpu == after.totalCpu
+    }
+
+    void testReturnReachingTotalUpdatesDatabase() {
+        HostCapacityVO before = capacityInDb()
+        assert before.availableMemory == before.totalMemory
+
+        long gb = SizeUnit.GIGABYTE.toByte(1)
+        reserveMgr.reserveCapacity(host.uuid, 0, gb, false)
+
+        // another node reserves on the host behind the ledger
+        SQL.New(HostCapacityVO.class).eq(HostCapacityVO_.uuid, host.uuid)
+                .set(HostCapacityVO_.availableMemory, before.totalMemory - gb * 2)
+                .update()
+
+        // in memory this fills up the host, it must be applied on the database instead
+        allocatorMgr.returnComputeResourceCapacity(host.uuid, 0, gb)
+        assert ledger.getCapacity(host.uuid).availableMemory == before.totalMemory - gb * 2
+
+        ledger.evictAll()
+        assert capacityInDb().availableMemory == before.totalMemory - gb * 2
+
+        SQL.New(HostCapacityVO.class).eq(HostCapacityVO_.uuid, host.uuid)
+                .set(HostCapacityVO_.availableMemory, before.totalMemory)
+                .update()
+    }
+
+    void testConflictingFlushRecalculates() {
+        HostAllocatorGlobalConfig.HOST_CAPACITY_LEDGER_FLUSH_INTERVAL.updateValue(3600)
+        HostCapacityVO before = capacityInDb()
+        assert before.availableMemory == before.totalMemory
+
+        long gb = SizeUnit.GIGABYTE.toByte(1)
+        reserveMgr.reserveCapacity(host.uuid, 1, gb, false)
+
+        // another node fills up the host behind the ledger
+        SQL.New(HostCapacityVO.class).eq(HostCapacityVO_.uuid, host.uuid)
+                .set(HostCapacityVO_.availableMemory, 0L)
+                .update()
+
+        // the pending reservation would over-commit the host, it's recalculated instead
+        ledger.evictAll()
+        retryInSecs {
+            HostCapacityVO after = capacityInDb()
+            assert after.availableMemory == after.totalMemory
+            assert after.availableCpu == after.totalCpu
+        }
+    }
+
+    void testRefreshChangesOfOtherNodes() {
+        HostCapacityVO before = capacityInDb()
+        assert ledger.getCapacity(host.uuid).availableMemory == before.availableMemory
+
+        long gb = SizeUnit.GIGABYTE.toByte(1)
+        SQL.New(HostCapacityVO.class).eq(HostCapacityVO_.uuid, host.uuid)
+                .set(HostCapacityVO_.availableMemory, before.availableMemory - gb)
+                .update()
+
+        // entries without pending changes are refreshed by the flush as well
+        HostAllocatorGlobalConfig.HOST_CAPACITY_LEDGER_FLUSH_INTERVAL.updateValue(1)
+        retryInSecs {
+            assert ledger.getCapacity(host.uuid).availableMemory == before.availableMemory - gb
+        }
+
+        // reservations are rejected once the ledger sees the host is full
+        SQL.New(HostCapacityVO.class).eq(HostCapacityVO_.uuid, host.uuid)
+                .set(HostCapacityVO_.availableMemory, 0L)
+                .update()
+        retryInSecs {
+            assert ledger.getCapacity(host.uuid).availableMemory == 0
+        }
+        expect(UnableToReserveHostCapacityException.class) {
+            reserveMgr.reserveCapacity(host.uuid, 0, gb, false)
+        }
+    }
+
+    @Override
+    void clean() {
+        HostAllocatorGlobalConfig.HOST_CAPACITY_LEDGER.updateValue(false)
+        env.delete()
+    }
+}
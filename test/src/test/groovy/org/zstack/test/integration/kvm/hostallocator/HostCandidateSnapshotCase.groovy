@@ -0,0 +1,91 @@
+package org.zstack.test.integration.kvm.hostallocator
+
+import org.zstack.compute.allocator.HostAllocatorGlobalConfig
+import org.zstack.compute.allocator.HostCandidateSnapshotManagerImpl
+import org.zstack.core.db.Q
+import org.zstack.core.db.SQL
+import org.zstack.header.allocator.HostCapacityVO
+import org.zstack.header.allocator.HostCapacityVO_
+import org.zstack.sdk.HostInventory
+import org.zstack.sdk.VmInstanceInventory
+import org.zstack.test.integration.kvm.KvmTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.ImageSpec
+import org.zstack.testlib.InstanceOfferingSpec
+import org.zstack.testlib.L3NetworkSpec
+import org.zstack.testlib.SubCase
+
+class HostCandidateSnapshotCase extends SubCase {
+    EnvSpec env
+    HostCandidateSnapshotManagerImpl snapshotMgr
+    HostInventory host1, host2, host3
+
+    @Override
+    void clean() {
+        HostAllocatorGlobalConfig.HOST_CANDIDATE_SNAPSHOT.updateValue(false)
+        env.delete()
+    }
+
+    @Override
+    void setup() {
+        useSpring(KvmTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = Env.noVmThreeHostEnv()
+    }
+
+    @Override
+    void test() {
+        env.create {
+            host1 = env.inventoryByName("kvm1") as HostInventory
+            host2 = env.inventoryByName("kvm2") as HostInventory
+            host3 = env.inventoryByName("kvm3") as HostInventory
+            snapshotMgr = bean(HostCandidateSnapshotManagerImpl.class)
+
+            // the snapshot is refreshed by the case only
+            HostAllocatorGlobalConfig.HOST_CANDIDATE_SNAPSHOT_REFRESH_INTERVAL.updateValue(3600)
+            HostAllocatorGlobalConfig.HOST_CANDIDATE_SNAPSHOT.updateValue(true)
+
+            testStaleSnapshotFallsBackToDatabase()
+        }
+    }
+
+    long availableMemory(String hostUuid) {
+        return Q.New(HostCapacityVO.class).select(HostCapacityVO_.availableMemory)
+                .eq(HostCapacityVO_.uuid, hostUuid)
+                .findValue()
+    }
+
+    void setAvailableMemory(String hostUuid, long memory) {
+        SQL.New(HostCapacityVO.class).eq(HostCapacityVO_.uuid, hostUuid)
+                .set(HostCapacityVO_.availableMemory, memory)
+                .update()
+    }
+
+    void testStaleSnapshotFallsBackToDatabase() {
+        long memory = availableMemory(host1.uuid)
+
+        // only host1 has capacity in the snapshot
+        setAvailableMemory(host2.uuid, 0)
+        setAvailableMemory(host3.uuid, 0)
+        snapshotMgr.refresh()
+
+        // then host2 is freed and host1 is filled up before the next refresh
+        setAvailableMemory(host2.uuid, memory)
+        setAvailableMemory(host1.uuid, 0)
+
+        VmInstanceInventory vm = createVmInstance {
+            name = "vm"
+            instanceOfferingUuid = (env.specByName("instanceOffering") as InstanceOfferingSpec).inventory.uuid
+            imageUuid = (env.specByName("image1") as ImageSpec).inventory.uuid
+            l3NetworkUuids = [(env.specByName("pubL3") as L3NetworkSpec).inventory.uuid]
+        } as VmInstanceInventory
+
+        assert vm.hostUuid == host2.uuid
+
+        setAvailableMemory(host1.uuid, memory)
+        setAvailableMemory(host3.uuid, memory)
+    }
+}
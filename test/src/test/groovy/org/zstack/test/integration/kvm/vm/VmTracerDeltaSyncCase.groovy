@@ -0,0 +1,257 @@
+package org.zstack.test.integration.kvm.vm
+
+import org.springframework.http.HttpEntity
+import org.zstack.compute.vm.VmGlobalConfig
+import org.zstack.compute.vm.VmStateIndexImpl
+import org.zstack.core.Platform
+import org.zstack.core.cloudbus.ResourceDestinationMakerImpl
+import org.zstack.core.db.SQL
+import org.zstack.header.core.NopeNoErrorCompletion
+import org.zstack.header.managementnode.ManagementNodeInventory
+import org.zstack.header.vm.VmInstanceState
+import org.zstack.header.vm.VmInstanceVO
+import org.zstack.header.vm.VmInstanceVO_
+import org.zstack.header.vm.VmStateChangedOnHostMsg
+import org.zstack.kvm.KVMAgentCommands
+import org.zstack.kvm.KVMConstant
+import org.zstack.kvm.KVMHostInventory
+import org.zstack.kvm.KVMHostVO
+import org.zstack.kvm.KvmVmSyncPingTask
+import org.zstack.sdk.VmInstanceInventory
+import org.zstack.test.integration.kvm.Env
+import org.zstack.test.integration.kvm.KvmTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+
+import java.util.concurrent.ConcurrentHashMap
+
+class VmTracerDeltaSyncCase extends SubCase {
+    EnvSpec env
+    VmInstanceInventory vm
+    VmStateIndexImpl index
+    KvmVmSyncPingTask pingTask
+
+    // vm states on the host, and the states reported in each version, like an agent supporting delta reports
+    Map<String, String> agentStates = new ConcurrentHashMap<>()
+    Map<String, Map<String, String>> reportedVersions = new ConcurrentHashMap<>()
+    List<KVMAgentCommands.VmSyncCmd> cmds = Collections.synchronizedList([])
+    List<KVMAgentCommands.VmSyncResponse> rsps = Collections.synchronizedList([])
+    boolean forceDelta
+
+    @Override
+    void clean() {
+        VmGlobalConfig.VM_TRACER_STATE_INDEX_FULL_RESYNC_INTERVAL.updateValue(0)
+        env.delete()
+    }
+
+    @Override
+    void setup() {
+        useSpring(KvmTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = Env.oneVmBasicEnv()
+    }
+
+    @Override
+    void test() {
+        env.create {
+            vm = env.inventoryByName("vm") as VmInstanceInventory
+            index = bean(VmStateIndexImpl.class)
+            pingTask = bean(KvmVmSyncPingTask.class)
+            VmGlobalConfig.VM_TRACER_STATE_INDEX_FULL_RESYNC_INTERVAL.updateValue(3600)
+            simulateDeltaAgent()
+
+            testDeltaReportKeepsUnchangedVms()
+            testVmRemovedInDeltaReportIsDetected()
+            testDeltaReportWithoutBaseIsSkipped()
+            testMismatchedVmIsConfirmedByDatabase()
+            testHostTakenOverByAnotherNodeIsDropped()
+            testDeletedHostIsDropped()
+        }
+    }
+
+    void simulateDeltaAgent() {
+        agentStates[vm.uuid] = KVMConstant.KvmVmState.Running.toString()
+
+        env.simulator(KVMConstant.KVM_VM_SYNC_PATH) { HttpEntity<String> e ->
+            KVMAgentCommands.VmSyncCmd cmd = json(e.body, KVMAgentCommands.VmSyncCmd.class)
+            Map<String, String> states = new HashMap<>(agentStates)
+            String version = Platform.getUuid()
+            reportedVersions[version] = states
+
+            def rsp = new KVMAgentCommands.VmSyncResponse()
+            rsp.version = version
+            Map<String, String> base = cmd.baseVersion == null ? null : reportedVersions[cmd.baseVersion]
+            if (forceDelta) {
+                rsp.delta = true
+                rsp.states = [:]
+            } else if (base == null) {
+                rsp.states = new HashMap<>(states)
+            } else {
+                rsp.delta = true
+                rsp.states = new HashMap<>(states.findAll { it.value != base[it.key] })
+                rsp.removedVms = base.keySet().findAll { !states.containsKey(it) }.toList()
+            }
+
+            cmds.add(cmd)
+            rsps.add(rsp)
+            return rsp
+        }
+    }
+
+    // vm syncs of a host triggered by pings are serialized, so the previous
+    // sync is fully traced once the agent receives the next one
+    void syncVm(int times = 1) {
+        KVMHostInventory host = KVMHostInventory.valueOf(dbFindByUuid(vm.hostUuid, KVMHostVO.class))
+        int count = cmds.size()
+        times.times {
+            pingTask.kvmPingAgentNoFailure(host, new NopeNoErrorCompletion())
+        }
+
+        retryInSecs {
+            assert cmds.size() >= count + times
+        }
+    }
+
+    void testDeltaReportKeepsUnchangedVms() {
+        syncVm(3)
+
+        // the vm is only in the first full report, later deltas are empty
+        KVMAgentCommands.VmSyncResponse rsp = rsps[-2]
+        assert rsp.delta
+        assert rsp.states.isEmpty()
+        assert rsp.removedVms.isEmpty()
+        assert cmds[-2].baseVersion != null
+
+        assert index.getVmStates(vm.hostUuid)[vm.uuid] == VmInstanceState.Running
+        assert dbFindByUuid(vm.uuid, VmInstanceVO.class).state == VmInstanceState.Running
+    }
+
+    void testVmRemovedInDeltaReportIsDetected() {
+        int count = rsps.size()
+        agentStates.remove(vm.uuid)
+        syncVm()
+
+        assert rsps.subList(count, rsps.size()).any { it.delta && it.removedVms == [vm.uuid] }
+        retryInSecs {
+            assert dbFindByUuid(vm.uuid, VmInstanceVO.class).state == VmInstanceState.Stopped
+            assert index.getVmStates(vm.hostUuid)[vm.uuid] == VmInstanceState.Stopped
+        }
+
+        agentStates[vm.uuid] = KVMConstant.KvmVmState.Running.toString()
+        startVmInstance {
+            uuid = vm.uuid
+        }
+
+        syncVm(2)
+        assert dbFindByUuid(vm.uuid, VmInstanceVO.class).state == VmInstanceState.Running
+        assert index.getVmStates(vm.hostUuid)[vm.uuid] == VmInstanceState.Running
+    }
+
+    void testDeltaReportWithoutBaseIsSkipped() {
+        boolean handled = false
+        def cleanup = notifyWhenReceivedMessage(VmStateChangedOnHostMsg.class) { VmStateChangedOnHostMsg msg ->
+            if (msg.vmInstanceUuid == vm.uuid) {
+                handled = true
+            }
+        }
+
+        // the connection is reestablished, the last report is dropped and a full
+        // report is asked for, but the agent replies empty deltas
+        forceDelta = true
+        int count = cmds.size()
+        pingTask.connectionReestablished(KVMHostInventory.valueOf(dbFindByUuid(vm.hostUuid, KVMHostVO.class)))
+        retryInSecs {
+            assert cmds.size() > count
+        }
+
+        // deltas are not applied on anything, the vm must not be taken as missing
+        syncVm(2)
+        assert cmds.subList(count, cmds.size()).every { it.baseVersion == null }
+        assert !handled
+        assert dbFindByUuid(vm.uuid, VmInstanceVO.class).state == VmInstanceState.Running
+
+        cleanup()
+        forceDelta = false
+        syncVm(2)
+        assert cmds[-1].baseVersion != null
+    }
+
+    void testMismatchedVmIsConfirmedByDatabase() {
+        boolean handled = false
+        def cleanup = notifyWhenReceivedMessage(VmStateChangedOnHostMsg.class) { VmStateChangedOnHostMsg msg ->
+            if (msg.vmInstanceUuid == vm.uuid) {
+                handled = true
+            }
+        }
+
+        // the vm is stopped without firing an event, the index still takes it as running
+        SQL.New(VmInstanceVO.class).eq(VmInstanceVO_.uuid, vm.uuid)
+                .set(VmInstanceVO_.state, VmInstanceState.Stopped)
+                .update()
+        agentStates.remove(vm.uuid)
+        assert index.getVmStates(vm.hostUuid)[vm.uuid] == VmInstanceState.Running
+
+        // the database doesn't confirm the index, the index is corrected and the vm is skipped
+        syncVm(2)
+        assert !handled
+        assert index.getVmStates(vm.hostUuid)[vm.uuid] == VmInstanceState.Stopped
+
+        // the database confirms the index, the vm running on the host is handled
+        agentStates[vm.uuid] = KVMConstant.KvmVmState.Running.toString()
+        syncVm()
+        retryInSecs {
+            assert handled
+            assert dbFindByUuid(vm.uuid, VmInstanceVO.class).state == VmInstanceState.Running
+            assert index.getVmStates(vm.hostUuid)[vm.uuid] == VmInstanceState.Running
+        }
+
+        cleanup()
+    }
+
+    void testHostTakenOverByAnotherNodeIsDropped() {
+        assert index.getVersion(vm.hostUuid) != -1
+
+        ResourceDestinationMakerImpl destMaker = bean(ResourceDestinationMakerImpl.class)
+        ManagementNodeInventory node = null
+        for (int i = 0; i < 100 && node == null; i++) {
+            def inv = new ManagementNodeInventory()
+            inv.setUuid(Platform.getUuid())
+            inv.setHostName("localhost")
+            destMaker.nodeJoin(inv)
+            if (destMaker.isManagedByUs(vm.hostUuid)) {
+                destMaker.nodeLeft(inv)
+            } else {
+                node = inv
+            }
+        }
+        assert node != null
+
+        try {
+            index.nodeJoin(node)
+            assert index.getVersion(vm.hostUuid) == -1
+        } finally {
+            destMaker.nodeLeft(node)
+        }
+
+        // the host is loaded again once it's traced by us
+        syncVm(2)
+        assert index.getVersion(vm.hostUuid) != -1
+        assert index.getVmStates(vm.hostUuid)[vm.uuid] == VmInstanceState.Running
+    }
+
+    void testDeletedHostIsDropped() {
+        String hostUuid = vm.hostUuid
+        assert index.getVersion(hostUuid) != -1
+
+        deleteHost {
+            uuid = hostUuid
+        }
+
+        retryInSecs {
+            assert index.getVersion(hostUuid) == -1
+        }
+    }
+}
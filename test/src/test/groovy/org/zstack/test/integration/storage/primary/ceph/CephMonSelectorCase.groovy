@@ -0,0 +1,240 @@
+package org.zstack.test.integration.storage.primary.ceph
+
+import org.springframework.http.HttpEntity
+import org.zstack.core.db.Q
+import org.zstack.sdk.PrimaryStorageInventory
+import org.zstack.sdk.VmInstanceInventory
+import org.zstack.storage.ceph.CephGlobalConfig
+import org.zstack.storage.ceph.CephMonSelector
+import org.zstack.storage.ceph.primary.CephPrimaryStorageBase
+import org.zstack.storage.ceph.primary.CephPrimaryStorageMonVO
+import org.zstack.storage.ceph.primary.CephPrimaryStorageMonVO_
+import org.zstack.test.integration.storage.StorageTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+import org.zstack.utils.data.SizeUnit
+
+import java.util.concurrent.TimeUnit
+
+class CephMonSelectorCase extends SubCase {
+    EnvSpec env
+    CephMonSelector selector
+
+    @Override
+    void clean() {
+        CephGlobalConfig.MON_LATENCY_AWARE_SELECTION.updateValue(false)
+        CephGlobalConfig.MON_HEDGE_DELAY.updateValue(0)
+        env.delete()
+    }
+
+    @Override
+    void setup() {
+        useSpring(StorageTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = env {
+            instanceOffering {
+                name = "instanceOffering"
+                memory = SizeUnit.GIGABYTE.toByte(1)
+                cpu = 1
+            }
+
+            zone {
+                name = "zone"
+
+                cluster {
+                    name = "cluster"
+                    hypervisorType = "KVM"
+
+                    kvm {
+                        name = "host"
+                        managementIp = "localhost"
+                        username = "root"
+                        password = "password"
+                    }
+
+                    attachPrimaryStorage("ceph-pri")
+                    attachL2Network("l2")
+                }
+
+                l2NoVlanNetwork {
+                    name = "l2"
+                    physicalInterface = "eth0"
+
+                    l3Network {
+                        name = "l3"
+
+                        ip {
+                            startIp = "192.168.100.10"
+                            endIp = "192.168.100.100"
+                            netmask = "255.255.255.0"
+                            gateway = "192.168.100.1"
+                        }
+                    }
+                }
+
+                cephPrimaryStorage {
+                    name = "ceph-pri"
+                    totalCapacity = SizeUnit.GIGABYTE.toByte(100)
+                    availableCapacity = SizeUnit.GIGABYTE.toByte(100)
+                    url = "ceph://pri"
+                    fsid = "7ff218d9-f525-435f-8a40-3618d1772a64"
+                    monUrls = ["root:password@127.0.0.1/?monPort=7777", "root:password@127.0.0.2/?monPort=7777"]
+                }
+
+                attachBackupStorage("ceph-bk")
+            }
+
+            cephBackupStorage {
+                name = "ceph-bk"
+                totalCapacity = SizeUnit.GIGABYTE.toByte(100)
+                availableCapacity = SizeUnit.GIGABYTE.toByte(100)
+                url = "/bk"
+                fsid = "7ff218d9-f525-435f-8a40-3618d1772a64"
+                monUrls = ["root:password@localhost/?monPort=7777"]
+
+                image {
+                    name = "image"
+                    url = "http://zstack.org/download/image.qcow2"
+                }
+            }
+
+            vm {
+                name = "vm"
+                useL3Networks("l3")
+                useInstanceOffering("instanceOffering")
+                useImage("image")
+            }
+        }
+    }
+
+    @Override
+    void test() {
+        env.create {
+            selector = bean(CephMonSelector.class)
+            CephGlobalConfig.MON_LATENCY_AWARE_SELECTION.updateValue(true)
+
+            testOrderByScore()
+            testOnlyReadOnlyCallsSampleLatency()
+            testCircuitOpenAndClose()
+            testIdleMonIsProbedAgain()
+            testHedgedCallAnsweredOnce()
+        }
+    }
+
+    List<String> order(List<String> mons, long now) {
+        return selector.order(mons, { it } as java.util.function.Function<String, String>, null, now)
+    }
+
+    void testOrderByScore() {
+        selector.reset()
+        long now = System.currentTimeMillis()
+        selector.record("slow", "slow", 100, true, false, now)
+        selector.record("fast", "fast", 10, true, false, now)
+        selector.record("failing", "failing", 10, true, true, now)
+
+        // mons never called are probed first
+        assert order(["slow", "failing", "fast", "new"], now) == ["new", "fast", "slow", "failing"]
+    }
+
+    void testOnlyReadOnlyCallsSampleLatency() {
+        selector.reset()
+        long now = System.currentTimeMillis()
+        selector.record("cloning", "cloning", TimeUnit.MINUTES.toMillis(5), false, false, now)
+        selector.record("reading", "reading", 10, true, false, now)
+
+        // a long clone says nothing about the mon
+        assert order(["reading", "cloning"], now) == ["cloning", "reading"]
+        assert selector.monStats.find { it.monUuid == "cloning" }.latency == 0
+    }
+
+    void testCircuitOpenAndClose() {
+        selector.reset()
+        CephGlobalConfig.MON_CIRCUIT_BREAKER_FAILURE_THRESHOLD.updateValue(2)
+        CephGlobalConfig.MON_CIRCUIT_BREAKER_OPEN_INTERVAL.updateValue(60)
+        long openInterval = TimeUnit.SECONDS.toMillis(60)
+
+        long now = System.currentTimeMillis()
+        selector.record("mon1", "mon1", 10, true, true, now)
+        assert !selector.@healths["mon1"].isOpen(now)
+        selector.record("mon1", "mon1", 10, true, true, now)
+        assert selector.@healths["mon1"].isOpen(now)
+
+        // an open mon is tried at last whatever its score
+        selector.record("mon2", "mon2", TimeUnit.SECONDS.toMillis(10), true, false, now)
+        assert order(["mon1", "mon2"], now) == ["mon2", "mon1"]
+
+        long later = now + openInterval + 1
+        assert !selector.@healths["mon1"].isOpen(later)
+
+        // one more failure opens it again
+        selector.record("mon1", "mon1", 10, true, true, later)
+        assert selector.@healths["mon1"].isOpen(later)
+
+        // a success resets it
+        selector.record("mon1", "mon1", 10, true, false, later)
+        selector.record("mon1", "mon1", 10, true, true, later + openInterval + 1)
+        assert !selector.@healths["mon1"].isOpen(later + openInterval + 1)
+    }
+
+    void testIdleMonIsProbedAgain() {
+        selector.reset()
+        long now = System.currentTimeMillis()
+        selector.record("slow", "slow", 1000, true, false, now)
+        selector.record("fast", "fast", 100, true, false, now)
+        assert order(["slow", "fast"], now) == ["fast", "slow"]
+
+        // only the fast mon is called, the slow one isn't stuck at the end
+        long later = now + TimeUnit.MINUTES.toMillis(10)
+        selector.record("fast", "fast", 100, true, false, later)
+        assert order(["slow", "fast"], later) == ["slow", "fast"]
+    }
+
+    void testHedgedCallAnsweredOnce() {
+        selector.reset()
+        VmInstanceInventory vm = env.inventoryByName("vm") as VmInstanceInventory
+        PrimaryStorageInventory ps = env.inventoryByName("ceph-pri") as PrimaryStorageInventory
+        String mon1 = Q.New(CephPrimaryStorageMonVO.class).select(CephPrimaryStorageMonVO_.uuid)
+                .eq(CephPrimaryStorageMonVO_.primaryStorageUuid, ps.uuid)
+                .eq(CephPrimaryStorageMonVO_.hostname, "127.0.0.1")
+                .findValue()
+        String mon2 = Q.New(CephPrimaryStorageMonVO.class).select(CephPrimaryStorageMonVO_.uuid)
+                .eq(CephPrimaryStorageMonVO_.primaryStorageUuid, ps.uuid)
+                .eq(CephPrimaryStorageMonVO_.hostname, "127.0.0.2")
+                .findValue()
+
+        // mon1 is tried first but answers late
+        long now = System.currentTimeMillis()
+        selector.record(mon1, "127.0.0.1", 1, true, false, now)
+        selector.record(mon2, "127.0.0.2", 10, true, false, now)
+        CephGlobalConfig.MON_HEDGE_DELAY.updateValue(200)
+
+        List<String> called = Collections.synchronizedList([])
+        env.preSimulator(CephPrimaryStorageBase.GET_VOLUME_SIZE_PATH) { HttpEntity<String> e ->
+            def cmd = json(e.body, CephPrimaryStorageBase.GetVolumeSizeCmd.class)
+            called.add(cmd.monUuid)
+            if (cmd.monUuid == mon1) {
+                TimeUnit.SECONDS.sleep(2)
+            }
+        }
+
+        syncVolumeSize {
+            uuid = vm.rootVolumeUuid
+        }
+
+        assert called == [mon1, mon2]
+        assert selector.hedgedCalls == 1
+        assert selector.hedgeWins == 1
+
+        // the late answer only updates the stats of mon1
+        retryInSecs {
+            assert selector.monStats.find { it.monUuid == mon1 }.calls == 2
+        }
+        assert order([mon1, mon2], System.currentTimeMillis()) == [mon2, mon1]
+
+        env.cleanSimulatorHandlers()
+        CephGlobalConfig.MON_HEDGE_DELAY.updateValue(0)
+    }
+}
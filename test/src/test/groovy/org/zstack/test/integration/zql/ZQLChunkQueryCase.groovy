@@ -0,0 +1,97 @@
+package org.zstack.test.integration.zql
+
+import org.zstack.test.integration.ZStackTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+import org.zstack.utils.gson.JSONObjectUtil
+import org.zstack.zql.ZQL
+import org.zstack.zql.ZQLQueryReturn
+
+class ZQLChunkQueryCase extends SubCase {
+    EnvSpec env
+
+    @Override
+    void clean() {
+        env.delete()
+    }
+
+    @Override
+    void setup() {
+        useSpring(ZStackTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = env {
+        }
+    }
+
+    @Override
+    void test() {
+        env.create {
+            10.times { i ->
+                createZone {
+                    name = "chunk-zone-${i}"
+                    description = "chunk-zone-${9 - i}"
+                }
+            }
+
+            testChunksReturnSameInventories()
+            testChunksWithLimitAndOffset()
+            testFieldQueryInChunks()
+        }
+    }
+
+    List<String> query(String text, Integer chunkSize) {
+        ZQL zql = ZQL.fromString(text)
+        if (chunkSize != null) {
+            zql.fetchInChunks(chunkSize)
+        }
+
+        List<ZQLQueryReturn> rets = zql.getResultList()
+        assert rets.size() == 1
+        return rets[0].inventories.collect { JSONObjectUtil.toJsonString(it) }
+    }
+
+    void testChunksReturnSameInventories() {
+        String text = "query zone where name like 'chunk-zone-%'"
+        List<String> expected = query(text, null)
+        assert expected.size() == 10
+
+        // chunks dividing the result or not, and a single chunk
+        [1, 3, 5, 10, 500].each { size ->
+            assert query(text, size).toSet() == expected.toSet()
+        }
+
+        text = "query zone where name like 'chunk-zone-%' order by description asc"
+        expected = query(text, null)
+        [1, 3, 500].each { size ->
+            assert query(text, size) == expected
+        }
+    }
+
+    void testChunksWithLimitAndOffset() {
+        String text = "query zone where name like 'chunk-zone-%' order by name desc limit 4 offset 3"
+        List<String> expected = query(text, null)
+        assert expected.size() == 4
+
+        [1, 3, 4, 500].each { size ->
+            assert query(text, size) == expected
+        }
+
+        text = "query zone where name like 'chunk-zone-%' order by name asc limit 5 offset 8"
+        expected = query(text, null)
+        assert expected.size() == 2
+        assert query(text, 1) == expected
+    }
+
+    void testFieldQueryInChunks() {
+        String text = "query zone.uuid,name where name like 'chunk-zone-%' order by name asc"
+        List<String> expected = query(text, null)
+        assert expected.size() == 10
+
+        [1, 3, 500].each { size ->
+            assert query(text, size) == expected
+        }
+    }
+}
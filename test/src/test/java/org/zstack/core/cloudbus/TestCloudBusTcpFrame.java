@@ -0,0 +1,112 @@
+package org.zstack.core.cloudbus;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class TestCloudBusTcpFrame {
+    private static byte[] write(long seq, List<String> messages, int compressThreshold) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        CloudBusTcpFrame.write(new DataOutputStream(bos), seq, messages, compressThreshold);
+        return bos.toByteArray();
+    }
+
+    private static CloudBusTcpFrame read(byte[] bytes) throws IOException {
+        return CloudBusTcpFrame.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    private static List<String> messages(int count) {
+        List<String> ret = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ret.add(String.format("{\"org.zstack.header.message.Message\":{\"id\":\"%s\",\"name\":\"消息\"}}", i));
+        }
+        return ret;
+    }
+
+    @Test
+    public void testFrame() throws IOException {
+        List<String> messages = messages(10);
+        byte[] bytes = write(7, messages, 0);
+        Assert.assertEquals(0, bytes[4]);
+
+        CloudBusTcpFrame frame = read(bytes);
+        Assert.assertEquals(7, frame.getSeq());
+        Assert.assertEquals(messages, frame.getMessages());
+    }
+
+    @Test
+    public void testCompressedFrame() throws IOException {
+        List<String> messages = messages(100);
+        byte[] plain = write(1, messages, 0);
+        byte[] deflated = write(1, messages, 128);
+        Assert.assertEquals(CloudBusTcpFrame.FLAG_DEFLATE, deflated[4]);
+        Assert.assertTrue(deflated.length < plain.length);
+        Assert.assertEquals(messages, read(deflated).getMessages());
+
+        // frames not larger than the threshold are not deflated
+        byte[] small = write(2, messages(1), 1024 * 1024);
+        Assert.assertEquals(0, small[4]);
+        Assert.assertEquals(messages(1), read(small).getMessages());
+    }
+
+    @Test
+    public void testFramesInStream() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+        CloudBusTcpFrame.write(out, 1, messages(3), 0);
+        CloudBusTcpFrame.write(out, 2, messages(50), 64);
+        CloudBusTcpFrame.write(out, 3, Collections.emptyList(), 0);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bos.toByteArray()));
+        Assert.assertEquals(messages(3), CloudBusTcpFrame.read(in).getMessages());
+        Assert.assertEquals(messages(50), CloudBusTcpFrame.read(in).getMessages());
+        Assert.assertTrue(CloudBusTcpFrame.read(in).getMessages().isEmpty());
+        // the peer closes the connection between frames
+        Assert.assertNull(CloudBusTcpFrame.read(in));
+    }
+
+    @Test
+    public void testBrokenFrame() throws IOException {
+        byte[] bytes = write(1, messages(10), 0);
+        try {
+            read(Arrays.copyOf(bytes, bytes.length - 1));
+            Assert.fail("truncated frame is read");
+        } catch (EOFException e) {
+            // expected
+        }
+
+        byte[] deflated = write(1, messages(100), 128);
+        // raw length after | length(int) | flags(byte) | seq(long) | doesn't match the deflated payload
+        deflated[16]++;
+        try {
+            read(deflated);
+            Assert.fail("corrupted frame is read");
+        } catch (IOException e) {
+            // expected
+        }
+
+        byte[] invalid = bytes.clone();
+        invalid[0] = (byte) 0xff;
+        try {
+            read(invalid);
+            Assert.fail("frame of negative length is read");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testAck() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        CloudBusTcpFrame.writeAck(new DataOutputStream(bos), 42, Arrays.asList(null, "unable to parse the message", null));
+
+        CloudBusTcpFrame.Ack ack = CloudBusTcpFrame.readAck(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+        Assert.assertEquals(42, ack.getSeq());
+        Assert.assertEquals(Arrays.asList(null, "unable to parse the message", null), ack.getErrors());
+    }
+}
@@ -0,0 +1,149 @@
+package org.zstack.core.cloudbus;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TestCloudBusTcpTransport {
+    private static final String IP = "127.0.0.1";
+
+    private CloudBusTcpTransport transport;
+    private final List<String> received = new CopyOnWriteArrayList<>();
+    private final List<String> failed = new CopyOnWriteArrayList<>();
+    private final List<String> rejected = new CopyOnWriteArrayList<>();
+    private volatile boolean isPeer = true;
+
+    private static int freePort() throws IOException {
+        try (ServerSocket s = new ServerSocket(0)) {
+            return s.getLocalPort();
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        CloudBusGlobalProperty.TCP_PORT = freePort();
+        CloudBusGlobalProperty.TCP_CONNECTIONS_PER_NODE = 4;
+        CloudBusGlobalProperty.TCP_MAX_MESSAGES_PER_FRAME = 8;
+        CloudBusGlobalProperty.TCP_COMPRESS_THRESHOLD = 256;
+        CloudBusGlobalProperty.TCP_CONNECT_TIMEOUT = 5;
+        CloudBusGlobalProperty.TCP_RECONNECT_INTERVAL = 30;
+        CloudBusGlobalProperty.TCP_ACK_TIMEOUT = 30;
+
+        transport = new CloudBusTcpTransport(IP, json -> {
+            if (json.startsWith("bad")) {
+                throw new IllegalArgumentException("unable to parse " + json);
+            }
+            received.add(json);
+        }, ip -> isPeer);
+        transport.start();
+    }
+
+    @After
+    public void tearDown() {
+        transport.stop();
+    }
+
+    private CountDownLatch send(String key, String json, CountDownLatch latch) {
+        transport.send(IP, key, json, t -> {
+            failed.add(json);
+            latch.countDown();
+        }, err -> {
+            rejected.add(err);
+            latch.countDown();
+        });
+        return latch;
+    }
+
+    private static void await(CountDownLatch latch) throws InterruptedException {
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testOrderOfSameKey() throws InterruptedException {
+        List<String> sent = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            String json = String.format("{\"seq\":%s}", i);
+            send("service-1", json, new CountDownLatch(1));
+            sent.add(json);
+        }
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (received.size() < sent.size() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        Assert.assertEquals(sent, received);
+        Assert.assertTrue(failed.isEmpty());
+        Assert.assertTrue(rejected.isEmpty());
+    }
+
+    @Test
+    public void testRejectedMessageIsReported() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        send("service-1", "{\"good\":1}", new CountDownLatch(1));
+        send("service-1", "bad message", latch);
+        await(latch);
+
+        Assert.assertEquals(Collections.singletonList("unable to parse bad message"), rejected);
+        Assert.assertTrue(failed.isEmpty());
+    }
+
+    @Test
+    public void testConnectionFromNonPeerIsRefused() throws InterruptedException {
+        isPeer = false;
+        CountDownLatch latch = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            send("service-1", String.format("{\"seq\":%s}", i), latch);
+        }
+        await(latch);
+
+        // messages not acked fall back to the caller
+        Assert.assertEquals(3, failed.size());
+        Assert.assertTrue(received.isEmpty());
+    }
+
+    @Test
+    public void testMessagesNotAckedFallBack() throws InterruptedException {
+        CloudBusGlobalProperty.TCP_ACK_TIMEOUT = 1;
+        CountDownLatch hang = new CountDownLatch(1);
+        transport.stop();
+        transport = new CloudBusTcpTransport(IP, json -> hang.await(), ip -> true);
+        transport.start();
+
+        try {
+            CountDownLatch latch = new CountDownLatch(2);
+            send("service-1", "{\"seq\":1}", latch);
+            send("service-1", "{\"seq\":2}", latch);
+            await(latch);
+            Assert.assertEquals(2, failed.size());
+        } finally {
+            hang.countDown();
+        }
+    }
+
+    @Test
+    public void testUnreachableNode() throws InterruptedException {
+        transport.stop();
+        transport = new CloudBusTcpTransport(IP, received::add, ip -> true);
+        // not started, nothing listens on the port
+
+        CountDownLatch latch = new CountDownLatch(1);
+        send("service-1", "{}", latch);
+        await(latch);
+        Assert.assertEquals(1, failed.size());
+
+        // the node is skipped without connecting in TCP_RECONNECT_INTERVAL
+        latch = new CountDownLatch(1);
+        send("service-2", "{}", latch);
+        await(latch);
+        Assert.assertEquals(2, failed.size());
+    }
+}
@@ -0,0 +1,167 @@
+package org.zstack.network.l3;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.zstack.header.network.l3.IpRangeVO;
+import org.zstack.utils.network.IPv6Constants;
+
+public class TestIpRangeBitmap {
+    private static IpRangeBitmap bitmap(String startIp, String endIp, int ipVersion) {
+        IpRangeVO vo = new IpRangeVO();
+        vo.setStartIp(startIp);
+        vo.setEndIp(endIp);
+        vo.setIpVersion(ipVersion);
+        return new IpRangeBitmap(vo);
+    }
+
+    @Test
+    public void testAllocateInOrder() {
+        IpRangeBitmap b = bitmap("192.168.0.10", "192.168.0.13", IPv6Constants.IPv4);
+        Assert.assertEquals(4, b.size());
+
+        Assert.assertEquals("192.168.0.10", b.allocate(0, null));
+        b.markUsed("192.168.0.10");
+        Assert.assertEquals("192.168.0.11", b.allocate(0, null));
+        b.markUsed("192.168.0.11");
+        b.markUsed("192.168.0.12");
+
+        // the end ip is in the range
+        Assert.assertEquals("192.168.0.13", b.allocate(0, null));
+        b.markUsed("192.168.0.13");
+        Assert.assertNull(b.allocate(0, null));
+        Assert.assertEquals(4, b.count());
+    }
+
+    @Test
+    public void testAllocateWrapsAround() {
+        IpRangeBitmap b = bitmap("192.168.0.10", "192.168.0.13", IPv6Constants.IPv4);
+        b.markUsed("192.168.0.12");
+        b.markUsed("192.168.0.13");
+
+        Assert.assertEquals("192.168.0.10", b.allocate(2, null));
+        Assert.assertEquals("192.168.0.10", b.allocate(3, null));
+        Assert.assertEquals("192.168.0.11", b.allocate(1, null));
+    }
+
+    @Test
+    public void testAllocateExcludedIp() {
+        IpRangeBitmap b = bitmap("192.168.0.10", "192.168.0.12", IPv6Constants.IPv4);
+        Assert.assertEquals("192.168.0.11", b.allocate(0, "192.168.0.10"));
+
+        b.markUsed("192.168.0.11");
+        Assert.assertEquals("192.168.0.12", b.allocate(0, "192.168.0.10"));
+        b.markUsed("192.168.0.12");
+        Assert.assertNull(b.allocate(0, "192.168.0.10"));
+    }
+
+    @Test
+    public void testMarkFree() {
+        IpRangeBitmap b = bitmap("192.168.0.10", "192.168.0.11", IPv6Constants.IPv4);
+        b.markUsed("192.168.0.10");
+        b.markUsed("192.168.0.11");
+        Assert.assertNull(b.allocate(0, null));
+
+        b.markFree("192.168.0.11");
+        Assert.assertEquals("192.168.0.11", b.allocate(0, null));
+        Assert.assertEquals(1, b.count());
+
+        b.markFree("192.168.0.10");
+        Assert.assertEquals("192.168.0.11", b.allocate(1, null));
+        Assert.assertEquals("192.168.0.10", b.allocate(0, null));
+        Assert.assertEquals(0, b.count());
+    }
+
+    @Test
+    public void testDuplicatedIpIsFreedByTheLastOne() {
+        IpRangeBitmap b = bitmap("192.168.0.10", "192.168.0.10", IPv6Constants.IPv4);
+        b.markUsed("192.168.0.10");
+        b.markUsed("192.168.0.10");
+
+        b.markFree("192.168.0.10");
+        Assert.assertNull(b.allocate(0, null));
+        b.markFree("192.168.0.10");
+        Assert.assertEquals("192.168.0.10", b.allocate(0, null));
+    }
+
+    @Test
+    public void testOccupiedIpIsNotCounted() {
+        IpRangeBitmap b = bitmap("192.168.0.10", "192.168.0.11", IPv6Constants.IPv4);
+        b.occupy("192.168.0.10");
+        Assert.assertEquals("192.168.0.11", b.allocate(0, null));
+        Assert.assertEquals(0, b.count());
+    }
+
+    @Test
+    public void testIpsOutOfRangeAreIgnored() {
+        IpRangeBitmap b = bitmap("192.168.0.10", "192.168.0.11", IPv6Constants.IPv4);
+        b.markUsed("192.168.0.9");
+        b.markUsed("192.168.0.12");
+        b.markUsed("fe80::1");
+        b.occupy("192.168.0.12");
+        Assert.assertEquals("192.168.0.10", b.allocate(0, null));
+
+        b.markUsed("192.168.0.10");
+        b.markFree("192.168.0.9");
+        Assert.assertEquals("192.168.0.11", b.allocate(0, null));
+    }
+
+    @Test
+    public void testIpv6Range() {
+        IpRangeBitmap b = bitmap("2001:db8::fffe", "2001:db8::1:1", IPv6Constants.IPv6);
+        Assert.assertEquals(4, b.size());
+
+        b.markUsed("2001:db8::fffe");
+        b.markUsed("2001:db8::ffff");
+        Assert.assertEquals("2001:db8::1:0", b.allocate(0, null));
+        b.markUsed("2001:db8::1:0");
+        Assert.assertEquals("2001:db8::1:1", b.allocate(0, null));
+        b.markUsed("2001:db8::1:1");
+        Assert.assertNull(b.allocate(0, null));
+
+        b.markFree("2001:db8::ffff");
+        Assert.assertEquals("2001:db8::ffff", b.allocate(3, null));
+    }
+
+    @Test
+    public void testLargeIpv4RangeIsNotCapped() {
+        IpRangeBitmap b = bitmap("10.0.0.0", "10.127.255.255", IPv6Constants.IPv4);
+        Assert.assertEquals(IpRangeBitmap.MAX_SIZE, b.size());
+        Assert.assertEquals("10.127.255.255", b.allocate(b.size() - 1, null));
+    }
+
+    @Test
+    public void testIpv4RangeLargerThanMaxSizeDoesNotFit() {
+        IpRangeVO vo = new IpRangeVO();
+        vo.setStartIp("10.0.0.0");
+        vo.setEndIp("10.127.255.255");
+        vo.setIpVersion(IPv6Constants.IPv4);
+        Assert.assertTrue(IpRangeBitmap.fits(vo));
+
+        vo.setEndIp("10.128.0.0");
+        Assert.assertFalse(IpRangeBitmap.fits(vo));
+
+        vo.setStartIp("0.0.0.0");
+        vo.setEndIp("255.255.255.255");
+        Assert.assertFalse(IpRangeBitmap.fits(vo));
+
+        // IPv6 ranges are capped instead
+        vo.setStartIp("2001:db8::");
+        vo.setEndIp("2001:db8::ffff:ffff:ffff:ffff");
+        vo.setIpVersion(IPv6Constants.IPv6);
+        Assert.assertTrue(IpRangeBitmap.fits(vo));
+    }
+
+    @Test
+    public void testHugeIpv6RangeIsCapped() {
+        IpRangeBitmap b = bitmap("2001:db8::", "2001:db8::ffff:ffff:ffff:ffff", IPv6Constants.IPv6);
+        Assert.assertEquals(IpRangeBitmap.MAX_SIZE, b.size());
+
+        Assert.assertEquals("2001:db8::7f:ffff", b.allocate(b.size() - 1, null));
+        b.markUsed("2001:db8::7f:ffff");
+        Assert.assertEquals("2001:db8::", b.allocate(b.size() - 1, null));
+
+        // beyond the bitmap, but still counted as used IPs of the range
+        b.markUsed("2001:db8::80:0");
+        Assert.assertEquals(2, b.count());
+    }
+}
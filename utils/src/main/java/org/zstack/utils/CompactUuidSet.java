@@ -0,0 +1,135 @@
+package org.zstack.utils;
+
+import java.util.*;
+
+/**
+ * an immutable set of uuids, uuids of 32 lower case hex digits are kept as two longs
+ * sorted for binary search, other strings are kept as they are.
+ */
+public class CompactUuidSet {
+    private static final int UUID_LENGTH = 32;
+    private static final int HALF_LENGTH = 16;
+
+    // high and low bits of uuids, sorted by high then low
+    private final long[] bits;
+    private final Set<String> others = new HashSet<>();
+
+    public CompactUuidSet(Collection<String> uuids) {
+        List<long[]> parsed = new ArrayList<>(uuids.size());
+        for (String uuid : uuids) {
+            if (uuid == null) {
+                continue;
+            }
+
+            if (isCompact(uuid)) {
+                parsed.add(new long[]{parse(uuid, 0), parse(uuid, HALF_LENGTH)});
+            } else {
+                others.add(uuid);
+            }
+        }
+
+        parsed.sort(CompactUuidSet::compare);
+        long[] ret = new long[parsed.size() * 2];
+        int size = 0;
+        long[] last = null;
+        for (long[] p : parsed) {
+            if (last != null && compare(last, p) == 0) {
+                continue;
+            }
+
+            ret[size++] = p[0];
+            ret[size++] = p[1];
+            last = p;
+        }
+
+        bits = Arrays.copyOf(ret, size);
+    }
+
+    private static int compare(long[] a, long[] b) {
+        int ret = Long.compare(a[0], b[0]);
+        return ret != 0 ? ret : Long.compare(a[1], b[1]);
+    }
+
+    private static boolean isCompact(String uuid) {
+        if (uuid.length() != UUID_LENGTH) {
+            return false;
+        }
+
+        for (int i = 0; i < UUID_LENGTH; i++) {
+            char c = uuid.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static long parse(String uuid, int start) {
+        long ret = 0;
+        for (int i = start; i < start + HALF_LENGTH; i++) {
+            ret = (ret << 4) | Character.digit(uuid.charAt(i), 16);
+        }
+        return ret;
+    }
+
+    private static void format(StringBuilder sb, long v) {
+        for (int shift = 60; shift >= 0; shift -= 4) {
+            sb.append(Character.forDigit((int) (v >>> shift) & 0xf, 16));
+        }
+    }
+
+    public boolean contains(String uuid) {
+        if (uuid == null) {
+            return false;
+        }
+
+        if (!isCompact(uuid)) {
+            return others.contains(uuid);
+        }
+
+        long high = parse(uuid, 0);
+        long low = parse(uuid, HALF_LENGTH);
+        int lo = 0;
+        int hi = bits.length / 2 - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int ret = Long.compare(bits[mid * 2], high);
+            if (ret == 0) {
+                ret = Long.compare(bits[mid * 2 + 1], low);
+            }
+
+            if (ret < 0) {
+                lo = mid + 1;
+            } else if (ret > 0) {
+                hi = mid - 1;
+            } else {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public int size() {
+        return bits.length / 2 + others.size();
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public List<String> toList() {
+        List<String> ret = new ArrayList<>(size());
+        StringBuilder sb = new StringBuilder(UUID_LENGTH);
+        for (int i = 0; i < bits.length; i += 2) {
+            sb.setLength(0);
+            format(sb, bits[i]);
+            format(sb, bits[i + 1]);
+            ret.add(sb.toString());
+        }
+
+        ret.addAll(others);
+        return ret;
+    }
+}
@@ -0,0 +1,216 @@
+package org.zstack.utils;
+
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * a timer for many short-lived timeouts which are mostly cancelled before expiring,
+ * e.g. timeouts of in-flight http calls.
+ *
+ * timeouts are hashed to buckets of a wheel by their deadlines, a worker thread moves
+ * to the next bucket every tick and expires timeouts due in it. Adding and cancelling
+ * a timeout is O(1) and doesn't wake up the worker, a timeout expires within one tick
+ * after its deadline.
+ *
+ * expired tasks are run by the executor, they must not block the worker if it runs
+ * them in the caller thread.
+ */
+public class HashedWheelTimer {
+    private static final CLogger logger = Utils.getLogger(HashedWheelTimer.class);
+
+    private static final int INIT = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    public interface Timeout {
+        /**
+         * @return false if the timeout has expired or been cancelled
+         */
+        boolean cancel();
+
+        boolean isExpired();
+    }
+
+    private class WheelTimeout implements Timeout {
+        final Runnable task;
+        // nanos since the timer started
+        final long deadline;
+        final AtomicInteger state = new AtomicInteger(INIT);
+        long remainingRounds;
+        Set<WheelTimeout> bucket;
+
+        WheelTimeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!state.compareAndSet(INIT, CANCELLED)) {
+                return false;
+            }
+
+            pending.decrementAndGet();
+            cancelled.add(this);
+            return true;
+        }
+
+        @Override
+        public boolean isExpired() {
+            return state.get() == EXPIRED;
+        }
+
+        void expire() {
+            if (!state.compareAndSet(INIT, EXPIRED)) {
+                return;
+            }
+
+            pending.decrementAndGet();
+            try {
+                executor.execute(task);
+            } catch (Throwable t) {
+                logger.warn(String.format("unhandled exception when running timeout task %s", task), t);
+            }
+        }
+    }
+
+    private final String name;
+    private final long tickNanos;
+    private final List<Set<WheelTimeout>> wheel;
+    private final int mask;
+    private final Executor executor;
+    private final Queue<WheelTimeout> added = new ConcurrentLinkedQueue<>();
+    private final Queue<WheelTimeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pending = new AtomicLong();
+
+    private volatile Thread worker;
+    private volatile boolean stopped;
+    private long startTime;
+    private long tick;
+
+    /**
+     * @param ticksPerWheel rounded up to a power of 2
+     */
+    public HashedWheelTimer(String name, long tickDuration, TimeUnit unit, int ticksPerWheel, Executor executor) {
+        DebugUtils.Assert(tickDuration > 0, "tickDuration must be greater than 0");
+        DebugUtils.Assert(ticksPerWheel > 0 && ticksPerWheel <= 1 << 30, "ticksPerWheel must be in (0, 2^30]");
+
+        int size = 1;
+        while (size < ticksPerWheel) {
+            size <<= 1;
+        }
+
+        this.name = name;
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.mask = size - 1;
+        this.executor = executor;
+        this.wheel = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            // only accessed by the worker
+            wheel.add(new LinkedHashSet<>());
+        }
+    }
+
+    private synchronized void start() {
+        if (worker != null) {
+            return;
+        }
+
+        startTime = System.nanoTime();
+        Thread t = new Thread(this::run, name);
+        t.setDaemon(true);
+        t.start();
+        worker = t;
+    }
+
+    public void stop() {
+        stopped = true;
+        Thread t = worker;
+        if (t != null) {
+            t.interrupt();
+        }
+    }
+
+    /**
+     * @return number of timeouts neither expired nor cancelled
+     */
+    public long pending() {
+        return pending.get();
+    }
+
+    public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+        if (worker == null) {
+            start();
+        }
+
+        long deadline = System.nanoTime() + unit.toNanos(Math.max(delay, 0)) - startTime;
+        WheelTimeout timeout = new WheelTimeout(task, deadline);
+        pending.incrementAndGet();
+        added.add(timeout);
+        return timeout;
+    }
+
+    private void transferAdded() {
+        WheelTimeout timeout;
+        while ((timeout = added.poll()) != null) {
+            if (timeout.state.get() != INIT) {
+                continue;
+            }
+
+            long ticks = timeout.deadline / tickNanos;
+            timeout.remainingRounds = (ticks - tick) / wheel.size();
+            // a timeout already due goes to the current bucket
+            Set<WheelTimeout> bucket = wheel.get((int) (Math.max(ticks, tick) & mask));
+            timeout.bucket = bucket;
+            bucket.add(timeout);
+        }
+    }
+
+    private void removeCancelled() {
+        WheelTimeout timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    private void expire(Set<WheelTimeout> bucket, long deadline) {
+        for (Iterator<WheelTimeout> it = bucket.iterator(); it.hasNext(); ) {
+            WheelTimeout timeout = it.next();
+            if (timeout.remainingRounds <= 0 && timeout.deadline <= deadline) {
+                it.remove();
+                timeout.expire();
+            } else if (timeout.state.get() == CANCELLED) {
+                it.remove();
+            } else {
+                timeout.remainingRounds--;
+            }
+        }
+    }
+
+    private void run() {
+        while (!stopped) {
+            long deadline = tickNanos * (tick + 1);
+            long sleepNanos = deadline - (System.nanoTime() - startTime);
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    continue;
+                }
+            }
+
+            removeCancelled();
+            transferAdded();
+            expire(wheel.get((int) (tick & mask)), deadline);
+            tick++;
+        }
+    }
+}
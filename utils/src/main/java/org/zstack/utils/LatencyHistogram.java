@@ -0,0 +1,112 @@
+package org.zstack.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * a histogram of non-negative values recorded without locks, e.g. latencies in nanoseconds.
+ *
+ * values are counted in log-linear buckets like HdrHistogram: every power of 2 is split
+ * into 32 sub-buckets, so a percentile is within about 3% of the recorded value while
+ * the histogram takes a fixed array of 1888 counters for the whole long range.
+ *
+ * reads are not atomic with concurrent records, a percentile may miss values
+ * being recorded.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exp - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    /**
+     * @return the largest value counted in the bucket
+     */
+    static long highestValueOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+
+        int shift = index / SUB_BUCKETS - 1;
+        long sub = SUB_BUCKETS + index % SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    public void record(long value) {
+        value = Math.max(value, 0);
+        counts.incrementAndGet(indexOf(value));
+        count.increment();
+        total.add(value);
+
+        long m = max.get();
+        while (value > m && !max.compareAndSet(m, value)) {
+            m = max.get();
+        }
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotal() {
+        return total.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getMean() {
+        long c = count.sum();
+        return c == 0 ? 0 : total.sum() / c;
+    }
+
+    /**
+     * @param percentile in (0, 100]
+     * @return the value that the percentile of recorded values are less than or equal to,
+     * 0 if nothing recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        DebugUtils.Assert(percentile > 0 && percentile <= 100, "percentile must be in (0, 100]");
+
+        long c = count.sum();
+        if (c == 0) {
+            return 0;
+        }
+
+        long target = Math.max((long) Math.ceil(percentile / 100 * c), 1);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestValueOf(i), getMax());
+            }
+        }
+
+        return getMax();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        total.reset();
+        max.set(0);
+    }
+}
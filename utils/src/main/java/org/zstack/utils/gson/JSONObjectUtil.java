@@ -4,6 +4,7 @@ import com.google.gson.*;
 import com.google.gson.reflect.TypeToken;
 import org.json.JSONArray;
 
+import java.io.Reader;
 import java.lang.reflect.Type;
 import java.util.Collection;
 import java.util.LinkedHashMap;
@@ -56,6 +57,10 @@ public class JSONObjectUtil {
         return gson.fromJson(content, clazz);
     }
 
+    public static <T> T toObject(Reader reader, Class<T> clazz){
+        return gson.fromJson(reader, clazz);
+    }
+
     public static <T> List<T> toList(String content, Type type){
         return gson.fromJson(content, type);
     }
@@ -9,8 +9,18 @@ import org.apache.commons.lang.builder.HashCodeBuilder;
  * To change this template use File | Settings | File Templates.
  */
 public class ApacheHash implements HashFunction {
+    // the initial value and the multiplier of HashCodeBuilder()
+    private static final int INITIAL = 17;
+    private static final int MULTIPLIER = 37;
+
     @Override
     public int hash(Object obj) {
-        return new HashCodeBuilder().append(obj).hashCode();
+        if (obj == null || obj.getClass().isArray()) {
+            return new HashCodeBuilder().append(obj).hashCode();
+        }
+
+        // same as new HashCodeBuilder().append(obj).hashCode() without allocating the builder,
+        // the value must not change, all management nodes have to agree on the ring
+        return INITIAL * MULTIPLIER + obj.hashCode();
     }
 }
@@ -5,12 +5,48 @@ import org.zstack.utils.logging.CLogger;
 
 import java.util.*;
 
+/**
+ * the ring is an immutable snapshot of sorted arrays, swapped as a whole on membership
+ * change, so get() takes no lock and allocates nothing. add()/remove() are rare and
+ * serialized by the lock of the mutable circle the snapshot is built from.
+ */
 public class ConsistentHash<T> {
     private final CLogger logger = Utils.getLogger(ConsistentHash.class);
     private final HashFunction hashFunction;
     private final int numberOfReplicas;
-    private final SortedMap<Integer, T> circle = Collections.synchronizedSortedMap(new TreeMap<Integer, T>());
-    private final Set<T> nodes = Collections.synchronizedSet(new HashSet<T>());
+    private final TreeMap<Integer, T> circle = new TreeMap<>();
+    private final Set<T> nodes = new HashSet<>();
+    private volatile Ring<T> ring = new Ring<>(new int[0], new Object[0], Collections.emptySet());
+
+    private static class Ring<T> {
+        final int[] hashes;
+        final Object[] owners;
+        final Set<T> nodes;
+
+        Ring(int[] hashes, Object[] owners, Set<T> nodes) {
+            this.hashes = hashes;
+            this.owners = owners;
+            this.nodes = nodes;
+        }
+
+        @SuppressWarnings("unchecked")
+        T get(int hash) {
+            if (hashes.length == 0) {
+                return null;
+            }
+
+            int idx = Arrays.binarySearch(hashes, hash);
+            if (idx < 0) {
+                // the first virtual node clockwise, wrap around to the beginning
+                idx = -idx - 1;
+                if (idx == hashes.length) {
+                    idx = 0;
+                }
+            }
+
+            return (T) owners[idx];
+        }
+    }
 
     public ConsistentHash(HashFunction hashFunction, int numberOfReplicas,
                           Collection<T> nodes) {
@@ -22,37 +58,60 @@ public class ConsistentHash<T> {
         }
     }
 
+    // must be called with the circle locked
+    private void publish() {
+        int[] hashes = new int[circle.size()];
+        Object[] owners = new Object[circle.size()];
+        int i = 0;
+        for (Map.Entry<Integer, T> e : circle.entrySet()) {
+            hashes[i] = e.getKey();
+            owners[i] = e.getValue();
+            i++;
+        }
+
+        ring = new Ring<>(hashes, owners, Collections.unmodifiableSet(new HashSet<>(nodes)));
+    }
+
     public Set<T> getNodes() {
-        return nodes;
+        return ring.nodes;
     }
 
     public void add(T node) {
-        nodes.add(node);
+        synchronized (circle) {
+            nodes.add(node);
 
-        for (int i = 0; i < numberOfReplicas; i++) {
-            String nodeName = node.toString() + i;
-            circle.put(hashFunction.hash(nodeName), node);
+            for (int i = 0; i < numberOfReplicas; i++) {
+                String nodeName = node.toString() + i;
+                circle.put(hashFunction.hash(nodeName), node);
+            }
+
+            publish();
+            logger.debug(String.format("after adding, consistent hash circle has management nodes%s, %s virtual nodes now",
+                    nodes, circle.size()));
         }
-        logger.debug(String.format("after adding, consistent hash circle has management nodes%s, %s virtual nodes now",
-                nodes, circle.size()));
     }
 
     public void remove(T node) {
-        nodes.remove(node);
-        logger.debug(String.format("the consistent hash ring currently has nodes%s", nodes));
+        synchronized (circle) {
+            nodes.remove(node);
+            logger.debug(String.format("the consistent hash ring currently has nodes%s", nodes));
 
-        for (int i = 0; i < numberOfReplicas; i++) {
-            String nodeName = node.toString() + i;
-            circle.remove(hashFunction.hash(nodeName));
+            for (int i = 0; i < numberOfReplicas; i++) {
+                String nodeName = node.toString() + i;
+                circle.remove(hashFunction.hash(nodeName));
+            }
+
+            publish();
+            logger.debug(String.format("after removing, consistent hash circle has management nodes%s, %s virtual nodes now",
+                    nodes, circle.size()));
         }
-        logger.debug(String.format("after removing, consistent hash circle has management nodes%s, %s virtual nodes now",
-                nodes, circle.size()));
     }
 
     public boolean hasNode(T node) {
+        int[] hashes = ring.hashes;
         for (int i = 0; i < numberOfReplicas; i++) {
             String nodeName = node.toString() + i;
-            if (circle.containsKey(hashFunction.hash(nodeName))) {
+            if (Arrays.binarySearch(hashes, hashFunction.hash(nodeName)) >= 0) {
                 return true;
             }
         }
@@ -61,14 +120,6 @@ public class ConsistentHash<T> {
     }
 
     public T get(Object key) {
-        if (circle.isEmpty()) {
-            return null;
-        }
-        int hash = hashFunction.hash(key);
-        if (!circle.containsKey(hash)) {
-            SortedMap<Integer, T> tailMap = circle.tailMap(hash);
-            hash = tailMap.isEmpty() ? circle.firstKey() : tailMap.firstKey();
-        }
-        return circle.get(hash);
+        return ring.get(hashFunction.hash(key));
     }
 }
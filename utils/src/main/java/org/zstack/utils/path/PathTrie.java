@@ -0,0 +1,156 @@
+package org.zstack.utils.path;
+
+import java.util.*;
+
+/**
+ * a segment trie of URL patterns like /v1/vm-instances/{uuid}/actions.
+ *
+ * a segment of a pattern is either a literal or a variable {name} matching
+ * any single non-empty segment, a path is matched in time proportional to its
+ * depth instead of trying every pattern. When both a literal and a variable
+ * segment match, the literal one is preferred, the variable one is tried if
+ * the rest of the path doesn't match under the literal one.
+ *
+ * as AntPathMatcher, empty segments are ignored and a path ending with '/'
+ * doesn't match a pattern not ending with '/'.
+ *
+ * patterns must all be added before matching, the trie is not thread safe for
+ * adding.
+ */
+public class PathTrie<T> {
+    private static final String SEPARATOR = "/";
+
+    private static class Node<T> {
+        Map<String, Node<T>> literals;
+        Node<T> variable;
+        String pattern;
+        T value;
+    }
+
+    public static class Match<T> {
+        private final String pattern;
+        private final T value;
+        private final List<String> variables;
+
+        Match(String pattern, T value, List<String> variables) {
+            this.pattern = pattern;
+            this.value = value;
+            this.variables = variables;
+        }
+
+        public String getPattern() {
+            return pattern;
+        }
+
+        public T getValue() {
+            return value;
+        }
+
+        /**
+         * values of variable segments, in the order they appear in the pattern
+         */
+        public List<String> getVariables() {
+            return variables;
+        }
+
+        public Map<String, String> getVariables(List<String> names) {
+            Map<String, String> ret = new LinkedHashMap<>();
+            for (int i = 0; i < names.size() && i < variables.size(); i++) {
+                ret.put(names.get(i), variables.get(i));
+            }
+            return ret;
+        }
+    }
+
+    private final Node<T> root = new Node<>();
+    private int size;
+
+    private static String[] split(String path) {
+        return Arrays.stream(path.split(SEPARATOR)).filter(s -> !s.isEmpty()).toArray(String[]::new);
+    }
+
+    private static boolean isVariable(String segment) {
+        return segment.startsWith("{") && segment.endsWith("}");
+    }
+
+    public static List<String> getVariableNames(String pattern) {
+        List<String> names = new ArrayList<>();
+        for (String segment : split(pattern)) {
+            if (isVariable(segment)) {
+                names.add(segment.substring(1, segment.length() - 1));
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @return the value previously added with an equivalent pattern, patterns only
+     * differing in variable names are equivalent
+     */
+    public T add(String pattern, T value) {
+        Node<T> node = root;
+        for (String segment : split(pattern)) {
+            if (isVariable(segment)) {
+                if (node.variable == null) {
+                    node.variable = new Node<>();
+                }
+                node = node.variable;
+            } else {
+                if (node.literals == null) {
+                    node.literals = new HashMap<>();
+                }
+                node = node.literals.computeIfAbsent(segment, k -> new Node<>());
+            }
+        }
+
+        T old = node.value;
+        if (node.pattern == null) {
+            size++;
+        }
+        node.pattern = pattern;
+        node.value = value;
+        return old;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Match<T> match(String path) {
+        if (path == null || !path.startsWith(SEPARATOR) || (path.length() > 1 && path.endsWith(SEPARATOR))) {
+            return null;
+        }
+
+        String[] segments = split(path);
+        String[] variables = new String[segments.length];
+        return match(root, segments, 0, variables, 0);
+    }
+
+    private Match<T> match(Node<T> node, String[] segments, int index, String[] variables, int varNum) {
+        if (index == segments.length) {
+            if (node.pattern == null) {
+                return null;
+            }
+
+            return new Match<>(node.pattern, node.value, Arrays.asList(Arrays.copyOf(variables, varNum)));
+        }
+
+        String segment = segments[index];
+        if (node.literals != null) {
+            Node<T> child = node.literals.get(segment);
+            if (child != null) {
+                Match<T> m = match(child, segments, index + 1, variables, varNum);
+                if (m != null) {
+                    return m;
+                }
+            }
+        }
+
+        if (node.variable != null) {
+            variables[varNum] = segment;
+            return match(node.variable, segments, index + 1, variables, varNum + 1);
+        }
+
+        return null;
+    }
+}
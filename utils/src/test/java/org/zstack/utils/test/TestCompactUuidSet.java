@@ -0,0 +1,39 @@
+package org.zstack.utils.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.zstack.utils.CompactUuidSet;
+
+import java.util.*;
+
+public class TestCompactUuidSet {
+    @Test
+    public void testContains() {
+        List<String> uuids = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            uuids.add(UUID.randomUUID().toString().replace("-", ""));
+        }
+        uuids.add("ffffffffffffffffffffffffffffffff");
+        uuids.add("00000000000000000000000000000000");
+        uuids.add("not-a-zstack-uuid");
+        uuids.add("8A2E7A2B1D9F4C6E9B3A2F1E0D4C5B6A");
+        uuids.add(uuids.get(0));
+
+        CompactUuidSet set = new CompactUuidSet(uuids);
+        Assert.assertEquals(1004, set.size());
+        uuids.forEach(uuid -> Assert.assertTrue(uuid, set.contains(uuid)));
+
+        Assert.assertFalse(set.contains(null));
+        Assert.assertFalse(set.contains("8a2e7a2b1d9f4c6e9b3a2f1e0d4c5b6a"));
+        Assert.assertFalse(set.contains(UUID.randomUUID().toString().replace("-", "")));
+        Assert.assertEquals(new HashSet<>(uuids), new HashSet<>(set.toList()));
+    }
+
+    @Test
+    public void testEmpty() {
+        CompactUuidSet set = new CompactUuidSet(Collections.emptyList());
+        Assert.assertTrue(set.isEmpty());
+        Assert.assertFalse(set.contains("ffffffffffffffffffffffffffffffff"));
+        Assert.assertTrue(set.toList().isEmpty());
+    }
+}
@@ -22,6 +22,51 @@ public class TestConsistentHash {
     public void test() {
         testNodeHash();
         testNodeAdd();
+        testSameAsSortedCircle();
+    }
+
+    private void testSameAsSortedCircle() {
+        ApacheHash hashFunction = new ApacheHash();
+        List<String> nodes = new ArrayList<>();
+        for (int i=0; i<3; i++) {
+            nodes.add(uuid());
+        }
+
+        ConsistentHash<String> chash = new ConsistentHash<>(hashFunction, 500, nodes);
+        TreeMap<Integer, String> circle = new TreeMap<>();
+        for (String node : nodes) {
+            for (int i=0; i<500; i++) {
+                circle.put(hashFunction.hash(node + i), node);
+            }
+        }
+
+        for (int i=0; i<100000; i++) {
+            String key = uuid();
+            Map.Entry<Integer, String> e = circle.ceilingEntry(hashFunction.hash(key));
+            String expected = e == null ? circle.firstEntry().getValue() : e.getValue();
+            assert expected.equals(chash.get(key));
+        }
+
+        // a virtual node's hash maps to the node itself
+        Map.Entry<Integer, String> first = circle.firstEntry();
+        assert first.getValue().equals(chash.get(new Object() {
+            @Override
+            public int hashCode() {
+                return first.getKey() - 17 * 37;
+            }
+        }));
+
+        String removed = nodes.get(0);
+        chash.remove(removed);
+        assert !chash.hasNode(removed);
+        assert !chash.getNodes().contains(removed);
+        for (int i=0; i<10000; i++) {
+            assert !removed.equals(chash.get(uuid()));
+        }
+
+        chash.remove(nodes.get(1));
+        chash.remove(nodes.get(2));
+        assert chash.get(uuid()) == null;
     }
 
     private void testNodeHash() {
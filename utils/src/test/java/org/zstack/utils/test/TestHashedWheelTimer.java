@@ -0,0 +1,65 @@
+package org.zstack.utils.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.zstack.utils.HashedWheelTimer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestHashedWheelTimer {
+    @Test
+    public void testExpireAndCancel() throws InterruptedException {
+        HashedWheelTimer timer = new HashedWheelTimer("test-wheel", 10, TimeUnit.MILLISECONDS, 8, Runnable::run);
+        try {
+            int num = 100;
+            CountDownLatch latch = new CountDownLatch(num / 2);
+            AtomicInteger expired = new AtomicInteger();
+            List<HashedWheelTimer.Timeout> timeouts = new ArrayList<>();
+            for (int i = 0; i < num; i++) {
+                // delays span several rounds of the 8-bucket wheel
+                timeouts.add(timer.newTimeout(() -> {
+                    expired.incrementAndGet();
+                    latch.countDown();
+                }, 20 + i * 3, TimeUnit.MILLISECONDS));
+            }
+
+            for (int i = 0; i < num; i += 2) {
+                Assert.assertTrue(timeouts.get(i).cancel());
+                Assert.assertFalse(timeouts.get(i).cancel());
+            }
+
+            Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+            TimeUnit.MILLISECONDS.sleep(100);
+            Assert.assertEquals(num / 2, expired.get());
+            Assert.assertEquals(0, timer.pending());
+            for (int i = 0; i < num; i++) {
+                Assert.assertEquals(i % 2 == 1, timeouts.get(i).isExpired());
+            }
+        } finally {
+            timer.stop();
+        }
+    }
+
+    @Test
+    public void testNotExpireBeforeDeadline() throws InterruptedException {
+        HashedWheelTimer timer = new HashedWheelTimer("test-wheel", 10, TimeUnit.MILLISECONDS, 4, Runnable::run);
+        try {
+            CountDownLatch latch = new CountDownLatch(1);
+            long start = System.nanoTime();
+            long[] elapsed = new long[1];
+            timer.newTimeout(() -> {
+                elapsed[0] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                latch.countDown();
+            }, 200, TimeUnit.MILLISECONDS);
+
+            Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+            Assert.assertTrue(String.format("expired after %sms", elapsed[0]), elapsed[0] >= 200);
+        } finally {
+            timer.stop();
+        }
+    }
+}
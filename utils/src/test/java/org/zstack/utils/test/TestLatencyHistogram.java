@@ -0,0 +1,66 @@
+package org.zstack.utils.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.zstack.utils.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestLatencyHistogram {
+    private static void assertNear(long expected, long actual) {
+        Assert.assertTrue(String.format("expected %s but got %s", expected, actual),
+                Math.abs(actual - expected) <= Math.max(expected / 32, 1));
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram h = new LatencyHistogram();
+        Assert.assertEquals(0, h.getValueAtPercentile(99));
+
+        for (long i = 1; i <= 100000; i++) {
+            h.record(i * 1000);
+        }
+
+        Assert.assertEquals(100000, h.getCount());
+        Assert.assertEquals(100000000L, h.getMax());
+        Assert.assertEquals(50000500L, h.getMean());
+        assertNear(50000000L, h.getValueAtPercentile(50));
+        assertNear(90000000L, h.getValueAtPercentile(90));
+        assertNear(99000000L, h.getValueAtPercentile(99));
+        Assert.assertEquals(100000000L, h.getValueAtPercentile(100));
+
+        h.record(-1);
+        Assert.assertEquals(0, h.getValueAtPercentile(0.0001));
+        h.record(Long.MAX_VALUE);
+        Assert.assertEquals(Long.MAX_VALUE, h.getValueAtPercentile(100));
+
+        h.reset();
+        Assert.assertEquals(0, h.getCount());
+        Assert.assertEquals(0, h.getMax());
+    }
+
+    @Test
+    public void testConcurrentRecord() throws InterruptedException {
+        LatencyHistogram h = new LatencyHistogram();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 100000; i++) {
+                    h.record(i % 1000);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        Assert.assertEquals(400000, h.getCount());
+        Assert.assertEquals(999, h.getMax());
+        Assert.assertEquals(999, h.getValueAtPercentile(100));
+        assertNear(499, h.getValueAtPercentile(50));
+    }
+}
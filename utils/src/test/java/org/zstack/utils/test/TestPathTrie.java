@@ -0,0 +1,97 @@
+package org.zstack.utils.test;
+
+import org.junit.Test;
+import org.springframework.util.AntPathMatcher;
+import org.zstack.utils.path.PathTrie;
+
+import java.util.*;
+
+public class TestPathTrie {
+    private static final List<String> patterns = Arrays.asList(
+            "/v1/vm-instances",
+            "/v1/vm-instances/{0}",
+            "/v1/vm-instances/{0}/actions",
+            "/v1/vm-instances/{0}/volumes/{1}",
+            "/v1/vm-instances/candidate-zones",
+            "/v1/vm-instances/{0}/candidate-zones",
+            "/v1/images/{0}/backup-storage/{1}",
+            "/v1/images/backup-storage/{0}/actions",
+            "/v1/zql"
+    );
+
+    private PathTrie<String> build() {
+        PathTrie<String> trie = new PathTrie<>();
+        patterns.forEach(p -> trie.add(p, p));
+        return trie;
+    }
+
+    @Test
+    public void testSameAsAntPathMatcher() {
+        PathTrie<String> trie = build();
+        AntPathMatcher matcher = new AntPathMatcher();
+
+        List<String> paths = Arrays.asList(
+                "/v1/vm-instances",
+                "/v1/vm-instances/",
+                "/v1/vm-instances/0f3a",
+                "/v1/vm-instances/0f3a/actions",
+                "/v1/vm-instances//0f3a/actions",
+                "/v1/vm-instances/0f3a/volumes/9c1e",
+                "/v1/vm-instances/0f3a/volumes",
+                "/v1/vm-instances/0f3a/actions/more",
+                "/v1/images/backup-storage/3b1c",
+                "/v1/images/3b1c/backup-storage/4d2e",
+                "/v1/zql",
+                "/v2/zql",
+                "v1/zql",
+                "/"
+        );
+
+        for (String path : paths) {
+            PathTrie.Match<String> m = trie.match(path);
+            Set<String> expected = new HashSet<>();
+            patterns.stream().filter(p -> matcher.match(p, path)).forEach(expected::add);
+
+            if (expected.isEmpty()) {
+                assert m == null : path;
+                continue;
+            }
+
+            assert m != null : path;
+            assert expected.contains(m.getPattern()) : path;
+            Map<String, String> vars = matcher.extractUriTemplateVariables(m.getPattern(), path);
+            assert vars.equals(m.getVariables(PathTrie.getVariableNames(m.getPattern()))) : path;
+        }
+    }
+
+    @Test
+    public void testLiteralPreferred() {
+        PathTrie<String> trie = build();
+
+        assert trie.match("/v1/vm-instances/candidate-zones").getPattern().equals("/v1/vm-instances/candidate-zones");
+        // the literal branch doesn't match the rest, backtrack to the variable one
+        PathTrie.Match<String> m = trie.match("/v1/vm-instances/candidate-zones/actions");
+        assert m.getPattern().equals("/v1/vm-instances/{0}/actions");
+        assert m.getVariables().equals(Collections.singletonList("candidate-zones"));
+
+        m = trie.match("/v1/images/backup-storage/3b1c/actions");
+        assert m.getPattern().equals("/v1/images/backup-storage/{0}/actions");
+        assert m.getVariables().equals(Collections.singletonList("3b1c"));
+    }
+
+    @Test
+    public void testVariableNames() {
+        PathTrie<String> trie = new PathTrie<>();
+        assert trie.add("/v1/vm-instances/{uuid}/volumes/{volumeUuid}", "a") == null;
+        // equivalent patterns share a node
+        assert "a".equals(trie.add("/v1/vm-instances/{vmUuid}/volumes/{uuid}", "b"));
+        assert trie.size() == 1;
+
+        List<String> names = PathTrie.getVariableNames("/v1/vm-instances/{uuid}/volumes/{volumeUuid}");
+        assert names.equals(Arrays.asList("uuid", "volumeUuid"));
+
+        Map<String, String> vars = trie.match("/v1/vm-instances/1/volumes/2").getVariables(names);
+        assert "1".equals(vars.get("uuid"));
+        assert "2".equals(vars.get("volumeUuid"));
+    }
+}